@@ -0,0 +1,30 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+
+/**
+ * The MilliData the benchmarks work with, sized by their number of entries
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * A document-like MilliMap: every entry is a small MilliMap of a string, a number, a flag and a short list
+     */
+    @Nonnull
+    static MilliMap document(int entries) {
+        MilliMap document = new MilliMap();
+        for (int i = 0; i < entries; i++) {
+            MilliList tags = new MilliList();
+            tags.append(new MilliValue("tag" + i));
+            tags.append(new MilliValue("tag" + (i + 1)));
+            MilliMap entry = new MilliMap("name", new MilliValue("entry-" + i)).append("count", new MilliValue(i)).append("enabled", new MilliValue(i % 2 == 0)).append("tags", tags);
+            document.append("e" + i, entry);
+        }
+        return document;
+    }
+}
@@ -0,0 +1,82 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The calls of EndToEndBenchmark against an embedded client, in memory or in a data directory.
+ * <p>
+ * Set against the numbers of EndToEndBenchmark, they show what is saved by not going through a connection at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class EmbeddedBenchmark {
+    @Param({"memory", "disk"})
+    public String storage;
+
+    @Param({"16"})
+    public int entries;
+
+    @Param({"100"})
+    public int files;
+
+    private Path directory;
+    private MilliDBClient client;
+    private MilliDBCollection collection;
+    private MilliDBDocument document;
+    private MilliData value;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (storage.equals("disk")) {
+            directory = Files.createTempDirectory("millidb-benchmark");
+            client = MilliDBClients.embedded(directory);
+        } else {
+            client = MilliDBClients.embedded();
+        }
+        if (client == null) throw new IllegalStateException("Failed to open the embedded client");
+        collection = client.getCollection("benchmark");
+        for (int i = 0; i < files; i++) collection.getDocument("document" + i + ".mll");
+        document = collection.getDocument("document.mll");
+        value = BenchmarkData.document(entries);
+        document.set("value", value);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        if (directory == null) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public MilliData get() {
+        return document.get("value");
+    }
+
+    @Benchmark
+    public void set() {
+        document.set("value", value);
+    }
+
+    @Benchmark
+    public List<MilliDBFile> getFiles() {
+        return collection.getFiles();
+    }
+}
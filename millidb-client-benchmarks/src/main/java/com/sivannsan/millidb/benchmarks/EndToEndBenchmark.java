@@ -0,0 +1,84 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole calls of a shared client against a FakeMilliDBServer over loopback, by codec and transport.
+ * <p>
+ * Throughput shows how many calls the client sustains with all benchmark threads, and sample time shows their latency percentiles.
+ * Since the stand-in server does almost nothing, the numbers are dominated by the client and the loopback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class EndToEndBenchmark {
+    @Param({"text", "binary"})
+    public String codec;
+
+    @Param({"socket", "eventLoop"})
+    public String transport;
+
+    @Param({"16"})
+    public int entries;
+
+    @Param({"100"})
+    public int files;
+
+    private FakeMilliDBServer server;
+    private MilliDBEventLoop eventLoop;
+    private MilliDBClient client;
+    private MilliDBCollection collection;
+    private MilliDBDocument document;
+    private MilliData value;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        server.addFiles("benchmark", files);
+        MilliDBClients.ConnectionConfig config = new MilliDBClients.ConnectionConfig();
+        if (codec.equals("text")) config.setCodecs(Collections.singletonList(MilliDBCodec.TEXT));
+        if (transport.equals("eventLoop")) {
+            eventLoop = new MilliDBEventLoop(1);
+            config.setEventLoop(eventLoop);
+        }
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", config);
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        collection = client.getCollection("benchmark");
+        document = collection.getDocument("document.mll");
+        value = BenchmarkData.document(entries);
+        document.set("value", value);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        if (eventLoop != null) eventLoop.close();
+        server.close();
+    }
+
+    @Benchmark
+    public MilliData get() {
+        return document.get("value");
+    }
+
+    @Benchmark
+    public void set() {
+        document.set("value", value);
+    }
+
+    @Benchmark
+    public List<MilliDBFile> getFiles() {
+        return collection.getFiles();
+    }
+}
@@ -0,0 +1,276 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.*;
+import com.sivannsan.millidb.MilliDBCodec;
+import com.sivannsan.millidb.MilliDBQuery;
+import com.sivannsan.millidb.MilliDBResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in of a MilliDBServer on the loopback interface, only as smart as the benchmarks need.
+ * <p>
+ * It speaks the line protocol, and switches to another codec if the client offers one it is given.
+ * Every user is accepted. Documents are kept as a flat map of their paths, and listings are set up front with #addFiles
+ * and #addCollections. GET_DOCUMENTS and GET_FILES_TREE ignore their filter, and a write chunk not at the end of its stream fails.
+ * Results are flushed once no more queries are waiting, so pipelined queries share their writes.
+ * With #setLatencyMillis, each result is written that much later, without holding up the queries after it.
+ */
+public final class FakeMilliDBServer implements AutoCloseable {
+    @Nonnull
+    private final ServerSocket serverSocket;
+    @Nonnull
+    private final List<MilliDBCodec> codecs;
+    private final Map<String, MilliData> values = new ConcurrentHashMap<>();
+    private final Map<String, MilliList> listings = new ConcurrentHashMap<>();
+    private final Map<Long, String> readStreams = new ConcurrentHashMap<>();
+    private final Map<Long, StringBuilder> writeStreams = new ConcurrentHashMap<>();
+    private final AtomicLong nextStreamID = new AtomicLong();
+    private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FakeMilliDBServer-delayed");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long latencyNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param codecs    the codecs that can be picked in the handshake besides the line protocol, in the order of preference
+     */
+    public FakeMilliDBServer(@Nonnull MilliDBCodec... codecs) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.codecs = Arrays.asList(codecs);
+        Thread thread = new Thread(this::acceptLoop, "FakeMilliDBServer-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Nonnull
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Makes GET_FILES of the collection list that many documents
+     */
+    public void addFiles(@Nonnull String collection, int documents) {
+        MilliList names = new MilliList();
+        for (int i = 0; i < documents; i++) names.append(new MilliValue("document" + i + ".mll"));
+        listings.put(collection, names);
+    }
+
+    /**
+     * Makes GET_FILES of the collection list that many more collections, each named collection + index
+     */
+    public void addCollections(@Nonnull String collection, int collections) {
+        MilliList names = listings.computeIfAbsent(collection, key -> new MilliList());
+        for (int i = 0; i < collections; i++) names.append(new MilliValue("collection" + i));
+    }
+
+    /**
+     * Delays the results of the queries after the handshake, as a network with that round trip time would.
+     * It applies to the connections made after it is set.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        delayed.shutdownNow();
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (!closed) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(socket), "FakeMilliDBServer-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(@Nonnull Socket socket) {
+        try (Socket ignored = socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            MilliDBCodec codec = MilliDBCodec.TEXT;
+            long latency = latencyNanos;
+            MilliDBQuery query;
+            while ((query = codec.readQuery(in)) != null) {
+                if (query.getFunction() == MilliDBQuery.Function.HAS_USER) {
+                    MilliDBCodec picked = pick(query.getMetadata());
+                    MilliData verification = picked == null ? new MilliValue(true) : new MilliMap("v", new MilliValue(true)).append("c", new MilliValue(picked.getName()));
+                    codec.writeResult(new MilliDBResult(query.getID(), true, verification), out);
+                    out.flush();
+                    if (picked != null) codec = picked;
+                    continue;
+                }
+                MilliDBResult result = execute(query);
+                if (latency > 0) {
+                    MilliDBCodec current = codec;
+                    //Results of the same delay are written in the order they are scheduled
+                    delayed.schedule(() -> writeLater(current, result, out), latency, TimeUnit.NANOSECONDS);
+                    continue;
+                }
+                codec.writeResult(result, out);
+                if (in.available() == 0) out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void writeLater(@Nonnull MilliDBCodec codec, @Nonnull MilliDBResult result, @Nonnull OutputStream out) {
+        try {
+            codec.writeResult(result, out);
+            out.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private MilliDBCodec pick(@Nonnull MilliData handshake) {
+        MilliList offered = handshake.asMilliMap(new MilliMap()).get("codecs").asMilliList(new MilliList());
+        for (MilliDBCodec codec : codecs) {
+            for (MilliData name : offered) if (name.asMilliValue(new MilliValue()).asString().equals(codec.getName())) return codec;
+        }
+        return null;
+    }
+
+    @Nonnull
+    private MilliDBResult execute(@Nonnull MilliDBQuery query) {
+        MilliData metadata = query.getMetadata();
+        switch (query.getFunction()) {
+            case GET_COLLECTION:
+            case GET_DOCUMENT:
+            case DELETE:
+                return new MilliDBResult(query.getID(), true, new MilliValue(true));
+            case GET:
+                return new MilliDBResult(query.getID(), true, values.getOrDefault(key(query.getPath(), metadata.asMilliValue(new MilliValue()).asString()), MilliNull.INSTANCE));
+            case GET_PATHS:
+                return new MilliDBResult(query.getID(), true, project(query.getPath(), metadata.asMilliList(new MilliList())));
+            case GET_DOCUMENTS: {
+                MilliList paths = metadata.asMilliMap(new MilliMap()).get("p").asMilliList(new MilliList());
+                MilliList documents = new MilliList();
+                for (MilliData name : listings.getOrDefault(query.getPath(), new MilliList())) {
+                    String document = query.getPath() + "/" + name.asMilliValue(new MilliValue()).asString();
+                    documents.append(new MilliMap("n", name).append("v", project(document, paths)));
+                }
+                return new MilliDBResult(query.getID(), true, documents);
+            }
+            case SET: {
+                MilliMap set = metadata.asMilliMap(new MilliMap());
+                values.put(key(query.getPath(), set.get("p").asMilliValue(new MilliValue()).asString()), set.get("v"));
+                return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+            }
+            case INCREMENT: {
+                MilliMap increment = metadata.asMilliMap(new MilliMap());
+                long delta = increment.get("d").asMilliValue(new MilliValue()).asInteger64();
+                MilliData after = values.compute(key(query.getPath(), increment.get("p").asMilliValue(new MilliValue()).asString()), (key, current) -> new MilliValue((current == null || current.isMilliNull() ? 0 : current.asMilliValue(new MilliValue()).asInteger64()) + delta));
+                return new MilliDBResult(query.getID(), true, after);
+            }
+            case GET_FILES:
+                return new MilliDBResult(query.getID(), true, listings.getOrDefault(query.getPath(), new MilliList()));
+            case GET_FILES_TREE: {
+                MilliList names = new MilliList();
+                listTree(query.getPath(), "", metadata.asMilliMap(new MilliMap()).get("d").asMilliValue(new MilliValue()).asInteger32(), names);
+                return new MilliDBResult(query.getID(), true, names);
+            }
+            case OPEN_STREAM: {
+                MilliMap open = metadata.asMilliMap(new MilliMap());
+                long id = nextStreamID.incrementAndGet();
+                if (open.get("m").asMilliValue(new MilliValue()).asString().equals("w")) {
+                    writeStreams.put(id, new StringBuilder());
+                    return new MilliDBResult(query.getID(), true, new MilliMap("s", new MilliValue(id)));
+                }
+                String text = values.getOrDefault(key(query.getPath(), open.get("p").asMilliValue(new MilliValue()).asString()), MilliNull.INSTANCE).toString();
+                readStreams.put(id, text);
+                return new MilliDBResult(query.getID(), true, new MilliMap("s", new MilliValue(id)).append("t", new MilliValue(text.length())));
+            }
+            case STREAM_CHUNK: {
+                MilliMap chunk = metadata.asMilliMap(new MilliMap());
+                long id = chunk.get("s").asMilliValue(new MilliValue()).asInteger64();
+                int offset = chunk.get("o").asMilliValue(new MilliValue()).asInteger32();
+                StringBuilder written = writeStreams.get(id);
+                if (written != null) {
+                    String data = chunk.get("d").asMilliValue(new MilliValue()).asString();
+                    synchronized (written) {
+                        //Like the engine, a chunk sent again is ignored and any other one must be at the end
+                        if (offset == written.length()) written.append(data);
+                        else if (offset < 0 || (long) offset + data.length() > written.length()) return MilliDBResult.failedResult(query.getID());
+                    }
+                    return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                }
+                String text = readStreams.get(id);
+                if (text == null) return MilliDBResult.failedResult(query.getID());
+                int start = Math.min(offset, text.length());
+                int end = (int) Math.min(text.length(), (long) start + chunk.get("l").asMilliValue(new MilliValue()).asInteger32());
+                if (end < text.length() && end - start > 1 && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+                return new MilliDBResult(query.getID(), true, new MilliValue(text.substring(start, end)));
+            }
+            case CLOSE_STREAM: {
+                MilliMap close = metadata.asMilliMap(new MilliMap());
+                long id = close.get("s").asMilliValue(new MilliValue()).asInteger64();
+                readStreams.remove(id);
+                StringBuilder written = writeStreams.remove(id);
+                if (written != null && close.get("c").asMilliValue(new MilliValue(false)).asBoolean()) {
+                    MilliData value = MilliData.Parser.parse(written.toString(), null);
+                    if (value == null) return MilliDBResult.failedResult(query.getID());
+                    values.put(key(query.getPath(), close.get("p").asMilliValue(new MilliValue()).asString()), value);
+                }
+                return new MilliDBResult(query.getID(), true, new MilliValue(true));
+            }
+            case BATCH: {
+                MilliList results = new MilliList();
+                for (MilliData subQuery : metadata.asMilliList(new MilliList())) results.append(execute(MilliDBQuery.Parser.parse(subQuery.asMilliMap(new MilliMap()))).toMilliMap());
+                return new MilliDBResult(query.getID(), true, results);
+            }
+            default:
+                return MilliDBResult.failedResult(query.getID());
+        }
+    }
+
+    private void listTree(@Nonnull String collection, @Nonnull String prefix, int depth, @Nonnull MilliList names) {
+        for (MilliData file : listings.getOrDefault(collection, new MilliList())) {
+            String name = file.asMilliValue(new MilliValue()).asString();
+            names.append(new MilliValue(prefix + name));
+            if (depth > 1 && !name.endsWith(".mll")) listTree(collection + "/" + name, prefix + name + "/", depth - 1, names);
+        }
+    }
+
+    @Nonnull
+    private MilliList project(@Nonnull String document, @Nonnull MilliList paths) {
+        MilliList projection = new MilliList();
+        for (MilliData path : paths) projection.append(values.getOrDefault(key(document, path.asMilliValue(new MilliValue()).asString()), MilliNull.INSTANCE));
+        return projection;
+    }
+
+    @Nonnull
+    private static String key(@Nonnull String document, @Nonnull String path) {
+        return document + '\u0000' + path;
+    }
+}
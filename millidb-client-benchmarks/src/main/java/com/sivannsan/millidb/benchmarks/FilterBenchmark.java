@@ -0,0 +1,64 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.MilliDBFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * The cost of turning a filter into the metadata of GET_FILES and back, by the size of its sub-data,
+ * and of evaluating a composed filter against a document once it is compiled, or compiling it for every document
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"1", "16", "256"})
+    public int entries;
+
+    private MilliDBFilter filter;
+    private MilliMap encoded;
+    private MilliMap document;
+    private MilliDBFilter composed;
+    private Predicate<MilliData> compiled;
+
+    @Setup
+    public void setUp() {
+        filter = MilliDBFilter.superOf(BenchmarkData.document(entries), 1);
+        encoded = filter.toMilliMap();
+        document = BenchmarkData.document(entries);
+        composed = MilliDBFilter.and(
+                MilliDBFilter.exists("e0.tags"),
+                MilliDBFilter.numberRange("e0.count", 0L, 100L),
+                MilliDBFilter.or(MilliDBFilter.prefix("e0.name", "entry-"), MilliDBFilter.in("e0.enabled", new MilliValue(true)))
+        );
+        compiled = composed.compile();
+    }
+
+    @Benchmark
+    public MilliMap toMilliMap() {
+        return filter.toMilliMap();
+    }
+
+    @Benchmark
+    public MilliDBFilter parse() {
+        return MilliDBFilter.Parser.parse(encoded);
+    }
+
+    @Benchmark
+    public boolean compiledTest() {
+        return compiled.test(document);
+    }
+
+    @Benchmark
+    public boolean compileAndTest() {
+        return composed.compile().test(document);
+    }
+}
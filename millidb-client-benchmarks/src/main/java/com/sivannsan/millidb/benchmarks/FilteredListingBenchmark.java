@@ -0,0 +1,60 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The documents of a collection of an embedded client whose count is in a range, a tenth of them,
+ * listed with a filter the engine compiles or read in full and filtered by the client
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilteredListingBenchmark {
+    @Param({"1000"})
+    public int files;
+
+    private MilliDBClient client;
+    private MilliDBCollection collection;
+    private MilliDBFilter filter;
+    private long max;
+
+    @Setup
+    public void setUp() {
+        client = MilliDBClients.embedded();
+        collection = client.getCollection("benchmark");
+        for (int i = 0; i < files; i++) collection.getDocument("document" + i + ".mll").set("count", new MilliValue(i));
+        max = files / 10 - 1;
+        filter = MilliDBFilter.numberRange("count", 0L, max);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public List<MilliDBFile> getFilesWithFilter() {
+        return collection.getFiles(filter);
+    }
+
+    @Benchmark
+    public List<MilliDBDocument> getDocumentsThenFilter() {
+        List<MilliDBDocument> matching = new ArrayList<>();
+        for (Map.Entry<MilliDBDocument, Map<String, MilliData>> entry : collection.getDocuments(null, "count").entrySet()) {
+            long count = entry.getValue().get("count").asMilliValue(new MilliValue()).asInteger64();
+            if (count >= 0 && count <= max) matching.add(entry.getKey());
+        }
+        return matching;
+    }
+}
@@ -0,0 +1,48 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A value read from a document that is got again by its collection and name on every call, against a FakeMilliDBServer over loopback,
+ * with the handles of the client kept or not
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandleCacheBenchmark {
+    @Param({"0", "60000"})
+    public long handleTtlMillis;
+
+    @Param({"16"})
+    public int entries;
+
+    private FakeMilliDBServer server;
+    private MilliDBClient client;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", new MilliDBClients.ConnectionConfig().setHandleTtlMillis(handleTtlMillis));
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        client.getCollection("benchmark").getDocument("document.mll").set("value", BenchmarkData.document(entries));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public MilliData getDocumentThenGet() {
+        return client.getCollection("benchmark").getDocument("document.mll").get("value");
+    }
+}
@@ -0,0 +1,54 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A counter kept in a document against a FakeMilliDBServer over loopback,
+ * incremented by the server in one query or read and written back by the client in two
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementBenchmark {
+    private FakeMilliDBServer server;
+    private MilliDBClient client;
+    private MilliDBDocument document;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", new MilliDBClients.ConnectionConfig());
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        document = client.getDocument("counter.mll");
+        document.set("count", new MilliValue(0));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long increment() {
+        return document.increment("count", 1);
+    }
+
+    /**
+     * Loses the updates of other threads in between, so it is only the cost of what increment replaces
+     */
+    @Benchmark
+    public long getThenSet() {
+        long count = document.get("count").asMilliValue(new MilliValue()).asInteger64() + 1;
+        document.set("count", new MilliValue(count));
+        return count;
+    }
+}
@@ -0,0 +1,33 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidb.MilliDBLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MilliDBLogger in a failure storm: the same warning logged from one place on every call, and a message of a disabled level.
+ * <p>
+ * The warnings are rate limited, so the console only gets one of them a second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggerBenchmark {
+    private long attempt;
+
+    @Benchmark
+    public void warning() {
+        long attempt = ++this.attempt;
+        MilliDBLogger.warning(() -> "The query " + attempt + " has failed, it is sent again!");
+    }
+
+    @Benchmark
+    public void disabledDebug() {
+        long attempt = ++this.attempt;
+        MilliDBLogger.debug(() -> "The query " + attempt + " has been sent!");
+    }
+}
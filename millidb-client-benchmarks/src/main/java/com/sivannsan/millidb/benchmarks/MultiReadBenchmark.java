@@ -0,0 +1,82 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of several paths of a document, and of a field of every document of a collection, against a FakeMilliDBServer over loopback.
+ * Each is done in one query and in the query per path or per document it replaces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiReadBenchmark {
+    @Param({"8"})
+    public int paths;
+
+    @Param({"100"})
+    public int files;
+
+    private FakeMilliDBServer server;
+    private MilliDBClient client;
+    private MilliDBCollection collection;
+    private MilliDBDocument document;
+    private String[] names;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        server.addFiles("benchmark", files);
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", new MilliDBClients.ConnectionConfig());
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        collection = client.getCollection("benchmark");
+        document = collection.getDocument("document.mll");
+        names = new String[paths];
+        for (int i = 0; i < paths; i++) {
+            names[i] = "p" + i;
+            document.set(names[i], new MilliValue(i));
+        }
+        for (int i = 0; i < files; i++) collection.getDocument("document" + i + ".mll").set("name", new MilliValue("document-" + i));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Map<String, MilliData> getPaths() {
+        return document.get(names);
+    }
+
+    @Benchmark
+    public List<MilliData> getPathsOneByOne() {
+        List<MilliData> values = new ArrayList<>(paths);
+        for (String name : names) values.add(document.get(name));
+        return values;
+    }
+
+    @Benchmark
+    public Map<MilliDBDocument, Map<String, MilliData>> getDocuments() {
+        return collection.getDocuments(null, "name");
+    }
+
+    @Benchmark
+    public List<MilliData> getFilesThenEachDocument() {
+        List<MilliData> values = new ArrayList<>(files);
+        for (MilliDBFile file : collection.getFiles()) values.add(file.asMilliDBDocument().get("name"));
+        return values;
+    }
+}
@@ -0,0 +1,55 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.MilliDBCodec;
+import com.sivannsan.millidb.MilliDBQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client side cost of turning a SET query into bytes, by the size of the value being set
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryEncodingBenchmark {
+    @Param({"1", "16", "256"})
+    public int entries;
+
+    private MilliDBQuery query;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setUp() {
+        query = new MilliDBQuery("benchmark/document.mll", MilliDBQuery.Function.SET, new MilliMap("p", new MilliValue("value")).append("v", BenchmarkData.document(entries)));
+    }
+
+    /**
+     * The line of the query as it was built before the codecs
+     */
+    @Benchmark
+    public String asMilliMap() {
+        return query.asMilliMap().toString();
+    }
+
+    @Benchmark
+    public int textCodec() throws IOException {
+        out.reset();
+        MilliDBCodec.TEXT.writeQuery(query, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int binaryCodec() throws IOException {
+        out.reset();
+        MilliDBCodec.BINARY.writeQuery(query, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,66 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidb.MilliDBCodec;
+import com.sivannsan.millidb.MilliDBResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client side cost of turning a received GET result into MilliData, by the size of the document
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultDecodingBenchmark {
+    @Param({"1", "16", "256"})
+    public int entries;
+
+    private String line;
+    private byte[] textFrame;
+    private byte[] binaryFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        MilliDBResult result = new MilliDBResult(1, true, BenchmarkData.document(entries));
+        line = result.toMilliMap().toString();
+        textFrame = encode(MilliDBCodec.TEXT, result);
+        binaryFrame = encode(MilliDBCodec.BINARY, result);
+    }
+
+    @Benchmark
+    public MilliData parserParse() {
+        return MilliDBResult.Parser.parse(line).getMetadata();
+    }
+
+    @Benchmark
+    public MilliData textCodec() throws IOException {
+        return MilliDBCodec.TEXT.readResult(new ByteArrayInputStream(textFrame)).getMetadata();
+    }
+
+    @Benchmark
+    public MilliData binaryCodec() throws IOException {
+        return MilliDBCodec.BINARY.readResult(new ByteArrayInputStream(binaryFrame)).getMetadata();
+    }
+
+    /**
+     * Only the ID and the success flag, as when a caller never reads the metadata
+     */
+    @Benchmark
+    public boolean binaryCodecWithoutMetadata() throws IOException {
+        return MilliDBCodec.BINARY.readResult(new ByteArrayInputStream(binaryFrame)).isSucceed();
+    }
+
+    private static byte[] encode(MilliDBCodec codec, MilliDBResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeResult(result, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,74 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A large value of a document on a FakeMilliDBServer over loopback, moved in one query or in chunks with openReader and openWriter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+    @Param({"16384"})
+    public int entries;
+
+    private FakeMilliDBServer server;
+    private MilliDBClient client;
+    private MilliDBDocument document;
+    private MilliData value;
+    private String text;
+    private final char[] buffer = new char[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", new MilliDBClients.ConnectionConfig());
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        document = client.getDocument("large.mll");
+        value = BenchmarkData.document(entries);
+        text = value.toString();
+        document.set("value", value);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public MilliData get() {
+        return document.get("value");
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long length = 0;
+        try (Reader reader = document.openReader("value")) {
+            for (int read; (read = reader.read(buffer)) != -1; ) length += read;
+        }
+        return length;
+    }
+
+    @Benchmark
+    public void set() {
+        document.set("value", value);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (Writer writer = document.openWriter("value")) {
+            for (int offset = 0; offset < text.length(); offset += buffer.length) writer.write(text, offset, Math.min(buffer.length, text.length() - offset));
+        }
+    }
+}
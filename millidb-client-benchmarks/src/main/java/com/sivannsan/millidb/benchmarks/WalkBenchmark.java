@@ -0,0 +1,86 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All the files of a subtree of a FakeMilliDBServer, whose results come after a round trip time, listed collection by collection,
+ * with MilliDBCollection#walk, or in one GET_FILES_TREE query.
+ * <p>
+ * The subtree is three levels deep: the collection and each collection of the first level have collections collections,
+ * and every collection has files documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalkBenchmark {
+    @Param({"0", "1"})
+    public long latencyMillis;
+
+    @Param({"10"})
+    public int collections;
+
+    @Param({"10"})
+    public int files;
+
+    @Param({"16"})
+    public int parallelism;
+
+    private FakeMilliDBServer server;
+    private MilliDBClient client;
+    private MilliDBCollection collection;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        server.setLatencyMillis(latencyMillis);
+        add("benchmark", 3);
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", new MilliDBClients.ConnectionConfig());
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        collection = client.getCollection("benchmark");
+    }
+
+    private void add(String path, int levels) {
+        server.addFiles(path, files);
+        if (levels == 1) return;
+        server.addCollections(path, collections);
+        for (int i = 0; i < collections; i++) add(path + "/collection" + i, levels - 1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int getFilesOfEachCollection() {
+        return count(collection);
+    }
+
+    private static int count(MilliDBCollection collection) {
+        int count = 0;
+        for (MilliDBFile file : collection.getFiles()) {
+            count++;
+            if (file.isMilliDBCollection()) count += count(file.asMilliDBCollection());
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long walk() {
+        return collection.walk(null, parallelism).count();
+    }
+
+    @Benchmark
+    public List<MilliDBFile> getFilesTree() {
+        return collection.getFiles(null, 3);
+    }
+}
@@ -0,0 +1,50 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time from a set of an embedded client until a watch of its document is told about it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatchBenchmark {
+    private final BlockingQueue<MilliDBChange> changes = new LinkedBlockingQueue<>();
+    private MilliDBClient client;
+    private MilliDBDocument document;
+    private MilliValue value;
+
+    @Setup
+    public void setUp() {
+        client = MilliDBClients.embedded();
+        document = client.getDocument("watched.mll");
+        value = new MilliValue(1);
+        client.watch("watched.mll", changes::add);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public MilliDBChange setThenChange() throws InterruptedException {
+        document.set("k", value);
+        return changes.take();
+    }
+
+    @Benchmark
+    public void set() {
+        document.set("k", value);
+        changes.clear();
+    }
+}
@@ -0,0 +1,66 @@
+package com.sivannsan.millidb.benchmarks;
+
+import com.sivannsan.millidata.MilliValue;
+import com.sivannsan.millidb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets of the same few paths against a FakeMilliDBServer over loopback, each sent on its own or through a MilliDBWriteBuffer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBufferBenchmark {
+    @Param({"8"})
+    public int paths;
+
+    @Param({"64"})
+    public int flushEntries;
+
+    @Param({"10"})
+    public long flushDelayMillis;
+
+    private FakeMilliDBServer server;
+    private MilliDBClient client;
+    private MilliDBWriteBuffer buffer;
+    private MilliDBDocument document;
+    private MilliDBDocument buffered;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeMilliDBServer(MilliDBCodec.BINARY);
+        client = MilliDBClients.connect(server.getHost(), server.getPort(), "benchmark", "benchmark", new MilliDBClients.ConnectionConfig());
+        if (client == null) throw new IllegalStateException("Failed to connect to the stand-in server");
+        buffer = new MilliDBWriteBuffer(flushEntries, 2 * flushEntries, flushDelayMillis);
+        document = client.getDocument("telemetry.mll");
+        buffered = MilliDBClients.withWriteBuffer(client, buffer).getDocument("telemetry.mll");
+        names = new String[paths];
+        for (int i = 0; i < paths; i++) names[i] = "metric" + i;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        buffer.close();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void set() {
+        document.set(names[next++ % paths], new MilliValue(next));
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> bufferedSet() {
+        return buffered.setAsync(names[next++ % paths], new MilliValue(next));
+    }
+}
@@ -0,0 +1,135 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The handler of MilliDBLogHandler#async. Its thread is started by the first message.
+ * Once closed, the messages are handed to the handler by the thread that publishes them.
+ */
+final class MilliDBAsyncLogHandler implements MilliDBLogHandler {
+    @Nonnull
+    private final MilliDBLogHandler handler;
+    private final BlockingQueue<Message> messages;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * Takes the thread out of its loop, it is never published
+     */
+    private final Message stop = new Message(MilliDBLogger.Level.DEBUG, "");
+    private final ReentrantLock closeLock = new ReentrantLock();
+    private volatile Thread thread;
+    private volatile Thread shutdownHook;
+    private volatile boolean closed;
+
+    MilliDBAsyncLogHandler(@Nonnull MilliDBLogHandler handler, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.handler = Validate.nonnull(handler);
+        this.messages = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public boolean isLoggable(@Nonnull MilliDBLogger.Level level) {
+        return handler.isLoggable(level);
+    }
+
+    @Override
+    public void publish(@Nonnull MilliDBLogger.Level level, @Nonnull String message) {
+        if (closed) {
+            publish(new Message(level, message));
+            return;
+        }
+        if (!started.get() && started.compareAndSet(false, true)) start();
+        if (!messages.offer(new Message(level, message))) dropped.incrementAndGet();
+        //Closed meanwhile, after the buffer may have been drained for the last time
+        if (closed) drain();
+    }
+
+    /**
+     * Waits for the thread to publish the messages in the buffer, and closes the handler
+     */
+    @Override
+    public void close() {
+        closeLock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            Thread thread = this.thread;
+            if (thread != null) {
+                try {
+                    messages.put(stop);
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException ignored) {
+                    //Already shutting down
+                }
+            }
+            //The ones offered while it was being closed
+            drain();
+            handler.close();
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    private void start() {
+        Thread thread = new Thread(this::run, "MilliDBLogger");
+        thread.setDaemon(true);
+        Thread shutdownHook = new Thread(this::drain, "MilliDBLogger-shutdown");
+        closeLock.lock();
+        try {
+            if (closed) return;
+            this.thread = thread;
+            this.shutdownHook = shutdownHook;
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    private void run() {
+        try {
+            Message message;
+            while ((message = messages.take()) != stop) publish(message);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void drain() {
+        Message message;
+        while ((message = messages.poll()) != null) if (message != stop) publish(message);
+    }
+
+    private void publish(@Nonnull Message message) {
+        try {
+            handler.publish(message.level, message.text);
+            long dropped = this.dropped.getAndSet(0);
+            if (dropped > 0) handler.publish(MilliDBLogger.Level.WARNING, dropped + " log message" + (dropped > 1 ? "s have" : " has") + " been dropped");
+        } catch (RuntimeException ignored) {
+            //A failing handler must not stop the thread
+        }
+    }
+
+    private static final class Message {
+        @Nonnull
+        private final MilliDBLogger.Level level;
+        @Nonnull
+        private final String text;
+
+        private Message(@Nonnull MilliDBLogger.Level level, @Nonnull String text) {
+            this.level = level;
+            this.text = text;
+        }
+    }
+}
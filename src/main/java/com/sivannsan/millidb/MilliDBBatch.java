@@ -0,0 +1,141 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Packs many operations into one query, so that they cost a single round trip.
+ * <p>
+ * Each operation succeeds or fails on its own. The results are returned in the order the operations were added.
+ */
+public final class MilliDBBatch {
+    @Nonnull
+    private final MilliDBClient client;
+    private final List<MilliDBQuery> queries = new ArrayList<>();
+
+    MilliDBBatch(@Nonnull MilliDBClient client) {
+        this.client = Validate.nonnull(client);
+    }
+
+    /**
+     * The same as MilliDBDocument#get
+     */
+    @Nonnull
+    public MilliDBBatch get(@Nonnull MilliDBDocument document, @Nonnull String path) {
+        return add(new MilliDBQuery(document.getPath(), MilliDBQuery.Function.GET, new MilliValue(Validate.nonnull(path))));
+    }
+
+    /**
+     * The same as MilliDBDocument#set
+     */
+    @Nonnull
+    public MilliDBBatch set(@Nonnull MilliDBDocument document, @Nonnull String path, @Nonnull MilliData value) {
+        return add(new MilliDBQuery(document.getPath(), MilliDBQuery.Function.SET, new MilliMap().append("p", new MilliValue(Validate.nonnull(path))).append("v", Validate.nonnull(value))));
+    }
+
+    /**
+     * The same as MilliDBCollection#getFiles, the result metadata is the list of file names
+     */
+    @Nonnull
+    public MilliDBBatch getFiles(@Nonnull MilliDBCollection collection, MilliDBFilter filter) {
+        return add(new MilliDBQuery(collection.getPath(), MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap()));
+    }
+
+    /**
+     * The same as MilliDBCollection#getDocument, the result metadata tells if it is permitted
+     */
+    @Nonnull
+    public MilliDBBatch getDocument(@Nonnull MilliDBCollection collection, @Nonnull String name) {
+        if (!Validate.nonnull(name).endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBDocument name!");
+        return add(new MilliDBQuery(collection.getPath(), MilliDBQuery.Function.GET_DOCUMENT, new MilliValue(name)));
+    }
+
+    /**
+     * The same as MilliDBCollection#getCollection, the result metadata tells if it is permitted
+     */
+    @Nonnull
+    public MilliDBBatch getCollection(@Nonnull MilliDBCollection collection, @Nonnull String name) {
+        if (Validate.nonnull(name).endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBCollection name!");
+        return add(new MilliDBQuery(collection.getPath(), MilliDBQuery.Function.GET_COLLECTION, new MilliValue(name)));
+    }
+
+    /**
+     * The same as MilliDBFile#delete
+     */
+    @Nonnull
+    public MilliDBBatch delete(@Nonnull MilliDBFile file) {
+        return add(new MilliDBQuery(file.getPath(), MilliDBQuery.Function.DELETE, new MilliValue(file.getName())));
+    }
+
+    @Nonnull
+    public MilliDBBatch add(@Nonnull MilliDBQuery query) {
+        if (Validate.nonnull(query).getFunction() == MilliDBQuery.Function.BATCH) throw new IllegalArgumentException("A batch can not be nested");
+        queries.add(query);
+        return this;
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * Sends all operations in one query and waits for their results
+     *
+     * @return  the results in the order of the operations; the failed ones are failed results
+     */
+    @Nonnull
+    public List<MilliDBResult> execute() {
+        return toResults(client.execute(toQuery()));
+    }
+
+    /**
+     * The same as #execute, but does not wait for the results
+     */
+    @Nonnull
+    public CompletableFuture<List<MilliDBResult>> executeAsync() {
+        return client.executeAsync(toQuery()).thenApply(this::toResults);
+    }
+
+    @Nonnull
+    private MilliDBQuery toQuery() {
+        MilliList list = new MilliList();
+        for (MilliDBQuery query : queries) list.append(query.asMilliMap());
+        return new MilliDBQuery("", MilliDBQuery.Function.BATCH, list);
+    }
+
+    /**
+     * @return  the sub-results of the batch result in the order of the operations, failed results for the operations it has none for
+     */
+    @Nonnull
+    List<MilliDBResult> toResults(@Nonnull MilliDBResult result) {
+        Map<Long, MilliDBResult> received = new HashMap<>();
+        if (result.isSucceed()) {
+            for (MilliData data : result.getMetadata().asMilliList(new MilliList())) {
+                try {
+                    MilliDBResult subResult = MilliDBResult.Parser.parse(data.asMilliMap(new MilliMap()));
+                    received.put(subResult.getID(), subResult);
+                } catch (MilliDBResultParsedException e) {
+                    //Its operation can not be told, so it is failed with the others that have no result
+                    MilliDBLogger.warning(() -> "A result of the batch " + result.getID() + " could not be parsed: " + data);
+                }
+            }
+        }
+        List<MilliDBResult> results = new ArrayList<>();
+        for (MilliDBQuery query : queries) {
+            MilliDBResult subResult = received.get(query.getID());
+            if (subResult == null) {
+                if (result.isSucceed()) MilliDBLogger.warning(() -> "The batch " + result.getID() + " has no result of the query " + query.getID());
+                subResult = MilliDBResult.failedResult(query.getID());
+            }
+            results.add(subResult);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,454 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Frames are a varint length followed by the payload.
+ * <p>
+ * A query payload is a varint ID, a one-byte function, the path and the metadata.
+ * A result payload is a varint ID, a one-byte success flag and the metadata.
+ * Strings are a varint length followed by UTF-8, and MilliData are a one-byte tag followed by their content.
+ * MilliValues are written as their raw string and read back with a constructor, never through the text parser.
+ * Integers and booleans get compact tags of their own, and other numbers go in their text form.
+ * Only a raw string that could be a number or a boolean is checked against the text form of the value,
+ * which quotes it if it is a string, so that a string such as "12" is never read back as a number.
+ * <p>
+ * The ID and the success flag of a result are read straight from the frame, and its metadata is left encoded
+ * until MilliDBResult#getMetadata is called.
+ */
+final class MilliDBBinaryCodec implements MilliDBCodec {
+    private static final int TAG_NULL = 0;
+    /**
+     * A MilliValue in its text form, for the numbers that are not TAG_INTEGER
+     */
+    private static final int TAG_VALUE = 1;
+    private static final int TAG_LIST = 2;
+    private static final int TAG_MAP = 3;
+    private static final int TAG_STRING = 4;
+    private static final int TAG_INTEGER = 5;
+    private static final int TAG_TRUE = 6;
+    private static final int TAG_FALSE = 7;
+    /**
+     * Followed by the function name, for functions without their own opcode
+     */
+    private static final int OPCODE_NAMED = 0;
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    @Override
+    @Nonnull
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public void writeQuery(@Nonnull MilliDBQuery query, @Nonnull OutputStream out) throws IOException {
+        Frame frame = new Frame();
+        frame.writeVarLong(zigZag(query.getID()));
+        int opcode = toOpcode(query.getFunction());
+        frame.write(opcode);
+        if (opcode == OPCODE_NAMED) frame.writeString(query.getFunction().toString());
+        frame.writeString(query.getPath());
+        frame.writeData(query.getMetadata());
+        frame.writeFrameTo(out);
+    }
+
+    @Override
+    public MilliDBQuery readQuery(@Nonnull InputStream in) throws IOException {
+        Payload payload = Payload.read(in);
+        if (payload == null) return null;
+        long id = unZigZag(payload.readVarLong());
+        int opcode = payload.readByte();
+        MilliDBQuery.Function function = opcode == OPCODE_NAMED ? MilliDBQuery.Function.fromString(payload.readString(), MilliDBQuery.Function.NONE) : fromOpcode(opcode);
+        String path = payload.readString();
+        MilliData metadata = payload.readData();
+        return new MilliDBQuery(id, path, function, metadata);
+    }
+
+    @Override
+    public void writeResult(@Nonnull MilliDBResult result, @Nonnull OutputStream out) throws IOException {
+        Frame frame = new Frame();
+        frame.writeVarLong(zigZag(result.getID()));
+        frame.write(result.isSucceed() ? 1 : 0);
+        frame.writeData(result.getMetadata());
+        frame.writeFrameTo(out);
+    }
+
+    @Override
+    public MilliDBResult readResult(@Nonnull InputStream in) throws IOException {
+        Payload payload = Payload.read(in);
+        if (payload == null) return null;
+        long id = unZigZag(payload.readVarLong());
+        boolean isSucceed = payload.readByte() != 0;
+        return new MilliDBResult(id, isSucceed, new EncodedMetadata(payload.bytes, payload.position));
+    }
+
+    /**
+     * Copies only the payload, which the encoded metadata keeps
+     */
+    @Override
+    public MilliDBResult readResult(@Nonnull byte[] frame, int offset, int length) throws IOException {
+        int end = offset + length;
+        int start = offset;
+        while (start < end && (frame[start] & 0x80) != 0) start++;
+        if (++start > end) throw new EOFException("The frame length is cut");
+        Payload payload = new Payload(Arrays.copyOfRange(frame, start, end));
+        long id = unZigZag(payload.readVarLong());
+        boolean isSucceed = payload.readByte() != 0;
+        return new MilliDBResult(id, isSucceed, new EncodedMetadata(payload.bytes, payload.position));
+    }
+
+    @Override
+    public int frameLength(@Nonnull ByteBuffer received) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int i = received.position();
+        int b;
+        do {
+            if (i >= received.limit()) return -1;
+            b = received.get(i++) & 0xFF;
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 28) throw new IOException("The frame length is too long");
+        } while ((b & 0x80) != 0);
+        if (length < 0 || length > MAX_FRAME_SIZE) throw new IOException("The frame is too large: " + length);
+        int frameLength = i - received.position() + length;
+        return frameLength <= received.remaining() ? frameLength : -1;
+    }
+
+    private static int toOpcode(@Nonnull MilliDBQuery.Function function) {
+        switch (function) {
+            case NONE: return 1;
+            case HAS_USER: return 2;
+            case GET_FILES: return 3;
+            case GET_COLLECTION: return 4;
+            case GET_DOCUMENT: return 5;
+            case GET: return 6;
+            case SET: return 7;
+            case DELETE: return 8;
+            case CLOSE: return 9;
+            case BATCH: return 10;
+            case GET_FILES_PAGE: return 11;
+            case INCREMENT: return 12;
+            case APPEND_TO_LIST: return 13;
+            case REMOVE_FROM_LIST: return 14;
+            case PUT_IF_ABSENT: return 15;
+            case COMPARE_AND_SET: return 16;
+            case GET_PATHS: return 17;
+            case GET_DOCUMENTS: return 18;
+            case WATCH: return 19;
+            case UNWATCH: return 20;
+            case OPEN_STREAM: return 21;
+            case STREAM_CHUNK: return 22;
+            case CLOSE_STREAM: return 23;
+            case GET_FILES_TREE: return 24;
+            default: return OPCODE_NAMED;
+        }
+    }
+
+    @Nonnull
+    private static MilliDBQuery.Function fromOpcode(int opcode) throws IOException {
+        for (MilliDBQuery.Function function : MilliDBQuery.Function.values()) if (toOpcode(function) == opcode) return function;
+        throw new IOException("Unknown opcode " + opcode);
+    }
+
+    /**
+     * @return  true if the string could be the text form of a number or a boolean
+     */
+    private static boolean isLiteral(@Nonnull String value) {
+        if (value.equals("true") || value.equals("false")) return true;
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return  true if the string is exactly how Long#toString writes an integer of up to 18 digits,
+     *          so that it is rebuilt into the same string
+     */
+    private static boolean isCanonicalInteger(@Nonnull String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int digits = value.length() - start;
+        if (digits < 1 || digits > 18) return false;
+        if (value.charAt(start) == '0') return digits == 1 && start == 0;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * The payload being written, sent with its length when complete.
+     * Unlike ByteArrayOutputStream, writing to it takes no monitor.
+     */
+    private static final class Frame {
+        private byte[] buf = new byte[64];
+        private int count;
+
+        private void write(int b) {
+            if (count == buf.length) buf = Arrays.copyOf(buf, count * 2);
+            buf[count++] = (byte) b;
+        }
+
+        private void write(@Nonnull byte[] bytes, int offset, int length) {
+            if (count + length > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+            System.arraycopy(bytes, offset, buf, count, length);
+            count += length;
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeString(@Nonnull String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        private void writeData(@Nonnull MilliData data) {
+            if (data.isMilliMap()) {
+                MilliMap map = data.asMilliMap();
+                write(TAG_MAP);
+                writeVarLong(map.keySet().size());
+                for (String key : map.keySet()) {
+                    writeString(key);
+                    writeData(map.get(key));
+                }
+            } else if (data.isMilliList()) {
+                MilliList list = data.asMilliList();
+                int size = 0;
+                for (MilliData ignored : list) size++;
+                write(TAG_LIST);
+                writeVarLong(size);
+                for (MilliData element : list) writeData(element);
+            } else if (data.isMilliValue()) {
+                writeValue(data.asMilliValue());
+            } else {
+                write(TAG_NULL);
+            }
+        }
+
+        private void writeValue(@Nonnull MilliValue value) {
+            String string = value.asString();
+            if (!isLiteral(string) || !value.toString().equals(string)) {
+                write(TAG_STRING);
+                writeString(string);
+            } else if (string.equals("true")) {
+                write(TAG_TRUE);
+            } else if (string.equals("false")) {
+                write(TAG_FALSE);
+            } else if (isCanonicalInteger(string)) {
+                write(TAG_INTEGER);
+                writeVarLong(zigZag(Long.parseLong(string)));
+            } else {
+                write(TAG_VALUE);
+                writeString(string);
+            }
+        }
+
+        private void writeFrameTo(@Nonnull OutputStream out) throws IOException {
+            int length = count;
+            do {
+                out.write((length & ~0x7F) != 0 ? (length & 0x7F) | 0x80 : length);
+                length >>>= 7;
+            } while (length != 0);
+            out.write(buf, 0, count);
+        }
+    }
+
+    /**
+     * The metadata left in the payload, decoded only if the caller asks for it
+     */
+    private static final class EncodedMetadata implements MilliDBResult.EncodedMetadata {
+        @Nonnull
+        private final byte[] bytes;
+        private final int position;
+
+        private EncodedMetadata(@Nonnull byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        @Override
+        @Nonnull
+        public MilliData decode() throws MilliDBResultParsedException {
+            try {
+                return new Payload(bytes, position).readData();
+            } catch (IOException e) {
+                throw new MilliDBResultParsedException(e.getMessage());
+            }
+        }
+
+        @Override
+        @Nonnull
+        public Iterator<String> strings() throws MilliDBResultParsedException {
+            Payload payload = new Payload(bytes, position);
+            int size;
+            try {
+                size = payload.readByte() == TAG_LIST ? payload.readLength() : 0;
+            } catch (IOException e) {
+                throw new MilliDBResultParsedException(e.getMessage());
+            }
+            return new Iterator<String>() {
+                private int remaining = size;
+
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                @Override
+                public String next() {
+                    if (remaining <= 0) throw new NoSuchElementException();
+                    remaining--;
+                    try {
+                        return payload.readData().asMilliValue().asString();
+                    } catch (IOException e) {
+                        throw new MilliDBResultParsedException(e.getMessage());
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * A complete payload being read
+     */
+    private static final class Payload {
+        @Nonnull
+        private final byte[] bytes;
+        private int position;
+
+        private Payload(@Nonnull byte[] bytes) {
+            this(bytes, 0);
+        }
+
+        private Payload(@Nonnull byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        /**
+         * @return  null if the stream has ended before a new frame
+         */
+        private static Payload read(@Nonnull InputStream in) throws IOException {
+            int length = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.read();
+                if (b == -1) {
+                    if (shift == 0) return null;
+                    throw new EOFException("The frame length is cut");
+                }
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+                if (shift > 28) throw new IOException("The frame length is too long");
+            } while ((b & 0x80) != 0);
+            if (length < 0 || length > MAX_FRAME_SIZE) throw new IOException("The frame is too large: " + length);
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n == -1) throw new EOFException("The frame is cut");
+                read += n;
+            }
+            return new Payload(bytes);
+        }
+
+        private int readByte() throws IOException {
+            if (position >= bytes.length) throw new EOFException("The payload is cut");
+            return bytes[position++] & 0xFF;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) throw new IOException("The varint is too long");
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > bytes.length - position) throw new IOException("Invalid length: " + length);
+            return (int) length;
+        }
+
+        @Nonnull
+        private String readString() throws IOException {
+            int length = readLength();
+            String string = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+
+        @Nonnull
+        private MilliData readData() throws IOException {
+            int tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return MilliNull.INSTANCE;
+                case TAG_VALUE:
+                    return MilliData.Parser.parse(readString(), new MilliValue()).asMilliValue(new MilliValue());
+                case TAG_STRING:
+                    return new MilliValue(readString());
+                case TAG_INTEGER:
+                    return new MilliValue(unZigZag(readVarLong()));
+                case TAG_TRUE:
+                    return new MilliValue(true);
+                case TAG_FALSE:
+                    return new MilliValue(false);
+                case TAG_LIST: {
+                    int size = readLength();
+                    MilliList list = new MilliList();
+                    for (int i = 0; i < size; i++) list.append(readData());
+                    return list;
+                }
+                case TAG_MAP: {
+                    int size = readLength();
+                    MilliMap map = new MilliMap();
+                    for (int i = 0; i < size; i++) {
+                        String key = readString();
+                        map.append(key, readData());
+                    }
+                    return map;
+                }
+                default:
+                    throw new IOException("Unknown tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded LRU cache of MilliDBDocument#get results, keyed by the document path and the inner path.
+ * <p>
+ * Use it with MilliDBClients#withCache. Every SET and DELETE sent through that client writes through
+ * and invalidates the cached paths it may have changed, both above and below the written path.
+ * Writes sent through another client are not seen, so expired entries are the only way to pick them up.
+ * <p>
+ * Cached MilliData are shared with the callers, so they must not be modified.
+ * <p>
+ * A value fetched across a write of its document is not cached. Writes are told apart by striped versions of the documents,
+ * so writes to other documents rarely keep a fetched value out, while a DELETE, which may cover many documents, bumps them all.
+ */
+public final class MilliDBCache {
+    private static final char SEPARATOR = '\u0000';
+    private static final int VERSION_STRIPES = 64;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByDocument = new HashMap<>();
+    private long bytes;
+    private final long[] versions = new long[VERSION_STRIPES];
+    /**
+     * Bumped by the writes that are not of a single document, added to every striped version
+     */
+    private long fileVersion;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries    the maximum number of cached paths
+     * @param maxBytes      the maximum approximate size of the cached data in their serialized form
+     * @param ttlMillis     how long an entry stays valid, 0 for no expiry
+     */
+    public MilliDBCache(int maxEntries, long maxBytes, long ttlMillis) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be positive");
+        if (ttlMillis < 0) throw new IllegalArgumentException("ttlMillis must not be negative");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            keysByDocument.clear();
+            bytes = 0;
+            fileVersion++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  null if the path is not cached or has expired
+     */
+    MilliData get(@Nonnull String documentPath, @Nonnull String path) {
+        String key = documentPath + SEPARATOR + path;
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt != 0 && entry.expiresAt < System.currentTimeMillis()) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Taken before fetching a value of the document, so that a value fetched across an invalidation of it is not cached
+     */
+    long getVersion(@Nonnull String documentPath) {
+        lock.lock();
+        try {
+            return versions[stripe(documentPath)] + fileVersion;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param frameLength   the length of the frame the value came in, -1 to estimate the size from the value itself
+     */
+    void put(@Nonnull String documentPath, @Nonnull String path, @Nonnull MilliData value, long fetchedVersion, int frameLength) {
+        String key = documentPath + SEPARATOR + path;
+        long size = 2L * (key.length() + (frameLength < 0 ? MilliDBData.estimateLength(Validate.nonnull(value)) : frameLength));
+        if (size > maxBytes) return;
+        lock.lock();
+        try {
+            if (fetchedVersion != versions[stripe(documentPath)] + fileVersion) return;
+            remove(key);
+            entries.put(key, new Entry(documentPath, value, size, ttlMillis == 0 ? 0 : System.currentTimeMillis() + ttlMillis));
+            keysByDocument.computeIfAbsent(documentPath, k -> new HashSet<>()).add(key);
+            bytes += size;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                iterator.remove();
+                unindex(eldest.getKey(), eldest.getValue());
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Invalidates what the query may change
+     *
+     * @return  true if the query is a write
+     */
+    boolean invalidate(@Nonnull MilliDBQuery query) {
+        switch (query.getFunction()) {
+            case SET:
+            case INCREMENT:
+            case APPEND_TO_LIST:
+            case REMOVE_FROM_LIST:
+            case PUT_IF_ABSENT:
+            case COMPARE_AND_SET:
+                invalidatePath(query.getPath(), query.getMetadata().asMilliMap(new MilliMap()).get("p").asMilliValue(new MilliValue()).asString());
+                return true;
+            case DELETE:
+                invalidateFile(query.getPath());
+                return true;
+            case CLOSE_STREAM:
+                MilliMap close = query.getMetadata().asMilliMap(new MilliMap());
+                if (!close.get("c").asMilliValue(new MilliValue(false)).asBoolean()) return false;
+                invalidatePath(query.getPath(), close.get("p").asMilliValue(new MilliValue()).asString());
+                return true;
+            case BATCH:
+                boolean write = false;
+                for (MilliData data : query.getMetadata().asMilliList(new MilliList())) {
+                    try {
+                        write |= invalidate(MilliDBQuery.Parser.parse(data.asMilliMap(new MilliMap())));
+                    } catch (MilliDBQueryParsedException ignored) {
+                    }
+                }
+                return write;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Invalidates the cached paths of the document that contain or are contained by the path
+     */
+    void invalidatePath(@Nonnull String documentPath, @Nonnull String path) {
+        lock.lock();
+        try {
+            versions[stripe(documentPath)]++;
+            Set<String> keys = keysByDocument.get(documentPath);
+            if (keys == null) return;
+            for (String key : new ArrayList<>(keys)) {
+                String cachedPath = key.substring(documentPath.length() + 1);
+                if (isWithin(cachedPath, path) || isWithin(path, cachedPath)) remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Invalidates the document of the path, or every document under the collection of the path
+     */
+    void invalidateFile(@Nonnull String filePath) {
+        lock.lock();
+        try {
+            fileVersion++;
+            for (String documentPath : new ArrayList<>(keysByDocument.keySet())) {
+                if (!documentPath.equals(filePath) && !documentPath.startsWith(filePath + "/")) continue;
+                for (String key : new ArrayList<>(keysByDocument.get(documentPath))) remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  true if the path is the other path or below it, by whole keys, so that "a.bc" is not below "a.b"
+     */
+    private static boolean isWithin(@Nonnull String path, @Nonnull String other) {
+        return other.isEmpty() || path.equals(other) || path.startsWith(other) && path.charAt(other.length()) == '.';
+    }
+
+    private static int stripe(@Nonnull String documentPath) {
+        return (documentPath.hashCode() & 0x7FFFFFFF) % VERSION_STRIPES;
+    }
+
+    private void remove(@Nonnull String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) unindex(key, entry);
+    }
+
+    private void unindex(@Nonnull String key, @Nonnull Entry entry) {
+        bytes -= entry.size;
+        Set<String> keys = keysByDocument.get(entry.documentPath);
+        if (keys == null) return;
+        keys.remove(key);
+        if (keys.isEmpty()) keysByDocument.remove(entry.documentPath);
+    }
+
+    private static final class Entry {
+        @Nonnull
+        private final String documentPath;
+        @Nonnull
+        private final MilliData value;
+        private final long size;
+        private final long expiresAt;
+
+        private Entry(@Nonnull String documentPath, @Nonnull MilliData value, long size, long expiresAt) {
+            this.documentPath = documentPath;
+            this.value = value;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.sivannsan.millidb;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of one call to MilliDBClient#execute or #executeAsync, with all of its attempts and backoffs
+ */
+@Name("com.sivannsan.millidb.Call")
+@Label("MilliDB Call")
+@Category({"MilliDB"})
+@Description("A call of the MilliDBClient, with all of its attempts")
+@StackTrace(false)
+final class MilliDBCallEvent extends Event {
+    @Label("ID")
+    long id;
+
+    @Label("Function")
+    String function;
+
+    @Label("Path")
+    String path;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Succeed")
+    boolean succeed;
+}
@@ -0,0 +1,93 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliData;
+
+/**
+ * A change pushed by the server to a MilliDBWatch.
+ * <p>
+ * Every change has a version, which grows with every change on the server. A watch can be resumed from the last version it has seen.
+ */
+public final class MilliDBChange {
+    @Nonnull
+    private final Type type;
+    @Nonnull
+    private final String filePath;
+    @Nonnull
+    private final String path;
+    @Nonnull
+    private final MilliData value;
+    private final long version;
+
+    MilliDBChange(@Nonnull Type type, @Nonnull String filePath, @Nonnull String path, @Nonnull MilliData value, long version) {
+        this.type = Validate.nonnull(type);
+        this.filePath = Validate.nonnull(filePath);
+        this.path = Validate.nonnull(path);
+        this.value = Validate.nonnull(value);
+        this.version = version;
+    }
+
+    @Nonnull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return  the path of the changed MilliDBFile, as in MilliDBFile#getPath
+     */
+    @Nonnull
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * @return  the path inside the content of the document, as in MilliDBDocument#get, "" for the whole content
+     */
+    @Nonnull
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return  the data at the path after the change, MilliNull if it is not a SET
+     */
+    @Nonnull
+    public MilliData getValue() {
+        return value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + filePath + (path.isEmpty() ? "" : "#" + path) + " @" + version;
+    }
+
+    public enum Type {
+        /**
+         * The data at the path of the document has been written
+         */
+        SET,
+        /**
+         * The file has been deleted
+         */
+        DELETE,
+        /**
+         * The changes since the version being resumed from are no longer known to the server,
+         * so the watched files should be read again. The version is the one to go on from.
+         */
+        RESET
+    }
+
+    /**
+     * Runs the changes of a watch one at a time, in the order of their versions.
+     * It runs outside the I/O threads, so it may use the client.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onChange(@Nonnull MilliDBChange change);
+    }
+}
@@ -0,0 +1,124 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection on a non-blocking SocketChannel, driven by an I/O thread of a MilliDBEventLoop.
+ * <p>
+ * Callers only queue their encoded frames without any lock; the I/O thread moves them through its reusable direct buffers.
+ */
+final class MilliDBChannelConnection extends MilliDBConnection {
+    @Nonnull
+    private final SocketChannel channel;
+    @Nonnull
+    private final MilliDBEventLoop.Worker worker;
+    @Nonnull
+    private final SelectionKey key;
+    private final Deque<ByteBuffer> outgoing = new ConcurrentLinkedDeque<>();
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean();
+
+    MilliDBChannelConnection(@Nonnull String host, int port, @Nonnull MilliDBClients.ConnectionConfig config, @Nonnull MilliDBEventLoop eventLoop) throws IOException {
+        super(config);
+        this.worker = eventLoop.assign();
+        this.channel = SocketChannel.open(new InetSocketAddress(Validate.nonnull(host), port));
+        try {
+            channel.configureBlocking(false);
+            this.key = worker.register(channel, this);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void writeFrame(@Nonnull ByteBuffer frame) {
+        outgoing.addLast(frame);
+        if (isFlushScheduled.compareAndSet(false, true)) worker.execute(this::flush);
+    }
+
+    @Override
+    protected void closeChannel() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the channel has bytes to read
+     */
+    void onReadable() {
+        ByteBuffer buffer = worker.getReadBuffer();
+        try {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read == -1) {
+                close();
+                return;
+            }
+            buffer.flip();
+            receive(buffer);
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed()) MilliDBLogger.warning(() -> "Lost the connection: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the channel can take more bytes
+     */
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Moves queued frames through the direct write buffer until the queue is empty or the channel is full
+     */
+    private void flush() {
+        isFlushScheduled.set(false);
+        if (isClosed()) return;
+        ByteBuffer buffer = worker.getWriteBuffer();
+        try {
+            while (true) {
+                buffer.clear();
+                ByteBuffer head;
+                while (buffer.hasRemaining() && (head = outgoing.pollFirst()) != null) {
+                    if (head.remaining() <= buffer.remaining()) {
+                        buffer.put(head);
+                        continue;
+                    }
+                    ByteBuffer part = head.duplicate();
+                    part.limit(part.position() + buffer.remaining());
+                    buffer.put(part);
+                    head.position(part.position());
+                    outgoing.addFirst(head);
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) break;
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    ByteBuffer rest = ByteBuffer.allocate(buffer.remaining());
+                    rest.put(buffer).flip();
+                    outgoing.addFirst(rest);
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed()) MilliDBLogger.warning(() -> "Lost the connection: " + e.getMessage());
+            close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The reader of MilliDBDocument#openReader, which reads the text of an open stream one STREAM_CHUNK at a time.
+ * <p>
+ * The next chunk is asked for while the current one is read, so at most two chunks are held at once.
+ * It is used by one thread at a time.
+ */
+final class MilliDBChunkReader extends Reader {
+    @Nonnull
+    private final MilliDBClient client;
+    @Nonnull
+    private final String documentPath;
+    @Nonnull
+    private final String path;
+    private final long streamID;
+    private final int length;
+    private final int chunkSize;
+    @Nonnull
+    private String chunk = "";
+    private int position;
+    /**
+     * The offset of the chunk after the current one
+     */
+    private int offset;
+    private CompletableFuture<MilliDBResult> next;
+    private boolean closed;
+
+    MilliDBChunkReader(@Nonnull MilliDBClient client, @Nonnull String documentPath, @Nonnull String path, long streamID, int length, int chunkSize) {
+        this.client = Validate.nonnull(client);
+        this.documentPath = Validate.nonnull(documentPath);
+        this.path = Validate.nonnull(path);
+        this.streamID = streamID;
+        this.length = length;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public int read(@Nonnull char[] buffer, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > buffer.length - off) throw new IndexOutOfBoundsException();
+        if (closed) throw new IOException("The reader is closed");
+        if (len == 0) return 0;
+        if (position == chunk.length() && !readChunk()) return -1;
+        int read = Math.min(len, chunk.length() - position);
+        chunk.getChars(position, position + read, buffer, off);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public boolean ready() {
+        return !closed && (position < chunk.length() || next != null && next.isDone());
+    }
+
+    /**
+     * Frees the text kept by the server, without waiting for it
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (next != null) next.cancel(false);
+        chunk = "";
+        client.executeAsync(new MilliDBQuery(documentPath, MilliDBQuery.Function.CLOSE_STREAM, new MilliMap("s", new MilliValue(streamID)).append("p", new MilliValue(path)).append("c", new MilliValue(false))));
+    }
+
+    /**
+     * Replaces the current chunk with the next one, and asks for the one after it
+     *
+     * @return  false if the text has been read to the end
+     */
+    private boolean readChunk() throws IOException {
+        if (offset >= length) return false;
+        if (next == null) next = requestChunk();
+        chunk = await(next);
+        position = 0;
+        if (chunk.isEmpty()) throw new IOException("The stream has ended before its length");
+        offset += chunk.length();
+        next = offset < length ? requestChunk() : null;
+        return true;
+    }
+
+    @Nonnull
+    private CompletableFuture<MilliDBResult> requestChunk() {
+        return client.executeAsync(new MilliDBQuery(documentPath, MilliDBQuery.Function.STREAM_CHUNK, new MilliMap("s", new MilliValue(streamID)).append("o", new MilliValue(offset)).append("l", new MilliValue(chunkSize))));
+    }
+
+    @Nonnull
+    private static String await(@Nonnull CompletableFuture<MilliDBResult> future) throws IOException {
+        MilliDBResult result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("The chunk could not be read", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the chunk", e);
+        }
+        if (!result.isSucceed() || !result.getMetadata().isMilliValue()) throw new IOException("The chunk could not be read");
+        return result.getMetadata().asMilliValue().asString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The writer of MilliDBDocument#openWriter, which sends the text to an open stream one STREAM_CHUNK at a time.
+ * <p>
+ * The server appends each chunk at the end of the text, so a chunk is only sent once the one before it is kept.
+ * The next chunk is filled while one is in flight, so at most two chunks are held at once.
+ * A chunk never ends in the middle of a surrogate pair, so the chunk size is at least 2.
+ * It is used by one thread at a time.
+ */
+final class MilliDBChunkWriter extends Writer {
+    @Nonnull
+    private final MilliDBClient client;
+    @Nonnull
+    private final String documentPath;
+    @Nonnull
+    private final String path;
+    private final long streamID;
+    private final int chunkSize;
+    @Nonnull
+    private final StringBuilder buffer;
+    /**
+     * The offset of the buffer in the text
+     */
+    private int offset;
+    /**
+     * null if no chunk is in flight
+     */
+    private CompletableFuture<MilliDBResult> inFlight;
+    private boolean failed;
+    private boolean closed;
+
+    MilliDBChunkWriter(@Nonnull MilliDBClient client, @Nonnull String documentPath, @Nonnull String path, long streamID, int chunkSize) {
+        this.client = Validate.nonnull(client);
+        this.documentPath = Validate.nonnull(documentPath);
+        this.path = Validate.nonnull(path);
+        this.streamID = streamID;
+        this.chunkSize = chunkSize;
+        this.buffer = new StringBuilder(chunkSize);
+    }
+
+    @Override
+    public void write(@Nonnull char[] chars, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > chars.length - off) throw new IndexOutOfBoundsException();
+        ensureOpen();
+        while (len > 0) {
+            int appended = Math.min(len, chunkSize - buffer.length());
+            buffer.append(chars, off, appended);
+            off += appended;
+            len -= appended;
+            if (buffer.length() >= chunkSize) sendChunk(false);
+        }
+    }
+
+    @Override
+    public void write(@Nonnull String text, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > text.length() - off) throw new IndexOutOfBoundsException();
+        ensureOpen();
+        while (len > 0) {
+            int appended = Math.min(len, chunkSize - buffer.length());
+            buffer.append(text, off, off + appended);
+            off += appended;
+            len -= appended;
+            if (buffer.length() >= chunkSize) sendChunk(false);
+        }
+    }
+
+    /**
+     * Sends what has been written so far and waits for it to be kept by the server. Nothing is set before #close.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        sendChunk(false);
+        awaitInFlight();
+    }
+
+    /**
+     * Sends the rest of the text and sets the data parsed from it at the path
+     *
+     * @throws IOException  if a chunk has failed or the text is not valid, in which case nothing is set
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        MilliDBResult result;
+        try {
+            if (failed) throw new IOException("A chunk could not be written");
+            sendChunk(true);
+            awaitInFlight();
+            result = await(client.executeAsync(close(true)));
+        } catch (IOException e) {
+            client.executeAsync(close(false));
+            throw e;
+        }
+        if (!result.isSucceed()) throw new IOException("The written text could not be set, it may not be valid");
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("The writer is closed");
+        if (failed) throw new IOException("A chunk could not be written");
+    }
+
+    /**
+     * Sends the buffer after waiting for the chunk in flight
+     *
+     * @param last  true to send a high surrogate at the end too, which is otherwise kept for the next chunk
+     */
+    private void sendChunk(boolean last) throws IOException {
+        int end = buffer.length();
+        if (!last && end > 0 && Character.isHighSurrogate(buffer.charAt(end - 1))) end--;
+        if (end == 0) return;
+        awaitInFlight();
+        String chunk = buffer.substring(0, end);
+        buffer.delete(0, end);
+        inFlight = client.executeAsync(new MilliDBQuery(documentPath, MilliDBQuery.Function.STREAM_CHUNK, new MilliMap("s", new MilliValue(streamID)).append("o", new MilliValue(offset)).append("d", new MilliValue(chunk))));
+        offset += chunk.length();
+    }
+
+    private void awaitInFlight() throws IOException {
+        if (inFlight == null) return;
+        CompletableFuture<MilliDBResult> chunk = inFlight;
+        inFlight = null;
+        boolean succeed = false;
+        try {
+            succeed = await(chunk).isSucceed();
+        } finally {
+            if (!succeed) failed = true;
+        }
+        if (!succeed) throw new IOException("A chunk could not be written");
+    }
+
+    @Nonnull
+    private MilliDBQuery close(boolean commit) {
+        return new MilliDBQuery(documentPath, MilliDBQuery.Function.CLOSE_STREAM, new MilliMap("s", new MilliValue(streamID)).append("p", new MilliValue(path)).append("c", new MilliValue(commit)));
+    }
+
+    @Nonnull
+    private static MilliDBResult await(@Nonnull CompletableFuture<MilliDBResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("The stream could not be written", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the stream", e);
+        }
+    }
+}
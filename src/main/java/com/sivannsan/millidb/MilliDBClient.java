@@ -1,12 +1,18 @@
 package com.sivannsan.millidb;
 
 import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliData;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The instance of this class does not locally work with the data.
  * It always communicates with the database.
+ * <p>
+ * The clients made by MilliDBClients are safe to be shared by many threads, including virtual threads:
+ * their blocking calls wait by parking, never inside a monitor.
  */
 public interface MilliDBClient {
     /**
@@ -21,6 +27,24 @@ public interface MilliDBClient {
     @Nonnull
     List<MilliDBFile> getFiles(MilliDBFilter filter) throws MilliDBResultFailedException;
 
+    /**
+     * The same as MilliDBCollection#getFilesAsync, but they are root
+     */
+    @Nonnull
+    CompletableFuture<List<MilliDBFile>> getFilesAsync(MilliDBFilter filter);
+
+    /**
+     * The same as MilliDBCollection#getFiles(MilliDBFilter, int), but they are root
+     */
+    @Nonnull
+    List<MilliDBFile> getFiles(MilliDBFilter filter, int depth) throws MilliDBResultFailedException;
+
+    /**
+     * The same as MilliDBCollection#getDocuments, but they are root
+     */
+    @Nonnull
+    Map<MilliDBDocument, Map<String, MilliData>> getDocuments(MilliDBFilter filter, @Nonnull String... projectionPaths) throws MilliDBResultFailedException;
+
     /**
      * The same as MilliDBCollection#getDocument, but it is root
      */
@@ -32,4 +56,63 @@ public interface MilliDBClient {
      */
     @Nonnull
     MilliDBCollection getCollection(@Nonnull String name) throws MilliDBResultFailedException, MilliDBPermissionException;
+
+    /**
+     * Listens to the changes of the file at the path and everything under it, which the server pushes instead of being polled.
+     * The empty path watches every file.
+     *
+     * @throws MilliDBResultFailedException if the server does not accept the watch
+     */
+    @Nonnull
+    MilliDBWatch watch(@Nonnull String path, @Nonnull MilliDBChange.Listener listener) throws MilliDBResultFailedException;
+
+    /**
+     * The same as #watch(String, MilliDBChange.Listener), but starts with the changes after the version,
+     * such as MilliDBWatch#getVersion of an earlier watch
+     */
+    @Nonnull
+    MilliDBWatch watch(@Nonnull String path, long fromVersion, @Nonnull MilliDBChange.Listener listener) throws MilliDBResultFailedException;
+
+    /**
+     * Starts a batch, whose operations are sent to the server in one query
+     */
+    @Nonnull
+    MilliDBBatch batch();
+
+    /**
+     * Sends the query and waits for its result, retried within the deadline of the MilliDBRetryPolicy
+     *
+     * @return  a failed result if the query could not be executed
+     */
+    @Nonnull
+    MilliDBResult execute(@Nonnull MilliDBQuery query);
+
+    /**
+     * Sends the query and waits for its result, retried within the input deadline
+     *
+     * @param deadlineMillis    how long the call may take with all of its attempts
+     * @return  a failed result if the query could not be executed in time
+     */
+    @Nonnull
+    MilliDBResult execute(@Nonnull MilliDBQuery query, long deadlineMillis);
+
+    /**
+     * Sends the query without waiting for its result, retried within the deadline of the MilliDBRetryPolicy.
+     * Many queries can be in flight at the same time, and each result is delivered to the query of the same ID.
+     */
+    @Nonnull
+    CompletableFuture<MilliDBResult> executeAsync(@Nonnull MilliDBQuery query);
+
+    /**
+     * The same as #executeAsync, retried within the input deadline
+     *
+     * @param deadlineMillis    how long the call may take with all of its attempts
+     */
+    @Nonnull
+    CompletableFuture<MilliDBResult> executeAsync(@Nonnull MilliDBQuery query, long deadlineMillis);
+
+    /**
+     * Closes the connection to the server. Queries that are still in flight will fail.
+     */
+    void close();
 }
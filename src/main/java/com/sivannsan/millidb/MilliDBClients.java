@@ -4,14 +4,27 @@ import com.sivannsan.foundation.annotation.Nonnull;
 import com.sivannsan.foundation.Validate;
 import com.sivannsan.millidata.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class MilliDBClients {
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_CHUNK_SIZE = 65536;
+
     private MilliDBClients() {
     }
 
@@ -25,49 +38,622 @@ public final class MilliDBClients {
      * @return  the client corresponding to the connected server, null if the client is not fully formed
      */
     public static MilliDBClient connect(@Nonnull String host, int port, @Nonnull String userName, @Nonnull String userPassword) {
+        return connect(host, port, userName, userPassword, new ConnectionConfig());
+    }
+
+    /**
+     * Connect to the server
+     *
+     * @param host          the host name or address of the server
+     * @param port          the port of the server
+     * @param userName      the name of the user that is used to access the files
+     * @param userPassword  the password of the user that is used to access the files
+     * @param config        the options of the connection
+     * @return  the client corresponding to the connected server, null if the client is not fully formed
+     */
+    public static MilliDBClient connect(@Nonnull String host, int port, @Nonnull String userName, @Nonnull String userPassword, @Nonnull ConnectionConfig config) {
         try {
-            MilliDBLogger.info("Connecting to a MilliDBServer...");
-            MilliDBLogger.info("- host: " + host);
-            MilliDBLogger.info("- port: " + port);
+            MilliDBLogger.debug(() -> "Connecting to a MilliDBServer at " + host + ":" + port + "...");
             long time = System.currentTimeMillis();
-            Socket socket = new Socket(host, port);
-            //TODO: Study about these reader and writer streams
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-            socket.setSoTimeout(5000);
-            IMilliDBClient client = new IMilliDBClient(socket, reader, writer, 5);
-            MilliDBResult result = client.execute(new MilliDBQuery("", MilliDBQuery.Function.HAS_USER, new MilliMap().append("user_name", new MilliValue(userName)).append("user_password", new MilliValue(userPassword))));
-            if (!result.isSucceed()) {
-                MilliDBLogger.warning("Failed to verify user!");
-                return null;
-            }
-            if (!result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean()) {
-                MilliDBLogger.warning("The input user does not exists or is incorrect password!");
+            MilliDBConnection connection = MilliDBConnection.open(host, port, config);
+            if (!connection.authenticate(userName, userPassword, 5000)) {
+                connection.close();
                 return null;
             }
-            MilliDBLogger.info("The MilliDBServer has connected in " + (System.currentTimeMillis() - time) + "ms!");
+            MilliDBTransport transport = config.getReconnectWindowMillis() == 0 ? connection : new MilliDBReconnectingTransport(host, port, userName, userPassword, config, connection);
+            IMilliDBClient client = new IMilliDBClient(transport, config);
+            long connectedMillis = System.currentTimeMillis() - time;
+            MilliDBLogger.info(() -> "The MilliDBServer " + host + ":" + port + " has connected in " + connectedMillis + "ms with the " + connection.getCodec().getName() + " codec" + (connection.getCompression() == null ? "" : " and " + connection.getCompression().getName() + " compression") + "!");
             return client;
         } catch (IOException e) {
-            e.printStackTrace();
+            MilliDBLogger.warning("Failed to connect to " + host + ":" + port + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Connect to the server with a pool of connections, which is safe to be shared by many threads
+     *
+     * @param host          the host name or address of the server
+     * @param port          the port of the server
+     * @param userName      the name of the user that is used to access the files
+     * @param userPassword  the password of the user that is used to access the files
+     * @param config        the sizing, timeouts and eviction of the pool
+     * @return  the client corresponding to the connected server, null if the client is not fully formed
+     */
+    public static MilliDBClient connectPool(@Nonnull String host, int port, @Nonnull String userName, @Nonnull String userPassword, @Nonnull PoolConfig config) {
+        try {
+            MilliDBLogger.debug(() -> "Connecting a pool to a MilliDBServer at " + host + ":" + port + "...");
+            long time = System.currentTimeMillis();
+            MilliDBPool pool = new MilliDBPool(host, port, userName, userPassword, config);
+            long connectedMillis = System.currentTimeMillis() - time;
+            MilliDBLogger.info(() -> "The MilliDBServer " + host + ":" + port + " has connected with " + pool.getSize() + " connection" + (pool.getSize() > 1 ? "s" : "") + " in " + connectedMillis + "ms!");
+            return new IMilliDBClient(pool, config.getConnectionConfig());
+        } catch (IOException e) {
+            MilliDBLogger.warning("Failed to connect a pool to " + host + ":" + port + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Makes a client that keeps its files in memory, without any server.
+     * The files are lost when the client is closed or no longer used.
+     */
+    @Nonnull
+    public static MilliDBClient embedded() {
+        try {
+            return new IMilliDBClient(new MilliDBEmbeddedEngine(null), new ConnectionConfig());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Makes a client that keeps its files in the directory, without any server.
+     * Collections are directories and documents are .mll files, and the directory is created if it does not exist.
+     * <p>
+     * Only one client should use the same directory at a time.
+     *
+     * @return  the client of the directory, null if it cannot be read
+     */
+    public static MilliDBClient embedded(@Nonnull Path dataDirectory) {
+        try {
+            return new IMilliDBClient(new MilliDBEmbeddedEngine(Validate.nonnull(dataDirectory)), new ConnectionConfig());
+        } catch (IOException e) {
+            MilliDBLogger.warning("Failed to read " + dataDirectory + ": " + e);
             return null;
         }
     }
 
+    /**
+     * Makes a client whose MilliDBDocument#get results are cached. It shares the connection of the input client.
+     * <p>
+     * Writes are only seen by the cache when they are sent through the returned client.
+     *
+     * @param client    a client returned by MilliDBClients
+     * @param cache     the cache, which can be kept to read its hit, miss and eviction counters
+     */
+    @Nonnull
+    public static MilliDBClient withCache(@Nonnull MilliDBClient client, @Nonnull MilliDBCache cache) {
+        if (!(client instanceof IMilliDBClient)) throw new IllegalArgumentException("Unsupported MilliDBClient!");
+        IMilliDBClient source = (IMilliDBClient) client;
+        return new IMilliDBClient(source.transport, source.config, source.budget, Validate.nonnull(cache), source.writeBuffer);
+    }
+
+    /**
+     * Makes a client whose MilliDBDocument#set calls are buffered and sent in batches. It shares the connection of the input client.
+     * <p>
+     * Apply it after MilliDBClients#withCache, if both are used. Closing the returned client flushes the buffer first.
+     *
+     * @param client    a client returned by MilliDBClients
+     * @param buffer    the buffer, which is used by one client only
+     */
+    @Nonnull
+    public static MilliDBClient withWriteBuffer(@Nonnull MilliDBClient client, @Nonnull MilliDBWriteBuffer buffer) {
+        if (!(client instanceof IMilliDBClient)) throw new IllegalArgumentException("Unsupported MilliDBClient!");
+        IMilliDBClient source = (IMilliDBClient) client;
+        if (source.writeBuffer != null) throw new IllegalArgumentException("The MilliDBClient already has a MilliDBWriteBuffer");
+        //The buffer sends its batches through a client without the buffer, or they would wait for themselves
+        Validate.nonnull(buffer).bind(source);
+        return new IMilliDBClient(source.transport, source.config, source.budget, source.cache, buffer);
+    }
+
+    @Nonnull
+    private static List<MilliDBFile> toFiles(@Nonnull IMilliDBClient client, MilliDBCollection parent, @Nonnull MilliDBResult result) throws MilliDBResultFailedException {
+        if (!result.isSucceed()) throw new MilliDBResultFailedException();
+        List<MilliDBFile> files = new ArrayList<>();
+        for (String name : result.getMetadataStrings()) {
+            MilliDBFile file;
+            if (name.endsWith(".mll")) file = new IMilliDBDocument(client, parent, name);
+            else file = new IMilliDBCollection(client, parent, name);
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * @param parent    null for the root
+     */
+    @Nonnull
+    private static List<MilliDBFile> getFiles(@Nonnull IMilliDBClient client, MilliDBCollection parent, MilliDBFilter filter, int depth) throws MilliDBResultFailedException {
+        if (depth < 1) throw new IllegalArgumentException("depth must be positive");
+        MilliMap metadata = new MilliMap().append("f", filter == null ? MilliNull.INSTANCE : filter.toMilliMap()).append("d", new MilliValue(depth));
+        MilliDBResult result = client.execute(new MilliDBQuery(parent == null ? "" : parent.getPath(), MilliDBQuery.Function.GET_FILES_TREE, metadata));
+        if (!result.isSucceed()) throw new MilliDBResultFailedException();
+        List<MilliDBFile> files = new ArrayList<>();
+        Map<String, MilliDBCollection> collections = new HashMap<>();
+        for (String path : result.getMetadataStrings()) {
+            int slash = path.lastIndexOf('/');
+            MilliDBCollection fileParent = slash == -1 ? parent : toCollection(client, parent, path.substring(0, slash), collections);
+            String name = path.substring(slash + 1);
+            if (name.endsWith(".mll")) {
+                files.add(new IMilliDBDocument(client, fileParent, name));
+            } else {
+                MilliDBCollection collection = new IMilliDBCollection(client, fileParent, name);
+                collections.put(path, collection);
+                files.add(collection);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Makes the collection of a path relative to the parent, with the same instances for the same paths
+     */
+    @Nonnull
+    private static MilliDBCollection toCollection(@Nonnull IMilliDBClient client, MilliDBCollection parent, @Nonnull String path, @Nonnull Map<String, MilliDBCollection> collections) {
+        MilliDBCollection collection = collections.get(path);
+        if (collection != null) return collection;
+        int slash = path.lastIndexOf('/');
+        collection = new IMilliDBCollection(client, slash == -1 ? parent : toCollection(client, parent, path.substring(0, slash), collections), path.substring(slash + 1));
+        collections.put(path, collection);
+        return collection;
+    }
+
+    /**
+     * @param parent    null for the root
+     */
+    @Nonnull
+    private static Map<MilliDBDocument, Map<String, MilliData>> getDocuments(@Nonnull IMilliDBClient client, MilliDBCollection parent, MilliDBFilter filter, @Nonnull String[] projectionPaths) throws MilliDBResultFailedException {
+        String[] paths = projectionPaths.length == 0 ? new String[] {""} : projectionPaths;
+        MilliMap metadata = new MilliMap().append("f", filter == null ? MilliNull.INSTANCE : filter.toMilliMap()).append("p", toMilliList(paths));
+        MilliDBResult result = client.execute(new MilliDBQuery(parent == null ? "" : parent.getPath(), MilliDBQuery.Function.GET_DOCUMENTS, metadata));
+        if (!result.isSucceed()) throw new MilliDBResultFailedException();
+        Map<MilliDBDocument, Map<String, MilliData>> documents = new LinkedHashMap<>();
+        for (MilliData document : result.getMetadata().asMilliList(new MilliList())) {
+            MilliMap map = document.asMilliMap(new MilliMap());
+            String name = map.get("n").asMilliValue(new MilliValue()).asString();
+            documents.put(new IMilliDBDocument(client, parent, name), toProjection(paths, map.get("v")));
+        }
+        return documents;
+    }
+
+    @Nonnull
+    private static MilliList toMilliList(@Nonnull String[] paths) {
+        MilliList list = new MilliList();
+        for (String path : paths) list.append(new MilliValue(Validate.nonnull(path)));
+        return list;
+    }
+
+    /**
+     * Pairs the paths with the list of their data, a missing data is MilliNull
+     */
+    @Nonnull
+    private static Map<String, MilliData> toProjection(@Nonnull String[] paths, @Nonnull MilliData values) {
+        Map<String, MilliData> projection = new LinkedHashMap<>();
+        Iterator<MilliData> iterator = values.asMilliList(new MilliList()).iterator();
+        for (String path : paths) projection.put(path, iterator.hasNext() ? iterator.next() : MilliNull.INSTANCE);
+        return projection;
+    }
+
+    /**
+     * The value after an INCREMENT, which must be a MilliValue integer
+     */
+    private static long toIncremented(@Nonnull MilliDBResult result) throws MilliDBResultParsedException {
+        MilliData metadata = result.getMetadata();
+        if (!metadata.isMilliValue()) throw new MilliDBResultParsedException("The incremented value is not a MilliValue: " + metadata);
+        try {
+            return metadata.asMilliValue().asInteger64();
+        } catch (NumberFormatException e) {
+            throw new MilliDBResultParsedException("The incremented value is not an integer: " + metadata);
+        }
+    }
+
+    /**
+     * The options of each connection to the server
+     */
+    public static final class ConnectionConfig {
+        private List<MilliDBCodec> codecs = Arrays.asList(MilliDBCodec.BINARY, MilliDBCodec.TEXT);
+        private MilliDBEventLoop eventLoop;
+        @Nonnull
+        private ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+        @Nonnull
+        private MilliDBRetryPolicy retryPolicy = new MilliDBRetryPolicy();
+        /**
+         * Negative to follow the deadline of the retry policy
+         */
+        private long reconnectWindowMillis = -1;
+        @Nonnull
+        private MilliDBMetrics metrics = MilliDBMetrics.NONE;
+        private List<MilliDBCompression> compressions = Collections.singletonList(MilliDBCompression.DEFLATE);
+        private int compressionThreshold = 8 * 1024;
+        private long slowQueryThresholdMillis;
+        private long handleTtlMillis;
+        private int maxHandles = 10000;
+        private double slowQuerySampleRate = 0.1;
+
+        @Nonnull
+        public List<MilliDBCodec> getCodecs() {
+            return codecs;
+        }
+
+        /**
+         * The codecs offered to the server during the handshake, in the order of preference.
+         * The TEXT codec is used if the server picks none of them.
+         */
+        @Nonnull
+        public ConnectionConfig setCodecs(@Nonnull List<MilliDBCodec> codecs) {
+            this.codecs = Collections.unmodifiableList(new ArrayList<>(Validate.nonnull(codecs)));
+            return this;
+        }
+
+        /**
+         * @return  null if each connection uses a blocking socket with its own reader thread
+         */
+        public MilliDBEventLoop getEventLoop() {
+            return eventLoop;
+        }
+
+        /**
+         * Drives the connections with the I/O threads of the event loop instead of a thread per connection.
+         * The same event loop can be shared by the connections to many servers.
+         *
+         * @param eventLoop null for a blocking socket with its own reader thread
+         */
+        @Nonnull
+        public ConnectionConfig setEventLoop(MilliDBEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        @Nonnull
+        public ThreadFactory getThreadFactory() {
+            return threadFactory;
+        }
+
+        /**
+         * Makes the reader thread of each blocking socket connection, daemon platform threads by default.
+         * On JDK 21, Thread.ofVirtual().factory() makes them virtual threads.
+         */
+        @Nonnull
+        public ConnectionConfig setThreadFactory(@Nonnull ThreadFactory threadFactory) {
+            this.threadFactory = Validate.nonnull(threadFactory);
+            return this;
+        }
+
+        @Nonnull
+        public MilliDBRetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        /**
+         * How the client retries the queries that got no result, reads only by default
+         */
+        @Nonnull
+        public ConnectionConfig setRetryPolicy(@Nonnull MilliDBRetryPolicy retryPolicy) {
+            this.retryPolicy = Validate.nonnull(retryPolicy);
+            return this;
+        }
+
+        public long getReconnectWindowMillis() {
+            return reconnectWindowMillis < 0 ? retryPolicy.getDeadlineMillis() : reconnectWindowMillis;
+        }
+
+        /**
+         * How long MilliDBClients#connect keeps reconnecting after the connection is lost, while new queries wait.
+         * A pool replaces its broken connections instead.
+         * <p>
+         * It is the deadline of the retry policy unless set, since no call waits longer than that.
+         * The wait counts against the attempt timeout of the retry policy: a read that waits longer is retried until
+         * its deadline, but a write fails with a TimeoutException, though it was never sent.
+         *
+         * @param reconnectWindowMillis 0 to never reconnect
+         */
+        @Nonnull
+        public ConnectionConfig setReconnectWindowMillis(long reconnectWindowMillis) {
+            if (reconnectWindowMillis < 0) throw new IllegalArgumentException("reconnectWindowMillis must not be negative");
+            this.reconnectWindowMillis = reconnectWindowMillis;
+            return this;
+        }
+
+        @Nonnull
+        public MilliDBMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Listens to the queries and connections, such as a MilliDBMetricsRecorder
+         */
+        @Nonnull
+        public ConnectionConfig setMetrics(@Nonnull MilliDBMetrics metrics) {
+            this.metrics = Validate.nonnull(metrics);
+            return this;
+        }
+
+        @Nonnull
+        public List<MilliDBCompression> getCompressions() {
+            return compressions;
+        }
+
+        /**
+         * The compressions offered to the server during the handshake, in the order of preference.
+         * Frames are not compressed if the server picks none of them.
+         *
+         * @param compressions  empty to never compress
+         */
+        @Nonnull
+        public ConnectionConfig setCompressions(@Nonnull List<MilliDBCompression> compressions) {
+            this.compressions = Collections.unmodifiableList(new ArrayList<>(Validate.nonnull(compressions)));
+            return this;
+        }
+
+        public int getCompressionThreshold() {
+            return compressionThreshold;
+        }
+
+        /**
+         * Frames of this size or smaller are sent without compression, so point reads and writes do not pay for it.
+         * It is also told to the server for the frames it sends back.
+         */
+        @Nonnull
+        public ConnectionConfig setCompressionThreshold(int compressionThreshold) {
+            if (compressionThreshold < 0) throw new IllegalArgumentException("compressionThreshold must not be negative");
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        public long getHandleTtlMillis() {
+            return handleTtlMillis;
+        }
+
+        /**
+         * Keeps the MilliDBFiles got with getDocument and getCollection for this long, so that getting them again
+         * returns the same instance without the query that checks they exist and are permitted.
+         * A file deleted through another client, or whose permission is taken away, is only noticed when it expires.
+         *
+         * @param handleTtlMillis   0 to check every time, which is the default
+         */
+        @Nonnull
+        public ConnectionConfig setHandleTtlMillis(long handleTtlMillis) {
+            if (handleTtlMillis < 0) throw new IllegalArgumentException("handleTtlMillis must not be negative");
+            this.handleTtlMillis = handleTtlMillis;
+            return this;
+        }
+
+        public int getMaxHandles() {
+            return maxHandles;
+        }
+
+        /**
+         * The number of MilliDBFiles kept by each client while #setHandleTtlMillis is set
+         */
+        @Nonnull
+        public ConnectionConfig setMaxHandles(int maxHandles) {
+            if (maxHandles < 1) throw new IllegalArgumentException("maxHandles must be positive");
+            this.maxHandles = maxHandles;
+            return this;
+        }
+
+        public long getSlowQueryThresholdMillis() {
+            return slowQueryThresholdMillis;
+        }
+
+        /**
+         * Logs the sampled queries that take this long or longer on the connection, with the time of each phase as in MilliDBQueryEvent.
+         * A query sent again is logged for each attempt.
+         *
+         * @param slowQueryThresholdMillis  0 to log none, which is the default
+         */
+        @Nonnull
+        public ConnectionConfig setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+            if (slowQueryThresholdMillis < 0) throw new IllegalArgumentException("slowQueryThresholdMillis must not be negative");
+            this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+            return this;
+        }
+
+        public double getSlowQuerySampleRate() {
+            return slowQuerySampleRate;
+        }
+
+        /**
+         * The share of the queries that are timed for the slow query log, so that it stays cheap and quiet under load
+         *
+         * @param slowQuerySampleRate   above 0 and at most 1, 0.1 by default
+         */
+        @Nonnull
+        public ConnectionConfig setSlowQuerySampleRate(double slowQuerySampleRate) {
+            if (!(slowQuerySampleRate > 0 && slowQuerySampleRate <= 1)) throw new IllegalArgumentException("slowQuerySampleRate must be above 0 and at most 1");
+            this.slowQuerySampleRate = slowQuerySampleRate;
+            return this;
+        }
+    }
+
+    /**
+     * The configuration of MilliDBClients#connectPool
+     */
+    public static final class PoolConfig {
+        @Nonnull
+        private ConnectionConfig connectionConfig = new ConnectionConfig();
+        private int minConnections = 1;
+        private int maxConnections = 8;
+        private int maxInFlightPerConnection = 64;
+        private long acquireTimeoutMillis = 5000;
+        private long idleTimeoutMillis = 60000;
+        private long healthCheckIntervalMillis = 10000;
+
+        @Nonnull
+        public ConnectionConfig getConnectionConfig() {
+            return connectionConfig;
+        }
+
+        /**
+         * The options of each pooled connection
+         */
+        @Nonnull
+        public PoolConfig setConnectionConfig(@Nonnull ConnectionConfig connectionConfig) {
+            this.connectionConfig = Validate.nonnull(connectionConfig);
+            return this;
+        }
+
+        public int getMinConnections() {
+            return minConnections;
+        }
+
+        /**
+         * The number of connections that are kept open even when they are idle
+         */
+        @Nonnull
+        public PoolConfig setMinConnections(int minConnections) {
+            if (minConnections < 0) throw new IllegalArgumentException("minConnections must not be negative");
+            this.minConnections = minConnections;
+            return this;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        @Nonnull
+        public PoolConfig setMaxConnections(int maxConnections) {
+            if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be positive");
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public int getMaxInFlightPerConnection() {
+            return maxInFlightPerConnection;
+        }
+
+        /**
+         * The number of queries that can be pipelined on one connection before callers have to wait
+         */
+        @Nonnull
+        public PoolConfig setMaxInFlightPerConnection(int maxInFlightPerConnection) {
+            if (maxInFlightPerConnection < 1) throw new IllegalArgumentException("maxInFlightPerConnection must be positive");
+            this.maxInFlightPerConnection = maxInFlightPerConnection;
+            return this;
+        }
+
+        public long getAcquireTimeoutMillis() {
+            return acquireTimeoutMillis;
+        }
+
+        /**
+         * How long a query is queued for a free connection slot before it fails. The caller itself never waits.
+         */
+        @Nonnull
+        public PoolConfig setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+            if (acquireTimeoutMillis < 0) throw new IllegalArgumentException("acquireTimeoutMillis must not be negative");
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            return this;
+        }
+
+        public long getIdleTimeoutMillis() {
+            return idleTimeoutMillis;
+        }
+
+        /**
+         * How long a connection above the minimum can stay unused before it is closed
+         */
+        @Nonnull
+        public PoolConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+            if (idleTimeoutMillis < 0) throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public long getHealthCheckIntervalMillis() {
+            return healthCheckIntervalMillis;
+        }
+
+        /**
+         * How often broken connections are dropped, idle connections are evicted and the minimum is refilled.
+         * Connections idle for this long are pinged, and dropped if they do not answer within the acquire timeout.
+         */
+        @Nonnull
+        public PoolConfig setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+            if (healthCheckIntervalMillis < 1) throw new IllegalArgumentException("healthCheckIntervalMillis must be positive");
+            this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+            return this;
+        }
+    }
+
     private static final class IMilliDBClient implements MilliDBClient {
         @Nonnull
-        private final Socket socket;
+        private final MilliDBTransport transport;
+        @Nonnull
+        private final ConnectionConfig config;
+        @Nonnull
+        private final MilliDBRetryPolicy policy;
         @Nonnull
-        private final BufferedReader reader;
+        private final MilliDBRetryBudget budget;
+        @Nonnull
+        private final MilliDBMetrics metrics;
+        private final MilliDBCache cache;
+        private final MilliDBWriteBuffer writeBuffer;
+        /**
+         * null if the handles are not kept
+         */
+        private final MilliDBHandleCache handles;
+
+        private IMilliDBClient(@Nonnull MilliDBTransport transport, @Nonnull ConnectionConfig config) {
+            this(transport, config, new MilliDBRetryBudget(config.getRetryPolicy()), null, null);
+        }
+
+        private IMilliDBClient(@Nonnull MilliDBTransport transport, @Nonnull ConnectionConfig config, @Nonnull MilliDBRetryBudget budget, MilliDBCache cache, MilliDBWriteBuffer writeBuffer) {
+            this.transport = Validate.nonnull(transport);
+            this.config = Validate.nonnull(config);
+            this.policy = config.getRetryPolicy();
+            this.budget = Validate.nonnull(budget);
+            this.metrics = config.getMetrics();
+            this.cache = cache;
+            this.writeBuffer = writeBuffer;
+            this.handles = config.getHandleTtlMillis() == 0 ? null : new MilliDBHandleCache(config.getMaxHandles(), config.getHandleTtlMillis());
+        }
+
+        /**
+         * @return  null if this client is not cached
+         */
+        private MilliDBCache getCache() {
+            return cache;
+        }
+
+        /**
+         * @return  null if the file of the path is not kept
+         */
+        private MilliDBFile getHandle(@Nonnull String path) {
+            return handles == null ? null : handles.get(path);
+        }
+
+        /**
+         * @return  the instance already kept for the path of the file, or else the file
+         */
         @Nonnull
-        private final PrintWriter writer;
-        private final int maxFailures;
-        private static final Map<MilliDBQuery, Integer> executeCounters = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        private <T extends MilliDBFile> T putHandle(@Nonnull T file) {
+            //A document and a collection never share a path, so the kept instance is of the same type
+            return handles == null ? file : (T) handles.put(file);
+        }
 
-        private IMilliDBClient(@Nonnull Socket socket, @Nonnull BufferedReader reader, @Nonnull PrintWriter writer, int maxFailures) throws IOException {
-            this.socket = Validate.nonnull(socket);
-            this.reader = Validate.nonnull(reader);
-            this.writer = Validate.nonnull(writer);
-            this.maxFailures = maxFailures;
+        /**
+         * @return  null if the sets of this client are not buffered
+         */
+        private MilliDBWriteBuffer getWriteBuffer() {
+            return writeBuffer;
         }
 
         @Override
@@ -78,17 +664,25 @@ public final class MilliDBClients {
 
         @Override
         public List<MilliDBFile> getFiles(MilliDBFilter filter) throws MilliDBResultFailedException {
-            MilliDBResult result = execute(new MilliDBQuery("", MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap()));
-            if (!result.isSucceed()) throw new MilliDBResultFailedException();
-            List<MilliDBFile> files = new ArrayList<>();
-            for (MilliData data : result.getMetadata().asMilliList(new MilliList())) {
-                String name = data.asMilliValue().asString();
-                MilliDBFile file;
-                if (name.endsWith(".mll")) file = new IMilliDBDocument(this, null, name);
-                else file = new IMilliDBCollection(this, null, name);
-                files.add(file);
-            }
-            return files;
+            return toFiles(this, null, execute(new MilliDBQuery("", MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap())));
+        }
+
+        @Override
+        @Nonnull
+        public List<MilliDBFile> getFiles(MilliDBFilter filter, int depth) throws MilliDBResultFailedException {
+            return MilliDBClients.getFiles(this, null, filter, depth);
+        }
+
+        @Override
+        @Nonnull
+        public Map<MilliDBDocument, Map<String, MilliData>> getDocuments(MilliDBFilter filter, @Nonnull String... projectionPaths) throws MilliDBResultFailedException {
+            return MilliDBClients.getDocuments(this, null, filter, projectionPaths);
+        }
+
+        @Override
+        @Nonnull
+        public CompletableFuture<List<MilliDBFile>> getFilesAsync(MilliDBFilter filter) {
+            return executeAsync(new MilliDBQuery("", MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap())).thenApply(result -> toFiles(this, null, result));
         }
 
         @Override
@@ -96,10 +690,12 @@ public final class MilliDBClients {
         public MilliDBDocument getDocument(@Nonnull String name) throws MilliDBResultFailedException, MilliDBPermissionException, IllegalArgumentException {
             Validate.nonnull(name);
             if (!name.endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBDocument name!");
+            MilliDBFile handle = getHandle(name);
+            if (handle != null) return (MilliDBDocument) handle;
             MilliDBResult result = execute(new MilliDBQuery("", MilliDBQuery.Function.GET_DOCUMENT, new MilliValue(name)));
             if (!result.isSucceed()) throw new MilliDBResultFailedException();
             if (!result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean()) throw new MilliDBPermissionException();
-            return new IMilliDBDocument(this, null, name);
+            return putHandle(new IMilliDBDocument(this, null, name));
         }
 
         @Override
@@ -107,29 +703,355 @@ public final class MilliDBClients {
         public MilliDBCollection getCollection(String name) throws MilliDBResultFailedException, MilliDBPermissionException, IllegalArgumentException {
             Validate.nonnull(name);
             if (name.endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBCollection name!");
+            MilliDBFile handle = getHandle(name);
+            if (handle != null) return (MilliDBCollection) handle;
             MilliDBResult result = execute(new MilliDBQuery("", MilliDBQuery.Function.GET_COLLECTION, new MilliValue(name)));
             if (!result.isSucceed()) throw new MilliDBResultFailedException();
             if (!result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean()) throw new MilliDBPermissionException();
-            return new IMilliDBCollection(this, null, name);
+            return putHandle(new IMilliDBCollection(this, null, name));
+        }
+
+        @Override
+        @Nonnull
+        public MilliDBWatch watch(@Nonnull String path, @Nonnull MilliDBChange.Listener listener) throws MilliDBResultFailedException {
+            return watch(path, -1, listener);
+        }
+
+        @Override
+        @Nonnull
+        public MilliDBWatch watch(@Nonnull String path, long fromVersion, @Nonnull MilliDBChange.Listener listener) throws MilliDBResultFailedException {
+            IMilliDBWatch watch = new IMilliDBWatch(this, path, fromVersion, listener);
+            if (!watch.start()) throw new MilliDBResultFailedException();
+            return watch;
         }
 
+        @Override
+        @Nonnull
+        public MilliDBBatch batch() {
+            return new MilliDBBatch(this);
+        }
+
+        @Override
         @Nonnull
         public MilliDBResult execute(@Nonnull MilliDBQuery query) {
-            executeCounters.put(query, executeCounters.getOrDefault(query, 0) + 1);
-            int counter = executeCounters.get(query);
-            if (counter > maxFailures) {
-                executeCounters.remove(query);
+            return execute(query, policy.getDeadlineMillis());
+        }
+
+        @Override
+        @Nonnull
+        public MilliDBResult execute(@Nonnull MilliDBQuery query, long deadlineMillis) {
+            //Every attempt and backoff is bounded by the deadline, so the wait always ends
+            CompletableFuture<MilliDBResult> future = executeAsync(query, deadlineMillis);
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                return MilliDBResult.failedResult(query.getID());
+            } catch (InterruptedException e) {
+                future.cancel(false);
+                Thread.currentThread().interrupt();
                 return MilliDBResult.failedResult(query.getID());
             }
-            if (counter > 1) MilliDBLogger.warning("Query '" + query.getID() + "' has failed to execute " + (counter - 1) + " time" + (counter > 2 ? "s" : ""));
-            writer.println(query.asMilliMap().toString());
+        }
+
+        @Override
+        @Nonnull
+        public CompletableFuture<MilliDBResult> executeAsync(@Nonnull MilliDBQuery query) {
+            return executeAsync(query, policy.getDeadlineMillis());
+        }
+
+        @Override
+        @Nonnull
+        public CompletableFuture<MilliDBResult> executeAsync(@Nonnull MilliDBQuery query, long deadlineMillis) {
+            Validate.nonnull(query);
+            if (deadlineMillis < 1) throw new IllegalArgumentException("deadlineMillis must be positive");
+            if (writeBuffer != null && !MilliDBRetryPolicy.isIdempotent(query)) {
+                //The buffered sets go first, whether or not they succeed
+                return writeBuffer.flushAsync().handle((v, throwable) -> null).thenCompose(v -> startCall(query, deadlineMillis));
+            }
+            return startCall(query, deadlineMillis);
+        }
+
+        @Nonnull
+        private CompletableFuture<MilliDBResult> startCall(@Nonnull MilliDBQuery query, long deadlineMillis) {
+            budget.onCall();
+            long start = System.nanoTime();
+            metrics.onQueryStarted(query.getFunction());
+            Call call = new Call(query, start + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+            MilliDBCallEvent event = new MilliDBCallEvent();
+            //Almost free when the event is not recorded
+            event.begin();
+            call.result.whenComplete((result, throwable) -> {
+                boolean succeed = throwable == null && result.isSucceed();
+                metrics.onQueryFinished(query.getFunction(), System.nanoTime() - start, succeed);
+                event.end();
+                if (!event.shouldCommit()) return;
+                event.id = query.getID();
+                event.function = query.getFunction().name();
+                event.path = query.getPath();
+                event.attempts = call.attempts;
+                event.succeed = succeed;
+                event.commit();
+            });
+            call.attempt();
+            return call.result;
+        }
+
+        @Nonnull
+        private CompletableFuture<MilliDBResult> send(@Nonnull MilliDBQuery query) {
+            if (handles != null) handles.invalidate(query);
+            if (cache == null || !cache.invalidate(query)) return transport.send(query);
+            //Invalidate again when the write is done, reads sent meanwhile may have fetched the old data
+            CompletableFuture<MilliDBResult> future = transport.send(query);
+            future.whenComplete((result, throwable) -> cache.invalidate(query));
+            return future;
+        }
+
+        @Override
+        public void close() {
+            if (writeBuffer != null) {
+                try {
+                    writeBuffer.close();
+                } catch (MilliDBResultFailedException ignored) {
+                    //Already given to the FailureListener
+                }
+            }
+            transport.close();
+        }
+
+        /**
+         * The attempts of one call, which are all sent with the same ID
+         */
+        private final class Call {
+            @Nonnull
+            private final MilliDBQuery query;
+            private final long deadline;
+            private final CompletableFuture<MilliDBResult> result = new CompletableFuture<>();
+            private volatile CompletableFuture<MilliDBResult> current;
+            private volatile int attempts;
+
+            private Call(@Nonnull MilliDBQuery query, long deadline) {
+                this.query = query;
+                this.deadline = deadline;
+                //Stops the attempt in flight if the caller gives up
+                result.whenComplete((r, throwable) -> {
+                    CompletableFuture<MilliDBResult> attempt = current;
+                    if (result.isCancelled() && attempt != null) attempt.cancel(false);
+                });
+            }
+
+            private void attempt() {
+                if (result.isDone()) return;
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    result.completeExceptionally(new TimeoutException("Query '" + query.getID() + "' has passed its deadline"));
+                    return;
+                }
+                attempts++;
+                CompletableFuture<MilliDBResult> attempt = send(query).orTimeout(Math.min(remainingMillis, policy.getAttemptTimeoutMillis()), TimeUnit.MILLISECONDS);
+                current = attempt;
+                attempt.whenComplete((r, throwable) -> {
+                    if (throwable == null) result.complete(r);
+                    else retry(throwable);
+                });
+            }
+
+            private void retry(@Nonnull Throwable cause) {
+                if (result.isDone()) return;
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                long backoffMillis = policy.getBackoffMillis(attempts);
+                if (attempts >= policy.getMaxAttempts() || backoffMillis >= remainingMillis || !policy.isRetryable(query) || !budget.tryRetry()) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                metrics.onRetry(query.getFunction());
+                int failed = attempts;
+                MilliDBLogger.warning(() -> "Query '" + query.getID() + "' has failed to execute " + failed + " time" + (failed > 1 ? "s" : "") + ", retrying in " + backoffMillis + "ms");
+                CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS).execute(this::attempt);
+            }
+        }
+    }
+
+    /**
+     * Each subscription has its own Subscriber, so that a lost or failed one is replaced only once.
+     * The changes are queued and run by one pooled thread at a time, away from the I/O threads.
+     */
+    private static final class IMilliDBWatch implements MilliDBWatch {
+        @Nonnull
+        private final IMilliDBClient client;
+        @Nonnull
+        private final String path;
+        @Nonnull
+        private final MilliDBChange.Listener listener;
+        private final Queue<MilliDBChange> changes = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+        /**
+         * -1 until the first version is known
+         */
+        private volatile long version;
+        private volatile long subscribedID = -1;
+        private volatile int failures;
+        private volatile boolean started;
+        private volatile boolean active = true;
+
+        private IMilliDBWatch(@Nonnull IMilliDBClient client, @Nonnull String path, long fromVersion, @Nonnull MilliDBChange.Listener listener) {
+            this.client = client;
+            this.path = Validate.nonnull(path);
+            this.version = fromVersion;
+            this.listener = Validate.nonnull(listener);
+        }
+
+        @Override
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public void close() {
+            if (!active) return;
+            active = false;
+            long id = subscribedID;
+            if (id != -1) unwatch(id);
+        }
+
+        /**
+         * Subscribes for the first time, waiting for the server to accept it
+         */
+        private boolean start() {
             try {
-                MilliDBResult result = MilliDBResult.Parser.parse(reader.readLine());
-                if (result.getID() == query.getID()) return result;
-            } catch (IOException e) {
-                e.printStackTrace();
+                return subscribe().get();
+            } catch (ExecutionException e) {
+                active = false;
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                active = false;
+                return false;
+            }
+        }
+
+        /**
+         * @return  the future that completes with false if the server rejects the watch,
+         *          or exceptionally if it gets no answer
+         */
+        @Nonnull
+        private CompletableFuture<Boolean> subscribe() {
+            long from = version;
+            MilliDBQuery query = new MilliDBQuery(path, MilliDBQuery.Function.WATCH, new MilliMap("v", from < 0 ? MilliNull.INSTANCE : new MilliValue(from)));
+            Subscription subscription = new Subscription();
+            return client.transport.subscribe(query, subscription).orTimeout(client.policy.getAttemptTimeoutMillis(), TimeUnit.MILLISECONDS).handle((result, throwable) -> {
+                if (throwable == null && result.isSucceed()) {
+                    //When resuming, the versions come with the replayed changes, which may arrive after this result
+                    if (version < 0) version = result.getMetadata().asMilliMap(new MilliMap()).get("v").asMilliValue(new MilliValue(-1)).asInteger64();
+                    subscribedID = query.getID();
+                    started = true;
+                    failures = 0;
+                    if (!active) unwatch(query.getID());
+                    return true;
+                }
+                client.transport.unsubscribe(query.getID());
+                if (throwable == null) {
+                    subscription.ended.set(true);
+                    active = false;
+                    return false;
+                }
+                //The first subscription is not tried again, its failure is thrown by MilliDBClient#watch
+                if (started) subscription.onLost();
+                else subscription.ended.set(true);
+                throw new CompletionException(throwable);
+            });
+        }
+
+        private void unwatch(long id) {
+            client.transport.unsubscribe(id);
+            client.transport.send(new MilliDBQuery("", MilliDBQuery.Function.UNWATCH, new MilliValue(id)));
+        }
+
+        /**
+         * Subscribes again from the last version, after the backoff of the retry policy
+         */
+        private void resubscribe() {
+            if (!active) return;
+            if (!client.transport.isOpen()) {
+                active = false;
+                return;
+            }
+            long backoffMillis = Math.max(10, client.policy.getBackoffMillis(++failures));
+            CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!active) return;
+                subscribe().thenAccept(accepted -> {
+                    if (!accepted) MilliDBLogger.warning(() -> "The watch of '" + path + "' has been rejected when subscribing again");
+                });
+            });
+        }
+
+        private void onPush(@Nonnull MilliDBResult result) {
+            MilliMap pushed = result.getMetadata().asMilliMap(new MilliMap());
+            MilliDBChange.Type type;
+            switch (pushed.get("o").asMilliValue(new MilliValue()).asString()) {
+                case "s":
+                    type = MilliDBChange.Type.SET;
+                    break;
+                case "d":
+                    type = MilliDBChange.Type.DELETE;
+                    break;
+                case "r":
+                    type = MilliDBChange.Type.RESET;
+                    break;
+                default:
+                    return;
+            }
+            long changeVersion = pushed.get("v").asMilliValue(new MilliValue(-1)).asInteger64();
+            //Changes seen before a resubscription are replayed again
+            if (type != MilliDBChange.Type.RESET && changeVersion <= version) return;
+            version = changeVersion;
+            MilliData data = pushed.get("d");
+            String filePath = pushed.get("f").asMilliValue(new MilliValue()).asString();
+            changes.add(new MilliDBChange(type, filePath, pushed.get("p").asMilliValue(new MilliValue()).asString(), data == null ? MilliNull.INSTANCE : data, changeVersion));
+            run();
+        }
+
+        private void run() {
+            if (!running.compareAndSet(false, true)) return;
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    MilliDBChange change;
+                    while (active && (change = changes.poll()) != null) {
+                        try {
+                            listener.onChange(change);
+                        } catch (RuntimeException e) {
+                            MilliDBLogger.warning(() -> "The listener of the watch of '" + path + "' has thrown: " + e);
+                        }
+                    }
+                } finally {
+                    running.set(false);
+                    if (active && !changes.isEmpty()) run();
+                }
+            });
+        }
+
+        private final class Subscription implements MilliDBTransport.Subscriber {
+            private final AtomicBoolean ended = new AtomicBoolean();
+
+            @Override
+            public void onPush(@Nonnull MilliDBResult result) {
+                if (!ended.get() && active) IMilliDBWatch.this.onPush(result);
+            }
+
+            @Override
+            public void onLost() {
+                if (ended.compareAndSet(false, true)) resubscribe();
             }
-            return execute(query);
         }
     }
 
@@ -138,11 +1060,14 @@ public final class MilliDBClients {
         private final MilliDBCollection parent;
         @Nonnull
         private final String name;
+        @Nonnull
+        private final String path;
 
         protected IMilliDBFile(@Nonnull IMilliDBClient client, MilliDBCollection parent, @Nonnull String name) {
             this.client = Validate.nonnull(client);
             this.parent = parent;
             this.name = Validate.nonnull(name);
+            this.path = parent == null ? name : parent.getPath() + "/" + name;
         }
 
         @Nonnull
@@ -150,6 +1075,12 @@ public final class MilliDBClients {
             return client;
         }
 
+        @Override
+        @Nonnull
+        public final MilliDBWatch watch(@Nonnull MilliDBChange.Listener listener) throws MilliDBResultFailedException {
+            return client.watch(getPath(), listener);
+        }
+
         @Override
         public final MilliDBCollection getParent() {
             return parent;
@@ -158,7 +1089,7 @@ public final class MilliDBClients {
         @Override
         @Nonnull
         public final String getPath() {
-            return parent == null ? name : parent.getPath() + "/" + name;
+            return path;
         }
 
         @Override
@@ -206,17 +1137,159 @@ public final class MilliDBClients {
         @Override
         @Nonnull
         public MilliData get(@Nonnull String path) {
+            MilliDBCache cache = getClient().getCache();
+            if (cache == null) {
+                MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET, new MilliValue(path)));
+                if (!result.isSucceed()) throw new MilliDBResultFailedException();
+                return result.getMetadata();
+            }
+            MilliData cached = cache.get(getPath(), path);
+            if (cached != null) return cached;
+            long version = cache.getVersion(getPath());
             MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET, new MilliValue(path)));
             if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            cache.put(getPath(), path, result.getMetadata(), version, result.getFrameLength());
             return result.getMetadata();
         }
 
+        @Override
+        @Nonnull
+        public Map<String, MilliData> get(@Nonnull String... paths) throws MilliDBResultFailedException {
+            Map<String, MilliData> values = new LinkedHashMap<>();
+            MilliDBCache cache = getClient().getCache();
+            List<String> missing = new ArrayList<>();
+            for (String path : paths) {
+                MilliData cached = cache == null ? null : cache.get(getPath(), path);
+                values.put(path, cached);
+                if (cached == null) missing.add(path);
+            }
+            if (missing.isEmpty()) return values;
+            long version = cache == null ? 0 : cache.getVersion(getPath());
+            String[] fetched = missing.toArray(new String[0]);
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET_PATHS, toMilliList(fetched)));
+            if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            for (Map.Entry<String, MilliData> entry : toProjection(fetched, result.getMetadata()).entrySet()) {
+                values.put(entry.getKey(), entry.getValue());
+                if (cache != null) cache.put(getPath(), entry.getKey(), entry.getValue(), version, -1);
+            }
+            return values;
+        }
+
         @Override
         public void set(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException {
+            MilliDBWriteBuffer buffer = getClient().getWriteBuffer();
+            if (buffer != null) {
+                buffer.set(getPath(), Validate.nonnull(path), value);
+                return;
+            }
             MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.SET, new MilliMap().append("p", new MilliValue(path)).append("v", value)));
             if (!result.isSucceed()) throw new MilliDBResultFailedException();
         }
 
+        @Override
+        @Nonnull
+        public CompletableFuture<MilliData> getAsync(@Nonnull String path) {
+            MilliDBCache cache = getClient().getCache();
+            MilliData cached = cache == null ? null : cache.get(getPath(), path);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+            long version = cache == null ? 0 : cache.getVersion(getPath());
+            return getClient().executeAsync(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET, new MilliValue(path))).thenApply(result -> {
+                if (!result.isSucceed()) throw new MilliDBResultFailedException();
+                if (cache != null) cache.put(getPath(), path, result.getMetadata(), version, result.getFrameLength());
+                return result.getMetadata();
+            });
+        }
+
+        @Override
+        @Nonnull
+        public CompletableFuture<Void> setAsync(@Nonnull String path, @Nonnull MilliData value) {
+            MilliDBWriteBuffer buffer = getClient().getWriteBuffer();
+            if (buffer != null) return buffer.set(getPath(), Validate.nonnull(path), value);
+            return getClient().executeAsync(new MilliDBQuery(getPath(), MilliDBQuery.Function.SET, new MilliMap().append("p", new MilliValue(path)).append("v", value))).thenAccept(result -> {
+                if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            });
+        }
+
+        @Override
+        public long increment(@Nonnull String path, long delta) throws MilliDBResultFailedException {
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.INCREMENT, new MilliMap().append("p", new MilliValue(path)).append("d", new MilliValue(delta))));
+            if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            return toIncremented(result);
+        }
+
+        @Override
+        @Nonnull
+        public CompletableFuture<Long> incrementAsync(@Nonnull String path, long delta) {
+            return getClient().executeAsync(new MilliDBQuery(getPath(), MilliDBQuery.Function.INCREMENT, new MilliMap().append("p", new MilliValue(path)).append("d", new MilliValue(delta)))).thenApply(result -> {
+                if (!result.isSucceed()) throw new MilliDBResultFailedException();
+                return toIncremented(result);
+            });
+        }
+
+        @Override
+        public void appendToList(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException {
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.APPEND_TO_LIST, new MilliMap().append("p", new MilliValue(path)).append("v", value)));
+            if (!result.isSucceed()) throw new MilliDBResultFailedException();
+        }
+
+        @Override
+        public boolean removeFromList(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException {
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.REMOVE_FROM_LIST, new MilliMap().append("p", new MilliValue(path)).append("v", value)));
+            if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            return result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean();
+        }
+
+        @Override
+        @Nonnull
+        public MilliData putIfAbsent(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException {
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.PUT_IF_ABSENT, new MilliMap().append("p", new MilliValue(path)).append("v", value)));
+            if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            return result.getMetadata();
+        }
+
+        @Override
+        public boolean compareAndSet(@Nonnull String path, @Nonnull MilliData expected, @Nonnull MilliData value) throws MilliDBResultFailedException {
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.COMPARE_AND_SET, new MilliMap().append("p", new MilliValue(path)).append("e", expected).append("v", value)));
+            if (!result.isSucceed()) throw new MilliDBResultFailedException();
+            return result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean();
+        }
+
+        @Override
+        @Nonnull
+        public Reader openReader(@Nonnull String path) throws MilliDBResultFailedException {
+            return openReader(path, DEFAULT_CHUNK_SIZE);
+        }
+
+        @Override
+        @Nonnull
+        public Reader openReader(@Nonnull String path, int chunkSize) throws MilliDBResultFailedException {
+            if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive");
+            MilliMap stream = openStream(path, "r");
+            return new MilliDBChunkReader(getClient(), getPath(), path, stream.get("s").asMilliValue().asInteger64(), stream.get("t").asMilliValue().asInteger32(), chunkSize);
+        }
+
+        @Override
+        @Nonnull
+        public Writer openWriter(@Nonnull String path) throws MilliDBResultFailedException {
+            return openWriter(path, DEFAULT_CHUNK_SIZE);
+        }
+
+        @Override
+        @Nonnull
+        public Writer openWriter(@Nonnull String path, int chunkSize) throws MilliDBResultFailedException {
+            //A surrogate pair is never split, so it must fit in a chunk
+            if (chunkSize < 2) throw new IllegalArgumentException("chunkSize must be at least 2");
+            MilliMap stream = openStream(path, "w");
+            return new MilliDBChunkWriter(getClient(), getPath(), path, stream.get("s").asMilliValue().asInteger64(), chunkSize);
+        }
+
+        @Nonnull
+        private MilliMap openStream(@Nonnull String path, @Nonnull String mode) throws MilliDBResultFailedException {
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.OPEN_STREAM, new MilliMap("p", new MilliValue(Validate.nonnull(path))).append("m", new MilliValue(mode))));
+            if (!result.isSucceed() || !result.getMetadata().isMilliMap()) throw new MilliDBResultFailedException();
+            return result.getMetadata().asMilliMap();
+        }
+
         @Override
         @Nonnull
         public MilliData getContent() throws MilliDBResultFailedException {
@@ -243,17 +1316,25 @@ public final class MilliDBClients {
         @Override
         @Nonnull
         public List<MilliDBFile> getFiles(MilliDBFilter filter) throws MilliDBResultFailedException {
-            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap()));
-            if (!result.isSucceed()) throw new MilliDBResultFailedException();
-            List<MilliDBFile> files = new ArrayList<>();
-            for (MilliData data : result.getMetadata().asMilliList(new MilliList())) {
-                String name = data.asMilliValue().asString();
-                MilliDBFile file;
-                if (name.endsWith(".mll")) file = new IMilliDBDocument(getClient(), this, name);
-                else file = new IMilliDBCollection(getClient(), this, name);
-                files.add(file);
-            }
-            return files;
+            return toFiles(getClient(), this, getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap())));
+        }
+
+        @Override
+        @Nonnull
+        public List<MilliDBFile> getFiles(MilliDBFilter filter, int depth) throws MilliDBResultFailedException {
+            return MilliDBClients.getFiles(getClient(), this, filter, depth);
+        }
+
+        @Override
+        @Nonnull
+        public Map<MilliDBDocument, Map<String, MilliData>> getDocuments(MilliDBFilter filter, @Nonnull String... projectionPaths) throws MilliDBResultFailedException {
+            return MilliDBClients.getDocuments(getClient(), this, filter, projectionPaths);
+        }
+
+        @Override
+        @Nonnull
+        public CompletableFuture<List<MilliDBFile>> getFilesAsync(MilliDBFilter filter) {
+            return getClient().executeAsync(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET_FILES, filter == null ? MilliNull.INSTANCE : filter.toMilliMap())).thenApply(result -> toFiles(getClient(), this, result));
         }
 
         @Override
@@ -261,10 +1342,13 @@ public final class MilliDBClients {
         public MilliDBDocument getDocument(String name) throws MilliDBResultFailedException, MilliDBPermissionException, IllegalArgumentException {
             Validate.nonnull(name);
             if (!name.endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBDocument name!");
-            MilliDBResult result = getClient().execute(new MilliDBQuery("", MilliDBQuery.Function.GET_DOCUMENT, new MilliValue(name)));
+            MilliDBFile handle = getClient().getHandle(getPath() + "/" + name);
+            if (handle != null) return (MilliDBDocument) handle;
+            //Asked of this collection, since the name is looked up under the path of the query, the root if it is empty
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET_DOCUMENT, new MilliValue(name)));
             if (!result.isSucceed()) throw new MilliDBResultFailedException();
             if (!result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean()) throw new MilliDBPermissionException();
-            return new IMilliDBDocument(getClient(), this, name);
+            return getClient().putHandle(new IMilliDBDocument(getClient(), this, name));
         }
 
         @Override
@@ -272,15 +1356,43 @@ public final class MilliDBClients {
         public MilliDBCollection getCollection(String name) throws MilliDBResultFailedException, MilliDBPermissionException, IllegalArgumentException {
             Validate.nonnull(name);
             if (name.endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBCollection name!");
-            MilliDBResult result = getClient().execute(new MilliDBQuery("", MilliDBQuery.Function.GET_COLLECTION, new MilliValue(name)));
+            MilliDBFile handle = getClient().getHandle(getPath() + "/" + name);
+            if (handle != null) return (MilliDBCollection) handle;
+            //Asked of this collection, since the name is looked up under the path of the query, the root if it is empty
+            MilliDBResult result = getClient().execute(new MilliDBQuery(getPath(), MilliDBQuery.Function.GET_COLLECTION, new MilliValue(name)));
             if (!result.isSucceed()) throw new MilliDBResultFailedException();
             if (!result.getMetadata().asMilliValue(new MilliValue(false)).asBoolean()) throw new MilliDBPermissionException();
-            return new IMilliDBCollection(getClient(), this, name);
+            return getClient().putHandle(new IMilliDBCollection(getClient(), this, name));
+        }
+
+        @Override
+        @Nonnull
+        public Stream<MilliDBFile> stream() {
+            return stream(null, DEFAULT_PAGE_SIZE);
         }
 
         @Override
+        @Nonnull
+        public Stream<MilliDBFile> walk(MilliDBFilter filter, int parallelism) {
+            return StreamSupport.stream(new MilliDBWalkSpliterator(this, filter, parallelism), false);
+        }
+
+        @Override
+        @Nonnull
+        public Stream<MilliDBFile> stream(MilliDBFilter filter, int pageSize) {
+            MilliDBFileIterator iterator = iterator(filter, pageSize);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+        }
+
+        @Override
+        @Nonnull
         public Iterator<MilliDBFile> iterator() {
-            return getFiles().iterator();
+            return iterator(null, DEFAULT_PAGE_SIZE);
+        }
+
+        @Nonnull
+        private MilliDBFileIterator iterator(MilliDBFilter filter, int pageSize) {
+            return new MilliDBFileIterator(getClient(), getPath(), filter, pageSize, getClient().policy.getDeadlineMillis(), name -> name.endsWith(".mll") ? new IMilliDBDocument(getClient(), this, name) : new IMilliDBCollection(getClient(), this, name));
         }
     }
 }
@@ -0,0 +1,74 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes queries and results into frames on the connection.
+ * <p>
+ * The client offers its codecs by name during the HAS_USER handshake, and both sides switch to the one the server picks.
+ * TEXT, the original one-line-per-frame format, is used when the server does not pick any.
+ * <p>
+ * Implementations must be stateless, as one instance is shared by all connections.
+ */
+public interface MilliDBCodec {
+    /**
+     * One MilliMap per line, as MilliDBQuery#asMilliMap and MilliDBResult#toMilliMap
+     */
+    MilliDBCodec TEXT = new MilliDBTextCodec();
+    /**
+     * Length-prefixed frames with varint IDs, one-byte functions and typed tags for MilliData
+     */
+    MilliDBCodec BINARY = new MilliDBBinaryCodec();
+
+    /**
+     * @return  the name the codec is negotiated by
+     */
+    @Nonnull
+    String getName();
+
+    void writeQuery(@Nonnull MilliDBQuery query, @Nonnull OutputStream out) throws IOException;
+
+    /**
+     * @return  null if the stream has ended
+     */
+    MilliDBQuery readQuery(@Nonnull InputStream in) throws IOException;
+
+    void writeResult(@Nonnull MilliDBResult result, @Nonnull OutputStream out) throws IOException;
+
+    /**
+     * @return  null if the stream has ended
+     */
+    MilliDBResult readResult(@Nonnull InputStream in) throws IOException;
+
+    /**
+     * Reads the result of a whole frame found by #frameLength, straight from the received bytes.
+     * The bytes are reused once it returns, so a result that keeps them must copy them.
+     */
+    default MilliDBResult readResult(@Nonnull byte[] frame, int offset, int length) throws IOException {
+        return readResult(new ByteArrayInputStream(frame, offset, length));
+    }
+
+    /**
+     * Finds the first complete frame in received bytes, for transports that can not block on a stream.
+     * The position and the limit of the buffer are left unchanged.
+     *
+     * @return  the length of the frame from the position of the buffer, or -1 if it is not complete yet
+     */
+    int frameLength(@Nonnull ByteBuffer received) throws IOException;
+
+    /**
+     * The same as #frameLength, for bytes that keep arriving after the same position.
+     * A codec whose frames end with a delimiter searches only the bytes after the scanned ones.
+     *
+     * @param scanned   the number of bytes from the position already known not to complete a frame
+     */
+    default int frameLength(@Nonnull ByteBuffer received, int scanned) throws IOException {
+        return frameLength(received);
+    }
+}
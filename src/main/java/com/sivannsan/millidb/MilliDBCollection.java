@@ -1,8 +1,13 @@
 package com.sivannsan.millidb;
 
 import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliData;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * The instance of this class does not locally work with the data.
@@ -21,6 +26,70 @@ public interface MilliDBCollection extends MilliDBFile, Iterable<MilliDBFile> {
     @Nonnull
     List<MilliDBFile> getFiles(MilliDBFilter filter) throws MilliDBResultFailedException;
 
+    /**
+     * Get the permitted MilliDBFiles of the subtree in one query, walking into the collections down to the depth.
+     * With a filter, only the documents that go with it are listed, but all collections are still walked into.
+     * <p>
+     * The whole listing is one result, so #walk suits subtrees too large to hold at once.
+     *
+     * @param depth the levels to list, 1 for the files of this collection only, like #getFiles
+     */
+    @Nonnull
+    List<MilliDBFile> getFiles(MilliDBFilter filter, int depth) throws MilliDBResultFailedException;
+
+    /**
+     * The same as #getFiles, but does not wait for the result.
+     * The future completes exceptionally with MilliDBResultFailedException if the result is failed.
+     */
+    @Nonnull
+    CompletableFuture<List<MilliDBFile>> getFilesAsync(MilliDBFilter filter);
+
+    /**
+     * Get the permitted MilliDBDocuments that go with the filter, together with the data at the paths of each of them.
+     * It is a single query, instead of #getFiles followed by a MilliDBDocument#get for every document.
+     *
+     * @param projectionPaths   the paths of the content to fetch, "" for the whole content
+     * @return  the data at each of the paths by document, in the order of the server
+     */
+    @Nonnull
+    Map<MilliDBDocument, Map<String, MilliData>> getDocuments(MilliDBFilter filter, @Nonnull String... projectionPaths) throws MilliDBResultFailedException;
+
+    /**
+     * The same as #stream(MilliDBFilter, int), without a filter and with the default page size
+     */
+    @Nonnull
+    Stream<MilliDBFile> stream();
+
+    /**
+     * Get a lazy stream of permitted MilliDBFiles if each of them goes with the filter.
+     * The files are fetched page by page as the stream is consumed, so the memory use does not grow with the collection.
+     * Closing the stream drops the page fetched ahead, so a stream left before its end should be closed.
+     *
+     * @param pageSize  the maximum number of files fetched in one query
+     */
+    @Nonnull
+    Stream<MilliDBFile> stream(MilliDBFilter filter, int pageSize);
+
+    /**
+     * Get a lazy stream of the permitted MilliDBFiles of the whole subtree, with one listing per collection.
+     * With a filter, only the documents that go with it are in the stream, but all collections are still walked into.
+     * <p>
+     * The listings of the next collections are sent ahead, up to the parallelism, so a pooled client spreads them
+     * over its connections. The stream can be made parallel, and it splits by child collections.
+     *
+     * @param parallelism   the maximum number of listings in flight
+     * @throws MilliDBResultFailedException from the stream, if a listing has failed
+     */
+    @Nonnull
+    Stream<MilliDBFile> walk(MilliDBFilter filter, int parallelism);
+
+    /**
+     * Iterates the permitted MilliDBFiles lazily, page by page, like #stream
+     */
+    @Override
+    @Nonnull
+    Iterator<MilliDBFile> iterator();
+
     /**
      * Get a permitted MilliDBDocument.
      * If it does not exist, it will automatically create for you.
@@ -0,0 +1,65 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.io.IOException;
+
+/**
+ * Compresses large frames on the connection.
+ * <p>
+ * The client offers its compressions by name during the HAS_USER handshake, next to its codecs, and both sides use the one
+ * the server picks. Only frames above the threshold of MilliDBClients.ConnectionConfig are compressed, smaller frames go as they are.
+ * <p>
+ * Implementations must be stateless, as one instance is shared by all connections.
+ * The state of the work, such as a Deflater, belongs to the Compressor and the Decompressor, which each connection makes and reuses.
+ */
+public interface MilliDBCompression {
+    /**
+     * Raw deflate of java.util.zip at its fastest level
+     */
+    MilliDBCompression DEFLATE = new MilliDBDeflateCompression();
+
+    /**
+     * @return  the name the compression is negotiated by
+     */
+    @Nonnull
+    String getName();
+
+    @Nonnull
+    Compressor newCompressor();
+
+    @Nonnull
+    Decompressor newDecompressor();
+
+    /**
+     * Used by one thread at a time
+     */
+    interface Compressor {
+        /**
+         * @return  the compressed bytes of the input from the offset, which may be larger than the input
+         */
+        @Nonnull
+        byte[] compress(@Nonnull byte[] input, int offset, int length);
+
+        /**
+         * Releases the resources, the compressor is not used afterwards
+         */
+        void end();
+    }
+
+    /**
+     * Used by one thread at a time
+     */
+    interface Decompressor {
+        /**
+         * @param originalLength    the length of the bytes before they were compressed
+         */
+        @Nonnull
+        byte[] decompress(@Nonnull byte[] input, int offset, int length, int originalLength) throws IOException;
+
+        /**
+         * Releases the resources, the decompressor is not used afterwards
+         */
+        void end();
+    }
+}
@@ -0,0 +1,410 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single physical connection to a MilliDBServer.
+ * <p>
+ * Queries are pipelined: many of them can be in flight at the same time,
+ * and every incoming result is matched to its waiting query by ID. The results a server pushes later for a subscription,
+ * such as a WATCH, are matched to its subscriber by the same ID.
+ * <p>
+ * Callers encode their frames in parallel and only hand the bytes over. Nothing in the path holds a monitor
+ * or a ThreadLocal, so blocking callers can be virtual threads without pinning their carrier threads.
+ */
+abstract class MilliDBConnection implements MilliDBTransport {
+    private static final int INITIAL_RECEIVED_SIZE = 8 * 1024;
+
+    @Nonnull
+    private final MilliDBClients.ConnectionConfig config;
+    @Nonnull
+    private final MilliDBMetrics metrics;
+    private final Map<Long, CompletableFuture<MilliDBResult>> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Subscriber> subscriptions = new ConcurrentHashMap<>();
+    /**
+     * The traces of the pending queries that are traced, usually none
+     */
+    private final Map<Long, MilliDBQueryTrace> traces = new ConcurrentHashMap<>();
+    /**
+     * Switched when the handshake result is received, before any later frame is read or written
+     */
+    private volatile MilliDBCodec codec = MilliDBCodec.TEXT;
+    /**
+     * Switched with the codec, null while frames are not compressed
+     */
+    private volatile MilliDBFrameCompressor compressor;
+    private volatile long handshakeID = -1;
+    private volatile boolean closed;
+    private volatile Runnable closeListener;
+    /**
+     * Bytes received but not yet decoded into a whole frame, only touched by the thread that reads
+     */
+    private ByteBuffer received = ByteBuffer.allocate(INITIAL_RECEIVED_SIZE);
+    /**
+     * The received bytes already searched for the end of a frame, so that a long frame arriving in many reads is searched once
+     */
+    private int scanned;
+
+    protected MilliDBConnection(@Nonnull MilliDBClients.ConnectionConfig config) {
+        this.config = Validate.nonnull(config);
+        this.metrics = config.getMetrics();
+    }
+
+    /**
+     * Opens a connection on the event loop of the config, or a blocking socket with its own reader thread if there is none
+     */
+    @Nonnull
+    static MilliDBConnection open(@Nonnull String host, int port, @Nonnull MilliDBClients.ConnectionConfig config) throws IOException {
+        MilliDBConnection connection;
+        if (config.getEventLoop() != null) connection = new MilliDBChannelConnection(host, port, config, config.getEventLoop());
+        else connection = new MilliDBSocketConnection(host, port, config);
+        config.getMetrics().onConnectionEvent(MilliDBMetrics.ConnectionEvent.OPENED);
+        return connection;
+    }
+
+    /**
+     * Writes the query without waiting for its result
+     *
+     * @return  the future that completes with the result of the same ID,
+     *          or completes exceptionally if the connection is lost before the result arrives
+     */
+    @Override
+    @Nonnull
+    public final CompletableFuture<MilliDBResult> send(@Nonnull MilliDBQuery query) {
+        CompletableFuture<MilliDBResult> future = new CompletableFuture<>();
+        long id = query.getID();
+        pending.put(id, future);
+        future.whenComplete((result, throwable) -> pending.remove(id, future));
+        if (closed) {
+            future.completeExceptionally(new IOException("Connection is closed"));
+            return future;
+        }
+        long start = System.nanoTime();
+        MilliDBQueryTrace trace = MilliDBQueryTrace.start(query, config, start);
+        ByteBuffer bytes;
+        try {
+            FrameBuffer frame = new FrameBuffer();
+            codec.writeQuery(query, frame);
+            MilliDBFrameCompressor compressor = this.compressor;
+            bytes = compressor == null ? frame.toByteBuffer() : compressor.wrap(frame.array(), MilliDBFrameCompressor.HEADROOM, frame.size() - MilliDBFrameCompressor.HEADROOM);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        long encoded = System.nanoTime();
+        metrics.onFrameEncoded(query.getFunction(), bytes.remaining(), encoded - start);
+        future.thenRun(() -> metrics.onRoundTrip(query.getFunction(), System.nanoTime() - encoded));
+        if (trace != null) {
+            trace.onEncoded(bytes.remaining(), encoded);
+            traces.put(id, trace);
+            future.whenComplete((result, throwable) -> {
+                traces.remove(id, trace);
+                trace.finish(result);
+            });
+        }
+        try {
+            writeFrame(bytes);
+            if (trace != null) trace.onWritten(System.nanoTime());
+        } catch (IOException e) {
+            //A broken write leaves the connection unusable, and closing it lets the query be told apart from a rejected one
+            if (!closed) MilliDBLogger.warning(() -> "Lost the connection: " + e.getMessage());
+            close();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * The first result of the ID completes the returned future, the later ones go to the subscriber
+     */
+    @Override
+    @Nonnull
+    public final CompletableFuture<MilliDBResult> subscribe(@Nonnull MilliDBQuery query, @Nonnull Subscriber subscriber) {
+        subscriptions.put(query.getID(), Validate.nonnull(subscriber));
+        CompletableFuture<MilliDBResult> future = send(query);
+        future.whenComplete((result, throwable) -> {
+            if (throwable != null) subscriptions.remove(query.getID(), subscriber);
+        });
+        //Closed while subscribing, after close has told the subscribers
+        if (closed && subscriptions.remove(query.getID(), subscriber)) subscriber.onLost();
+        return future;
+    }
+
+    @Override
+    public final void unsubscribe(long id) {
+        subscriptions.remove(id);
+    }
+
+    /**
+     * Runs the HAS_USER handshake on this connection, offering the codecs and compressions of the config.
+     * The handshake itself always uses the TEXT codec without compression.
+     *
+     * @return  true if the user exists and the password is correct
+     */
+    final boolean authenticate(@Nonnull String userName, @Nonnull String userPassword, long timeoutMillis) {
+        MilliList codecs = new MilliList();
+        for (MilliDBCodec offered : config.getCodecs()) codecs.append(new MilliValue(offered.getName()));
+        MilliMap metadata = new MilliMap().append("user_name", new MilliValue(userName)).append("user_password", new MilliValue(userPassword)).append("codecs", codecs);
+        if (!config.getCompressions().isEmpty()) {
+            MilliList compressions = new MilliList();
+            for (MilliDBCompression offered : config.getCompressions()) compressions.append(new MilliValue(offered.getName()));
+            metadata.append("compressions", compressions).append("compression_threshold", new MilliValue(config.getCompressionThreshold()));
+        }
+        MilliDBQuery query = new MilliDBQuery("", MilliDBQuery.Function.HAS_USER, metadata);
+        handshakeID = query.getID();
+        MilliDBResult result;
+        try {
+            result = send(query).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            result = MilliDBResult.failedResult(query.getID());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = MilliDBResult.failedResult(query.getID());
+        }
+        if (!result.isSucceed()) {
+            MilliDBLogger.warning("Failed to verify user!");
+            return false;
+        }
+        if (!isUserVerified(result.getMetadata())) {
+            MilliDBLogger.warning("The input user does not exists or is incorrect password!");
+            return false;
+        }
+        return true;
+    }
+
+    final int getInFlight() {
+        return pending.size();
+    }
+
+    final int getSubscriptions() {
+        return subscriptions.size();
+    }
+
+    @Nonnull
+    final MilliDBCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return  null if frames are not compressed
+     */
+    final MilliDBCompression getCompression() {
+        MilliDBFrameCompressor compressor = this.compressor;
+        return compressor == null ? null : compressor.getCompression();
+    }
+
+    @Nonnull
+    final MilliDBClients.ConnectionConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public final boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public final void close() {
+        if (closed) return;
+        closed = true;
+        closeChannel();
+        failPending(new IOException("Connection is closed"));
+        for (Long id : subscriptions.keySet()) {
+            Subscriber subscriber = subscriptions.remove(id);
+            if (subscriber != null) subscriber.onLost();
+        }
+        MilliDBFrameCompressor compressor = this.compressor;
+        if (compressor != null) compressor.end();
+        metrics.onConnectionEvent(MilliDBMetrics.ConnectionEvent.CLOSED);
+        Runnable listener = closeListener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Runs the listener once this connection is closed, after its pending queries have failed.
+     * It runs at once if the connection is already closed.
+     */
+    final void setCloseListener(@Nonnull Runnable listener) {
+        closeListener = Validate.nonnull(listener);
+        if (closed) listener.run();
+    }
+
+    /**
+     * Hands an encoded frame over to the connection, called by many threads at the same time.
+     * Frames may go out in any order, since every result is matched by ID.
+     *
+     * @param frame a heap buffer of the frame from its position to its limit, owned by the connection from then on
+     */
+    protected abstract void writeFrame(@Nonnull ByteBuffer frame) throws IOException;
+
+    protected abstract void closeChannel();
+
+    /**
+     * Decodes and delivers every whole frame of the received bytes, keeping the rest for the next call.
+     * Called by one thread at a time.
+     * <p>
+     * The buffer grows to hold a large frame, and shrinks back once it has been drained, so that one large result
+     * does not keep its memory for the life of the connection.
+     */
+    protected final void receive(@Nonnull ByteBuffer bytes) throws IOException {
+        if (received.remaining() < bytes.remaining()) {
+            received.flip();
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(received.capacity() * 2, received.remaining() + bytes.remaining()));
+            grown.put(received);
+            received = grown;
+        }
+        received.put(bytes);
+        received.flip();
+        try {
+            int length;
+            MilliDBFrameCompressor compressor;
+            while (!closed && (length = (compressor = this.compressor) == null ? codec.frameLength(received, scanned) : compressor.frameLength(received)) != -1) {
+                scanned = 0;
+                byte[] frame;
+                int offset;
+                if (compressor == null) {
+                    frame = received.array();
+                    offset = received.arrayOffset() + received.position();
+                    received.position(received.position() + length);
+                } else {
+                    ByteBuffer unwrapped = compressor.unwrap(received.array(), received.arrayOffset() + received.position(), length);
+                    received.position(received.position() + length);
+                    frame = unwrapped.array();
+                    offset = unwrapped.arrayOffset() + unwrapped.position();
+                    length = unwrapped.remaining();
+                }
+                long start = System.nanoTime();
+                MilliDBResult result = codec.readResult(frame, offset, length);
+                long decoded = System.nanoTime();
+                metrics.onFrameDecoded(length, decoded - start);
+                if (result == null) continue;
+                result.setFrameLength(length);
+                if (!traces.isEmpty()) {
+                    MilliDBQueryTrace trace = traces.get(result.getID());
+                    if (trace != null) trace.onReceived(length, start, decoded);
+                }
+                deliver(result);
+            }
+            scanned = received.remaining();
+        } finally {
+            received.compact();
+            if (received.capacity() > INITIAL_RECEIVED_SIZE && received.position() <= INITIAL_RECEIVED_SIZE / 2) {
+                received.flip();
+                received = ByteBuffer.allocate(INITIAL_RECEIVED_SIZE).put(received);
+            }
+        }
+    }
+
+    /**
+     * Delivers a result that has been read
+     */
+    private void deliver(@Nonnull MilliDBResult result) {
+        if (result.getID() == handshakeID && result.getID() != -1) {
+            handshakeID = -1;
+            negotiate(result);
+        }
+        CompletableFuture<MilliDBResult> future = pending.remove(result.getID());
+        if (future == null) {
+            Subscriber subscriber = subscriptions.get(result.getID());
+            if (subscriber != null) {
+                subscriber.onPush(result);
+                return;
+            }
+            MilliDBLogger.warning(() -> "Received a result of unknown query '" + result.getID() + "'");
+            metrics.onUnknownResult(result.getID());
+            return;
+        }
+        future.complete(result);
+    }
+
+    protected final boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * A server that supports negotiation answers HAS_USER with a MilliMap of the verification 'v', the picked codec 'c'
+     * and the picked compression 'z' if any, an older server answers with the verification only.
+     * No other query is sent until the handshake is done, so no frame can be encoded with the old codec after the switch.
+     */
+    private void negotiate(@Nonnull MilliDBResult result) {
+        if (!result.isSucceed() || !result.getMetadata().isMilliMap()) return;
+        MilliMap metadata = result.getMetadata().asMilliMap();
+        String pickedCodec = metadata.get("c").asMilliValue(new MilliValue()).asString();
+        for (MilliDBCodec offered : config.getCodecs()) {
+            if (!offered.getName().equals(pickedCodec)) continue;
+            codec = offered;
+            break;
+        }
+        MilliData pickedCompression = metadata.get("z");
+        if (pickedCompression == null) return;
+        for (MilliDBCompression offered : config.getCompressions()) {
+            if (!offered.getName().equals(pickedCompression.asMilliValue(new MilliValue()).asString())) continue;
+            compressor = new MilliDBFrameCompressor(offered, config.getCompressionThreshold(), metrics);
+            break;
+        }
+    }
+
+    private static boolean isUserVerified(@Nonnull MilliData metadata) {
+        if (metadata.isMilliMap()) return metadata.asMilliMap().get("v").asMilliValue(new MilliValue(false)).asBoolean();
+        return metadata.asMilliValue(new MilliValue(false)).asBoolean();
+    }
+
+    /**
+     * The bytes of a frame being encoded, which keep room in front for the envelope of the compression.
+     * Unlike ByteArrayOutputStream, writing to it takes no monitor.
+     */
+    private static final class FrameBuffer extends OutputStream {
+        private byte[] buf = new byte[128];
+        private int count = MilliDBFrameCompressor.HEADROOM;
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) buf = Arrays.copyOf(buf, count * 2);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(@Nonnull byte[] bytes, int offset, int length) {
+            if (count + length > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+            System.arraycopy(bytes, offset, buf, count, length);
+            count += length;
+        }
+
+        private int size() {
+            return count;
+        }
+
+        @Nonnull
+        private byte[] array() {
+            return buf;
+        }
+
+        @Nonnull
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, MilliDBFrameCompressor.HEADROOM, count - MilliDBFrameCompressor.HEADROOM);
+        }
+    }
+
+    private void failPending(@Nonnull Throwable cause) {
+        for (Long id : pending.keySet()) {
+            CompletableFuture<MilliDBResult> future = pending.remove(id);
+            if (future != null) future.completeExceptionally(cause);
+        }
+    }
+}
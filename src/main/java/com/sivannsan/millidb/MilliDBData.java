@@ -0,0 +1,222 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Paths inside the content of a document, the way the server reads them.
+ * <p>
+ * A path is keys separated by dots, and an integer without leading zeros is an index when it meets a MilliList.
+ * The empty path is the whole content. Writes never modify the input data: they copy the MilliMaps and MilliLists along the path,
+ * so data that has been handed out stays as it is.
+ */
+final class MilliDBData {
+    private static final Pattern INDEX = Pattern.compile("0|[1-9][0-9]*");
+
+    private MilliDBData() {
+    }
+
+    /**
+     * @return  the data at the path, MilliNull if there is none
+     */
+    @Nonnull
+    static MilliData get(@Nonnull MilliData data, @Nonnull String path) {
+        return get(data, split(path));
+    }
+
+    /**
+     * @param keys  the path split with #split, for paths that are used many times
+     */
+    @Nonnull
+    static MilliData get(@Nonnull MilliData data, @Nonnull String[] keys) {
+        MilliData current = data;
+        for (String key : keys) {
+            if (current.isMilliMap()) {
+                current = current.asMilliMap().get(key);
+            } else if (current.isMilliList() && INDEX.matcher(key).matches()) {
+                current = elementAt(current.asMilliList(), key);
+            } else {
+                return MilliNull.INSTANCE;
+            }
+            if (current == null) return MilliNull.INSTANCE;
+        }
+        return current;
+    }
+
+    /**
+     * Like MilliDBDocument#set: MilliMaps on the way are created if they do not exist, but MilliLists are not
+     *
+     * @return  a copy of the data with the value at the path
+     * @throws IllegalArgumentException if the path goes through a MilliValue or past the end of a MilliList
+     */
+    @Nonnull
+    static MilliData set(@Nonnull MilliData data, @Nonnull String path, @Nonnull MilliData value) throws IllegalArgumentException {
+        return set(data, split(path), 0, value);
+    }
+
+    /**
+     * @return  about the length of the text form, counted without building it
+     */
+    static long estimateLength(@Nonnull MilliData data) {
+        if (data.isMilliMap()) {
+            MilliMap map = data.asMilliMap();
+            long length = 2;
+            for (String key : map.keySet()) length += key.length() + 4 + estimateLength(map.get(key));
+            return length;
+        }
+        if (data.isMilliList()) {
+            long length = 2;
+            for (MilliData element : data.asMilliList()) length += 1 + estimateLength(element);
+            return length;
+        }
+        if (data.isMilliValue()) return data.asMilliValue().asString().length() + 2;
+        return 4;
+    }
+
+    /**
+     * @return  a deep copy, so that later changes of either side are not seen by the other
+     */
+    @Nonnull
+    static MilliData copy(@Nonnull MilliData data) {
+        if (data.isMilliMap()) {
+            MilliMap map = data.asMilliMap();
+            MilliMap copy = new MilliMap();
+            for (String key : map.keySet()) copy.append(key, copy(map.get(key)));
+            return copy;
+        }
+        if (data.isMilliList()) {
+            MilliList copy = new MilliList();
+            for (MilliData element : data.asMilliList()) copy.append(copy(element));
+            return copy;
+        }
+        return data;
+    }
+
+    /**
+     * Compares by content, MilliValues by their text form
+     */
+    static boolean isEqual(@Nonnull MilliData a, @Nonnull MilliData b) {
+        if (a.isMilliMap() && b.isMilliMap()) {
+            MilliMap mapA = a.asMilliMap();
+            MilliMap mapB = b.asMilliMap();
+            if (!mapA.keySet().equals(mapB.keySet())) return false;
+            for (String key : mapA.keySet()) if (!isEqual(mapA.get(key), mapB.get(key))) return false;
+            return true;
+        }
+        if (a.isMilliList() && b.isMilliList()) {
+            List<MilliData> listA = toList(a.asMilliList());
+            List<MilliData> listB = toList(b.asMilliList());
+            if (listA.size() != listB.size()) return false;
+            for (int i = 0; i < listA.size(); i++) if (!isEqual(listA.get(i), listB.get(i))) return false;
+            return true;
+        }
+        if (a.isMilliValue() && b.isMilliValue()) return a.toString().equals(b.toString());
+        return a.isMilliNull() && b.isMilliNull();
+    }
+
+    /**
+     * The semantics of MilliDBFilter.SuperOf: a MilliMap is super of another if it has all of its keys with super values,
+     * and a MilliList is super of another if each of its elements has a super element. MilliValues must be equal.
+     *
+     * @param level the number of levels compared as super, deeper levels must be equal; 0 for no limit
+     */
+    static boolean isSuperOf(@Nonnull MilliData superData, @Nonnull MilliData subData, int level) {
+        if (subData.isMilliMap()) {
+            if (!superData.isMilliMap()) return false;
+            MilliMap superMap = superData.asMilliMap();
+            MilliMap subMap = subData.asMilliMap();
+            for (String key : subMap.keySet()) {
+                MilliData value = superMap.get(key);
+                if (value == null || !isSuperOrEqual(value, subMap.get(key), level)) return false;
+            }
+            return true;
+        }
+        if (subData.isMilliList()) {
+            if (!superData.isMilliList()) return false;
+            List<MilliData> superList = toList(superData.asMilliList());
+            for (MilliData subElement : subData.asMilliList()) {
+                boolean found = false;
+                for (MilliData superElement : superList) {
+                    if (isSuperOrEqual(superElement, subElement, level)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Nonnull
+    static List<MilliData> toList(@Nonnull MilliList list) {
+        List<MilliData> elements = new ArrayList<>();
+        for (MilliData element : list) elements.add(element);
+        return elements;
+    }
+
+    @Nonnull
+    static String[] split(@Nonnull String path) {
+        return path.isEmpty() ? new String[0] : path.split("\\.", -1);
+    }
+
+    static boolean isIndex(@Nonnull String key) {
+        return INDEX.matcher(key).matches();
+    }
+
+    private static boolean isSuperOrEqual(@Nonnull MilliData superData, @Nonnull MilliData subData, int level) {
+        if (level == 1 || subData.isMilliValue() || subData.isMilliNull()) return isEqual(superData, subData);
+        return isSuperOf(superData, subData, level == 0 ? 0 : level - 1);
+    }
+
+    @Nonnull
+    private static MilliData set(@Nonnull MilliData current, @Nonnull String[] keys, int i, @Nonnull MilliData value) {
+        if (i == keys.length) return value;
+        String key = keys[i];
+        if (current.isMilliList() && isIndex(key)) {
+            List<MilliData> elements = toList(current.asMilliList());
+            int index = parseIndex(key);
+            if (index >= elements.size()) throw new IllegalArgumentException("Index " + key + " is out of the MilliList");
+            MilliList list = new MilliList();
+            for (int j = 0; j < elements.size(); j++) list.append(j == index ? set(elements.get(j), keys, i + 1, value) : elements.get(j));
+            return list;
+        }
+        if (current.isMilliMap()) {
+            MilliMap map = current.asMilliMap();
+            MilliMap copy = new MilliMap();
+            boolean isSet = false;
+            for (String existing : map.keySet()) {
+                if (existing.equals(key)) {
+                    copy.append(key, set(map.get(key), keys, i + 1, value));
+                    isSet = true;
+                } else {
+                    copy.append(existing, map.get(existing));
+                }
+            }
+            if (!isSet) copy.append(key, set(MilliNull.INSTANCE, keys, i + 1, value));
+            return copy;
+        }
+        if (current.isMilliValue() || current.isMilliList()) throw new IllegalArgumentException("The path goes through a " + (current.isMilliValue() ? "MilliValue" : "MilliList"));
+        return new MilliMap(key, set(MilliNull.INSTANCE, keys, i + 1, value));
+    }
+
+    private static MilliData elementAt(@Nonnull MilliList list, @Nonnull String key) {
+        int index = parseIndex(key);
+        int i = 0;
+        for (MilliData element : list) if (i++ == index) return element;
+        return null;
+    }
+
+    private static int parseIndex(@Nonnull String key) {
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate without the zlib header and checksum, since every frame already has its own length
+ */
+final class MilliDBDeflateCompression implements MilliDBCompression {
+    @Override
+    @Nonnull
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    @Nonnull
+    public Compressor newCompressor() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        return new Compressor() {
+            @Override
+            @Nonnull
+            public byte[] compress(@Nonnull byte[] input, int offset, int length) {
+                deflater.reset();
+                deflater.setInput(input, offset, length);
+                deflater.finish();
+                byte[] output = new byte[Math.max(64, length / 2)];
+                int compressed = 0;
+                while (!deflater.finished()) {
+                    if (compressed == output.length) output = Arrays.copyOf(output, output.length * 2);
+                    compressed += deflater.deflate(output, compressed, output.length - compressed);
+                }
+                return Arrays.copyOf(output, compressed);
+            }
+
+            @Override
+            public void end() {
+                deflater.end();
+            }
+        };
+    }
+
+    @Override
+    @Nonnull
+    public Decompressor newDecompressor() {
+        Inflater inflater = new Inflater(true);
+        return new Decompressor() {
+            @Override
+            @Nonnull
+            public byte[] decompress(@Nonnull byte[] input, int offset, int length, int originalLength) throws IOException {
+                inflater.reset();
+                inflater.setInput(input, offset, length);
+                byte[] output = new byte[originalLength];
+                int inflated = 0;
+                try {
+                    while (inflated < originalLength) {
+                        int n = inflater.inflate(output, inflated, originalLength - inflated);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException("The compressed frame is cut");
+                        inflated += n;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("The compressed frame is corrupted: " + e.getMessage());
+                }
+                return output;
+            }
+
+            @Override
+            public void end() {
+                inflater.end();
+            }
+        };
+    }
+}
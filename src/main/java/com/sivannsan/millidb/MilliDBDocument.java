@@ -3,9 +3,14 @@ package com.sivannsan.millidb;
 import com.sivannsan.foundation.annotation.Nonnull;
 import com.sivannsan.millidata.MilliData;
 
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * The instance of this class does not locally work with the data.
- * It always communicates with the database.
+ * It always communicates with the database, unless its client is made by MilliDBClients#withCache.
  */
 public interface MilliDBDocument extends MilliDBFile {
     /**
@@ -16,6 +21,14 @@ public interface MilliDBDocument extends MilliDBFile {
     @Nonnull
     MilliData get(@Nonnull String path) throws MilliDBResultFailedException;
 
+    /**
+     * The same as #get for each of the paths, but in a single query
+     *
+     * @return  the data at each of the paths, in the order of the paths
+     */
+    @Nonnull
+    Map<String, MilliData> get(@Nonnull String... paths) throws MilliDBResultFailedException;
+
     /**
      * If the path is empty, this method will set the content of this MilliDBDocument, just like #setContent.
      * If it points inside a MilliMap, this method will be like MilliMap#put.
@@ -24,9 +37,107 @@ public interface MilliDBDocument extends MilliDBFile {
      * Putting number, integer without followed by zeros, in the path is treated as MilliList index.
      * <p>
      * MilliMaps are automatically created if they do not exist as in the path, but MilliLists.
+     * <p>
+     * If the client has a MilliDBWriteBuffer, it returns once the value is buffered, and failures go to the buffer's FailureListener.
      */
     void set(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException;
 
+    /**
+     * The same as #get, but does not wait for the result.
+     * The future completes exceptionally with MilliDBResultFailedException if the result is failed.
+     */
+    @Nonnull
+    CompletableFuture<MilliData> getAsync(@Nonnull String path);
+
+    /**
+     * The same as #set, but does not wait for the result.
+     * The future completes exceptionally with MilliDBResultFailedException if the result is failed.
+     * With a MilliDBWriteBuffer, it completes when the buffered value is sent.
+     */
+    @Nonnull
+    CompletableFuture<Void> setAsync(@Nonnull String path, @Nonnull MilliData value);
+
+    /**
+     * Adds the delta to the integer at the path on the server, in a single step that no other write comes between.
+     * A path without data counts as 0.
+     *
+     * @return  the value after the increment
+     * @throws MilliDBResultFailedException if the data at the path is not an integer
+     * @throws MilliDBResultParsedException if the server does not answer with an integer
+     */
+    long increment(@Nonnull String path, long delta) throws MilliDBResultFailedException;
+
+    /**
+     * The same as #increment, but does not wait for the result.
+     * The future completes exceptionally with MilliDBResultFailedException if the result is failed,
+     * or with MilliDBResultParsedException if it is not an integer.
+     */
+    @Nonnull
+    CompletableFuture<Long> incrementAsync(@Nonnull String path, long delta);
+
+    /**
+     * Appends the value to the MilliList at the path on the server, which is created if there is no data at the path
+     *
+     * @throws MilliDBResultFailedException if the data at the path is not a MilliList
+     */
+    void appendToList(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException;
+
+    /**
+     * Removes every element equal to the value from the MilliList at the path on the server
+     *
+     * @return  true if any element has been removed
+     * @throws MilliDBResultFailedException if the data at the path is neither a MilliList nor MilliNull
+     */
+    boolean removeFromList(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException;
+
+    /**
+     * Sets the value at the path on the server only if there is no data at the path
+     *
+     * @return  the data that is already at the path, MilliNull if the value has been put
+     */
+    @Nonnull
+    MilliData putIfAbsent(@Nonnull String path, @Nonnull MilliData value) throws MilliDBResultFailedException;
+
+    /**
+     * Sets the value at the path on the server only if the data at the path is equal to the expected one
+     *
+     * @param expected  MilliNull to expect no data at the path
+     * @return  true if the value has been set
+     */
+    boolean compareAndSet(@Nonnull String path, @Nonnull MilliData expected, @Nonnull MilliData value) throws MilliDBResultFailedException;
+
+    /**
+     * Reads the text form of the data at the path in chunks of 65536 chars, so that a large value is never held whole by the client.
+     * Each chunk is a query of its own, and other queries go between them.
+     * <p>
+     * The text is of the data when the reader is opened. Closing the reader frees it on the server.
+     */
+    @Nonnull
+    Reader openReader(@Nonnull String path) throws MilliDBResultFailedException;
+
+    /**
+     * The same as #openReader, with chunks of at most the chunk size in chars
+     */
+    @Nonnull
+    Reader openReader(@Nonnull String path, int chunkSize) throws MilliDBResultFailedException;
+
+    /**
+     * Writes the text form of data to the path in chunks of 65536 chars, so that a large value is never held whole by the client.
+     * The server keeps the chunks, and sets the data parsed from the whole text like #set when the writer is closed.
+     * <p>
+     * Nothing is set if a chunk fails or the text is not valid, in which case Writer#close throws IOException.
+     */
+    @Nonnull
+    Writer openWriter(@Nonnull String path) throws MilliDBResultFailedException;
+
+    /**
+     * The same as #openWriter, with chunks of at most the chunk size in chars
+     *
+     * @param chunkSize at least 2, so that a surrogate pair fits in a chunk
+     */
+    @Nonnull
+    Writer openWriter(@Nonnull String path, int chunkSize) throws MilliDBResultFailedException;
+
     @Nonnull
     MilliData getContent() throws MilliDBResultFailedException;
 
@@ -0,0 +1,709 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Executes queries in the calling thread against local storage, made by MilliDBClients#embedded.
+ * <p>
+ * Since it takes the place of the connection, the client and its files behave as they do with a server.
+ * Collections are concurrent maps of their files, and the content of a document is replaced as a whole on every write,
+ * so reads never lock and never see a half done write. Writes of the same document are serialized.
+ * <p>
+ * With a data directory, collections are directories and documents are .mll files of their content in text form.
+ * Documents are read from disk when they are first used, and every write reaches the disk before its result is returned.
+ * <p>
+ * Changes are pushed to the watches in memory, and the last of them are kept so that a watch can resume from its version.
+ * Versions start over with the engine.
+ * <p>
+ * Streams keep their text in memory until they are closed, and those left unused for a while are dropped when the next one is opened.
+ */
+final class MilliDBEmbeddedEngine implements MilliDBTransport {
+    private static final int MAX_KEPT_CHANGES = 4096;
+    private static final long STREAM_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    @Nonnull
+    private final Collection root;
+    private final Map<Long, Watcher> watchers = new ConcurrentHashMap<>();
+    /**
+     * Orders the changes, taken while holding the lock of the changed file
+     */
+    private final ReentrantLock changeLock = new ReentrantLock();
+    private final Deque<Change> keptChanges = new ArrayDeque<>();
+    private long version;
+    private final Map<Long, OpenStream> streams = new ConcurrentHashMap<>();
+    private final AtomicLong nextStreamID = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param directory the data directory, null to keep everything in memory
+     */
+    MilliDBEmbeddedEngine(Path directory) throws IOException {
+        this.root = new Collection(directory);
+        if (directory != null) {
+            Files.createDirectories(directory);
+            load(root);
+        }
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<MilliDBResult> send(@Nonnull MilliDBQuery query) {
+        if (closed) {
+            CompletableFuture<MilliDBResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("Embedded engine is closed"));
+            return failed;
+        }
+        return CompletableFuture.completedFuture(execute(query));
+    }
+
+    /**
+     * Replays the kept changes after the version of the WATCH query, or a RESET if some of them are no longer kept,
+     * and then pushes every new change under its path
+     */
+    @Override
+    @Nonnull
+    public CompletableFuture<MilliDBResult> subscribe(@Nonnull MilliDBQuery query, @Nonnull Subscriber subscriber) {
+        if (closed || query.getFunction() != MilliDBQuery.Function.WATCH) return send(query);
+        MilliData from = query.getMetadata().asMilliMap(new MilliMap()).get("v");
+        changeLock.lock();
+        try {
+            Watcher watcher = new Watcher(query.getID(), query.getPath(), subscriber);
+            if (from != null && from.isMilliValue()) {
+                long after = from.asMilliValue().asInteger64();
+                long oldest = keptChanges.isEmpty() ? version + 1 : keptChanges.peekFirst().version;
+                if (after < version && after + 1 < oldest) watcher.push(new Change("r", "", "", MilliNull.INSTANCE, version));
+                else for (Change change : keptChanges) if (change.version > after && watcher.isWatching(change)) watcher.push(change);
+            }
+            watchers.put(query.getID(), watcher);
+            return CompletableFuture.completedFuture(new MilliDBResult(query.getID(), true, new MilliMap("v", new MilliValue(version))));
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    @Override
+    public void unsubscribe(long id) {
+        watchers.remove(id);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Long id : watchers.keySet()) {
+            Watcher watcher = watchers.remove(id);
+            if (watcher != null) watcher.subscriber.onLost();
+        }
+        streams.clear();
+    }
+
+    @Nonnull
+    private MilliDBResult execute(@Nonnull MilliDBQuery query) {
+        try {
+            MilliData metadata = query.getMetadata();
+            switch (query.getFunction()) {
+                case NONE:
+                case HAS_USER:
+                case CLOSE:
+                    return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                case GET_COLLECTION:
+                    collection(query.getPath(), true).collection(metadata.asMilliValue().asString(), true);
+                    return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                case GET_DOCUMENT:
+                    collection(query.getPath(), true).document(metadata.asMilliValue().asString(), true);
+                    return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                case GET: {
+                    Document document = document(query.getPath(), false);
+                    MilliData content = document == null ? MilliNull.INSTANCE : document.getContent();
+                    return new MilliDBResult(query.getID(), true, MilliDBData.copy(MilliDBData.get(content, metadata.asMilliValue().asString())));
+                }
+                case GET_PATHS: {
+                    Document document = document(query.getPath(), false);
+                    MilliData content = document == null ? MilliNull.INSTANCE : document.getContent();
+                    return new MilliDBResult(query.getID(), true, project(content, metadata.asMilliList()));
+                }
+                case GET_DOCUMENTS: {
+                    MilliMap documents = metadata.asMilliMap();
+                    Predicate<MilliData> filter = filter(documents.get("f"));
+                    MilliList paths = documents.get("p").asMilliList();
+                    Collection collection = collection(query.getPath(), false);
+                    MilliList projections = new MilliList();
+                    if (collection != null) {
+                        for (Map.Entry<String, Node> entry : collection.files.entrySet()) {
+                            if (!(entry.getValue() instanceof Document) || filter != null && !matches(entry.getValue(), filter)) continue;
+                            projections.append(new MilliMap("n", new MilliValue(entry.getKey())).append("v", project(((Document) entry.getValue()).getContent(), paths)));
+                        }
+                    }
+                    return new MilliDBResult(query.getID(), true, projections);
+                }
+                case SET: {
+                    MilliMap set = metadata.asMilliMap();
+                    String path = set.get("p").asMilliValue().asString();
+                    MilliData value = MilliDBData.copy(set.get("v"));
+                    Document document = document(query.getPath(), true);
+                    document.update(content -> MilliDBData.set(content, path, value), changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+                }
+                case INCREMENT: {
+                    MilliMap increment = metadata.asMilliMap();
+                    String path = increment.get("p").asMilliValue().asString();
+                    long delta = increment.get("d").asMilliValue().asInteger64();
+                    long[] after = new long[1];
+                    document(query.getPath(), true).update(content -> {
+                        MilliData current = MilliDBData.get(content, path);
+                        if (!current.isMilliNull() && !current.isMilliValue()) throw new IllegalArgumentException("The data at the path is not an integer");
+                        after[0] = Math.addExact(current.isMilliNull() ? 0 : current.asMilliValue().asInteger64(), delta);
+                        return MilliDBData.set(content, path, new MilliValue(after[0]));
+                    }, changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, new MilliValue(after[0]));
+                }
+                case APPEND_TO_LIST: {
+                    MilliMap append = metadata.asMilliMap();
+                    String path = append.get("p").asMilliValue().asString();
+                    MilliData value = MilliDBData.copy(append.get("v"));
+                    document(query.getPath(), true).update(content -> {
+                        MilliData current = MilliDBData.get(content, path);
+                        if (!current.isMilliNull() && !current.isMilliList()) throw new IllegalArgumentException("The data at the path is not a MilliList");
+                        MilliList list = new MilliList();
+                        if (current.isMilliList()) for (MilliData element : current.asMilliList()) list.append(element);
+                        list.append(value);
+                        return MilliDBData.set(content, path, list);
+                    }, changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+                }
+                case REMOVE_FROM_LIST: {
+                    MilliMap remove = metadata.asMilliMap();
+                    String path = remove.get("p").asMilliValue().asString();
+                    MilliData value = remove.get("v");
+                    boolean[] removed = new boolean[1];
+                    document(query.getPath(), true).update(content -> {
+                        MilliData current = MilliDBData.get(content, path);
+                        if (current.isMilliNull()) return content;
+                        if (!current.isMilliList()) throw new IllegalArgumentException("The data at the path is not a MilliList");
+                        MilliList list = new MilliList();
+                        for (MilliData element : current.asMilliList()) {
+                            if (MilliDBData.isEqual(element, value)) removed[0] = true;
+                            else list.append(element);
+                        }
+                        return removed[0] ? MilliDBData.set(content, path, list) : content;
+                    }, changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, new MilliValue(removed[0]));
+                }
+                case PUT_IF_ABSENT: {
+                    MilliMap put = metadata.asMilliMap();
+                    String path = put.get("p").asMilliValue().asString();
+                    MilliData value = MilliDBData.copy(put.get("v"));
+                    MilliData[] existing = {MilliNull.INSTANCE};
+                    document(query.getPath(), true).update(content -> {
+                        existing[0] = MilliDBData.get(content, path);
+                        return existing[0].isMilliNull() ? MilliDBData.set(content, path, value) : content;
+                    }, changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, MilliDBData.copy(existing[0]));
+                }
+                case COMPARE_AND_SET: {
+                    MilliMap compareAndSet = metadata.asMilliMap();
+                    String path = compareAndSet.get("p").asMilliValue().asString();
+                    MilliData expected = compareAndSet.get("e");
+                    MilliData value = MilliDBData.copy(compareAndSet.get("v"));
+                    boolean[] isSet = new boolean[1];
+                    document(query.getPath(), true).update(content -> {
+                        isSet[0] = MilliDBData.isEqual(MilliDBData.get(content, path), expected);
+                        return isSet[0] ? MilliDBData.set(content, path, value) : content;
+                    }, changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, new MilliValue(isSet[0]));
+                }
+                case DELETE:
+                    delete(query.getPath());
+                    return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+                case UNWATCH:
+                    watchers.remove(metadata.asMilliValue().asInteger64());
+                    return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+                case GET_FILES:
+                    return new MilliDBResult(query.getID(), true, list(query.getPath(), filter(metadata), null, Integer.MAX_VALUE).get("n"));
+                case GET_FILES_TREE: {
+                    MilliMap tree = metadata.asMilliMap();
+                    int depth = tree.get("d").asMilliValue().asInteger32();
+                    if (depth < 1) throw new IllegalArgumentException("The depth must be positive");
+                    MilliList names = new MilliList();
+                    Collection collection = collection(query.getPath(), false);
+                    if (collection != null) listTree(collection, "", filter(tree.get("f")), depth, names);
+                    return new MilliDBResult(query.getID(), true, names);
+                }
+                case GET_FILES_PAGE: {
+                    MilliMap page = metadata.asMilliMap();
+                    MilliData cursor = page.get("c");
+                    int limit = page.get("l").asMilliValue().asInteger32();
+                    if (limit < 1) throw new IllegalArgumentException("The page size must be positive");
+                    String after = cursor == null || cursor.isMilliNull() ? null : cursor.asMilliValue().asString();
+                    return new MilliDBResult(query.getID(), true, list(query.getPath(), filter(page.get("f")), after, limit));
+                }
+                case OPEN_STREAM: {
+                    MilliMap open = metadata.asMilliMap();
+                    String path = open.get("p").asMilliValue().asString();
+                    long now = System.nanoTime();
+                    streams.values().removeIf(stream -> now - stream.lastUsed > STREAM_IDLE_NANOS);
+                    long id = nextStreamID.incrementAndGet();
+                    if (open.get("m").asMilliValue().asString().equals("w")) {
+                        streams.put(id, new OpenStream(query.getPath(), null));
+                        return new MilliDBResult(query.getID(), true, new MilliMap("s", new MilliValue(id)));
+                    }
+                    Document document = document(query.getPath(), false);
+                    String text = MilliDBData.get(document == null ? MilliNull.INSTANCE : document.getContent(), path).toString();
+                    streams.put(id, new OpenStream(query.getPath(), text));
+                    return new MilliDBResult(query.getID(), true, new MilliMap("s", new MilliValue(id)).append("t", new MilliValue(text.length())));
+                }
+                case STREAM_CHUNK: {
+                    MilliMap chunk = metadata.asMilliMap();
+                    OpenStream stream = stream(query.getPath(), chunk.get("s"));
+                    int offset = chunk.get("o").asMilliValue().asInteger32();
+                    MilliData data = chunk.get("d");
+                    if (data == null || !data.isMilliValue()) return new MilliDBResult(query.getID(), true, new MilliValue(stream.read(offset, chunk.get("l").asMilliValue().asInteger32())));
+                    stream.write(offset, data.asMilliValue().asString());
+                    return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                }
+                case CLOSE_STREAM: {
+                    MilliMap close = metadata.asMilliMap();
+                    OpenStream stream = stream(query.getPath(), close.get("s"));
+                    streams.values().remove(stream);
+                    if (stream.written == null || !close.get("c").asMilliValue(new MilliValue(false)).asBoolean()) return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                    String path = close.get("p").asMilliValue().asString();
+                    MilliData value = MilliData.Parser.parse(stream.written.toString(), null);
+                    if (value == null) throw new IllegalArgumentException("The written text is not valid");
+                    document(query.getPath(), true).update(content -> MilliDBData.set(content, path, value), changeOf(query.getPath(), path));
+                    return new MilliDBResult(query.getID(), true, new MilliValue(true));
+                }
+                case BATCH: {
+                    MilliList results = new MilliList();
+                    for (MilliData subQuery : metadata.asMilliList()) {
+                        MilliDBQuery parsed = MilliDBQuery.Parser.parse(subQuery.asMilliMap());
+                        if (parsed.getFunction() == MilliDBQuery.Function.BATCH) results.append(MilliDBResult.failedResult(parsed.getID()).toMilliMap());
+                        else results.append(execute(parsed).toMilliMap());
+                    }
+                    return new MilliDBResult(query.getID(), true, results);
+                }
+                default:
+                    return MilliDBResult.failedResult(query.getID());
+            }
+        } catch (IOException | RuntimeException e) {
+            return MilliDBResult.failedResult(query.getID());
+        }
+    }
+
+    /**
+     * @return  the open stream of the ID, which must be of the document
+     */
+    @Nonnull
+    private OpenStream stream(@Nonnull String documentPath, MilliData id) {
+        OpenStream stream = id == null ? null : streams.get(id.asMilliValue().asInteger64());
+        if (stream == null || !stream.documentPath.equals(documentPath)) throw new IllegalArgumentException("The stream is not open");
+        stream.lastUsed = System.nanoTime();
+        return stream;
+    }
+
+    @Nonnull
+    private Consumer<MilliData> changeOf(@Nonnull String filePath, @Nonnull String path) {
+        return content -> onChange(new Change("s", filePath, path, MilliDBData.get(content, path), 0));
+    }
+
+    /**
+     * Gives the change its version, keeps it and pushes it to the watches of its file
+     */
+    private void onChange(@Nonnull Change unversioned) {
+        changeLock.lock();
+        try {
+            Change change = new Change(unversioned.operation, unversioned.filePath, unversioned.path, unversioned.data, ++version);
+            keptChanges.addLast(change);
+            if (keptChanges.size() > MAX_KEPT_CHANGES) keptChanges.removeFirst();
+            for (Watcher watcher : watchers.values()) if (watcher.isWatching(change)) watcher.push(change);
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    /**
+     * @return  the names of the files after the cursor, and the cursor of the next page if there may be more
+     */
+    @Nonnull
+    private MilliMap list(@Nonnull String path, Predicate<MilliData> filter, String after, int limit) throws IOException {
+        Collection collection = collection(path, false);
+        MilliList names = new MilliList();
+        String last = null;
+        int count = 0;
+        if (collection != null) {
+            Map<String, Node> files = after == null ? collection.files : collection.files.tailMap(after, false);
+            for (Map.Entry<String, Node> entry : files.entrySet()) {
+                if (count == limit) break;
+                if (filter != null && !matches(entry.getValue(), filter)) continue;
+                names.append(new MilliValue(entry.getKey()));
+                last = entry.getKey();
+                count++;
+            }
+        }
+        return new MilliMap("n", names).append("c", count == limit && last != null ? new MilliValue(last) : MilliNull.INSTANCE);
+    }
+
+    /**
+     * Appends the paths of the files under the collection, relative to it, walking into the collections down to the depth
+     */
+    private static void listTree(@Nonnull Collection collection, @Nonnull String prefix, Predicate<MilliData> filter, int depth, @Nonnull MilliList names) throws IOException {
+        for (Map.Entry<String, Node> entry : collection.files.entrySet()) {
+            if (filter == null || matches(entry.getValue(), filter)) names.append(new MilliValue(prefix + entry.getKey()));
+            if (depth > 1 && entry.getValue() instanceof Collection) listTree((Collection) entry.getValue(), prefix + entry.getKey() + "/", filter, depth - 1, names);
+        }
+    }
+
+    /**
+     * @return  copies of the data at each of the paths
+     */
+    @Nonnull
+    private static MilliList project(@Nonnull MilliData content, @Nonnull MilliList paths) {
+        MilliList values = new MilliList();
+        for (MilliData path : paths) values.append(MilliDBData.copy(MilliDBData.get(content, path.asMilliValue().asString())));
+        return values;
+    }
+
+    private static boolean matches(@Nonnull Node node, @Nonnull Predicate<MilliData> filter) throws IOException {
+        return node instanceof Document && filter.test(((Document) node).getContent());
+    }
+
+    /**
+     * @return  the filter compiled once for all the files of the query, null if there is none
+     */
+    private static Predicate<MilliData> filter(MilliData metadata) {
+        if (metadata == null || !metadata.isMilliMap()) return null;
+        MilliDBFilter filter = MilliDBFilter.Parser.parse(metadata.asMilliMap());
+        if (filter == null) throw new IllegalArgumentException("Unknown filter");
+        return filter.compile();
+    }
+
+    /**
+     * @param create    true to create the missing collections on the way
+     * @return  null if it does not exist and is not created
+     */
+    private Collection collection(@Nonnull String path, boolean create) throws IOException {
+        Collection current = root;
+        if (path.isEmpty()) return current;
+        for (String name : path.split("/")) {
+            current = current.collection(name, create);
+            if (current == null) return null;
+        }
+        return current;
+    }
+
+    private Document document(@Nonnull String path, boolean create) throws IOException {
+        int slash = path.lastIndexOf('/');
+        Collection parent = collection(slash == -1 ? "" : path.substring(0, slash), create);
+        return parent == null ? null : parent.document(path.substring(slash + 1), create);
+    }
+
+    private void delete(@Nonnull String path) throws IOException {
+        int slash = path.lastIndexOf('/');
+        Collection parent = collection(slash == -1 ? "" : path.substring(0, slash), false);
+        if (parent != null && parent.delete(path.substring(slash + 1))) onChange(new Change("d", path, "", MilliNull.INSTANCE, 0));
+    }
+
+    /**
+     * Registers the files of the directory of the collection, without reading the documents yet
+     */
+    private static void load(@Nonnull Collection collection) throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(collection.path)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                if (Files.isDirectory(path)) {
+                    Collection child = new Collection(path);
+                    collection.files.put(name, child);
+                    load(child);
+                } else if (name.endsWith(".mll")) {
+                    collection.files.put(name, new Document(path, null));
+                }
+            }
+        }
+    }
+
+    @Nonnull
+    private static String validate(@Nonnull String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..") || name.indexOf('/') != -1 || name.indexOf('\\') != -1) throw new IllegalArgumentException("Invalid file name '" + name + "'");
+        return name;
+    }
+
+    private interface Node {
+        /**
+         * Marks the node and everything below it as deleted, so that no write brings them back
+         */
+        void markDeleted();
+    }
+
+    private static final class Collection implements Node {
+        /**
+         * null in memory
+         */
+        private final Path path;
+        private final ConcurrentNavigableMap<String, Node> files = new ConcurrentSkipListMap<>();
+        private final ReentrantLock structureLock = new ReentrantLock();
+
+        private Collection(Path path) {
+            this.path = path;
+        }
+
+        private Collection collection(@Nonnull String name, boolean create) throws IOException {
+            Node node = files.get(name);
+            if (node != null || !create) return node instanceof Collection ? (Collection) node : null;
+            validate(name);
+            if (name.endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBCollection name!");
+            structureLock.lock();
+            try {
+                node = files.get(name);
+                if (node != null) return node instanceof Collection ? (Collection) node : null;
+                Collection collection = new Collection(path == null ? null : path.resolve(name));
+                if (collection.path != null) Files.createDirectories(collection.path);
+                files.put(name, collection);
+                return collection;
+            } finally {
+                structureLock.unlock();
+            }
+        }
+
+        private Document document(@Nonnull String name, boolean create) throws IOException {
+            Node node = files.get(name);
+            if (node != null || !create) return node instanceof Document ? (Document) node : null;
+            validate(name);
+            if (!name.endsWith(".mll")) throw new IllegalArgumentException("Invalid MilliDBDocument name!");
+            structureLock.lock();
+            try {
+                node = files.get(name);
+                if (node != null) return node instanceof Document ? (Document) node : null;
+                Document document = new Document(path == null ? null : path.resolve(name), new MilliMap());
+                document.write(document.content);
+                files.put(name, document);
+                return document;
+            } finally {
+                structureLock.unlock();
+            }
+        }
+
+        /**
+         * @return  false if there is no such file
+         */
+        private boolean delete(@Nonnull String name) throws IOException {
+            structureLock.lock();
+            try {
+                Node node = files.remove(name);
+                if (node == null) return false;
+                node.markDeleted();
+                Path removed = node instanceof Collection ? ((Collection) node).path : ((Document) node).path;
+                if (removed != null) deleteRecursively(removed);
+                return true;
+            } finally {
+                structureLock.unlock();
+            }
+        }
+
+        @Override
+        public void markDeleted() {
+            for (Node node : files.values()) node.markDeleted();
+        }
+
+        private static void deleteRecursively(@Nonnull Path path) throws IOException {
+            if (!Files.exists(path)) return;
+            try (Stream<Path> paths = Files.walk(path)) {
+                for (Path each : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(each);
+            }
+        }
+    }
+
+    private static final class Document implements Node {
+        /**
+         * null in memory
+         */
+        private final Path path;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /**
+         * Never modified, only replaced; null until it is read from disk
+         */
+        private volatile MilliData content;
+        private boolean deleted;
+
+        private Document(Path path, MilliData content) {
+            this.path = path;
+            this.content = content;
+        }
+
+        @Nonnull
+        private MilliData getContent() throws IOException {
+            MilliData current = content;
+            if (current != null) return current;
+            writeLock.lock();
+            try {
+                if (content == null) content = MilliData.Parser.parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), new MilliMap());
+                return content;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Applies the change while holding the write lock, so the atomic operations see no other write in between
+         *
+         * @param change    returns the same instance to leave the document as it is
+         * @param onChanged runs with the new content if it has changed, before the lock is released so that changes are told in order
+         */
+        private void update(@Nonnull UnaryOperator<MilliData> change, @Nonnull Consumer<MilliData> onChanged) throws IOException {
+            writeLock.lock();
+            try {
+                if (deleted) throw new IOException("The document has been deleted");
+                MilliData current = getContent();
+                MilliData changed = change.apply(current);
+                if (changed == current) return;
+                write(changed);
+                content = changed;
+                onChanged.accept(changed);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Replaces the file through a temporary one, so that a crash never leaves it half written
+         */
+        private void write(@Nonnull MilliData data) throws IOException {
+            if (path == null) return;
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(temporary, data.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void markDeleted() {
+            writeLock.lock();
+            try {
+                deleted = true;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A change in the form it is pushed, its data is never modified
+     */
+    private static final class Change {
+        @Nonnull
+        private final String operation;
+        @Nonnull
+        private final String filePath;
+        @Nonnull
+        private final String path;
+        @Nonnull
+        private final MilliData data;
+        private final long version;
+
+        private Change(@Nonnull String operation, @Nonnull String filePath, @Nonnull String path, @Nonnull MilliData data, long version) {
+            this.operation = operation;
+            this.filePath = filePath;
+            this.path = path;
+            this.data = data;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The text of a stream, the text read is taken when it is opened and the text written is set when it is closed
+     */
+    private static final class OpenStream {
+        @Nonnull
+        private final String documentPath;
+        private final String text;
+        private final StringBuilder written;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsed = System.nanoTime();
+
+        /**
+         * @param text  null to write
+         */
+        private OpenStream(@Nonnull String documentPath, String text) {
+            this.documentPath = documentPath;
+            this.text = text;
+            this.written = text == null ? new StringBuilder() : null;
+        }
+
+        /**
+         * Does not split a surrogate pair, so that every chunk can be encoded on its own
+         */
+        @Nonnull
+        private String read(int offset, int length) {
+            if (text == null) throw new IllegalStateException("The stream is to write");
+            if (offset < 0 || offset > text.length() || length < 1) throw new IllegalArgumentException("The chunk is out of the text");
+            int end = (int) Math.min(text.length(), (long) offset + length);
+            if (end < text.length() && end - offset > 1 && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+            return text.substring(offset, end);
+        }
+
+        /**
+         * Appends the chunk at the end of the text, and ignores a chunk sent again that has already been appended
+         */
+        private void write(int offset, @Nonnull String chunk) {
+            if (written == null) throw new IllegalStateException("The stream is to read");
+            lock.lock();
+            try {
+                if (offset == written.length()) written.append(chunk);
+                else if (offset < 0 || (long) offset + chunk.length() > written.length()) throw new IllegalArgumentException("The chunk is not at the end of the text");
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Watcher {
+        private final long id;
+        @Nonnull
+        private final String path;
+        @Nonnull
+        private final Subscriber subscriber;
+
+        private Watcher(long id, @Nonnull String path, @Nonnull Subscriber subscriber) {
+            this.id = id;
+            this.path = path;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * The changes of the watched file and everything under it, and the delete of a collection above it
+         */
+        private boolean isWatching(@Nonnull Change change) {
+            if (path.isEmpty() || change.filePath.equals(path) || change.filePath.startsWith(path + "/")) return true;
+            return change.operation.equals("d") && path.startsWith(change.filePath + "/");
+        }
+
+        /**
+         * Pushes a copy of the data, since the watch may modify it
+         */
+        private void push(@Nonnull Change change) {
+            MilliMap pushed = new MilliMap("f", new MilliValue(change.filePath)).append("p", new MilliValue(change.path)).append("o", new MilliValue(change.operation)).append("d", MilliDBData.copy(change.data)).append("v", new MilliValue(change.version));
+            subscriber.onPush(new MilliDBResult(id, true, pushed));
+        }
+    }
+}
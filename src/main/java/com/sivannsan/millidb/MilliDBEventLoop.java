@@ -0,0 +1,146 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A few I/O threads that drive many connections, each thread with its own Selector.
+ * <p>
+ * Set it with MilliDBClients.ConnectionConfig#setEventLoop. One event loop can be shared by any number of clients,
+ * including clients of different servers. Closing it closes all of its connections.
+ */
+public final class MilliDBEventLoop {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Nonnull
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param threads   the number of I/O threads
+     */
+    public MilliDBEventLoop(int threads) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) workers[i] = new Worker(i);
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Worker worker : workers) worker.selector.wakeup();
+    }
+
+    /**
+     * Picks the I/O thread of a new connection, round-robin
+     */
+    @Nonnull
+    Worker assign() throws IOException {
+        if (closed) throw new IOException("Event loop is closed");
+        return workers[Math.floorMod(next.getAndIncrement(), workers.length)];
+    }
+
+    /**
+     * One I/O thread with its Selector and the direct buffers it reuses for every connection it drives
+     */
+    final class Worker implements Runnable {
+        @Nonnull
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private Worker(int index) throws IOException {
+            this.selector = Selector.open();
+            Thread thread = new Thread(this, "MilliDBEventLoop-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Runs the task on this I/O thread
+         */
+        void execute(@Nonnull Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers the channel from this I/O thread, so that it does not contend with a select in progress
+         */
+        @Nonnull
+        SelectionKey register(@Nonnull SocketChannel channel, @Nonnull MilliDBChannelConnection connection) throws IOException {
+            CompletableFuture<SelectionKey> registered = new CompletableFuture<>();
+            execute(() -> {
+                try {
+                    registered.complete(channel.register(selector, SelectionKey.OP_READ, connection));
+                } catch (IOException e) {
+                    registered.completeExceptionally(e);
+                }
+            });
+            try {
+                return registered.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Nonnull
+        ByteBuffer getReadBuffer() {
+            return readBuffer;
+        }
+
+        @Nonnull
+        ByteBuffer getWriteBuffer() {
+            return writeBuffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        MilliDBChannelConnection connection = (MilliDBChannelConnection) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!closed) MilliDBLogger.warning(() -> "The event loop has stopped: " + e.getMessage());
+            }
+            for (SelectionKey key : new ArrayList<>(selector.keys())) ((MilliDBChannelConnection) key.attachment()).close();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -45,4 +45,10 @@ public interface MilliDBFile {
     MilliDBCollection asMilliDBCollection() throws ClassCastException;
 
     void delete();
+
+    /**
+     * The same as MilliDBClient#watch with the path of this MilliDBFile
+     */
+    @Nonnull
+    MilliDBWatch watch(@Nonnull MilliDBChange.Listener listener) throws MilliDBResultFailedException;
 }
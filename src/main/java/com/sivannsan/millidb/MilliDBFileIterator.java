@@ -0,0 +1,112 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.*;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Lists the files of a collection page by page with GET_FILES_PAGE.
+ * <p>
+ * The next page is requested as soon as the current one arrives, so it is usually ready when the current one is used up.
+ * At most two pages are held at a time. If the server does not support paging, the whole listing is fetched with GET_FILES.
+ * A page that fails after the first one fails #hasNext and #next. #close drops the page that is still coming.
+ */
+final class MilliDBFileIterator implements Iterator<MilliDBFile> {
+    @Nonnull
+    private final MilliDBClient client;
+    @Nonnull
+    private final String path;
+    @Nonnull
+    private final MilliData filter;
+    private final int pageSize;
+    private final long timeoutMillis;
+    @Nonnull
+    private final Function<String, MilliDBFile> toFile;
+    private Iterator<MilliData> page = Collections.emptyIterator();
+    private CompletableFuture<MilliDBResult> nextPage;
+    private boolean isFirstPage = true;
+
+    MilliDBFileIterator(@Nonnull MilliDBClient client, @Nonnull String path, MilliDBFilter filter, int pageSize, long timeoutMillis, @Nonnull Function<String, MilliDBFile> toFile) {
+        if (pageSize < 1) throw new IllegalArgumentException("pageSize must be positive");
+        this.client = Validate.nonnull(client);
+        this.path = Validate.nonnull(path);
+        this.filter = filter == null ? MilliNull.INSTANCE : filter.toMilliMap();
+        this.pageSize = pageSize;
+        this.timeoutMillis = timeoutMillis;
+        this.toFile = Validate.nonnull(toFile);
+    }
+
+    @Override
+    public boolean hasNext() throws MilliDBResultFailedException {
+        while (!page.hasNext()) {
+            if (isFirstPage && nextPage == null) nextPage = request(MilliNull.INSTANCE);
+            if (nextPage == null) return false;
+            MilliDBResult result = await(nextPage);
+            nextPage = null;
+            if (!result.isSucceed()) {
+                if (!isFirstPage) throw new MilliDBResultFailedException();
+                page = fetchAll();
+                isFirstPage = false;
+                continue;
+            }
+            isFirstPage = false;
+            MilliMap metadata = result.getMetadata().asMilliMap(new MilliMap());
+            MilliData cursor = metadata.get("c");
+            if (!cursor.isMilliNull()) nextPage = request(cursor);
+            page = metadata.get("n").asMilliList(new MilliList()).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public MilliDBFile next() throws MilliDBResultFailedException {
+        if (!hasNext()) throw new NoSuchElementException();
+        return toFile.apply(page.next().asMilliValue().asString());
+    }
+
+    /**
+     * End the iteration, and cancel the next page if it is still coming
+     */
+    void close() {
+        if (nextPage != null) nextPage.cancel(false);
+        nextPage = null;
+        page = Collections.emptyIterator();
+        isFirstPage = false;
+    }
+
+    @Nonnull
+    private CompletableFuture<MilliDBResult> request(@Nonnull MilliData cursor) {
+        MilliMap metadata = new MilliMap().append("f", filter).append("c", cursor).append("l", new MilliValue(pageSize));
+        return client.executeAsync(new MilliDBQuery(path, MilliDBQuery.Function.GET_FILES_PAGE, metadata));
+    }
+
+    @Nonnull
+    private Iterator<MilliData> fetchAll() throws MilliDBResultFailedException {
+        MilliDBResult result = client.execute(new MilliDBQuery(path, MilliDBQuery.Function.GET_FILES, filter));
+        if (!result.isSucceed()) throw new MilliDBResultFailedException();
+        return result.getMetadata().asMilliList(new MilliList()).iterator();
+    }
+
+    @Nonnull
+    private MilliDBResult await(@Nonnull CompletableFuture<MilliDBResult> future) throws MilliDBResultFailedException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(false);
+            throw new MilliDBResultFailedException();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new MilliDBResultFailedException();
+        }
+    }
+}
@@ -3,9 +3,21 @@ package com.sivannsan.millidb;
 import com.sivannsan.foundation.annotation.Nonnull;
 import com.sivannsan.foundation.Validate;
 import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
 import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliNull;
 import com.sivannsan.millidata.MilliValue;
 
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Selects the documents of a query, evaluated by the server so that only the matching ones are sent.
+ * <p>
+ * Filters are composed with #and, #or and #not. The paths inside the content are the ones of MilliDBDocument#get,
+ * and every filter only matches documents.
+ */
 public abstract class MilliDBFilter {
     /**
      * <p>Used to check</p>
@@ -35,12 +47,86 @@ public abstract class MilliDBFilter {
         return superOf(subMilliData, 0);
     }
 
+    /**
+     * Matches if all of the filters match, or always if there is none
+     */
+    public static And and(@Nonnull MilliDBFilter... filters) {
+        return new And(Arrays.asList(filters));
+    }
+
+    /**
+     * Matches if any of the filters matches, or never if there is none
+     */
+    public static Or or(@Nonnull MilliDBFilter... filters) {
+        return new Or(Arrays.asList(filters));
+    }
+
+    public static Not not(@Nonnull MilliDBFilter filter) {
+        return new Not(filter);
+    }
+
+    /**
+     * Matches if the data at the path is equal to the value, MilliValues by their text form
+     */
+    public static PathEquals pathEquals(@Nonnull String path, @Nonnull MilliData value) {
+        return new PathEquals(path, value);
+    }
+
+    /**
+     * Matches if the data at the path is a number between the bounds, both inclusive, compared as decimals.
+     * The bounds can be any Number, such as a Long, a Double or a BigDecimal, but not NaN or infinite.
+     *
+     * @param min   null for no lower bound
+     * @param max   null for no upper bound
+     */
+    public static Range numberRange(@Nonnull String path, Number min, Number max) {
+        return new Range(path, true, toDecimalText(min), toDecimalText(max));
+    }
+
+    /**
+     * Matches if the data at the path is a MilliValue whose text is between the bounds in lexicographic order, both inclusive
+     *
+     * @param min   null for no lower bound
+     * @param max   null for no upper bound
+     */
+    public static Range textRange(@Nonnull String path, String min, String max) {
+        return new Range(path, false, min, max);
+    }
+
+    /**
+     * Matches if there is data at the path, even if it is an empty MilliMap or MilliList
+     */
+    public static Exists exists(@Nonnull String path) {
+        return new Exists(path);
+    }
+
+    /**
+     * Matches if the data at the path is equal to any of the values
+     */
+    public static In in(@Nonnull String path, @Nonnull MilliData... values) {
+        return new In(path, Arrays.asList(values));
+    }
+
+    /**
+     * Matches if the data at the path is a MilliValue whose text starts with the prefix
+     */
+    public static Prefix prefix(@Nonnull String path, @Nonnull String prefix) {
+        return new Prefix(path, prefix);
+    }
+
     @Nonnull
     public abstract String getType();
 
     @Nonnull
     public abstract MilliMap toMilliMap();
 
+    /**
+     * Turns this filter into a predicate of the content of a document, to be reused for many documents.
+     * The paths are split and the values are prepared once, which is where the embedded engine and cached data are filtered.
+     */
+    @Nonnull
+    public abstract Predicate<MilliData> compile();
+
     public static final class Parser {
         public static MilliDBFilter parse(@Nonnull String filter) {
             return parse(MilliData.Parser.parse(filter, new MilliMap()).asMilliMap(new MilliMap()));
@@ -51,10 +137,56 @@ public abstract class MilliDBFilter {
             switch (filter.get("_t").asMilliValue().asString()) {
                 case "so":
                     return superOf(filter.get("s"), filter.get("l").asMilliValue(new MilliValue(0)).asInteger32());
+                case "and":
+                case "or": {
+                    List<MilliDBFilter> filters = parseAll(filter.get("fs"));
+                    if (filters == null) return null;
+                    return filter.get("_t").asMilliValue().asString().equals("and") ? new And(filters) : new Or(filters);
+                }
+                case "not": {
+                    MilliDBFilter negated = filter.get("f").isMilliMap() ? parse(filter.get("f").asMilliMap()) : null;
+                    return negated == null ? null : not(negated);
+                }
+                case "pe":
+                    return pathEquals(pathOf(filter), filter.get("v"));
+                case "rg":
+                    try {
+                        return new Range(pathOf(filter), filter.get("k").asMilliValue(new MilliValue()).asString().equals("n"), boundOf(filter.get("min")), boundOf(filter.get("max")));
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                case "ex":
+                    return exists(pathOf(filter));
+                case "in":
+                    return new In(pathOf(filter), MilliDBData.toList(filter.get("vs").asMilliList(new MilliList())));
+                case "pf":
+                    return prefix(pathOf(filter), filter.get("v").asMilliValue(new MilliValue()).asString());
                 default:
                     return null;
             }
         }
+
+        /**
+         * @return  null if any of them can not be parsed
+         */
+        private static List<MilliDBFilter> parseAll(@Nonnull MilliData filters) {
+            List<MilliDBFilter> parsed = new ArrayList<>();
+            for (MilliData each : filters.asMilliList(new MilliList())) {
+                MilliDBFilter filter = each.isMilliMap() ? parse(each.asMilliMap()) : null;
+                if (filter == null) return null;
+                parsed.add(filter);
+            }
+            return parsed;
+        }
+
+        @Nonnull
+        private static String pathOf(@Nonnull MilliMap filter) {
+            return filter.get("p").asMilliValue(new MilliValue()).asString();
+        }
+
+        private static String boundOf(MilliData bound) {
+            return bound == null || !bound.isMilliValue() ? null : bound.asMilliValue().asString();
+        }
     }
 
     public static final class SuperOf extends MilliDBFilter {
@@ -86,5 +218,412 @@ public abstract class MilliDBFilter {
         public MilliMap toMilliMap() {
             return new MilliMap("_t", new MilliValue(getType())).append("s", subMilliData).append("l", new MilliValue(level));
         }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            return content -> MilliDBData.isSuperOf(content, subMilliData, level);
+        }
+    }
+
+    public static final class And extends MilliDBFilter {
+        private final List<MilliDBFilter> filters;
+
+        private And(@Nonnull List<MilliDBFilter> filters) {
+            this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+            for (MilliDBFilter filter : this.filters) Validate.nonnull(filter);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "and";
+        }
+
+        @Nonnull
+        public List<MilliDBFilter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("fs", toMilliList(filters));
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            Predicate<MilliData>[] predicates = compileAll(filters);
+            return content -> {
+                for (Predicate<MilliData> predicate : predicates) if (!predicate.test(content)) return false;
+                return true;
+            };
+        }
+    }
+
+    public static final class Or extends MilliDBFilter {
+        private final List<MilliDBFilter> filters;
+
+        private Or(@Nonnull List<MilliDBFilter> filters) {
+            this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+            for (MilliDBFilter filter : this.filters) Validate.nonnull(filter);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "or";
+        }
+
+        @Nonnull
+        public List<MilliDBFilter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("fs", toMilliList(filters));
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            Predicate<MilliData>[] predicates = compileAll(filters);
+            return content -> {
+                for (Predicate<MilliData> predicate : predicates) if (predicate.test(content)) return true;
+                return false;
+            };
+        }
+    }
+
+    public static final class Not extends MilliDBFilter {
+        private final MilliDBFilter filter;
+
+        private Not(@Nonnull MilliDBFilter filter) {
+            this.filter = Validate.nonnull(filter);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "not";
+        }
+
+        @Nonnull
+        public MilliDBFilter getFilter() {
+            return filter;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("f", filter.toMilliMap());
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            return filter.compile().negate();
+        }
+    }
+
+    public static final class PathEquals extends MilliDBFilter {
+        private final String path;
+        private final MilliData value;
+
+        private PathEquals(@Nonnull String path, @Nonnull MilliData value) {
+            this.path = Validate.nonnull(path);
+            this.value = Validate.nonnull(value);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "pe";
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Nonnull
+        public MilliData getValue() {
+            return value;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("p", new MilliValue(path)).append("v", value);
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            String[] keys = MilliDBData.split(path);
+            if (value.isMilliValue()) {
+                String text = value.asMilliValue().asString();
+                return content -> {
+                    MilliData data = MilliDBData.get(content, keys);
+                    return data.isMilliValue() && data.asMilliValue().asString().equals(text);
+                };
+            }
+            return content -> MilliDBData.isEqual(MilliDBData.get(content, keys), value);
+        }
+    }
+
+    public static final class Range extends MilliDBFilter {
+        private final String path;
+        private final boolean numeric;
+        private final String min;
+        private final String max;
+
+        private Range(@Nonnull String path, boolean numeric, String min, String max) {
+            this.path = Validate.nonnull(path);
+            this.numeric = numeric;
+            this.min = min;
+            this.max = max;
+            if (numeric && (min != null && toNumber(min) == null || max != null && toNumber(max) == null)) throw new IllegalArgumentException("The bounds of a numeric range must be numbers");
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "rg";
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return  true if the bounds are compared as numbers, false as text
+         */
+        public boolean isNumeric() {
+            return numeric;
+        }
+
+        /**
+         * @return  null for no lower bound
+         */
+        public String getMin() {
+            return min;
+        }
+
+        /**
+         * @return  null for no upper bound
+         */
+        public String getMax() {
+            return max;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("p", new MilliValue(path)).append("k", new MilliValue(numeric ? "n" : "s")).append("min", toBound(min)).append("max", toBound(max));
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            String[] keys = MilliDBData.split(path);
+            if (numeric) {
+                BigDecimal lower = min == null ? null : toNumber(min);
+                BigDecimal upper = max == null ? null : toNumber(max);
+                return content -> {
+                    MilliData data = MilliDBData.get(content, keys);
+                    BigDecimal number = data.isMilliValue() ? toNumber(data.asMilliValue().asString()) : null;
+                    return number != null && (lower == null || number.compareTo(lower) >= 0) && (upper == null || number.compareTo(upper) <= 0);
+                };
+            }
+            return content -> {
+                MilliData data = MilliDBData.get(content, keys);
+                if (!data.isMilliValue()) return false;
+                String text = data.asMilliValue().asString();
+                return (min == null || text.compareTo(min) >= 0) && (max == null || text.compareTo(max) <= 0);
+            };
+        }
+
+        @Nonnull
+        private MilliData toBound(String bound) {
+            if (bound == null) return MilliNull.INSTANCE;
+            if (!numeric) return new MilliValue(bound);
+            try {
+                return new MilliValue(Long.parseLong(bound));
+            } catch (NumberFormatException e) {
+                return new MilliValue(bound);
+            }
+        }
+
+        private static BigDecimal toNumber(@Nonnull String text) {
+            try {
+                return new BigDecimal(text.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public static final class Exists extends MilliDBFilter {
+        private final String path;
+
+        private Exists(@Nonnull String path) {
+            this.path = Validate.nonnull(path);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "ex";
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("p", new MilliValue(path));
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            String[] keys = MilliDBData.split(path);
+            return content -> !MilliDBData.get(content, keys).isMilliNull();
+        }
+    }
+
+    public static final class In extends MilliDBFilter {
+        private final String path;
+        private final List<MilliData> values;
+
+        private In(@Nonnull String path, @Nonnull List<MilliData> values) {
+            this.path = Validate.nonnull(path);
+            this.values = Collections.unmodifiableList(new ArrayList<>(values));
+            for (MilliData value : this.values) Validate.nonnull(value);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "in";
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Nonnull
+        public List<MilliData> getValues() {
+            return values;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            MilliList list = new MilliList();
+            for (MilliData value : values) list.append(value);
+            return new MilliMap("_t", new MilliValue(getType())).append("p", new MilliValue(path)).append("vs", list);
+        }
+
+        /**
+         * The MilliValues are looked up by hash, the other data are compared one by one
+         */
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            String[] keys = MilliDBData.split(path);
+            Set<String> texts = new HashSet<>();
+            List<MilliData> others = new ArrayList<>();
+            for (MilliData value : values) {
+                if (value.isMilliValue()) texts.add(value.asMilliValue().asString());
+                else others.add(value);
+            }
+            return content -> {
+                MilliData data = MilliDBData.get(content, keys);
+                if (data.isMilliValue()) return texts.contains(data.asMilliValue().asString());
+                for (MilliData other : others) if (MilliDBData.isEqual(data, other)) return true;
+                return false;
+            };
+        }
+    }
+
+    public static final class Prefix extends MilliDBFilter {
+        private final String path;
+        private final String prefix;
+
+        private Prefix(@Nonnull String path, @Nonnull String prefix) {
+            this.path = Validate.nonnull(path);
+            this.prefix = Validate.nonnull(prefix);
+        }
+
+        @Override
+        @Nonnull
+        public String getType() {
+            return "pf";
+        }
+
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Nonnull
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        @Nonnull
+        public MilliMap toMilliMap() {
+            return new MilliMap("_t", new MilliValue(getType())).append("p", new MilliValue(path)).append("v", new MilliValue(prefix));
+        }
+
+        @Override
+        @Nonnull
+        public Predicate<MilliData> compile() {
+            String[] keys = MilliDBData.split(path);
+            return content -> {
+                MilliData data = MilliDBData.get(content, keys);
+                return data.isMilliValue() && data.asMilliValue().asString().startsWith(prefix);
+            };
+        }
+    }
+
+    @Nonnull
+    private static MilliList toMilliList(@Nonnull List<MilliDBFilter> filters) {
+        MilliList list = new MilliList();
+        for (MilliDBFilter filter : filters) list.append(filter.toMilliMap());
+        return list;
+    }
+
+    /**
+     * @return  the plain decimal text of the number, null for no bound
+     */
+    private static String toDecimalText(Number number) {
+        if (number == null) return null;
+        if (number instanceof BigDecimal) return ((BigDecimal) number).toPlainString();
+        if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) return String.valueOf(number.longValue());
+        try {
+            return new BigDecimal(number.toString()).toPlainString();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The bounds of a numeric range must be finite numbers");
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Nonnull
+    private static Predicate<MilliData>[] compileAll(@Nonnull List<MilliDBFilter> filters) {
+        Predicate<MilliData>[] predicates = new Predicate[filters.size()];
+        for (int i = 0; i < predicates.length; i++) predicates[i] = filters.get(i).compile();
+        return predicates;
     }
 }
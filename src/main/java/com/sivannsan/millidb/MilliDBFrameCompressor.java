@@ -0,0 +1,216 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The compression of one connection, once the handshake has picked a MilliDBCompression.
+ * <p>
+ * Every frame of the codec is then wrapped: a varint length, a one-byte flag and the frame. If the flag is 1,
+ * the frame is compressed and starts with the varint length it has before compression.
+ * Frames not above the threshold, and frames that do not get smaller, go with the flag 0 and cost two or more bytes only.
+ * Such frames are never copied: their envelope is written into the room left in front of them,
+ * and a received one is decoded where it lies.
+ * <p>
+ * Writers compress in parallel, so the compressors are kept in a lock-free pool and reused, up to one per processor.
+ * Reading is done by one thread at a time, so a single decompressor is reused.
+ * The native memory of all of them is released by #end when the connection is closed.
+ */
+final class MilliDBFrameCompressor {
+    /**
+     * The room a frame must leave in front of it for #wrap, enough for the longest length and the flag
+     */
+    static final int HEADROOM = 6;
+    private static final int FLAG_RAW = 0;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+    private static final int MAX_IDLE_COMPRESSORS = Runtime.getRuntime().availableProcessors();
+
+    @Nonnull
+    private final MilliDBCompression compression;
+    private final int threshold;
+    @Nonnull
+    private final MilliDBMetrics metrics;
+    private final Queue<MilliDBCompression.Compressor> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    @Nonnull
+    private final MilliDBCompression.Decompressor decompressor;
+    /**
+     * Held while decompressing, so that #end never releases the decompressor under the reading thread
+     */
+    private final ReentrantLock decompressLock = new ReentrantLock();
+    private volatile boolean ended;
+
+    MilliDBFrameCompressor(@Nonnull MilliDBCompression compression, int threshold, @Nonnull MilliDBMetrics metrics) {
+        this.compression = Validate.nonnull(compression);
+        this.threshold = threshold;
+        this.metrics = Validate.nonnull(metrics);
+        this.decompressor = compression.newDecompressor();
+    }
+
+    @Nonnull
+    MilliDBCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Called by many threads at the same time
+     *
+     * @param offset    the start of the frame in the bytes, after at least HEADROOM bytes that are free to overwrite
+     * @return  the wrapped frame, in the same bytes unless it has been compressed
+     */
+    @Nonnull
+    ByteBuffer wrap(@Nonnull byte[] bytes, int offset, int length) {
+        if (offset < HEADROOM) throw new IllegalArgumentException("The frame has no room for its envelope");
+        if (length <= threshold) return envelopeInPlace(bytes, offset, length);
+        long start = System.nanoTime();
+        MilliDBCompression.Compressor compressor = idle.poll();
+        if (compressor == null) compressor = compression.newCompressor();
+        else idleCount.decrementAndGet();
+        byte[] compressed;
+        try {
+            compressed = compressor.compress(bytes, offset, length);
+        } finally {
+            release(compressor);
+        }
+        metrics.onFrameCompressed(true, length, compressed.length, System.nanoTime() - start);
+        if (compressed.length >= length) return envelopeInPlace(bytes, offset, length);
+        return ByteBuffer.wrap(envelope(length, compressed));
+    }
+
+    /**
+     * @return  the length of the first whole wrapped frame of the received bytes, -1 if it has not been fully received
+     */
+    int frameLength(@Nonnull ByteBuffer received) throws IOException {
+        int i = received.position();
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (i >= received.limit()) return -1;
+            b = received.get(i++) & 0xFF;
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 28) throw new IOException("The frame length is too long");
+        } while ((b & 0x80) != 0);
+        if (length < 1 || length > MAX_FRAME_SIZE) throw new IOException("The frame length is invalid: " + length);
+        int frameLength = i - received.position() + length;
+        return frameLength <= received.remaining() ? frameLength : -1;
+    }
+
+    /**
+     * Called by one thread at a time
+     *
+     * @param offset    the start of a whole wrapped frame in the bytes, as measured by #frameLength
+     * @return  the frame of the codec, a view of the same bytes unless it was compressed
+     */
+    @Nonnull
+    ByteBuffer unwrap(@Nonnull byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        int[] position = {offset};
+        readVarInt(bytes, position, end);
+        if (position[0] >= end) throw new IOException("The frame is cut");
+        int flag = bytes[position[0]++];
+        if (flag == FLAG_RAW) return ByteBuffer.wrap(bytes, position[0], end - position[0]);
+        if (flag != FLAG_COMPRESSED) throw new IOException("Unknown compression flag: " + flag);
+        int originalLength = readVarInt(bytes, position, end);
+        if (originalLength < 0 || originalLength > MAX_FRAME_SIZE) throw new IOException("The frame is too large: " + originalLength);
+        long start = System.nanoTime();
+        byte[] frame;
+        decompressLock.lock();
+        try {
+            if (ended) throw new IOException("The connection is closed");
+            frame = decompressor.decompress(bytes, position[0], end - position[0], originalLength);
+        } finally {
+            decompressLock.unlock();
+        }
+        metrics.onFrameCompressed(false, originalLength, end - position[0], System.nanoTime() - start);
+        return ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Releases the compressors and the decompressor, called when the connection is closed.
+     * A compressor still in use is released when it is given back.
+     */
+    void end() {
+        ended = true;
+        MilliDBCompression.Compressor compressor;
+        while ((compressor = idle.poll()) != null) compressor.end();
+        decompressLock.lock();
+        try {
+            decompressor.end();
+        } finally {
+            decompressLock.unlock();
+        }
+    }
+
+    private void release(@Nonnull MilliDBCompression.Compressor compressor) {
+        if (ended || idleCount.incrementAndGet() > MAX_IDLE_COMPRESSORS) {
+            if (!ended) idleCount.decrementAndGet();
+            compressor.end();
+            return;
+        }
+        idle.offer(compressor);
+        //The connection may have ended while the compressor was being offered
+        if (ended) end();
+    }
+
+    /**
+     * Writes the envelope of a raw frame into the room in front of it
+     */
+    @Nonnull
+    private static ByteBuffer envelopeInPlace(@Nonnull byte[] bytes, int offset, int length) {
+        int bodyLength = 1 + length;
+        int start = offset - 1 - varIntSize(bodyLength);
+        writeVarInt(bytes, start, bodyLength);
+        bytes[offset - 1] = FLAG_RAW;
+        return ByteBuffer.wrap(bytes, start, offset + length - start);
+    }
+
+    @Nonnull
+    private static byte[] envelope(int originalLength, @Nonnull byte[] compressed) {
+        int bodyLength = 1 + varIntSize(originalLength) + compressed.length;
+        byte[] bytes = new byte[varIntSize(bodyLength) + bodyLength];
+        int i = writeVarInt(bytes, 0, bodyLength);
+        bytes[i++] = FLAG_COMPRESSED;
+        i = writeVarInt(bytes, i, originalLength);
+        System.arraycopy(compressed, 0, bytes, i, compressed.length);
+        return bytes;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int writeVarInt(@Nonnull byte[] bytes, int i, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[i++] = (byte) value;
+        return i;
+    }
+
+    private static int readVarInt(@Nonnull byte[] bytes, @Nonnull int[] position, int end) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (position[0] >= end) throw new IOException("The frame is cut");
+            b = bytes[position[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 35) throw new IOException("The varint is too long");
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,97 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MilliDBFiles a client has got with getDocument and getCollection, keyed by their paths,
+ * so that getting them again returns the same instance without a query until their permission is to be checked again.
+ * <p>
+ * Every DELETE sent through the client removes the deleted file and everything below it. Files deleted through
+ * another client are found when they expire. When it is full, expired entries are removed first, and then any entries.
+ */
+final class MilliDBHandleCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    MilliDBHandleCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @return  null if the file is not cached or has expired
+     */
+    MilliDBFile get(@Nonnull String path) {
+        Entry entry = entries.get(path);
+        return entry == null || System.nanoTime() - entry.expiry >= 0 ? null : entry.file;
+    }
+
+    /**
+     * Called once the file has been checked
+     *
+     * @return  the instance already cached for the path, even if it has expired, or else the file
+     */
+    @Nonnull
+    MilliDBFile put(@Nonnull MilliDBFile file) {
+        if (entries.size() >= maxEntries && !entries.containsKey(file.getPath())) evict();
+        long expiry = System.nanoTime() + ttlNanos;
+        return entries.compute(file.getPath(), (path, entry) -> new Entry(entry == null ? file : entry.file, expiry)).file;
+    }
+
+    /**
+     * Removes the files a DELETE, or a BATCH with a DELETE, may have deleted
+     */
+    void invalidate(@Nonnull MilliDBQuery query) {
+        if (query.getFunction() == MilliDBQuery.Function.DELETE) {
+            invalidate(query.getPath());
+            return;
+        }
+        if (query.getFunction() != MilliDBQuery.Function.BATCH) return;
+        for (MilliData data : query.getMetadata().asMilliList(new MilliList())) {
+            try {
+                invalidate(MilliDBQuery.Parser.parse(data.asMilliMap(new MilliMap())));
+            } catch (MilliDBQueryParsedException ignored) {
+            }
+        }
+    }
+
+    private void invalidate(@Nonnull String path) {
+        entries.remove(path);
+        if (path.endsWith(".mll")) return;
+        String prefix = path + "/";
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Frees a quarter of the entries at once, so that a full cache is not scanned on every put
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> now - entry.expiry >= 0);
+        int target = maxEntries - Math.max(1, maxEntries / 4);
+        for (Iterator<String> iterator = entries.keySet().iterator(); entries.size() > target && iterator.hasNext(); ) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+        @Nonnull
+        private final MilliDBFile file;
+        private final long expiry;
+
+        private Entry(@Nonnull MilliDBFile file, long expiry) {
+            this.file = file;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+/**
+ * Where the messages of MilliDBLogger go, set it with MilliDBLogger#setHandler.
+ * <p>
+ * The methods are called by many threads, including the I/O threads, so a handler that writes slowly
+ * should be wrapped with #async.
+ */
+public interface MilliDBLogHandler {
+    /**
+     * Checked before the message is built
+     */
+    default boolean isLoggable(@Nonnull MilliDBLogger.Level level) {
+        return true;
+    }
+
+    void publish(@Nonnull MilliDBLogger.Level level, @Nonnull String message);
+
+    /**
+     * Publishes the messages it still holds before returning. Messages published afterwards are still handled.
+     * MilliDBLogger#setHandler does not close the handler it replaces.
+     */
+    default void close() {
+    }
+
+    /**
+     * Prints on System.out, as "[LEVEL]: message"
+     */
+    @Nonnull
+    static MilliDBLogHandler console() {
+        return (level, message) -> System.out.println("[" + level + "]: " + message);
+    }
+
+    /**
+     * Hands the messages to a daemon thread through a bounded ring buffer, so callers never wait for the handler.
+     * Messages are dropped when the buffer is full, and the next one tells how many were dropped.
+     * The buffer is drained by #close, or when the JVM shuts down.
+     *
+     * @param capacity  the number of messages the buffer holds
+     */
+    @Nonnull
+    static MilliDBLogHandler async(@Nonnull MilliDBLogHandler handler, int capacity) {
+        return new MilliDBAsyncLogHandler(handler, capacity);
+    }
+
+    /**
+     * Bridges to the System.Logger of the name, and so to the logging framework of the application
+     */
+    @Nonnull
+    static MilliDBLogHandler systemLogger(@Nonnull String name) {
+        System.Logger logger = System.getLogger(Validate.nonnull(name));
+        return new MilliDBLogHandler() {
+            @Override
+            public boolean isLoggable(@Nonnull MilliDBLogger.Level level) {
+                return logger.isLoggable(toSystemLevel(level));
+            }
+
+            @Override
+            public void publish(@Nonnull MilliDBLogger.Level level, @Nonnull String message) {
+                logger.log(toSystemLevel(level), message);
+            }
+
+            @Nonnull
+            private System.Logger.Level toSystemLevel(@Nonnull MilliDBLogger.Level level) {
+                switch (level) {
+                    case DEBUG:
+                        return System.Logger.Level.DEBUG;
+                    case INFO:
+                        return System.Logger.Level.INFO;
+                    default:
+                        return System.Logger.Level.WARNING;
+                }
+            }
+        };
+    }
+}
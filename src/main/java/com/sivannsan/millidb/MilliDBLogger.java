@@ -1,21 +1,130 @@
 package com.sivannsan.millidb;
 
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 /**
- * Log on console
+ * Logs of the client, handed to a MilliDBLogHandler.
+ * <p>
+ * Messages below the level, or not loggable by the handler, are dropped before they are built, so the Supplier methods
+ * cost nothing then. By default, INFO and above are printed on the console by a background thread.
+ * <p>
+ * Warnings given as a Supplier are rate limited by the place they come from, which is the class of the lambda:
+ * one of them is logged per interval, and the next one tells how many were suppressed.
  */
 public final class MilliDBLogger {
+    @Nonnull
+    private static volatile Level level = Level.INFO;
+    @Nonnull
+    private static volatile MilliDBLogHandler handler = MilliDBLogHandler.async(MilliDBLogHandler.console(), 1024);
+    private static volatile long warningIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_RATE_LIMITED_PLACES = 1024;
+    private static final Map<Class<?>, RateLimit> rateLimits = new ConcurrentHashMap<>();
+
     private MilliDBLogger() {
     }
 
-    private static void log(String message) {
-        System.out.println(message);
+    @Nonnull
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Messages below the level are dropped, INFO by default
+     */
+    public static void setLevel(@Nonnull Level level) {
+        MilliDBLogger.level = Validate.nonnull(level);
+    }
+
+    @Nonnull
+    public static MilliDBLogHandler getHandler() {
+        return handler;
+    }
+
+    public static void setHandler(@Nonnull MilliDBLogHandler handler) {
+        MilliDBLogger.handler = Validate.nonnull(handler);
+    }
+
+    /**
+     * How often a warning from the same place may be logged, 1000 by default
+     *
+     * @param warningIntervalMillis 0 to log every warning
+     */
+    public static void setWarningIntervalMillis(long warningIntervalMillis) {
+        if (warningIntervalMillis < 0) throw new IllegalArgumentException("warningIntervalMillis must not be negative");
+        warningIntervalNanos = TimeUnit.MILLISECONDS.toNanos(warningIntervalMillis);
+        rateLimits.clear();
+    }
+
+    public static boolean isLoggable(@Nonnull Level level) {
+        return level.compareTo(MilliDBLogger.level) >= 0 && handler.isLoggable(level);
+    }
+
+    public static void debug(@Nonnull Supplier<String> message) {
+        if (isLoggable(Level.DEBUG)) handler.publish(Level.DEBUG, message.get());
     }
 
     public static void info(String message) {
-        log("[INFO]: " + message);
+        if (isLoggable(Level.INFO)) handler.publish(Level.INFO, message);
+    }
+
+    public static void info(@Nonnull Supplier<String> message) {
+        if (isLoggable(Level.INFO)) handler.publish(Level.INFO, message.get());
     }
 
     public static void warning(String message) {
-        log("[WARNING]: " + message);
+        if (isLoggable(Level.WARNING)) handler.publish(Level.WARNING, message);
+    }
+
+    /**
+     * Rate limited, see the class description
+     */
+    public static void warning(@Nonnull Supplier<String> message) {
+        if (!isLoggable(Level.WARNING)) return;
+        long intervalNanos = warningIntervalNanos;
+        if (intervalNanos == 0) {
+            handler.publish(Level.WARNING, message.get());
+            return;
+        }
+        RateLimit rateLimit = rateLimits.get(message.getClass());
+        if (rateLimit == null) {
+            //Lambdas of generated classes could fill the map, they are then logged without a limit
+            if (rateLimits.size() >= MAX_RATE_LIMITED_PLACES) {
+                handler.publish(Level.WARNING, message.get());
+                return;
+            }
+            rateLimit = rateLimits.computeIfAbsent(message.getClass(), k -> new RateLimit());
+        }
+        long suppressed = rateLimit.tryAcquire(intervalNanos);
+        if (suppressed < 0) return;
+        handler.publish(Level.WARNING, suppressed == 0 ? message.get() : message.get() + " (" + suppressed + " similar warning" + (suppressed > 1 ? "s" : "") + " suppressed)");
+    }
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARNING
+    }
+
+    private static final class RateLimit {
+        private final AtomicLong next = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong suppressed = new AtomicLong();
+
+        /**
+         * @return  the number of warnings suppressed since the last one logged, -1 if this one is suppressed
+         */
+        private long tryAcquire(long intervalNanos) {
+            long now = System.nanoTime();
+            long next = this.next.get();
+            if ((next == Long.MIN_VALUE || now - next >= 0) && this.next.compareAndSet(next, now + intervalNanos)) return suppressed.getAndSet(0);
+            suppressed.incrementAndGet();
+            return -1;
+        }
     }
 }
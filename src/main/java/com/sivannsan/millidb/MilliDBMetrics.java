@@ -0,0 +1,96 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+/**
+ * Listens to what a client does, set it with MilliDBClients.ConnectionConfig#setMetrics.
+ * <p>
+ * The time of a query can be split with these events: encoding its frame, its round trip over the network and the server,
+ * and decoding its result frame. MilliDBMetricsRecorder keeps them as histograms.
+ * <p>
+ * The methods are called by many threads, including the I/O threads, so they must be fast and must not block.
+ * Every method does nothing by default.
+ */
+public interface MilliDBMetrics {
+    /**
+     * Listens to nothing
+     */
+    MilliDBMetrics NONE = new MilliDBMetrics() {
+    };
+
+    /**
+     * A call to MilliDBClient#execute or #executeAsync has started
+     */
+    default void onQueryStarted(@Nonnull MilliDBQuery.Function function) {
+    }
+
+    /**
+     * A call has finished, after all of its attempts
+     *
+     * @param succeed   false if it ended with a failed result or without any result
+     */
+    default void onQueryFinished(@Nonnull MilliDBQuery.Function function, long nanos, boolean succeed) {
+    }
+
+    /**
+     * A call is sending its query again
+     */
+    default void onRetry(@Nonnull MilliDBQuery.Function function) {
+    }
+
+    /**
+     * A query frame has been encoded and is about to be sent
+     */
+    default void onFrameEncoded(@Nonnull MilliDBQuery.Function function, int bytes, long nanos) {
+    }
+
+    /**
+     * A result frame has been received and decoded.
+     * The metadata of the BINARY codec is decoded later, when it is first read.
+     */
+    default void onFrameDecoded(int bytes, long nanos) {
+    }
+
+    /**
+     * A frame above the compression threshold has been compressed before it is sent, or decompressed after it is received.
+     * A frame that does not get smaller is sent as it is, but still reported.
+     *
+     * @param sent  true for a query frame, false for a result frame
+     */
+    default void onFrameCompressed(boolean sent, int bytes, int compressedBytes, long nanos) {
+    }
+
+    /**
+     * The result of a query has arrived, measured from the moment its frame was handed to the connection
+     */
+    default void onRoundTrip(@Nonnull MilliDBQuery.Function function, long nanos) {
+    }
+
+    /**
+     * A result has arrived whose ID matches no query in flight, usually the late result of a query that has timed out
+     */
+    default void onUnknownResult(long id) {
+    }
+
+    default void onConnectionEvent(@Nonnull ConnectionEvent event) {
+    }
+
+    enum ConnectionEvent {
+        /**
+         * A connection to the server has been opened
+         */
+        OPENED,
+        /**
+         * A connection to the server has been closed or lost
+         */
+        CLOSED,
+        /**
+         * A lost connection is being replaced
+         */
+        RECONNECTING,
+        /**
+         * A lost connection could not be replaced within the reconnect window
+         */
+        RECONNECT_FAILED
+    }
+}
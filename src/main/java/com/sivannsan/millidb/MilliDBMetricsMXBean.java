@@ -0,0 +1,52 @@
+package com.sivannsan.millidb;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a MilliDBMetricsRecorder, registered with MilliDBMetricsRecorder#registerMBean.
+ * The latency maps are keyed by the name of the MilliDBQuery.Function.
+ */
+public interface MilliDBMetricsMXBean {
+    /**
+     * Starts the counts and the latencies over, such as at the start of a measurement
+     */
+    void reset();
+
+    long getQueriesInFlight();
+
+    long getQueriesFailed();
+
+    long getRetries();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getUnknownResults();
+
+    long getOpenConnections();
+
+    long getReconnects();
+
+    long getReconnectFailures();
+
+    Map<String, Long> getQueryCounts();
+
+    Map<String, Double> getLatencyP50Millis();
+
+    Map<String, Double> getLatencyP99Millis();
+
+    Map<String, Double> getLatencyP999Millis();
+
+    Map<String, Double> getRoundTripP99Millis();
+
+    double getEncodeP99Millis();
+
+    double getDecodeP99Millis();
+
+    long getCompressedFrames();
+
+    double getCompressionRatio();
+
+    double getCompressP99Millis();
+}
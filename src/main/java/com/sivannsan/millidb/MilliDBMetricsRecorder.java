@@ -0,0 +1,294 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Keeps the events of MilliDBMetrics as lock-free histograms and counters.
+ * <p>
+ * Latency is the whole call with its retries, round trip is a single attempt over the network and the server,
+ * and encode, decode and compression are the client side work of the frames. A slow p99 whose round trip is fast comes from the client,
+ * and a slow round trip whose decode is fast comes from the network or the server.
+ * <p>
+ * One recorder can be shared by many clients. It can also be registered as a JMX MXBean with #registerMBean.
+ */
+public final class MilliDBMetricsRecorder implements MilliDBMetrics, MilliDBMetricsMXBean {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<MilliDBQuery.Function, MilliDBHistogram> latencies = new EnumMap<>(MilliDBQuery.Function.class);
+    private final Map<MilliDBQuery.Function, MilliDBHistogram> roundTrips = new EnumMap<>(MilliDBQuery.Function.class);
+    private final MilliDBHistogram encodes = new MilliDBHistogram();
+    private final MilliDBHistogram decodes = new MilliDBHistogram();
+    private final MilliDBHistogram compressions = new MilliDBHistogram();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder unknownResults = new LongAdder();
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder reconnectFailures = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    public MilliDBMetricsRecorder() {
+        //Filled once, so that they are only read afterwards
+        for (MilliDBQuery.Function function : MilliDBQuery.Function.values()) {
+            latencies.put(function, new MilliDBHistogram());
+            roundTrips.put(function, new MilliDBHistogram());
+        }
+    }
+
+    @Override
+    public void onQueryStarted(@Nonnull MilliDBQuery.Function function) {
+        inFlight.increment();
+    }
+
+    @Override
+    public void onQueryFinished(@Nonnull MilliDBQuery.Function function, long nanos, boolean succeed) {
+        inFlight.decrement();
+        if (!succeed) failed.increment();
+        latencies.get(function).record(nanos);
+    }
+
+    @Override
+    public void onRetry(@Nonnull MilliDBQuery.Function function) {
+        retries.increment();
+    }
+
+    @Override
+    public void onFrameEncoded(@Nonnull MilliDBQuery.Function function, int bytes, long nanos) {
+        bytesSent.add(bytes);
+        encodes.record(nanos);
+    }
+
+    @Override
+    public void onFrameDecoded(int bytes, long nanos) {
+        bytesReceived.add(bytes);
+        decodes.record(nanos);
+    }
+
+    @Override
+    public void onFrameCompressed(boolean sent, int bytes, int compressedBytes, long nanos) {
+        uncompressedBytes.add(bytes);
+        this.compressedBytes.add(compressedBytes);
+        compressions.record(nanos);
+    }
+
+    @Override
+    public void onRoundTrip(@Nonnull MilliDBQuery.Function function, long nanos) {
+        roundTrips.get(function).record(nanos);
+    }
+
+    @Override
+    public void onUnknownResult(long id) {
+        unknownResults.increment();
+    }
+
+    @Override
+    public void onConnectionEvent(@Nonnull ConnectionEvent event) {
+        switch (event) {
+            case OPENED:
+                openConnections.increment();
+                break;
+            case CLOSED:
+                openConnections.decrement();
+                break;
+            case RECONNECTING:
+                reconnects.increment();
+                break;
+            case RECONNECT_FAILED:
+                reconnectFailures.increment();
+                break;
+        }
+    }
+
+    /**
+     * The time of whole calls, including their retries and backoff
+     */
+    @Nonnull
+    public MilliDBHistogram getLatency(@Nonnull MilliDBQuery.Function function) {
+        return latencies.get(Validate.nonnull(function));
+    }
+
+    /**
+     * The time of single attempts, from handing the frame to the connection until the result is decoded
+     */
+    @Nonnull
+    public MilliDBHistogram getRoundTrip(@Nonnull MilliDBQuery.Function function) {
+        return roundTrips.get(Validate.nonnull(function));
+    }
+
+    @Nonnull
+    public MilliDBHistogram getEncode() {
+        return encodes;
+    }
+
+    @Nonnull
+    public MilliDBHistogram getDecode() {
+        return decodes;
+    }
+
+    /**
+     * The time of compressing and decompressing the frames above the compression threshold
+     */
+    @Nonnull
+    public MilliDBHistogram getCompression() {
+        return compressions;
+    }
+
+    /**
+     * Starts every histogram and counter over, except the queries in flight and the open connections, which are not counts of events
+     */
+    @Override
+    public void reset() {
+        for (MilliDBHistogram histogram : latencies.values()) histogram.reset();
+        for (MilliDBHistogram histogram : roundTrips.values()) histogram.reset();
+        encodes.reset();
+        decodes.reset();
+        compressions.reset();
+        failed.reset();
+        retries.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        unknownResults.reset();
+        reconnects.reset();
+        reconnectFailures.reset();
+        uncompressedBytes.reset();
+        compressedBytes.reset();
+    }
+
+    @Override
+    public long getQueriesInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getQueriesFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getUnknownResults() {
+        return unknownResults.sum();
+    }
+
+    @Override
+    public long getOpenConnections() {
+        return openConnections.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getReconnectFailures() {
+        return reconnectFailures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getQueryCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<MilliDBQuery.Function, MilliDBHistogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getCount() > 0) counts.put(entry.getKey().name(), entry.getValue().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50Millis() {
+        return toMillis(latencies, histogram -> histogram.getPercentileNanos(50));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99Millis() {
+        return toMillis(latencies, histogram -> histogram.getPercentileNanos(99));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP999Millis() {
+        return toMillis(latencies, histogram -> histogram.getPercentileNanos(99.9));
+    }
+
+    @Override
+    public Map<String, Double> getRoundTripP99Millis() {
+        return toMillis(roundTrips, histogram -> histogram.getPercentileNanos(99));
+    }
+
+    @Override
+    public double getEncodeP99Millis() {
+        return encodes.getPercentileNanos(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getDecodeP99Millis() {
+        return decodes.getPercentileNanos(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getCompressedFrames() {
+        return compressions.getCount();
+    }
+
+    /**
+     * @return  the bytes of the compressed frames before compression divided by their bytes after it, 1 if none is compressed
+     */
+    @Override
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 1 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    @Override
+    public double getCompressP99Millis() {
+        return compressions.getPercentileNanos(99) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Registers this recorder to the platform MBeanServer as com.sivannsan.millidb:type=Metrics,name=[name]
+     *
+     * @return  the name to unregister it with
+     */
+    @Nonnull
+    public ObjectName registerMBean(@Nonnull String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.sivannsan.millidb:type=Metrics,name=" + ObjectName.quote(Validate.nonnull(name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Nonnull
+    private static Map<String, Double> toMillis(@Nonnull Map<MilliDBQuery.Function, MilliDBHistogram> histograms, @Nonnull ToDoubleFunction<MilliDBHistogram> nanos) {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Map.Entry<MilliDBQuery.Function, MilliDBHistogram> entry : histograms.entrySet()) {
+            if (entry.getValue().getCount() > 0) millis.put(entry.getKey().name(), nanos.applyAsDouble(entry.getValue()) / NANOS_PER_MILLI);
+        }
+        return millis;
+    }
+}
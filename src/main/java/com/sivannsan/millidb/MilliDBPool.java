@@ -0,0 +1,397 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import com.sivannsan.millidata.MilliNull;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A set of authenticated MilliDBConnections shared by many threads.
+ * <p>
+ * Every query goes to the least busy connection. A new connection is opened only when all of them are busy,
+ * and queries are queued once every connection carries its maximum number of in-flight queries. The caller never
+ * waits for a slot, a queued query is sent when a slot is freed, or fails when the acquire timeout passes.
+ * Queued queries, and queries that need a new connection, are sent from the maintenance thread, since the thread that
+ * frees a slot is the one completing a result, and the connect and handshake of a new connection block.
+ * <p>
+ * Every health check pings the connections that have been idle for an interval, and drops those that do not answer.
+ * A connection is only closed by the pool after it has been reserved as draining, so no query is sent on it meanwhile.
+ */
+final class MilliDBPool implements MilliDBTransport {
+    @Nonnull
+    private final String host;
+    private final int port;
+    @Nonnull
+    private final String userName;
+    @Nonnull
+    private final String userPassword;
+    @Nonnull
+    private final MilliDBClients.PoolConfig config;
+    private final List<Entry> entries = new CopyOnWriteArrayList<>();
+    private final ReentrantLock growLock = new ReentrantLock();
+    /**
+     * Guards the free slots and the queued queries
+     */
+    private final ReentrantLock slotLock = new ReentrantLock();
+    private int freeSlots;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final ScheduledExecutorService maintainer;
+    private volatile boolean closed;
+
+    MilliDBPool(@Nonnull String host, int port, @Nonnull String userName, @Nonnull String userPassword, @Nonnull MilliDBClients.PoolConfig config) throws IOException {
+        this.host = Validate.nonnull(host);
+        this.port = port;
+        this.userName = Validate.nonnull(userName);
+        this.userPassword = Validate.nonnull(userPassword);
+        this.config = Validate.nonnull(config);
+        this.freeSlots = config.getMaxConnections() * config.getMaxInFlightPerConnection();
+        for (int i = 0; i < Math.max(1, config.getMinConnections()); i++) entries.add(open());
+        this.maintainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MilliDBPool-" + host + ":" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintainer.scheduleWithFixedDelay(this::maintain, config.getHealthCheckIntervalMillis(), config.getHealthCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<MilliDBResult> send(@Nonnull MilliDBQuery query) {
+        CompletableFuture<MilliDBResult> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IOException("Pool is closed"));
+            return future;
+        }
+        slotLock.lock();
+        try {
+            if (freeSlots == 0) {
+                Waiter waiter = new Waiter(query, future);
+                waiters.addLast(waiter);
+                try {
+                    maintainer.schedule(() -> expire(waiter), config.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    //Closed meanwhile
+                    waiters.remove(waiter);
+                    future.completeExceptionally(new IOException("Pool is closed"));
+                }
+                return future;
+            }
+            freeSlots--;
+        } finally {
+            slotLock.unlock();
+        }
+        dispatch(query, future, false);
+        return future;
+    }
+
+    /**
+     * Sends the query with a slot that has been taken for it, which is freed when the result comes
+     *
+     * @param mayOpen   whether a new connection may be opened on this thread, otherwise it is sent from the maintenance thread if it needs one
+     */
+    private void dispatch(@Nonnull MilliDBQuery query, @Nonnull CompletableFuture<MilliDBResult> future, boolean mayOpen) {
+        Entry entry;
+        try {
+            entry = reserve(mayOpen);
+        } catch (IOException e) {
+            releaseSlot();
+            future.completeExceptionally(e);
+            return;
+        }
+        if (entry == null) {
+            if (!dispatchLater(query, future)) releaseSlot();
+            return;
+        }
+        entry.connection.send(query).whenComplete((result, throwable) -> {
+            entry.release();
+            releaseSlot();
+            if (throwable == null) future.complete(result);
+            else future.completeExceptionally(throwable);
+        });
+    }
+
+    /**
+     * Hands the slot to the oldest queued query that is still waiting, or frees it
+     */
+    private void releaseSlot() {
+        while (true) {
+            Waiter waiter;
+            slotLock.lock();
+            try {
+                waiter = waiters.pollFirst();
+                if (waiter == null) {
+                    freeSlots++;
+                    return;
+                }
+            } finally {
+                slotLock.unlock();
+            }
+            if (!waiter.future.isDone() && dispatchLater(waiter.query, waiter.future)) return;
+        }
+    }
+
+    /**
+     * Sends the query with its slot from the maintenance thread
+     *
+     * @return  false if the pool is closed, the query is then failed and its slot is not used
+     */
+    private boolean dispatchLater(@Nonnull MilliDBQuery query, @Nonnull CompletableFuture<MilliDBResult> future) {
+        try {
+            maintainer.execute(() -> dispatch(query, future, true));
+            return true;
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IOException("Pool is closed"));
+            return false;
+        }
+    }
+
+    private void expire(@Nonnull Waiter waiter) {
+        slotLock.lock();
+        try {
+            if (!waiters.remove(waiter)) return;
+        } finally {
+            slotLock.unlock();
+        }
+        waiter.future.completeExceptionally(new TimeoutException("Timed out acquiring a connection"));
+    }
+
+    /**
+     * Subscribes on the least busy connection. Subscriptions do not take a slot, since they last long,
+     * and the connections that carry them are not evicted when idle.
+     */
+    @Override
+    @Nonnull
+    public CompletableFuture<MilliDBResult> subscribe(@Nonnull MilliDBQuery query, @Nonnull Subscriber subscriber) {
+        try {
+            if (closed) throw new IOException("Pool is closed");
+            Entry entry = reserve(true);
+            try {
+                return entry.connection.subscribe(query, subscriber);
+            } finally {
+                entry.release();
+            }
+        } catch (IOException e) {
+            CompletableFuture<MilliDBResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public void unsubscribe(long id) {
+        for (Entry entry : entries) entry.connection.unsubscribe(id);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        maintainer.shutdownNow();
+        //The waiters go first, or the slots freed by the failing queries would be handed to them
+        List<Waiter> waiting;
+        slotLock.lock();
+        try {
+            waiting = new ArrayList<>(waiters);
+            waiters.clear();
+        } finally {
+            slotLock.unlock();
+        }
+        for (Waiter waiter : waiting) waiter.future.completeExceptionally(new IOException("Pool is closed"));
+        growLock.lock();
+        try {
+            for (Entry entry : entries) entry.connection.close();
+            entries.clear();
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return  a connection from #acquire, reserved so that it is not closed by the maintenance until it is released,
+     *          null if it needs a new connection that may not be opened
+     */
+    private Entry reserve(boolean mayOpen) throws IOException {
+        while (true) {
+            Entry entry = acquire(mayOpen);
+            if (entry == null) return null;
+            if (entry.reserve()) {
+                entry.lastUsed = System.currentTimeMillis();
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * @return  the least busy open connection, or a new one if all of them are busy and the pool can still grow,
+     *          null if that new connection may not be opened
+     */
+    private Entry acquire(boolean mayOpen) throws IOException {
+        Entry best = leastBusy();
+        if (best != null && (best.connection.getInFlight() == 0 || entries.size() >= config.getMaxConnections())) return best;
+        if (!mayOpen) return null;
+        growLock.lock();
+        try {
+            if (closed) throw new IOException("Pool is closed");
+            best = leastBusy();
+            if (best != null && (best.connection.getInFlight() == 0 || entries.size() >= config.getMaxConnections())) return best;
+            try {
+                Entry entry = open();
+                entries.add(entry);
+                return entry;
+            } catch (IOException e) {
+                if (best != null) return best;
+                throw e;
+            }
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    private Entry leastBusy() {
+        Entry best = null;
+        int bestInFlight = Integer.MAX_VALUE;
+        for (Entry entry : entries) {
+            if (entry.isDraining() || !entry.connection.isOpen()) continue;
+            int inFlight = entry.connection.getInFlight();
+            if (inFlight < bestInFlight) {
+                best = entry;
+                bestInFlight = inFlight;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Opens a connection and runs the HAS_USER handshake on it, once for its whole life
+     */
+    @Nonnull
+    private Entry open() throws IOException {
+        MilliDBConnection connection = MilliDBConnection.open(host, port, config.getConnectionConfig());
+        if (!connection.authenticate(userName, userPassword, config.getAcquireTimeoutMillis())) {
+            connection.close();
+            throw new IOException("Failed to authenticate a pooled connection");
+        }
+        return new Entry(connection);
+    }
+
+    /**
+     * Drops broken connections, evicts idle connections above the minimum, pings the idle ones and refills up to the minimum
+     */
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries) {
+            if (!entry.connection.isOpen()) {
+                entries.remove(entry);
+                continue;
+            }
+            if (now - entry.lastUsed <= config.getIdleTimeoutMillis() || entry.connection.getSubscriptions() > 0) continue;
+            if (entries.size() > config.getMinConnections() && entry.drain()) {
+                entries.remove(entry);
+                entry.connection.close();
+            }
+        }
+        for (Entry entry : entries) {
+            if (now - entry.lastUsed >= config.getHealthCheckIntervalMillis() && entry.connection.getInFlight() == 0) ping(entry);
+        }
+        growLock.lock();
+        try {
+            while (!closed && entries.size() < config.getMinConnections()) entries.add(open());
+        } catch (IOException e) {
+            MilliDBLogger.warning(() -> "Failed to refill the pool: " + e.getMessage());
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a NONE query, any result means the connection is alive. One that does not answer in time is dropped.
+     */
+    private void ping(@Nonnull Entry entry) {
+        if (!entry.reserve()) return;
+        entry.connection.send(new MilliDBQuery("", MilliDBQuery.Function.NONE, MilliNull.INSTANCE))
+                .orTimeout(config.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, throwable) -> {
+                    entry.release();
+                    if (throwable == null) return;
+                    MilliDBLogger.warning(() -> "A pooled connection has failed its health check: " + throwable);
+                    entries.remove(entry);
+                    entry.connection.close();
+                });
+    }
+
+    private static final class Entry {
+        @Nonnull
+        private final MilliDBConnection connection;
+        /**
+         * The senders and pings using the connection, or -1 once it is draining
+         */
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Entry(@Nonnull MilliDBConnection connection) {
+            this.connection = Validate.nonnull(connection);
+        }
+
+        /**
+         * @return  false if the connection is draining
+         */
+        private boolean reserve() {
+            while (true) {
+                int users = this.users.get();
+                if (users < 0) return false;
+                if (this.users.compareAndSet(users, users + 1)) return true;
+            }
+        }
+
+        private void release() {
+            users.decrementAndGet();
+        }
+
+        /**
+         * @return  true if nobody is using the connection, which is then never reserved again
+         */
+        private boolean drain() {
+            return connection.getInFlight() == 0 && users.compareAndSet(0, -1);
+        }
+
+        private boolean isDraining() {
+            return users.get() < 0;
+        }
+    }
+
+    private static final class Waiter {
+        @Nonnull
+        private final MilliDBQuery query;
+        @Nonnull
+        private final CompletableFuture<MilliDBResult> future;
+
+        private Waiter(@Nonnull MilliDBQuery query, @Nonnull CompletableFuture<MilliDBResult> future) {
+            this.query = query;
+            this.future = future;
+        }
+    }
+}
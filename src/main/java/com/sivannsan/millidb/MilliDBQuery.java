@@ -7,6 +7,8 @@ import com.sivannsan.millidata.MilliMap;
 import com.sivannsan.millidata.MilliNull;
 import com.sivannsan.millidata.MilliValue;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public final class MilliDBQuery {
     private final long id;
     @Nonnull
@@ -72,7 +74,12 @@ public final class MilliDBQuery {
 
         @Nonnull
         public static MilliDBQuery parse(@Nonnull String query) throws MilliDBQueryParsedException {
-            MilliMap map = MilliData.Parser.parse(Validate.nonnull(query), new MilliMap()).asMilliMap(new MilliMap());
+            return parse(MilliData.Parser.parse(Validate.nonnull(query), new MilliMap()).asMilliMap(new MilliMap()));
+        }
+
+        @Nonnull
+        public static MilliDBQuery parse(@Nonnull MilliMap map) throws MilliDBQueryParsedException {
+            Validate.nonnull(map);
             long parsedID = map.get("id").asMilliValue(new MilliValue(-1)).asInteger64();
             if (parsedID < 0) throw new MilliDBQueryParsedException("Invalid ID");
             String parsedPath = map.get("p").asMilliValue(new MilliValue()).asString();
@@ -84,10 +91,10 @@ public final class MilliDBQuery {
     }
 
     private static final class IDGenerator {
-        private static long LAST_ID = -1;
+        private static final AtomicLong LAST_ID = new AtomicLong(-1);
 
         public static long generateNewID() {
-            return ++LAST_ID;
+            return LAST_ID.incrementAndGet();
         }
     }
 
@@ -99,24 +106,113 @@ public final class MilliDBQuery {
          * Returns result metadata as the list of files
          */
         GET_FILES,
+        /**
+         * Uses query metadata as the filter 'f', the cursor 'c' (null for the first page) and the page size 'l'
+         * Returns result metadata as the list of file names 'n' and the cursor of the next page 'c' (null for the last page)
+         */
+        GET_FILES_PAGE,
+        /**
+         * Uses query metadata as the filter 'f' and the depth 'd', 1 for the files of the collection only
+         * Returns result metadata as the list of files of the subtree, as paths relative to the collection
+         */
+        GET_FILES_TREE,
         GET_COLLECTION,
         GET_DOCUMENT,
         GET,
         SET,
         DELETE,
-        CLOSE;
+        CLOSE,
+        /**
+         * Uses query metadata as the list of sub-queries
+         * Returns result metadata as the list of sub-results, each of them goes with the sub-query of the same ID
+         */
+        BATCH,
+        /**
+         * Uses query metadata as the path 'p' and the delta 'd'
+         * Returns result metadata as the value after the increment
+         */
+        INCREMENT,
+        /**
+         * Uses query metadata as the path 'p' and the value 'v'
+         */
+        APPEND_TO_LIST,
+        /**
+         * Uses query metadata as the path 'p' and the value 'v'
+         * Returns result metadata as whether any element has been removed
+         */
+        REMOVE_FROM_LIST,
+        /**
+         * Uses query metadata as the path 'p' and the value 'v'
+         * Returns result metadata as the data that was already at the path, MilliNull if the value has been put
+         */
+        PUT_IF_ABSENT,
+        /**
+         * Uses query metadata as the path 'p', the expected data 'e' and the value 'v'
+         * Returns result metadata as whether the value has been set
+         */
+        COMPARE_AND_SET,
+        /**
+         * Uses query metadata as the list of paths
+         * Returns result metadata as the list of the data at each of the paths, in the same order
+         */
+        GET_PATHS,
+        /**
+         * Uses query metadata as the filter 'f' (null for all) and the list of paths 'p'
+         * Returns result metadata as the list of the documents that go with the filter,
+         * each of them a MilliMap of its name 'n' and the list of the data at each of the paths 'v'
+         */
+        GET_DOCUMENTS,
+        /**
+         * Uses query metadata as the version 'v' to resume after (null to start from now)
+         * Returns result metadata as the current version 'v', then pushes more results of the same ID until UNWATCH,
+         * each of them a change of the file path 'f', the path 'p', the operation 'o' ("s", "d" or "r"), the data 'd' and the version 'v'
+         */
+        WATCH,
+        /**
+         * Uses query metadata as the ID of the WATCH query
+         */
+        UNWATCH,
+        /**
+         * Uses query metadata as the path 'p' in the document and the mode 'm', "r" to read or "w" to write
+         * Returns result metadata as the stream ID 's', and the length 't' of the text to read
+         */
+        OPEN_STREAM,
+        /**
+         * Uses query metadata as the stream ID 's', the offset 'o' in the text, and the maximum length 'l' to read or the chunk 'd' to write
+         * Returns result metadata as the chunk read, empty at the end
+         */
+        STREAM_CHUNK,
+        /**
+         * Uses query metadata as the stream ID 's', the path 'p' in the document and whether to commit 'c' what has been written
+         */
+        CLOSE_STREAM;
 
         @Override
         public String toString() {
             switch (this) {
                 case HAS_USER: return "hu";
                 case GET_FILES: return "gfs";
+                case GET_FILES_PAGE: return "gfsp";
+                case GET_FILES_TREE: return "gfst";
                 case GET_COLLECTION: return "gcll";
                 case GET_DOCUMENT: return "gdoc";
                 case GET: return "g";
                 case SET: return "s";
                 case DELETE: return "d";
                 case CLOSE: return "c";
+                case BATCH: return "b";
+                case INCREMENT: return "inc";
+                case APPEND_TO_LIST: return "al";
+                case REMOVE_FROM_LIST: return "rl";
+                case PUT_IF_ABSENT: return "pia";
+                case COMPARE_AND_SET: return "cas";
+                case GET_PATHS: return "gp";
+                case GET_DOCUMENTS: return "gdocs";
+                case WATCH: return "w";
+                case UNWATCH: return "uw";
+                case OPEN_STREAM: return "os";
+                case STREAM_CHUNK: return "sc";
+                case CLOSE_STREAM: return "cs";
                 default: return "n";
             }
         }
@@ -0,0 +1,55 @@
+package com.sivannsan.millidb;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of one query frame sent on a connection, from its encoding to its decoded result.
+ * <p>
+ * Its phases add up to its duration: encoding the frame, handing it to the connection, waiting for the result frame,
+ * and decoding it. The metadata of the BINARY codec is decoded later, when it is first read, so it is not in the decoding time.
+ * A retried query has one event for each attempt, all inside the MilliDBCallEvent of the call.
+ */
+@Name("com.sivannsan.millidb.Query")
+@Label("MilliDB Query")
+@Category({"MilliDB"})
+@Description("A query frame sent to the MilliDBServer and its result")
+@StackTrace(false)
+final class MilliDBQueryEvent extends Event {
+    @Label("ID")
+    long id;
+
+    @Label("Function")
+    String function;
+
+    @Label("Path")
+    String path;
+
+    @Label("Query Size")
+    @DataAmount
+    int querySize;
+
+    @Label("Result Size")
+    @DataAmount
+    int resultSize;
+
+    @Label("Encode Time")
+    @Timespan
+    long encodeTime;
+
+    @Label("Write Time")
+    @Description("Writing the frame to a blocking socket, or queueing it for the I/O thread of an event loop")
+    @Timespan
+    long writeTime;
+
+    @Label("Wait Time")
+    @Description("From the frame written to the result frame received and decompressed, the network and the server")
+    @Timespan
+    long waitTime;
+
+    @Label("Decode Time")
+    @Timespan
+    long decodeTime;
+
+    @Label("Succeed")
+    boolean succeed;
+}
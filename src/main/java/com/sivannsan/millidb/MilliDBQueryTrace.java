@@ -0,0 +1,106 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases of one query frame on a connection, kept only while the MilliDBQueryEvent is recorded or the query is sampled
+ * for the slow query log of MilliDBClients.ConnectionConfig, so untraced queries pay for nothing but the checks.
+ */
+final class MilliDBQueryTrace {
+    @Nonnull
+    private final MilliDBQuery query;
+    @Nonnull
+    private final MilliDBQueryEvent event;
+    private final long slowQueryNanos;
+    private final long start;
+    private volatile long encoded;
+    private volatile long written;
+    private volatile int querySize;
+    private volatile long received;
+    private volatile long decoded;
+    private volatile int resultSize;
+
+    private MilliDBQueryTrace(@Nonnull MilliDBQuery query, @Nonnull MilliDBQueryEvent event, long slowQueryNanos, long start) {
+        this.query = query;
+        this.event = event;
+        this.slowQueryNanos = slowQueryNanos;
+        this.start = start;
+    }
+
+    /**
+     * @return  null if the query is not traced
+     */
+    static MilliDBQueryTrace start(@Nonnull MilliDBQuery query, @Nonnull MilliDBClients.ConnectionConfig config, long start) {
+        MilliDBQueryEvent event = new MilliDBQueryEvent();
+        long thresholdMillis = config.getSlowQueryThresholdMillis();
+        boolean sampled = thresholdMillis > 0 && ThreadLocalRandom.current().nextDouble() < config.getSlowQuerySampleRate();
+        if (!event.isEnabled() && !sampled) return null;
+        event.begin();
+        return new MilliDBQueryTrace(query, event, sampled ? TimeUnit.MILLISECONDS.toNanos(thresholdMillis) : -1, start);
+    }
+
+    void onEncoded(int querySize, long encoded) {
+        this.querySize = querySize;
+        this.encoded = encoded;
+    }
+
+    void onWritten(long written) {
+        this.written = written;
+    }
+
+    /**
+     * Called by the thread that reads, before the future of the query is completed
+     */
+    void onReceived(int resultSize, long received, long decoded) {
+        this.resultSize = resultSize;
+        this.received = received;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Commits the event and logs the query if it is slow
+     *
+     * @param result    null if the query got no result
+     */
+    void finish(MilliDBResult result) {
+        event.end();
+        long end = System.nanoTime();
+        //Without a result, the rest of the time is spent waiting
+        long waitEnd = received == 0 ? end : received;
+        long decodeEnd = received == 0 ? end : decoded;
+        //The result may arrive before the writing thread has noted that the frame is written
+        long written = this.written == 0 ? encoded : Math.min(this.written, waitEnd);
+        long encodeTime = encoded - start;
+        long writeTime = written - encoded;
+        long waitTime = waitEnd - written;
+        long decodeTime = decodeEnd - waitEnd;
+        boolean succeed = result != null && result.isSucceed();
+        if (event.shouldCommit()) {
+            event.id = query.getID();
+            event.function = query.getFunction().name();
+            event.path = query.getPath();
+            event.querySize = querySize;
+            event.resultSize = resultSize;
+            event.encodeTime = encodeTime;
+            event.writeTime = writeTime;
+            event.waitTime = waitTime;
+            event.decodeTime = decodeTime;
+            event.succeed = succeed;
+            event.commit();
+        }
+        if (slowQueryNanos < 0 || end - start < slowQueryNanos) return;
+        //Rate limited with the other warnings, so a slow server does not flood the log
+        MilliDBLogger.warning(() -> "Slow query '" + query.getID() + "' " + query.getFunction().name() + " '" + query.getPath() + "' took " + toMillis(end - start) + "ms"
+                + (succeed ? "" : result == null ? " without a result" : " and failed")
+                + ": encode " + toMillis(encodeTime) + "ms (" + querySize + " bytes), write " + toMillis(writeTime) + "ms, wait " + toMillis(waitTime)
+                + "ms, decode " + toMillis(decodeTime) + "ms (" + resultSize + " bytes)");
+    }
+
+    @Nonnull
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,235 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single connection that is opened and authenticated again when it is lost, so the client and its file handles stay valid.
+ * <p>
+ * Queries that the MilliDBRetryPolicy allows to be retried are replayed on the new connection if they were in flight,
+ * the others fail at once since the server may have applied them. New queries wait while reconnecting,
+ * each until the attempt timeout of the MilliDBRetryPolicy, after which a read is retried and a write fails.
+ * Reconnecting gives up after the reconnect window, failing every waiting query, and starts over on the next query.
+ * The attempts are spread with a random backoff, so that many clients do not reconnect at the same moment.
+ */
+final class MilliDBReconnectingTransport implements MilliDBTransport {
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    @Nonnull
+    private final String host;
+    private final int port;
+    @Nonnull
+    private final String userName;
+    @Nonnull
+    private final String userPassword;
+    @Nonnull
+    private final MilliDBClients.ConnectionConfig config;
+    /**
+     * Every query whose result has not been delivered yet, including the ones waiting for a connection
+     */
+    private final Map<Long, Call> calls = new ConcurrentHashMap<>();
+    private final ReentrantLock reconnectLock = new ReentrantLock();
+    @Nonnull
+    private volatile MilliDBConnection connection;
+    private volatile boolean reconnecting;
+    private volatile boolean closed;
+
+    MilliDBReconnectingTransport(@Nonnull String host, int port, @Nonnull String userName, @Nonnull String userPassword, @Nonnull MilliDBClients.ConnectionConfig config, @Nonnull MilliDBConnection connection) {
+        this.host = Validate.nonnull(host);
+        this.port = port;
+        this.userName = Validate.nonnull(userName);
+        this.userPassword = Validate.nonnull(userPassword);
+        this.config = Validate.nonnull(config);
+        this.connection = Validate.nonnull(connection);
+        connection.setCloseListener(() -> reconnect(connection));
+    }
+
+    @Override
+    @Nonnull
+    public CompletableFuture<MilliDBResult> send(@Nonnull MilliDBQuery query) {
+        Call call = new Call(query);
+        if (closed) {
+            call.future.completeExceptionally(new IOException("Connection is closed"));
+            return call.future;
+        }
+        calls.put(query.getID(), call);
+        call.future.whenComplete((result, throwable) -> {
+            calls.remove(query.getID(), call);
+            CompletableFuture<MilliDBResult> attempt = call.attempt;
+            if (throwable != null && attempt != null) attempt.cancel(false);
+        });
+        dispatch(call);
+        return call.future;
+    }
+
+    /**
+     * Subscribes on the current connection. While reconnecting it fails at once, and the subscriber subscribes again later.
+     */
+    @Override
+    @Nonnull
+    public CompletableFuture<MilliDBResult> subscribe(@Nonnull MilliDBQuery query, @Nonnull Subscriber subscriber) {
+        MilliDBConnection current = connection;
+        if (closed || reconnecting || !current.isOpen()) {
+            if (!closed) reconnect(current);
+            CompletableFuture<MilliDBResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException(closed ? "Connection is closed" : "Reconnecting"));
+            return failed;
+        }
+        return current.subscribe(query, subscriber);
+    }
+
+    @Override
+    public void unsubscribe(long id) {
+        connection.unsubscribe(id);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        connection.close();
+        failCalls(new IOException("Connection is closed"));
+    }
+
+    @Nonnull
+    MilliDBConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Sends the call on the current connection, unless it has been sent on it already or the connection is being replaced
+     */
+    private void dispatch(@Nonnull Call call) {
+        if (call.future.isDone()) return;
+        MilliDBConnection current = connection;
+        if (reconnecting || !current.isOpen()) {
+            //Waits in the calls, and is sent once reconnected
+            reconnect(current);
+            return;
+        }
+        if (call.sentOn.getAndSet(current) == current) return;
+        CompletableFuture<MilliDBResult> attempt = current.send(call.query);
+        call.attempt = attempt;
+        attempt.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                call.future.complete(result);
+                return;
+            }
+            if (closed || current.isOpen() || !config.getRetryPolicy().isRetryable(call.query)) call.future.completeExceptionally(throwable);
+            //Otherwise the connection is lost, and the call is replayed once reconnected
+        });
+    }
+
+    /**
+     * Starts replacing the lost connection in the background, unless it is already being replaced
+     */
+    private void reconnect(@Nonnull MilliDBConnection lost) {
+        reconnectLock.lock();
+        try {
+            if (closed || reconnecting || connection != lost) return;
+            reconnecting = true;
+        } finally {
+            reconnectLock.unlock();
+        }
+        MilliDBLogger.warning(() -> "Lost the connection to " + host + ":" + port + ", reconnecting...");
+        config.getMetrics().onConnectionEvent(MilliDBMetrics.ConnectionEvent.RECONNECTING);
+        Thread thread = config.getThreadFactory().newThread(this::reconnectLoop);
+        thread.setName("MilliDBReconnect-" + host + ":" + port);
+        thread.start();
+    }
+
+    private void reconnectLoop() {
+        long deadline = System.currentTimeMillis() + config.getReconnectWindowMillis();
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (!closed) {
+            long wait = Math.min(ThreadLocalRandom.current().nextLong(backoff + 1), Math.max(0, deadline - System.currentTimeMillis()));
+            try {
+                TimeUnit.MILLISECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                break;
+            }
+            MilliDBConnection opened = tryOpen();
+            if (opened != null) {
+                onReconnected(opened);
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) break;
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+        MilliDBLogger.warning(() -> "Failed to reconnect to " + host + ":" + port + " within " + config.getReconnectWindowMillis() + "ms");
+        config.getMetrics().onConnectionEvent(MilliDBMetrics.ConnectionEvent.RECONNECT_FAILED);
+        //Taken together with the flag, so that a call that still saw it set is either failed here or starts the next reconnect
+        List<Call> waiting;
+        reconnectLock.lock();
+        try {
+            waiting = new ArrayList<>(calls.values());
+            reconnecting = false;
+        } finally {
+            reconnectLock.unlock();
+        }
+        Throwable cause = new IOException("Failed to reconnect");
+        for (Call call : waiting) call.future.completeExceptionally(cause);
+    }
+
+    /**
+     * @return  null if the server cannot be reached or the user cannot be verified
+     */
+    private MilliDBConnection tryOpen() {
+        try {
+            MilliDBConnection opened = MilliDBConnection.open(host, port, config);
+            if (opened.authenticate(userName, userPassword, config.getRetryPolicy().getAttemptTimeoutMillis())) return opened;
+            opened.close();
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    private void onReconnected(@Nonnull MilliDBConnection opened) {
+        connection = opened;
+        reconnecting = false;
+        if (closed) {
+            opened.close();
+            return;
+        }
+        opened.setCloseListener(() -> reconnect(opened));
+        int replayed = calls.size();
+        MilliDBLogger.info(() -> "Reconnected to " + host + ":" + port + ", replaying " + replayed + " quer" + (replayed == 1 ? "y" : "ies"));
+        for (Call call : calls.values()) dispatch(call);
+    }
+
+    private void failCalls(@Nonnull Throwable cause) {
+        for (Call call : calls.values()) call.future.completeExceptionally(cause);
+    }
+
+    /**
+     * A query and the connection it has been sent on
+     */
+    private static final class Call {
+        @Nonnull
+        private final MilliDBQuery query;
+        private final CompletableFuture<MilliDBResult> future = new CompletableFuture<>();
+        private final AtomicReference<MilliDBConnection> sentOn = new AtomicReference<>();
+        private volatile CompletableFuture<MilliDBResult> attempt;
+
+        private Call(@Nonnull MilliDBQuery query) {
+            this.query = Validate.nonnull(query);
+        }
+    }
+}
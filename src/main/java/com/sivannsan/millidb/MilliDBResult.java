@@ -3,20 +3,37 @@ package com.sivannsan.millidb;
 import com.sivannsan.foundation.annotation.Nonnull;
 import com.sivannsan.foundation.Validate;
 import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
 import com.sivannsan.millidata.MilliMap;
 import com.sivannsan.millidata.MilliNull;
 import com.sivannsan.millidata.MilliValue;
 
+import java.util.Iterator;
+
 public final class MilliDBResult {
     private final long id;
     private final boolean isSucceed;
-    @Nonnull
-    private final MilliData metadata;
+    private volatile MilliData metadata;
+    private final EncodedMetadata encodedMetadata;
+    /**
+     * Set by the connection before the result is delivered
+     */
+    private int frameLength = -1;
 
     public MilliDBResult(long id, boolean isSucceed, @Nonnull MilliData metadata) {
         this.id = id;
         this.isSucceed = isSucceed;
         this.metadata = Validate.nonnull(metadata);
+        this.encodedMetadata = null;
+    }
+
+    /**
+     * The metadata is decoded only when it is first needed
+     */
+    MilliDBResult(long id, boolean isSucceed, @Nonnull EncodedMetadata encodedMetadata) {
+        this.id = id;
+        this.isSucceed = isSucceed;
+        this.encodedMetadata = Validate.nonnull(encodedMetadata);
     }
 
     public long getID() {
@@ -27,14 +44,57 @@ public final class MilliDBResult {
         return isSucceed;
     }
 
+    /**
+     * A result received in the binary codec keeps its metadata encoded until this is first called,
+     * so a malformed metadata is only found here, on the thread that asks for it.
+     *
+     * @throws MilliDBResultParsedException if the encoded metadata is malformed
+     */
     @Nonnull
-    public MilliData getMetadata() {
-        return metadata;
+    public MilliData getMetadata() throws MilliDBResultParsedException {
+        MilliData decoded = metadata;
+        if (decoded == null) {
+            decoded = encodedMetadata.decode();
+            metadata = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * @return  the length of the frame the result came in, uncompressed, or -1 if it did not come from a connection
+     */
+    int getFrameLength() {
+        return frameLength;
+    }
+
+    void setFrameLength(int frameLength) {
+        this.frameLength = frameLength;
+    }
+
+    /**
+     * Iterates the metadata as a list of MilliValue strings, without building the list if it is still encoded
+     */
+    @Nonnull
+    Iterable<String> getMetadataStrings() throws MilliDBResultParsedException {
+        if (metadata == null) return encodedMetadata::strings;
+        return () -> new Iterator<String>() {
+            private final Iterator<MilliData> iterator = metadata.asMilliList(new MilliList()).iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return iterator.next().asMilliValue().asString();
+            }
+        };
     }
 
     @Nonnull
     public MilliMap toMilliMap() {
-        return new MilliMap().append("id", new MilliValue(id)).append("s", new MilliValue(isSucceed)).append("m", metadata);
+        return new MilliMap().append("id", new MilliValue(id)).append("s", new MilliValue(isSucceed)).append("m", getMetadata());
     }
 
     @Nonnull
@@ -42,12 +102,29 @@ public final class MilliDBResult {
         return new MilliDBResult(id, false, MilliNull.INSTANCE);
     }
 
+    /**
+     * The metadata of a result as it was received
+     */
+    interface EncodedMetadata {
+        @Nonnull
+        MilliData decode() throws MilliDBResultParsedException;
+
+        /**
+         * @return  the strings of the MilliValues in the encoded MilliList, or nothing if it is not a MilliList
+         */
+        @Nonnull
+        Iterator<String> strings() throws MilliDBResultParsedException;
+    }
+
     @Nonnull
     public static MilliDBResult invalidResult() {
         return failedResult(-1);
     }
 
     public static final class Parser {
+        private static final MilliValue DEFAULT_ID = new MilliValue(-1);
+        private static final MilliValue DEFAULT_IS_SUCCEED = new MilliValue(false);
+
         @Nonnull
         public static MilliDBResult parse(@Nonnull String result, @Nonnull MilliDBResult defaultValue) {
             try {
@@ -59,10 +136,15 @@ public final class MilliDBResult {
 
         @Nonnull
         public static MilliDBResult parse(@Nonnull String result) throws MilliDBResultParsedException {
-            MilliMap map = MilliData.Parser.parse(Validate.nonnull(result), new MilliMap()).asMilliMap(new MilliMap());
-            long parsedID = map.get("id").asMilliValue(new MilliValue(-1)).asInteger64();
+            return parse(MilliData.Parser.parse(Validate.nonnull(result), new MilliMap()).asMilliMap(new MilliMap()));
+        }
+
+        @Nonnull
+        public static MilliDBResult parse(@Nonnull MilliMap map) throws MilliDBResultParsedException {
+            Validate.nonnull(map);
+            long parsedID = map.get("id").asMilliValue(DEFAULT_ID).asInteger64();
             if (parsedID < 0) throw new MilliDBResultParsedException();
-            boolean parsedIsSucceed = map.get("s").asMilliValue(new MilliValue(false)).asBoolean();
+            boolean parsedIsSucceed = map.get("s").asMilliValue(DEFAULT_IS_SUCCEED).asBoolean();
             MilliData parsedMetadata = map.get("m");
             return new MilliDBResult(parsedID, parsedIsSucceed, parsedMetadata);
         }
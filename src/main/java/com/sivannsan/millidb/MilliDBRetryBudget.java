@@ -0,0 +1,45 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The retries a client can still make, shared by all of its calls.
+ * <p>
+ * Every call deposits the budget ratio of a retry and every retry withdraws a whole one, so retries stay a bounded share
+ * of the traffic however many calls fail at the same time. Kept in thousandths of a retry, without any lock.
+ */
+final class MilliDBRetryBudget {
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    MilliDBRetryBudget(@Nonnull MilliDBRetryPolicy policy) {
+        this.deposit = Math.round(policy.getBudgetRatio() * UNIT);
+        this.capacity = Math.max(policy.getBudgetMinRetries(), 1) * UNIT + deposit * 100;
+        this.balance = new AtomicLong(policy.getBudgetMinRetries() * UNIT);
+    }
+
+    /**
+     * Called once for every call
+     */
+    void onCall() {
+        if (deposit == 0) return;
+        balance.accumulateAndGet(deposit, (current, added) -> Math.min(current + added, capacity));
+    }
+
+    /**
+     * @return  true if a retry could be withdrawn
+     */
+    boolean tryRetry() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNIT) return false;
+        } while (!balance.compareAndSet(current, current - UNIT));
+        return true;
+    }
+}
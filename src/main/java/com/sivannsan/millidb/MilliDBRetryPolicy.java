@@ -0,0 +1,224 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a query that got no result is sent again.
+ * <p>
+ * Only a lost connection or a timeout is retried, never a failed result from the server.
+ * Reads are retried by default, writes only if #setRetryWrites is enabled, since the server may have applied them already.
+ * Every call has a deadline that covers all of its attempts and the backoff between them.
+ * <p>
+ * Set it with MilliDBClients.ConnectionConfig#setRetryPolicy.
+ */
+public final class MilliDBRetryPolicy {
+    private int maxAttempts = 5;
+    private long attemptTimeoutMillis = 5000;
+    private long deadlineMillis = 15000;
+    private long initialBackoffMillis = 20;
+    private long maxBackoffMillis = 1000;
+    private double budgetRatio = 0.1;
+    private int budgetMinRetries = 10;
+    private boolean retryWrites;
+
+    /**
+     * Never retries, each call makes a single attempt of at most the deadline
+     */
+    @Nonnull
+    public static MilliDBRetryPolicy none() {
+        return new MilliDBRetryPolicy().setMaxAttempts(1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * The number of attempts of a call, including the first one
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public long getAttemptTimeoutMillis() {
+        return attemptTimeoutMillis;
+    }
+
+    /**
+     * How long a single attempt waits for its result, including any wait for a lost connection to be reconnected
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setAttemptTimeoutMillis(long attemptTimeoutMillis) {
+        if (attemptTimeoutMillis < 1) throw new IllegalArgumentException("attemptTimeoutMillis must be positive");
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+        return this;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * How long a call may take with all of its attempts, unless a deadline is given to MilliDBClient#execute.
+     * It is also the reconnect window of MilliDBClients.ConnectionConfig unless that is set.
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setDeadlineMillis(long deadlineMillis) {
+        if (deadlineMillis < 1) throw new IllegalArgumentException("deadlineMillis must be positive");
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * The wait before the first retry, doubled for every later retry
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setInitialBackoffMillis(long initialBackoffMillis) {
+        if (initialBackoffMillis < 0) throw new IllegalArgumentException("initialBackoffMillis must not be negative");
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    @Nonnull
+    public MilliDBRetryPolicy setMaxBackoffMillis(long maxBackoffMillis) {
+        if (maxBackoffMillis < 0) throw new IllegalArgumentException("maxBackoffMillis must not be negative");
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * The share of calls that can be retried, so that a struggling server is not flooded with retries.
+     * Each call earns this much of a retry, and each retry spends a whole one.
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setBudgetRatio(double budgetRatio) {
+        if (!(budgetRatio >= 0)) throw new IllegalArgumentException("budgetRatio must not be negative");
+        this.budgetRatio = budgetRatio;
+        return this;
+    }
+
+    public int getBudgetMinRetries() {
+        return budgetMinRetries;
+    }
+
+    /**
+     * The retries that are allowed before any call has earned one, so that a quiet client can still retry
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setBudgetMinRetries(int budgetMinRetries) {
+        if (budgetMinRetries < 0) throw new IllegalArgumentException("budgetMinRetries must not be negative");
+        this.budgetMinRetries = budgetMinRetries;
+        return this;
+    }
+
+    public boolean isRetryWrites() {
+        return retryWrites;
+    }
+
+    /**
+     * Also retries queries that change data. Only enable it if applying them twice is harmless.
+     * The atomic operations, such as MilliDBDocument#increment, are never retried, since a retry cannot tell if the first attempt has been applied.
+     */
+    @Nonnull
+    public MilliDBRetryPolicy setRetryWrites(boolean retryWrites) {
+        this.retryWrites = retryWrites;
+        return this;
+    }
+
+    /**
+     * @return  true if the query can be sent again after it got no result
+     */
+    public boolean isRetryable(@Nonnull MilliDBQuery query) {
+        return isIdempotent(query) || retryWrites && !isAtomic(query);
+    }
+
+    /**
+     * @param retry the number of the retry, starting at 1
+     * @return  a random wait between zero and the exponential backoff of the retry
+     */
+    long getBackoffMillis(int retry) {
+        long backoff = initialBackoffMillis << Math.min(retry - 1, 30);
+        if (backoff < 0 || backoff > maxBackoffMillis) backoff = maxBackoffMillis;
+        return backoff <= 0 ? 0 : ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    /**
+     * A batch is atomic if any of its sub-queries is
+     */
+    private static boolean isAtomic(@Nonnull MilliDBQuery query) {
+        switch (query.getFunction()) {
+            case INCREMENT:
+            case APPEND_TO_LIST:
+            case REMOVE_FROM_LIST:
+            case PUT_IF_ABSENT:
+            case COMPARE_AND_SET:
+            case CLOSE_STREAM:
+                return true;
+            case BATCH:
+                for (MilliData data : query.getMetadata().asMilliList(new MilliList())) {
+                    try {
+                        if (isAtomic(MilliDBQuery.Parser.parse(data.asMilliMap(new MilliMap())))) return true;
+                    } catch (MilliDBQueryParsedException e) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads only, a batch is idempotent if all of its sub-queries are.
+     * A STREAM_CHUNK is not, since whether a write chunk sent again is appended twice is up to the server.
+     */
+    static boolean isIdempotent(@Nonnull MilliDBQuery query) {
+        switch (Validate.nonnull(query).getFunction()) {
+            case NONE:
+            case HAS_USER:
+            case GET_FILES:
+            case GET_FILES_PAGE:
+            case GET_FILES_TREE:
+            case GET_COLLECTION:
+            case GET_DOCUMENT:
+            case GET:
+            case GET_PATHS:
+            case GET_DOCUMENTS:
+            case WATCH:
+            case UNWATCH:
+                return true;
+            case BATCH:
+                for (MilliData data : query.getMetadata().asMilliList(new MilliList())) {
+                    try {
+                        if (!isIdempotent(MilliDBQuery.Parser.parse(data.asMilliMap(new MilliMap())))) return false;
+                    } catch (MilliDBQueryParsedException e) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+}
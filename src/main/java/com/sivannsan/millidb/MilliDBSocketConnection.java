@@ -0,0 +1,66 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection on a blocking socket, whose results are read by its own reader thread.
+ * Each frame is written to the socket in one call under a ReentrantLock.
+ */
+final class MilliDBSocketConnection extends MilliDBConnection {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Nonnull
+    private final Socket socket;
+    @Nonnull
+    private final InputStream in;
+    @Nonnull
+    private final OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    MilliDBSocketConnection(@Nonnull String host, int port, @Nonnull MilliDBClients.ConnectionConfig config) throws IOException {
+        super(config);
+        this.socket = new Socket(Validate.nonnull(host), port);
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+        Thread thread = config.getThreadFactory().newThread(this::readLoop);
+        thread.setName("MilliDBConnection-" + host + ":" + port);
+        thread.start();
+    }
+
+    @Override
+    protected void writeFrame(@Nonnull ByteBuffer frame) throws IOException {
+        writeLock.lock();
+        try {
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    protected void closeChannel() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void readLoop() {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) receive(ByteBuffer.wrap(buffer, 0, read));
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed()) MilliDBLogger.warning(() -> "Lost the connection: " + e.getMessage());
+        }
+        close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One MilliMap per line in UTF-8
+ */
+final class MilliDBTextCodec implements MilliDBCodec {
+    @Override
+    @Nonnull
+    public String getName() {
+        return "text";
+    }
+
+    @Override
+    public void writeQuery(@Nonnull MilliDBQuery query, @Nonnull OutputStream out) throws IOException {
+        writeLine(query.asMilliMap().toString(), out);
+    }
+
+    @Override
+    public MilliDBQuery readQuery(@Nonnull InputStream in) throws IOException {
+        String line = readLine(in);
+        return line == null ? null : MilliDBQuery.Parser.parse(line, MilliDBQuery.invalid());
+    }
+
+    @Override
+    public void writeResult(@Nonnull MilliDBResult result, @Nonnull OutputStream out) throws IOException {
+        writeLine(result.toMilliMap().toString(), out);
+    }
+
+    @Override
+    public MilliDBResult readResult(@Nonnull InputStream in) throws IOException {
+        String line = readLine(in);
+        return line == null ? null : MilliDBResult.Parser.parse(line, MilliDBResult.invalidResult());
+    }
+
+    /**
+     * Decodes the line straight from the frame
+     */
+    @Override
+    public MilliDBResult readResult(@Nonnull byte[] frame, int offset, int length) {
+        int end = offset + length;
+        if (end > offset && frame[end - 1] == '\n') end--;
+        if (end > offset && frame[end - 1] == '\r') end--;
+        return MilliDBResult.Parser.parse(new String(frame, offset, end - offset, StandardCharsets.UTF_8), MilliDBResult.invalidResult());
+    }
+
+    @Override
+    public int frameLength(@Nonnull ByteBuffer received) {
+        return frameLength(received, 0);
+    }
+
+    @Override
+    public int frameLength(@Nonnull ByteBuffer received, int scanned) {
+        for (int i = received.position() + scanned; i < received.limit(); i++) if (received.get(i) == '\n') return i - received.position() + 1;
+        return -1;
+    }
+
+    private static void writeLine(@Nonnull String line, @Nonnull OutputStream out) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    private static String readLine(@Nonnull InputStream in) throws IOException {
+        Line line = new Line();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        return line.decode();
+    }
+
+    /**
+     * The bytes of a line read from a stream, decoded without copying them first.
+     * Unlike ByteArrayOutputStream, writing a byte takes no monitor.
+     */
+    private static final class Line {
+        private byte[] bytes = new byte[128];
+        private int count;
+
+        private void write(int b) {
+            if (count == bytes.length) bytes = Arrays.copyOf(bytes, count * 2);
+            bytes[count++] = (byte) b;
+        }
+
+        private int size() {
+            return count;
+        }
+
+        @Nonnull
+        private String decode() {
+            int size = count > 0 && bytes[count - 1] == '\r' ? count - 1 : count;
+            return new String(bytes, 0, size, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries queries to a MilliDBServer and results back.
+ * <p>
+ * Implementations must be safe to use from many threads.
+ */
+interface MilliDBTransport {
+    /**
+     * Sends the query without waiting for its result.
+     * Cancelling the returned future forgets the query.
+     */
+    @Nonnull
+    CompletableFuture<MilliDBResult> send(@Nonnull MilliDBQuery query);
+
+    /**
+     * Sends the query like #send, and hands the later results of the same ID to the subscriber until #unsubscribe.
+     * The subscriber is told once and forgotten if the connection that carries it is lost.
+     */
+    @Nonnull
+    CompletableFuture<MilliDBResult> subscribe(@Nonnull MilliDBQuery query, @Nonnull Subscriber subscriber);
+
+    void unsubscribe(long id);
+
+    boolean isOpen();
+
+    void close();
+
+    /**
+     * Called by the I/O threads, so it must be fast and must not block
+     */
+    interface Subscriber {
+        void onPush(@Nonnull MilliDBResult result);
+
+        void onLost();
+    }
+}
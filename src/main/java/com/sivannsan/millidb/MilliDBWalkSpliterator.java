@@ -0,0 +1,151 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Walks the subtree of a collection for MilliDBCollection#walk, listing one collection per query.
+ * <p>
+ * The collections still to be listed are kept in a queue, and the listings of the next ones are sent ahead while the
+ * current one is used, so a sequential walk already has many of them in flight. A split takes half of the queue,
+ * so a parallel stream spreads the subtree over the threads of its ForkJoinPool. The splits share one semaphore,
+ * which bounds the listings in flight of the whole walk.
+ * <p>
+ * Waiting for a listing goes through CompletableFuture#get, which lets a ForkJoinPool add a thread while one is blocked.
+ */
+final class MilliDBWalkSpliterator implements Spliterator<MilliDBFile> {
+    private final MilliDBFilter filter;
+    @Nonnull
+    private final Semaphore permits;
+    private final Deque<Listing> pending = new ArrayDeque<>();
+    private Iterator<MilliDBFile> files = Collections.emptyIterator();
+
+    MilliDBWalkSpliterator(@Nonnull MilliDBCollection collection, MilliDBFilter filter, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        this.filter = filter;
+        this.permits = new Semaphore(parallelism);
+        pending.add(new Listing(Validate.nonnull(collection)));
+    }
+
+    private MilliDBWalkSpliterator(MilliDBFilter filter, @Nonnull Semaphore permits) {
+        this.filter = filter;
+        this.permits = permits;
+    }
+
+    @Override
+    public boolean tryAdvance(@Nonnull Consumer<? super MilliDBFile> action) throws MilliDBResultFailedException {
+        while (!files.hasNext()) {
+            if (!listNext()) return false;
+        }
+        action.accept(files.next());
+        return true;
+    }
+
+    /**
+     * Lists the collections until there are two to give away, since the walk starts with only one
+     */
+    @Override
+    public Spliterator<MilliDBFile> trySplit() throws MilliDBResultFailedException {
+        while (pending.size() == 1 && !files.hasNext()) listNext();
+        if (pending.size() < 2) return null;
+        MilliDBWalkSpliterator split = new MilliDBWalkSpliterator(filter, permits);
+        for (int i = pending.size() / 2; i > 0; i--) split.pending.addFirst(pending.pollLast());
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /**
+     * Replaces the files with those of the next collection and queues its child collections
+     *
+     * @return  false if there is no collection left
+     */
+    private boolean listNext() throws MilliDBResultFailedException {
+        Listing listing = pending.pollFirst();
+        if (listing == null) return false;
+        if (listing.children == null) {
+            permits.acquireUninterruptibly();
+            listing.start();
+        }
+        sendAhead();
+        Children children = await(listing.children);
+        for (MilliDBCollection collection : children.collections) pending.addLast(new Listing(collection));
+        files = children.files.iterator();
+        sendAhead();
+        return true;
+    }
+
+    /**
+     * Starts the listings of the queued collections while there are permits
+     */
+    private void sendAhead() {
+        for (Listing listing : pending) {
+            if (listing.children != null) continue;
+            if (!permits.tryAcquire()) return;
+            listing.start();
+        }
+    }
+
+    @Nonnull
+    private static Children await(@Nonnull CompletableFuture<Children> children) throws MilliDBResultFailedException {
+        try {
+            return children.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MilliDBResultFailedException) throw (MilliDBResultFailedException) e.getCause();
+            throw new MilliDBResultFailedException();
+        } catch (InterruptedException e) {
+            children.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new MilliDBResultFailedException();
+        }
+    }
+
+    private final class Listing {
+        @Nonnull
+        private final MilliDBCollection collection;
+        /**
+         * null until it is started
+         */
+        private CompletableFuture<Children> children;
+
+        private Listing(@Nonnull MilliDBCollection collection) {
+            this.collection = collection;
+        }
+
+        /**
+         * Called with a permit, which is released when the listing is done.
+         * With a filter, the collections to walk into come from a second listing without it.
+         */
+        private void start() {
+            CompletableFuture<List<MilliDBFile>> all = collection.getFilesAsync(null);
+            if (filter == null) children = all.thenApply(files -> new Children(files, files));
+            else children = all.thenCombine(collection.getFilesAsync(filter), Children::new);
+            children.whenComplete((c, throwable) -> permits.release());
+        }
+    }
+
+    private static final class Children {
+        private final List<MilliDBCollection> collections = new ArrayList<>();
+        @Nonnull
+        private final List<MilliDBFile> files;
+
+        private Children(@Nonnull List<MilliDBFile> all, @Nonnull List<MilliDBFile> files) {
+            for (MilliDBFile file : all) if (file instanceof MilliDBCollection) collections.add((MilliDBCollection) file);
+            this.files = files;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+
+/**
+ * The changes of a MilliDBFile and everything under it, pushed by the server, made by MilliDBClient#watch.
+ * <p>
+ * If the connection is lost, the watch subscribes again from the last version it has seen, so no change is missed or repeated.
+ * It stops if the server rejects it or the client is closed.
+ */
+public interface MilliDBWatch {
+    @Nonnull
+    String getPath();
+
+    /**
+     * @return  the version of the last change seen, to resume from with MilliDBClient#watch(String, long, MilliDBChange.Listener)
+     */
+    long getVersion();
+
+    /**
+     * @return  false once it is closed or has stopped
+     */
+    boolean isActive();
+
+    /**
+     * Stops the changes, only a change that is already running may still finish
+     */
+    void close();
+}
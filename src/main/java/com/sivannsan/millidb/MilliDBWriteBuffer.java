@@ -0,0 +1,298 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.foundation.Validate;
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers the MilliDBDocument#set calls of a client and sends them later, as one batch.
+ * <p>
+ * Use it with MilliDBClients#withWriteBuffer. A set replaces the buffered sets of the same document at the same path or below it,
+ * so only the last value of a path is sent. The buffer is sent when it has flushEntries paths or when its oldest set has waited
+ * flushDelayMillis, whichever comes first, and at #flush and #close. Other writes of the client are sent after the buffer,
+ * so they keep their order with the sets.
+ * <p>
+ * Reads do not see the buffered sets until they are sent. A set that fails is not sent again;
+ * it is given to the FailureListener and fails the future of MilliDBDocument#setAsync.
+ * When the buffer and the sets being sent hold maxEntries paths, a set of a new path waits for them to be sent.
+ */
+public final class MilliDBWriteBuffer {
+    private static final char SEPARATOR = '\u0000';
+
+    private final int flushEntries;
+    private final int maxEntries;
+    private final long flushDelayMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Set<String>> pathsByDocument = new HashMap<>();
+    private int sending;
+    private boolean scheduled;
+    private boolean closed;
+    @Nonnull
+    private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+    private MilliDBClient client;
+    @Nonnull
+    private volatile FailureListener failureListener = (documentPath, path, value) -> MilliDBLogger.warning(() -> "The buffered set of " + documentPath + (path.isEmpty() ? "" : "#" + path) + " has failed!");
+    private final AtomicLong sets = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param flushEntries      the number of buffered paths that sends the buffer
+     * @param maxEntries        the maximum number of paths buffered and being sent, at least flushEntries
+     * @param flushDelayMillis  the longest time a set is buffered before the buffer is sent
+     */
+    public MilliDBWriteBuffer(int flushEntries, int maxEntries, long flushDelayMillis) {
+        if (flushEntries < 1) throw new IllegalArgumentException("flushEntries must be positive");
+        if (maxEntries < flushEntries) throw new IllegalArgumentException("maxEntries must not be less than flushEntries");
+        if (flushDelayMillis < 1) throw new IllegalArgumentException("flushDelayMillis must be positive");
+        this.flushEntries = flushEntries;
+        this.maxEntries = maxEntries;
+        this.flushDelayMillis = flushDelayMillis;
+    }
+
+    /**
+     * Called with the sets that have failed, outside the lock of the buffer
+     */
+    @Nonnull
+    public MilliDBWriteBuffer setFailureListener(@Nonnull FailureListener failureListener) {
+        this.failureListener = Validate.nonnull(failureListener);
+        return this;
+    }
+
+    /**
+     * @return  the number of sets given to the buffer
+     */
+    public long getSets() {
+        return sets.get();
+    }
+
+    /**
+     * @return  the number of sets replaced by a later set before they were sent
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return  the number of batches sent
+     */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return  the number of paths buffered, not counting those being sent
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffer and waits for every set given before to be done
+     *
+     * @throws MilliDBResultFailedException if any of the sets has failed
+     */
+    public void flush() throws MilliDBResultFailedException {
+        try {
+            flushAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * The same as #flush, but does not wait.
+     * With nothing buffered, it is the batch still being sent, if any; a batch that is done has already reported its failure.
+     */
+    @Nonnull
+    public CompletableFuture<Void> flushAsync() {
+        List<Entry> batch;
+        CompletableFuture<Void> previous;
+        lock.lock();
+        try {
+            if (entries.isEmpty()) return lastFlush.isDone() ? CompletableFuture.completedFuture(null) : lastFlush;
+            batch = new ArrayList<>(entries.values());
+            entries.clear();
+            pathsByDocument.clear();
+            sending += batch.size();
+            previous = lastFlush;
+            //The batches are sent one after another, so a later set of a path is never overtaken by an earlier one
+            lastFlush = previous.handle((v, throwable) -> null).thenCompose(v -> send(batch));
+            return lastFlush;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffer, waits for it and rejects further sets. Called when the client is closed.
+     *
+     * @throws MilliDBResultFailedException if any of the sets has failed
+     */
+    public void close() throws MilliDBResultFailedException {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flush();
+    }
+
+    void bind(@Nonnull MilliDBClient client) {
+        lock.lock();
+        try {
+            if (this.client != null) throw new IllegalStateException("The MilliDBWriteBuffer is already used by a client");
+            this.client = Validate.nonnull(client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  a future that is done when the set, or a later set that replaced it, is done
+     */
+    @Nonnull
+    CompletableFuture<Void> set(@Nonnull String documentPath, @Nonnull String path, @Nonnull MilliData value) {
+        Validate.nonnull(documentPath);
+        Validate.nonnull(path);
+        Validate.nonnull(value);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean flush = false;
+        boolean schedule = false;
+        lock.lock();
+        try {
+            String key = documentPath + SEPARATOR + path;
+            while (!closed && !entries.containsKey(key) && entries.size() + sending >= maxEntries) notFull.awaitUninterruptibly();
+            if (closed) throw new IllegalStateException("The MilliDBWriteBuffer is closed");
+            sets.incrementAndGet();
+            Entry entry = new Entry(documentPath, path, value);
+            entry.futures.add(future);
+            Set<String> paths = pathsByDocument.computeIfAbsent(documentPath, k -> new HashSet<>());
+            for (Iterator<String> iterator = paths.iterator(); iterator.hasNext(); ) {
+                String buffered = iterator.next();
+                if (!covers(path, buffered)) continue;
+                iterator.remove();
+                //The replaced set is done when its replacement is
+                entry.futures.addAll(entries.remove(documentPath + SEPARATOR + buffered).futures);
+                coalesced.incrementAndGet();
+            }
+            paths.add(path);
+            entries.put(key, entry);
+            if (entries.size() >= flushEntries) flush = true;
+            else if (!scheduled) schedule = scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        if (flush) flushAsync();
+        else if (schedule) CompletableFuture.delayedExecutor(flushDelayMillis, TimeUnit.MILLISECONDS).execute(this::flushScheduled);
+        return future;
+    }
+
+    private void flushScheduled() {
+        lock.lock();
+        try {
+            scheduled = false;
+        } finally {
+            lock.unlock();
+        }
+        flushAsync();
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> send(@Nonnull List<Entry> batch) {
+        MilliDBBatch queries = client.batch();
+        for (Entry entry : batch) queries.add(entry.toQuery());
+        flushes.incrementAndGet();
+        return queries.executeAsync().handle((results, throwable) -> {
+            //The room is given back first, so that a set waiting for it is never held up by the futures completed below
+            lock.lock();
+            try {
+                sending -= batch.size();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            boolean failed = false;
+            for (int i = 0; i < batch.size(); i++) {
+                Entry entry = batch.get(i);
+                if (throwable == null && results.get(i).isSucceed()) {
+                    for (CompletableFuture<Void> future : entry.futures) future.complete(null);
+                    continue;
+                }
+                failed = true;
+                failures.incrementAndGet();
+                try {
+                    failureListener.onFailure(entry.documentPath, entry.path, entry.value);
+                } catch (RuntimeException e) {
+                    MilliDBLogger.warning(() -> "The FailureListener of the MilliDBWriteBuffer has thrown " + e);
+                }
+                for (CompletableFuture<Void> future : entry.futures) future.completeExceptionally(new MilliDBResultFailedException());
+            }
+            if (failed) throw new MilliDBResultFailedException();
+            return null;
+        });
+    }
+
+    /**
+     * @return  true if a set of the path replaces the data at the other path
+     */
+    private static boolean covers(@Nonnull String path, @Nonnull String other) {
+        return path.isEmpty() || other.equals(path) || other.startsWith(path) && other.charAt(path.length()) == '.';
+    }
+
+    @FunctionalInterface
+    public interface FailureListener {
+        /**
+         * @param documentPath  the path of the MilliDBDocument, as in MilliDBFile#getPath
+         * @param path          the path inside the content, "" for the whole content
+         * @param value         the value that has not been written
+         */
+        void onFailure(@Nonnull String documentPath, @Nonnull String path, @Nonnull MilliData value);
+    }
+
+    private static final class Entry {
+        @Nonnull
+        private final String documentPath;
+        @Nonnull
+        private final String path;
+        @Nonnull
+        private final MilliData value;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+
+        private Entry(@Nonnull String documentPath, @Nonnull String path, @Nonnull MilliData value) {
+            this.documentPath = documentPath;
+            this.path = path;
+            this.value = value;
+        }
+
+        @Nonnull
+        private MilliDBQuery toQuery() {
+            return new MilliDBQuery(documentPath, MilliDBQuery.Function.SET, new MilliMap().append("p", new MilliValue(path)).append("v", value));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBBatchTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void resultsComeInTheOrderOfTheOperations() {
+        MilliDBCollection collection = client.getCollection("ordered");
+        MilliDBDocument document = collection.getDocument("d.mll");
+        List<MilliDBResult> results = client.batch()
+                .set(document, "a", new MilliValue(1))
+                .get(document, "a")
+                .getDocument(collection, "e.mll")
+                .getFiles(collection, null)
+                .execute();
+        assertEquals(4, results.size());
+        for (MilliDBResult result : results) assertTrue(result.isSucceed());
+        assertEquals("1", results.get(1).getMetadata().asMilliValue().asString());
+        List<String> names = new ArrayList<>();
+        results.get(3).getMetadata().asMilliList().forEach(name -> names.add(name.asMilliValue().asString()));
+        names.sort(null);
+        assertEquals(List.of("d.mll", "e.mll"), names);
+    }
+
+    @Test
+    void failedOperationDoesNotFailTheOthers() {
+        MilliDBDocument document = client.getDocument("partial.mll");
+        document.set("s", new MilliValue("text"));
+        //A path through a value that is not a map cannot be set
+        List<MilliDBResult> results = client.batch()
+                .set(document, "s.q", new MilliValue(1))
+                .set(document, "t", new MilliValue(2))
+                .execute();
+        assertFalse(results.get(0).isSucceed());
+        assertTrue(results.get(1).isSucceed());
+        assertEquals("2", document.get("t").asMilliValue().asString());
+    }
+
+    @Test
+    void batchCanNotBeNested() {
+        MilliDBQuery nested = new MilliDBQuery("", MilliDBQuery.Function.BATCH, new MilliList());
+        assertThrows(IllegalArgumentException.class, () -> client.batch().add(nested));
+        //Nor by a server, which fails the nested one only
+        MilliDBQuery get = new MilliDBQuery("nested.mll", MilliDBQuery.Function.GET, new MilliValue("k"));
+        MilliDBResult result = client.execute(new MilliDBQuery("", MilliDBQuery.Function.BATCH, new MilliList().append(nested.asMilliMap()).append(get.asMilliMap())));
+        assertTrue(result.isSucceed());
+        List<Boolean> succeeded = new ArrayList<>();
+        result.getMetadata().asMilliList().forEach(subResult -> succeeded.add(subResult.asMilliMap().get("s").asMilliValue().asBoolean()));
+        assertEquals(List.of(false, true), succeeded);
+    }
+
+    @Test
+    void resultsAreMatchedToTheOperationsByID() {
+        MilliDBDocument document = client.getDocument("matched.mll");
+        MilliDBBatch batch = client.batch().get(document, "a").get(document, "b").get(document, "c");
+        List<Long> ids = ids(batch);
+        List<String> warnings = new ArrayList<>();
+        MilliDBLogHandler handler = MilliDBLogger.getHandler();
+        MilliDBLogger.setHandler((level, message) -> warnings.add(message));
+        MilliDBLogger.setWarningIntervalMillis(0);
+        try {
+            //In reverse, one of them with no ID, and none for the first
+            MilliList subResults = new MilliList()
+                    .append(new MilliDBResult(ids.get(2), true, new MilliValue("c")).toMilliMap())
+                    .append(new MilliMap("s", new MilliValue(true)))
+                    .append(new MilliDBResult(ids.get(1), true, new MilliValue("b")).toMilliMap());
+            List<MilliDBResult> results = batch.toResults(new MilliDBResult(1, true, subResults));
+            assertFalse(results.get(0).isSucceed());
+            assertEquals(ids.get(0), results.get(0).getID());
+            assertEquals("b", results.get(1).getMetadata().asMilliValue().asString());
+            assertEquals("c", results.get(2).getMetadata().asMilliValue().asString());
+            assertEquals(2, warnings.size());
+        } finally {
+            MilliDBLogger.setHandler(handler);
+            MilliDBLogger.setWarningIntervalMillis(1000);
+        }
+    }
+
+    @Test
+    void failedBatchFailsEveryOperation() {
+        MilliDBDocument document = client.getDocument("failed.mll");
+        MilliDBBatch batch = client.batch().get(document, "a").get(document, "b");
+        List<MilliDBResult> results = batch.toResults(MilliDBResult.failedResult(1));
+        assertEquals(2, results.size());
+        for (MilliDBResult result : results) assertFalse(result.isSucceed());
+    }
+
+    /**
+     * @return  the IDs of the operations, which a failed batch gives back in their order
+     */
+    private static List<Long> ids(MilliDBBatch batch) {
+        List<Long> ids = new ArrayList<>();
+        for (MilliDBResult result : batch.toResults(MilliDBResult.failedResult(0))) ids.add(result.getID());
+        return ids;
+    }
+}
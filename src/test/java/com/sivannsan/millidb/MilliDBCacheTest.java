@@ -0,0 +1,115 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBCacheTest {
+    @Test
+    void writesThroughTheClientInvalidateTheirPaths() {
+        MilliDBClient base = MilliDBClients.embedded();
+        MilliDBCache cache = new MilliDBCache(100, 1 << 20, 0);
+        MilliDBDocument document = MilliDBClients.withCache(base, cache).getDocument("written.mll");
+        document.set("k", new MilliValue(1));
+        assertEquals("1", document.get("k").asMilliValue().asString());
+        assertEquals("1", document.get("k").asMilliValue().asString());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        document.set("k", new MilliValue(2));
+        assertEquals("2", document.get("k").asMilliValue().asString());
+        assertEquals(2, cache.getMisses());
+        document.increment("k", 1);
+        assertEquals("3", document.get("k").asMilliValue().asString());
+        //Not seen through another client
+        base.getDocument("written.mll").set("k", new MilliValue(4));
+        assertEquals("3", document.get("k").asMilliValue().asString());
+        base.close();
+    }
+
+    @Test
+    void writeInvalidatesThePathsAboveAndBelowItByWholeKeys() {
+        MilliDBCache cache = new MilliDBCache(100, 1 << 20, 0);
+        for (String path : new String[]{"", "a", "a.b", "a.b.c", "a.bc", "c"}) put(cache, "d.mll", path);
+        put(cache, "other.mll", "a.b");
+        cache.invalidatePath("d.mll", "a.b");
+        assertNull(cache.get("d.mll", ""));
+        assertNull(cache.get("d.mll", "a"));
+        assertNull(cache.get("d.mll", "a.b"));
+        assertNull(cache.get("d.mll", "a.b.c"));
+        assertNotNull(cache.get("d.mll", "a.bc"));
+        assertNotNull(cache.get("d.mll", "c"));
+        assertNotNull(cache.get("other.mll", "a.b"));
+    }
+
+    @Test
+    void deleteInvalidatesTheDocumentsUnderTheFile() {
+        MilliDBCache cache = new MilliDBCache(100, 1 << 20, 0);
+        put(cache, "c/d.mll", "k");
+        put(cache, "c/e/f.mll", "k");
+        put(cache, "cc/d.mll", "k");
+        assertTrue(cache.invalidate(new MilliDBQuery("c", MilliDBQuery.Function.DELETE, new MilliValue("c"))));
+        assertNull(cache.get("c/d.mll", "k"));
+        assertNull(cache.get("c/e/f.mll", "k"));
+        assertNotNull(cache.get("cc/d.mll", "k"));
+        assertFalse(cache.invalidate(new MilliDBQuery("cc/d.mll", MilliDBQuery.Function.GET, new MilliValue("k"))));
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedByCount() {
+        MilliDBCache cache = new MilliDBCache(2, 1 << 20, 0);
+        put(cache, "d.mll", "a");
+        put(cache, "d.mll", "b");
+        assertNotNull(cache.get("d.mll", "a"));
+        put(cache, "d.mll", "c");
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("d.mll", "b"));
+        assertNotNull(cache.get("d.mll", "a"));
+        assertNotNull(cache.get("d.mll", "c"));
+    }
+
+    @Test
+    void entriesAreEvictedByBytes() {
+        MilliDBCache cache = new MilliDBCache(100, 1000, 0);
+        cache.put("d.mll", "a", new MilliValue("a"), cache.getVersion("d.mll"), 300);
+        cache.put("d.mll", "b", new MilliValue("b"), cache.getVersion("d.mll"), 300);
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.getBytes() <= 1000);
+        assertNull(cache.get("d.mll", "a"));
+        //Larger than the whole cache, so never kept
+        cache.put("d.mll", "c", new MilliValue("c"), cache.getVersion("d.mll"), 1000);
+        assertNull(cache.get("d.mll", "c"));
+        assertNotNull(cache.get("d.mll", "b"));
+    }
+
+    @Test
+    void expiredEntryIsAMiss() throws InterruptedException {
+        MilliDBCache cache = new MilliDBCache(100, 1 << 20, 50);
+        put(cache, "d.mll", "k");
+        assertNotNull(cache.get("d.mll", "k"));
+        Thread.sleep(100);
+        assertNull(cache.get("d.mll", "k"));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void valueFetchedAcrossAWriteIsNotCached() {
+        MilliDBCache cache = new MilliDBCache(100, 1 << 20, 0);
+        long version = cache.getVersion("d.mll");
+        cache.invalidate(new MilliDBQuery("d.mll", MilliDBQuery.Function.SET, new MilliMap("p", new MilliValue("k")).append("v", new MilliValue(1))));
+        cache.put("d.mll", "k", new MilliValue(0), version, -1);
+        assertNull(cache.get("d.mll", "k"));
+        cache.clear();
+        assertEquals(0, cache.getBytes());
+    }
+
+    private static void put(MilliDBCache cache, String documentPath, String path) {
+        MilliData value = new MilliValue(path);
+        cache.put(documentPath, path, value, cache.getVersion(documentPath), -1);
+    }
+}
@@ -0,0 +1,105 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBCodecTest {
+    /**
+     * Values whose text and binary forms are easy to get wrong, such as strings that look like numbers or booleans
+     */
+    private static final String[] VALUES = {"007", "-0", "0", "12", "-12", "true", "false", "x", "", "-", "1.5", "é中😀",
+            "123456789012345678", "1234567890123456789", "9223372036854775807", "-9223372036854775808", "{\"quoted\"}"};
+
+    static Stream<MilliDBCodec> codecs() {
+        return Stream.of(MilliDBCodec.TEXT, MilliDBCodec.BINARY);
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void queryKeepsItsIDFunctionPathAndMetadata(MilliDBCodec codec) throws IOException {
+        MilliDBQuery query = new MilliDBQuery("users/u1.mll", MilliDBQuery.Function.SET, new MilliMap("p", new MilliValue("a.b")).append("v", sample()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeQuery(query, out);
+        MilliDBQuery read = codec.readQuery(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(read);
+        assertEquals(query.getID(), read.getID());
+        assertEquals(query.getFunction(), read.getFunction());
+        assertEquals(query.getPath(), read.getPath());
+        assertSameData(sample(), read.getMetadata().asMilliMap().get("v"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void resultKeepsEveryValueAndItsType(MilliDBCodec codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeResult(new MilliDBResult(42, true, sample()), out);
+        MilliDBResult read = codec.readResult(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(42, read.getID());
+        assertTrue(read.isSucceed());
+        assertSameData(sample(), read.getMetadata());
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void resultIsDecodedFromTheMiddleOfTheReceivedBytes(MilliDBCodec codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{1, 2, 3});
+        codec.writeResult(new MilliDBResult(7, true, sample()), out);
+        int end = out.size();
+        codec.writeResult(new MilliDBResult(8, false, MilliNull.INSTANCE), out);
+        byte[] received = out.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(received);
+        buffer.position(3);
+        int length = codec.frameLength(buffer);
+        assertEquals(end - 3, length);
+        MilliDBResult read = codec.readResult(received, 3, length);
+        assertEquals(7, read.getID());
+        assertSameData(sample(), read.getMetadata());
+    }
+
+    @ParameterizedTest
+    @MethodSource("codecs")
+    void partialFrameHasNoLengthYet(MilliDBCodec codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeResult(new MilliDBResult(9, true, sample()), out);
+        byte[] frame = out.toByteArray();
+        for (int cut : new int[]{0, 1, frame.length / 2, frame.length - 1}) assertEquals(-1, codec.frameLength(ByteBuffer.wrap(frame, 0, cut)));
+        assertEquals(frame.length, codec.frameLength(ByteBuffer.wrap(frame)));
+    }
+
+    private static MilliMap sample() {
+        MilliList list = new MilliList();
+        for (String value : VALUES) list.append(new MilliValue(value));
+        list.append(new MilliValue(42)).append(new MilliValue(-7L)).append(new MilliValue(true)).append(new MilliValue(false)).append(MilliNull.INSTANCE);
+        //Numbers without a constructor of their own
+        for (String number : new String[]{"1.5", "-2e10", "1234567890123456789"}) list.append(MilliData.Parser.parse(number, null));
+        return new MilliMap("list", list).append("nested", new MilliMap("k", new MilliValue(-5)).append("empty", new MilliList())).append("null", MilliNull.INSTANCE);
+    }
+
+    /**
+     * Compares the text forms too, which tell a string from a number or a boolean of the same characters
+     */
+    private static void assertSameData(MilliData expected, MilliData actual) {
+        assertEquals(expected.toString(), actual.toString());
+        if (expected.isMilliValue()) {
+            assertEquals(expected.asMilliValue().asString(), actual.asMilliValue().asString());
+        } else if (expected.isMilliList()) {
+            Iterator<MilliData> actualValues = actual.asMilliList().iterator();
+            for (MilliData value : expected.asMilliList()) assertSameData(value, actualValues.next());
+            assertFalse(actualValues.hasNext());
+        } else if (expected.isMilliMap()) {
+            assertEquals(expected.asMilliMap().keySet(), actual.asMilliMap().keySet());
+            for (String key : expected.asMilliMap().keySet()) assertSameData(expected.asMilliMap().get(key), actual.asMilliMap().get(key));
+        }
+    }
+}
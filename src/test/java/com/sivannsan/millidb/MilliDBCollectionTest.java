@@ -0,0 +1,86 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBCollectionTest {
+    @Test
+    void filesAreLookedUpUnderTheirCollection() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig());
+            assertNotNull(client);
+            MilliDBDocument document = client.getCollection("c").getCollection("d").getDocument("e.mll");
+            assertEquals("c/d/e.mll", document.getPath());
+            assertEquals(List.of(":c", "c:d"), lookups(server, MilliDBQuery.Function.GET_COLLECTION));
+            assertEquals(List.of("c/d:e.mll"), lookups(server, MilliDBQuery.Function.GET_DOCUMENT));
+            client.close();
+        }
+    }
+
+    @Test
+    void embeddedDocumentIsMadeInItsCollection() {
+        MilliDBClient client = MilliDBClients.embedded();
+        client.getCollection("c").getDocument("d.mll").set("k", new MilliValue(1));
+        assertEquals(List.of("c"), names(client.getFiles()));
+        assertEquals(List.of("d.mll"), names(client.getCollection("c").getFiles()));
+        assertEquals("1", client.getCollection("c").getDocument("d.mll").get("k").asMilliValue().asString());
+        client.close();
+    }
+
+    @Test
+    void documentsAreListedInOrderWithTheirPaths() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBCollection collection = client.getCollection("listed");
+        for (String name : new String[]{"c.mll", "a.mll", "b.mll"}) collection.getDocument(name).set("n", new MilliValue(name));
+        collection.getDocument("a.mll").set("m", new MilliValue(1));
+        collection.getCollection("sub").getDocument("d.mll");
+        Map<MilliDBDocument, Map<String, MilliData>> documents = collection.getDocuments(null, "m", "n", "x");
+        List<String> paths = new ArrayList<>();
+        for (MilliDBDocument document : documents.keySet()) paths.add(document.getPath());
+        assertEquals(List.of("listed/a.mll", "listed/b.mll", "listed/c.mll"), paths);
+        for (Map<String, MilliData> projection : documents.values()) assertEquals(List.of("m", "n", "x"), new ArrayList<>(projection.keySet()));
+        Map<String, MilliData> a = documents.values().iterator().next();
+        assertEquals("1", a.get("m").asMilliValue().asString());
+        assertEquals("a.mll", a.get("n").asMilliValue().asString());
+        for (Map<String, MilliData> projection : documents.values()) assertTrue(projection.get("x").isMilliNull());
+        //The handles are the documents
+        assertEquals("1", documents.keySet().iterator().next().get("m").asMilliValue().asString());
+        client.close();
+    }
+
+    @Test
+    void documentsAreListedWithAFilterOrTheirWholeContent() {
+        MilliDBClient client = MilliDBClients.embedded();
+        client.getDocument("a.mll").set("k", new MilliValue(1));
+        client.getDocument("b.mll").set("k", new MilliValue(2));
+        Map<MilliDBDocument, Map<String, MilliData>> documents = client.getDocuments(MilliDBFilter.pathEquals("k", new MilliValue(2)));
+        assertEquals(1, documents.size());
+        Map.Entry<MilliDBDocument, Map<String, MilliData>> entry = documents.entrySet().iterator().next();
+        assertEquals("b.mll", entry.getKey().getName());
+        assertEquals("2", entry.getValue().get("").asMilliMap().get("k").asMilliValue().asString());
+        assertTrue(client.getCollection("none").getDocuments(null, "k").isEmpty());
+        client.close();
+    }
+
+    /**
+     * @return  the path and the name of each lookup, as "path:name"
+     */
+    private static List<String> lookups(MilliDBTestServer server, MilliDBQuery.Function function) {
+        List<String> lookups = new ArrayList<>();
+        for (MilliDBQuery query : server.getReceivedQueries(function)) lookups.add(query.getPath() + ":" + query.getMetadata().asMilliValue().asString());
+        return lookups;
+    }
+
+    private static List<String> names(List<MilliDBFile> files) {
+        List<String> names = new ArrayList<>();
+        for (MilliDBFile file : files) names.add(file.getName());
+        return names;
+    }
+}
@@ -0,0 +1,89 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pipelining over one connection, with a blocking socket and with the event loop
+ */
+class MilliDBConnectionTest {
+    private static final int QUERIES = 2000;
+
+    private MilliDBEventLoop eventLoop;
+
+    @AfterEach
+    void closeEventLoop() {
+        if (eventLoop != null) eventLoop.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void resultsAnsweredOutOfOrderGoToTheirOwnQueries(boolean withEventLoop) throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer(MilliDBCodec.BINARY).setReordering(true)) {
+            MilliDBClient client = connect(server, withEventLoop);
+            MilliDBDocument document = client.getDocument("pipelined.mll");
+            List<CompletableFuture<Void>> sets = new ArrayList<>();
+            for (int i = 0; i < QUERIES; i++) sets.add(document.setAsync("k" + i, new MilliValue("v" + i)));
+            CompletableFuture.allOf(sets.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            List<CompletableFuture<MilliData>> gets = new ArrayList<>();
+            for (int i = 0; i < QUERIES; i++) gets.add(document.getAsync("k" + i));
+            for (int i = 0; i < QUERIES; i++) assertEquals("v" + i, gets.get(i).get(10, TimeUnit.SECONDS).asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void queriesAreSentWithoutWaitingForEarlierResults(boolean withEventLoop) throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.put("held.mll", "k", new MilliValue("v"));
+            MilliDBClient client = connect(server, withEventLoop);
+            MilliDBDocument document = client.getDocument("held.mll");
+            server.hold();
+            List<CompletableFuture<MilliData>> gets = new ArrayList<>();
+            for (int i = 0; i < 100; i++) gets.add(document.getAsync("k"));
+            server.awaitReceived(MilliDBQuery.Function.GET, 100);
+            for (CompletableFuture<MilliData> get : gets) assertFalse(get.isDone());
+            server.release();
+            for (CompletableFuture<MilliData> get : gets) assertEquals("v", get.get(10, TimeUnit.SECONDS).asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void queriesInFlightFailWhenTheClientIsClosed(boolean withEventLoop) throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connect(server, withEventLoop);
+            MilliDBDocument document = client.getDocument("closed.mll");
+            server.hold();
+            CompletableFuture<MilliData> get = document.getAsync("k");
+            server.awaitReceived(MilliDBQuery.Function.GET, 1);
+            client.close();
+            assertThrows(ExecutionException.class, () -> get.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private MilliDBClient connect(MilliDBTestServer server, boolean withEventLoop) throws IOException {
+        MilliDBClients.ConnectionConfig config = new MilliDBClients.ConnectionConfig();
+        if (withEventLoop) {
+            eventLoop = new MilliDBEventLoop(1);
+            config.setEventLoop(eventLoop);
+        }
+        MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", config);
+        assertNotNull(client);
+        return client;
+    }
+}
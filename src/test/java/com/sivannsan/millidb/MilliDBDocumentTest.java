@@ -0,0 +1,65 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBDocumentTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void pathsAreReadInTheirOrder() {
+        MilliDBDocument document = client.getDocument("paths.mll");
+        document.set("a", new MilliValue(1));
+        document.set("b", new MilliMap("c", new MilliValue(2)));
+        Map<String, MilliData> values = document.get("b.c", "a", "b");
+        assertEquals(List.of("b.c", "a", "b"), new ArrayList<>(values.keySet()));
+        assertEquals("2", values.get("b.c").asMilliValue().asString());
+        assertEquals("1", values.get("a").asMilliValue().asString());
+        assertEquals("2", values.get("b").asMilliMap().get("c").asMilliValue().asString());
+    }
+
+    @Test
+    void missingPathsAreMilliNull() {
+        MilliDBDocument document = client.getDocument("missing.mll");
+        document.set("a", new MilliValue(1));
+        Map<String, MilliData> values = document.get("x", "a", "a.b", "x.y");
+        assertTrue(values.get("x").isMilliNull());
+        assertEquals("1", values.get("a").asMilliValue().asString());
+        //Through a value that is not a map
+        assertTrue(values.get("a.b").isMilliNull());
+        assertTrue(values.get("x.y").isMilliNull());
+        //No paths, and no query
+        assertTrue(document.get().isEmpty());
+    }
+
+    @Test
+    void onlyThePathsThatAreNotCachedAreFetched() {
+        MilliDBCache cache = new MilliDBCache(100, 1 << 20, 0);
+        MilliDBDocument document = MilliDBClients.withCache(client, cache).getDocument("cached.mll");
+        document.set("a", new MilliValue(1));
+        document.set("b", new MilliValue(2));
+        document.get("a");
+        Map<String, MilliData> values = document.get("a", "b");
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals("1", values.get("a").asMilliValue().asString());
+        assertEquals("2", values.get("b").asMilliValue().asString());
+        //Both are cached now
+        document.get("b", "a");
+        assertEquals(3, cache.getHits());
+    }
+}
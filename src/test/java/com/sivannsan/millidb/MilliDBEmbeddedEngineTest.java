@@ -0,0 +1,182 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliNull;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBEmbeddedEngineTest {
+    @Test
+    void valuesAreSetAndReadByTheirPaths() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBDocument document = client.getCollection("users").getDocument("u1.mll");
+        document.set("name", new MilliValue("Ann"));
+        document.set("address.city", new MilliValue("Oslo"));
+        document.set("code", new MilliValue("007"));
+        assertEquals("Ann", document.get("name").asMilliValue().asString());
+        assertEquals("Oslo", document.get("address").asMilliMap().get("city").asMilliValue().asString());
+        assertEquals("007", document.get("code").asMilliValue().asString());
+        assertTrue(document.get("missing").isMilliNull());
+        document.set("name", new MilliValue("Bo"));
+        assertEquals("Bo", client.getCollection("users").getDocument("u1.mll").get("name").asMilliValue().asString());
+        client.close();
+    }
+
+    @Test
+    void readsAndWritesDoNotShareTheStoredData() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBDocument document = client.getDocument("copied.mll");
+        MilliMap written = new MilliMap("k", new MilliValue(1));
+        document.set("map", written);
+        written.append("k", new MilliValue(2));
+        MilliMap read = document.get("map").asMilliMap();
+        assertEquals("1", read.get("k").asMilliValue().asString());
+        read.append("k", new MilliValue(3));
+        assertEquals("1", document.get("map").asMilliMap().get("k").asMilliValue().asString());
+        client.close();
+    }
+
+    @Test
+    void filesAreListedAndDeleted() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBCollection collection = client.getCollection("listed");
+        collection.getDocument("b.mll").set("v", new MilliValue(2));
+        collection.getDocument("a.mll").set("v", new MilliValue(1));
+        collection.getCollection("c");
+        assertEquals(Arrays.asList("a.mll", "b.mll", "c"), names(collection.getFiles()));
+        assertEquals(Collections.singletonList("b.mll"), names(collection.getFiles(MilliDBFilter.pathEquals("v", new MilliValue(2)))));
+        collection.getDocument("a.mll").delete();
+        assertEquals(Arrays.asList("b.mll", "c"), names(collection.getFiles()));
+        collection.delete();
+        assertTrue(client.getFiles().isEmpty());
+        client.close();
+    }
+
+    @Test
+    void treeIsListedDownToTheDepth() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBCollection a = client.getCollection("a");
+        a.getDocument("x.mll").set("v", new MilliValue(1));
+        a.getCollection("b").getDocument("y.mll").set("v", new MilliValue(2));
+        a.getCollection("b").getCollection("c").getDocument("z.mll").set("v", new MilliValue(3));
+        assertEquals(Arrays.asList("a/b", "a/x.mll"), paths(a.getFiles(null, 1)));
+        assertEquals(Arrays.asList("a/b", "a/b/c", "a/b/y.mll", "a/x.mll"), paths(a.getFiles(null, 2)));
+        assertEquals(Arrays.asList("a", "a/b", "a/b/c", "a/b/c/z.mll", "a/b/y.mll", "a/x.mll"), paths(client.getFiles(null, 10)));
+        //Without a depth, only the files right in the collection
+        assertEquals(Arrays.asList("a/b", "a/x.mll"), paths(a.getFiles()));
+        assertThrows(IllegalArgumentException.class, () -> a.getFiles(null, 0));
+        client.close();
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws Exception {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBDocument document = client.getDocument("counted.mll");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) futures.add(executor.submit(() -> {
+                for (int j = 0; j < 500; j++) document.increment("n", 1);
+            }));
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("4000", document.get("n").asMilliValue().asString());
+        assertEquals(4001, document.increment("n", 1));
+        client.close();
+    }
+
+    @Test
+    void incrementOfDataThatIsNotAnIntegerFails() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBDocument document = client.getDocument("malformed.mll");
+        document.set("map", new MilliMap("k", new MilliValue(1)));
+        document.set("text", new MilliValue("abc"));
+        document.set("max", new MilliValue(Long.MAX_VALUE));
+        assertThrows(MilliDBResultFailedException.class, () -> document.increment("map", 1));
+        assertThrows(MilliDBResultFailedException.class, () -> document.increment("text", 1));
+        assertThrows(MilliDBResultFailedException.class, () -> document.increment("max", 1));
+        //Left as they were
+        assertEquals("abc", document.get("text").asMilliValue().asString());
+        assertEquals(String.valueOf(Long.MAX_VALUE), document.get("max").asMilliValue().asString());
+        client.close();
+    }
+
+    @Test
+    void atomicOperationsApplyOnlyWhenTheirConditionHolds() {
+        MilliDBClient client = MilliDBClients.embedded();
+        MilliDBDocument document = client.getDocument("atomic.mll");
+        document.appendToList("list", new MilliValue("a"));
+        document.appendToList("list", new MilliValue("b"));
+        assertTrue(document.removeFromList("list", new MilliValue("a")));
+        assertFalse(document.removeFromList("list", new MilliValue("a")));
+        assertEquals(Collections.singletonList("b"), strings(document.get("list")));
+        assertTrue(document.putIfAbsent("once", new MilliValue(1)).isMilliNull());
+        assertEquals("1", document.putIfAbsent("once", new MilliValue(2)).asMilliValue().asString());
+        assertFalse(document.compareAndSet("once", new MilliValue(2), new MilliValue(3)));
+        assertTrue(document.compareAndSet("once", new MilliValue(1), new MilliValue(3)));
+        assertEquals("3", document.get("once").asMilliValue().asString());
+        client.close();
+    }
+
+    @Test
+    void filesOutlastTheClientInTheDataDirectory(@TempDir Path directory) {
+        MilliDBClient client = MilliDBClients.embedded(directory);
+        assertNotNull(client);
+        client.getCollection("kept").getDocument("d.mll").set("list", new MilliList().append(new MilliValue("x")).append(MilliNull.INSTANCE));
+        client.getDocument("deleted.mll").set("v", new MilliValue(1));
+        client.getDocument("deleted.mll").delete();
+        client.close();
+        assertTrue(Files.isRegularFile(directory.resolve("kept").resolve("d.mll")));
+        assertFalse(Files.exists(directory.resolve("deleted.mll")));
+
+        MilliDBClient reopened = MilliDBClients.embedded(directory);
+        assertNotNull(reopened);
+        assertEquals(Collections.singletonList("kept"), names(reopened.getFiles()));
+        assertEquals(Arrays.asList("x", null), strings(reopened.getCollection("kept").getDocument("d.mll").get("list")));
+        reopened.close();
+    }
+
+    @Test
+    void invalidNamesAndClosedClientsAreRejected() {
+        MilliDBClient client = MilliDBClients.embedded();
+        assertThrows(MilliDBResultFailedException.class, () -> client.getCollection(".."));
+        MilliDBDocument document = client.getDocument("closed.mll");
+        client.close();
+        assertThrows(MilliDBResultFailedException.class, () -> document.get("k"));
+    }
+
+    /**
+     * @return  the strings of the list, null for its nulls
+     */
+    private static List<String> strings(MilliData list) {
+        List<String> strings = new ArrayList<>();
+        for (MilliData value : list.asMilliList()) strings.add(value.isMilliNull() ? null : value.asMilliValue().asString());
+        return strings;
+    }
+
+    private static List<String> names(List<MilliDBFile> files) {
+        return files.stream().map(MilliDBFile::getName).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> paths(List<MilliDBFile> files) {
+        return files.stream().map(MilliDBFile::getPath).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,123 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBFileIteratorTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+    /**
+     * The page queries sent by the iterator under test, in order
+     */
+    private final List<CompletableFuture<MilliDBResult>> pages = new ArrayList<>();
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void filesAreListedAcrossPageBoundaries() {
+        collection("paged", 6);
+        assertEquals(List.of("d0.mll", "d1.mll", "d2.mll", "d3.mll", "d4.mll", "d5.mll"), names(iterator("paged", 2, page -> null)));
+        //A last page that is full has a cursor, so an empty page ends the listing
+        assertEquals(4, pages.size());
+        pages.clear();
+        assertEquals(List.of("d0.mll", "d1.mll", "d2.mll", "d3.mll", "d4.mll", "d5.mll"), names(iterator("paged", 4, page -> null)));
+        assertEquals(2, pages.size());
+        assertEquals(6, client.getCollection("paged").stream(null, 1).count());
+    }
+
+    @Test
+    void emptyCollectionHasNoFiles() {
+        collection("empty", 0);
+        MilliDBFileIterator iterator = iterator("empty", 2, page -> null);
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+        assertEquals(1, pages.size());
+    }
+
+    @Test
+    void failedPrefetchFailsNext() {
+        collection("failing", 5);
+        MilliDBFileIterator iterator = iterator("failing", 2, page -> page == 1 ? CompletableFuture.completedFuture(MilliDBResult.failedResult(0)) : null);
+        assertEquals("d0.mll", iterator.next().getName());
+        assertEquals("d1.mll", iterator.next().getName());
+        assertThrows(MilliDBResultFailedException.class, iterator::next);
+    }
+
+    @Test
+    void serverWithoutPagingIsListedAtOnce() {
+        collection("unpaged", 3);
+        assertEquals(List.of("d0.mll", "d1.mll", "d2.mll"), names(iterator("unpaged", 2, page -> CompletableFuture.completedFuture(MilliDBResult.failedResult(0)))));
+        assertEquals(1, pages.size());
+    }
+
+    @Test
+    void closeEndsTheIterationAndCancelsThePrefetch() {
+        collection("closed", 5);
+        MilliDBFileIterator iterator = iterator("closed", 2, page -> page == 0 ? null : new CompletableFuture<>());
+        assertEquals("d0.mll", iterator.next().getName());
+        assertEquals(2, pages.size());
+        iterator.close();
+        assertTrue(pages.get(1).isCancelled());
+        assertFalse(iterator.hasNext());
+        assertEquals(2, pages.size());
+    }
+
+    @Test
+    void abandonedStreamLeavesTheClientUsable() {
+        collection("abandoned", 5);
+        MilliDBCollection collection = client.getCollection("abandoned");
+        try (Stream<MilliDBFile> stream = collection.stream(null, 2)) {
+            assertEquals("d0.mll", stream.findFirst().orElseThrow().getName());
+        }
+        assertEquals("d2.mll", collection.stream(null, 2).skip(2).findFirst().orElseThrow().getName());
+        assertEquals(5, collection.stream(null, 2).count());
+    }
+
+    private void collection(@Nonnull String name, int documents) {
+        MilliDBCollection collection = client.getCollection(name);
+        for (int i = 0; i < documents; i++) collection.getDocument("d" + i + ".mll");
+    }
+
+    /**
+     * @param answers   the answer of the page query of an index, or null to send it to the client
+     */
+    @Nonnull
+    private MilliDBFileIterator iterator(@Nonnull String path, int pageSize, @Nonnull IntFunction<CompletableFuture<MilliDBResult>> answers) {
+        MilliDBClient paging = (MilliDBClient) Proxy.newProxyInstance(MilliDBClient.class.getClassLoader(), new Class<?>[]{MilliDBClient.class}, (proxy, method, args) -> {
+            if (method.getName().equals("executeAsync") && ((MilliDBQuery) args[0]).getFunction() == MilliDBQuery.Function.GET_FILES_PAGE) {
+                CompletableFuture<MilliDBResult> page = answers.apply(pages.size());
+                if (page == null) page = client.executeAsync((MilliDBQuery) args[0]);
+                pages.add(page);
+                return page;
+            }
+            try {
+                return method.invoke(client, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        MilliDBCollection collection = client.getCollection(path);
+        return new MilliDBFileIterator(paging, path, null, pageSize, 1000, collection::getDocument);
+    }
+
+    @Nonnull
+    private static List<String> names(@Nonnull MilliDBFileIterator iterator) {
+        List<String> names = new ArrayList<>();
+        iterator.forEachRemaining(file -> names.add(file.getName()));
+        return names;
+    }
+}
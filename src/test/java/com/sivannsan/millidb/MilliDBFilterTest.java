@@ -0,0 +1,166 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBFilterTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+    /**
+     * The contents of the documents, by their names in order
+     */
+    private final Map<String, MilliMap> contents = new LinkedHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        contents.put("a.mll", new MilliMap("n", new MilliValue(5)).append("s", new MilliValue("apple")).append("m", new MilliMap("x", new MilliValue(1))).append("l", new MilliList().append(new MilliValue(1)).append(new MilliValue(2))));
+        contents.put("b.mll", new MilliMap("n", new MilliValue("10.5")).append("s", new MilliValue("banana")));
+        contents.put("c.mll", new MilliMap("n", new MilliValue("x")).append("s", new MilliValue("cherry")).append("m", new MilliMap("x", new MilliValue(2))));
+        contents.put("d.mll", new MilliMap());
+        contents.put("e.mll", new MilliMap("n", new MilliValue(-3)).append("s", new MilliValue("apricot")).append("m", new MilliMap("x", new MilliValue(1)).append("y", new MilliValue(2))));
+        MilliDBCollection collection = client.getCollection("filtered");
+        for (Map.Entry<String, MilliMap> content : contents.entrySet()) {
+            MilliDBDocument document = collection.getDocument(content.getKey());
+            for (String key : content.getValue().keySet()) document.set(key, content.getValue().get(key));
+        }
+    }
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void superOf() {
+        assertMatches(MilliDBFilter.superOf(new MilliMap("m", new MilliMap("x", new MilliValue(1)))), "a.mll", "e.mll");
+        assertMatches(MilliDBFilter.superOf(new MilliMap("l", new MilliList().append(new MilliValue(2)))), "a.mll");
+    }
+
+    @Test
+    void andOrNot() {
+        assertMatches(MilliDBFilter.and(), "a.mll", "b.mll", "c.mll", "d.mll", "e.mll");
+        assertMatches(MilliDBFilter.or());
+        assertMatches(MilliDBFilter.and(MilliDBFilter.prefix("s", "ap"), MilliDBFilter.exists("m")), "a.mll", "e.mll");
+        assertMatches(MilliDBFilter.or(MilliDBFilter.pathEquals("s", new MilliValue("banana")), MilliDBFilter.pathEquals("n", new MilliValue(-3))), "b.mll", "e.mll");
+        assertMatches(MilliDBFilter.not(MilliDBFilter.exists("m")), "b.mll", "d.mll");
+        assertMatches(MilliDBFilter.not(MilliDBFilter.and(MilliDBFilter.exists("m"), MilliDBFilter.not(MilliDBFilter.pathEquals("m.x", new MilliValue(2))))), "b.mll", "c.mll", "d.mll");
+    }
+
+    @Test
+    void pathEquals() {
+        assertMatches(MilliDBFilter.pathEquals("s", new MilliValue("apple")), "a.mll");
+        assertMatches(MilliDBFilter.pathEquals("m.x", new MilliValue(1)), "a.mll", "e.mll");
+        assertMatches(MilliDBFilter.pathEquals("m", new MilliMap("x", new MilliValue(1))), "a.mll");
+        assertMatches(MilliDBFilter.pathEquals("s.x", new MilliValue("apple")));
+    }
+
+    @Test
+    void numberRange() {
+        assertMatches(MilliDBFilter.numberRange("n", 0L, 10L), "a.mll");
+        assertMatches(MilliDBFilter.numberRange("n", 5.5, null), "b.mll");
+        assertMatches(MilliDBFilter.numberRange("n", new BigDecimal("-3"), new BigDecimal("5.0")), "a.mll", "e.mll");
+        assertMatches(MilliDBFilter.numberRange("n", 1e-7, 10.5f), "a.mll", "b.mll");
+        //Any number, and no text
+        assertMatches(MilliDBFilter.numberRange("n", null, null), "a.mll", "b.mll", "e.mll");
+        assertEquals("0.00000010", MilliDBFilter.numberRange("n", 1e-7, null).getMin());
+        assertThrows(IllegalArgumentException.class, () -> MilliDBFilter.numberRange("n", Double.NaN, null));
+        assertThrows(IllegalArgumentException.class, () -> MilliDBFilter.numberRange("n", null, Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void textRange() {
+        assertMatches(MilliDBFilter.textRange("s", "b", "c"), "b.mll");
+        assertMatches(MilliDBFilter.textRange("s", null, "apple"), "a.mll");
+        assertMatches(MilliDBFilter.textRange("s", "apricot", null), "b.mll", "c.mll", "e.mll");
+        assertMatches(MilliDBFilter.textRange("m", null, null));
+    }
+
+    @Test
+    void existsInAndPrefix() {
+        assertMatches(MilliDBFilter.exists("l"), "a.mll");
+        assertMatches(MilliDBFilter.exists("m.y"), "e.mll");
+        assertMatches(MilliDBFilter.in("s", new MilliValue("apple"), new MilliValue("cherry")), "a.mll", "c.mll");
+        assertMatches(MilliDBFilter.in("m", new MilliMap("x", new MilliValue(2))), "c.mll");
+        assertMatches(MilliDBFilter.in("s"));
+        assertMatches(MilliDBFilter.prefix("s", "ap"), "a.mll", "e.mll");
+        assertMatches(MilliDBFilter.prefix("s", ""), "a.mll", "b.mll", "c.mll", "e.mll");
+    }
+
+    @Test
+    void filtersAreParsedBackFromTheirMilliMaps() {
+        for (MilliDBFilter filter : allFilters()) {
+            MilliDBFilter parsed = MilliDBFilter.Parser.parse(filter.toMilliMap());
+            assertNotNull(parsed, filter.toMilliMap().toString());
+            assertEquals(filter.getClass(), parsed.getClass());
+            assertEquals(filter.toMilliMap().toString(), parsed.toMilliMap().toString());
+            assertEquals(matching(filter), matching(parsed), filter.toMilliMap().toString());
+            assertEquals(filter.toMilliMap().toString(), MilliDBFilter.Parser.parse(filter.toMilliMap().toString()).toMilliMap().toString());
+        }
+    }
+
+    @Test
+    void unknownFiltersAreNotParsed() {
+        assertNull(MilliDBFilter.Parser.parse(new MilliMap("_t", new MilliValue("unknown"))));
+        assertNull(MilliDBFilter.Parser.parse(new MilliMap()));
+        assertNull(MilliDBFilter.Parser.parse(MilliDBFilter.not(MilliDBFilter.exists("a")).toMilliMap().append("f", new MilliMap("_t", new MilliValue("unknown")))));
+        assertNull(MilliDBFilter.Parser.parse(new MilliMap("_t", new MilliValue("and")).append("fs", new MilliList().append(new MilliValue(1)))));
+        assertNull(MilliDBFilter.Parser.parse(new MilliMap("_t", new MilliValue("rg")).append("p", new MilliValue("n")).append("k", new MilliValue("n")).append("min", new MilliValue("x"))));
+    }
+
+    @Test
+    void compiledFilterAgreesWithTheEngine() {
+        for (MilliDBFilter filter : allFilters()) {
+            List<String> listed = new ArrayList<>();
+            for (MilliDBFile file : client.getCollection("filtered").getFiles(filter)) listed.add(file.getName());
+            listed.sort(null);
+            assertEquals(matching(filter), listed, filter.toMilliMap().toString());
+        }
+    }
+
+    private List<MilliDBFilter> allFilters() {
+        return List.of(
+                MilliDBFilter.superOf(new MilliMap("m", new MilliMap("x", new MilliValue(1)))),
+                MilliDBFilter.and(MilliDBFilter.prefix("s", "ap"), MilliDBFilter.exists("m")),
+                MilliDBFilter.or(MilliDBFilter.pathEquals("s", new MilliValue("banana")), MilliDBFilter.numberRange("n", null, 0L)),
+                MilliDBFilter.and(),
+                MilliDBFilter.or(),
+                MilliDBFilter.not(MilliDBFilter.exists("m")),
+                MilliDBFilter.pathEquals("m", new MilliMap("x", new MilliValue(1))),
+                MilliDBFilter.numberRange("n", 0L, 10L),
+                MilliDBFilter.numberRange("n", 5.5, null),
+                MilliDBFilter.numberRange("n", new BigDecimal("-3"), new BigDecimal("5.0")),
+                MilliDBFilter.textRange("s", "b", "c"),
+                MilliDBFilter.textRange("s", null, "apple"),
+                MilliDBFilter.exists("l"),
+                MilliDBFilter.in("s", new MilliValue("apple"), new MilliValue("cherry")),
+                MilliDBFilter.in("m", new MilliMap("x", new MilliValue(2))),
+                MilliDBFilter.prefix("s", "ap"));
+    }
+
+    private void assertMatches(MilliDBFilter filter, String... names) {
+        assertEquals(List.of(names), matching(filter), filter.toMilliMap().toString());
+    }
+
+    /**
+     * @return  the names of the documents whose content the compiled filter matches
+     */
+    private List<String> matching(MilliDBFilter filter) {
+        Predicate<MilliData> predicate = filter.compile();
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, MilliMap> content : contents.entrySet()) if (predicate.test(content.getValue())) names.add(content.getKey());
+        return names;
+    }
+}
@@ -0,0 +1,113 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBFrameCompressorTest {
+    private static final int THRESHOLD = 64;
+
+    @Test
+    void smallFrameIsWrappedAndUnwrappedInPlace() throws IOException {
+        MilliDBFrameCompressor compressor = new MilliDBFrameCompressor(MilliDBCompression.DEFLATE, THRESHOLD, MilliDBMetrics.NONE);
+        byte[] payload = "small".getBytes();
+        byte[] bytes = withHeadroom(payload);
+        ByteBuffer wrapped = compressor.wrap(bytes, MilliDBFrameCompressor.HEADROOM, payload.length);
+        assertSame(bytes, wrapped.array());
+        assertEquals(payload.length + 2, wrapped.remaining());
+        assertEquals(wrapped.remaining(), compressor.frameLength(wrapped));
+        ByteBuffer unwrapped = compressor.unwrap(wrapped.array(), wrapped.arrayOffset() + wrapped.position(), wrapped.remaining());
+        assertSame(bytes, unwrapped.array());
+        assertArrayEquals(payload, remaining(unwrapped));
+        compressor.end();
+    }
+
+    @Test
+    void largeFrameIsCompressed() throws IOException {
+        MilliDBFrameCompressor compressor = new MilliDBFrameCompressor(MilliDBCompression.DEFLATE, THRESHOLD, MilliDBMetrics.NONE);
+        byte[] payload = new byte[100_000];
+        for (int i = 0; i < payload.length; i++) payload[i] = (byte) (i % 7);
+        ByteBuffer wrapped = compressor.wrap(withHeadroom(payload), MilliDBFrameCompressor.HEADROOM, payload.length);
+        assertTrue(wrapped.remaining() < payload.length / 10);
+        byte[] received = new byte[wrapped.remaining() + 8];
+        wrapped.get(received, 4, wrapped.remaining());
+        assertArrayEquals(payload, remaining(compressor.unwrap(received, 4, received.length - 8)));
+        compressor.end();
+    }
+
+    @Test
+    void frameThatDoesNotShrinkIsSentRaw() throws IOException {
+        MilliDBFrameCompressor compressor = new MilliDBFrameCompressor(MilliDBCompression.DEFLATE, THRESHOLD, MilliDBMetrics.NONE);
+        byte[] payload = new byte[1000];
+        new Random(1).nextBytes(payload);
+        byte[] bytes = withHeadroom(payload);
+        ByteBuffer wrapped = compressor.wrap(bytes, MilliDBFrameCompressor.HEADROOM, payload.length);
+        assertSame(bytes, wrapped.array());
+        assertArrayEquals(payload, remaining(compressor.unwrap(wrapped.array(), wrapped.arrayOffset() + wrapped.position(), wrapped.remaining())));
+        compressor.end();
+    }
+
+    @Test
+    void compressedFrameIsRejectedOnceEnded() {
+        MilliDBFrameCompressor compressor = new MilliDBFrameCompressor(MilliDBCompression.DEFLATE, THRESHOLD, MilliDBMetrics.NONE);
+        byte[] payload = new byte[1000];
+        ByteBuffer wrapped = compressor.wrap(withHeadroom(payload), MilliDBFrameCompressor.HEADROOM, payload.length);
+        byte[] received = remaining(wrapped);
+        compressor.end();
+        assertThrows(IOException.class, () -> compressor.unwrap(received, 0, received.length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void largeValuesGoCompressedThroughTheConnection(boolean binary) throws Exception {
+        AtomicInteger compressed = new AtomicInteger();
+        MilliDBMetrics metrics = new MilliDBMetrics() {
+            @Override
+            public void onFrameCompressed(boolean sent, int bytes, int compressedBytes, long nanos) {
+                compressed.incrementAndGet();
+            }
+        };
+        MilliDBCodec[] codecs = binary ? new MilliDBCodec[]{MilliDBCodec.BINARY} : new MilliDBCodec[0];
+        try (MilliDBTestServer server = new MilliDBTestServer(codecs).setCompression(MilliDBCompression.DEFLATE)) {
+            MilliDBClients.ConnectionConfig config = new MilliDBClients.ConnectionConfig()
+                    .setCodecs(Arrays.asList(MilliDBCodec.BINARY, MilliDBCodec.TEXT))
+                    .setCompressions(Collections.singletonList(MilliDBCompression.DEFLATE))
+                    .setCompressionThreshold(1024)
+                    .setMetrics(metrics);
+            MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", config);
+            assertNotNull(client);
+            MilliDBDocument document = client.getDocument("compressed.mll");
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 10_000; i++) large.append("value").append(i % 10);
+            document.set("large", new MilliValue(large.toString()));
+            document.set("small", new MilliValue("x"));
+            assertEquals(large.toString(), document.get("large").asMilliValue().asString());
+            assertEquals("x", document.get("small").asMilliValue().asString());
+            //The large set and its get result only
+            assertEquals(2, compressed.get());
+            client.close();
+        }
+    }
+
+    private static byte[] withHeadroom(byte[] payload) {
+        byte[] bytes = new byte[MilliDBFrameCompressor.HEADROOM + payload.length];
+        System.arraycopy(payload, 0, bytes, MilliDBFrameCompressor.HEADROOM, payload.length);
+        return bytes;
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,142 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBHandleCacheTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void sameInstanceIsKeptUntilItExpires() throws InterruptedException {
+        MilliDBHandleCache cache = new MilliDBHandleCache(10, 100);
+        MilliDBFile first = file("c/d.mll");
+        assertNull(cache.get("c/d.mll"));
+        assertSame(first, cache.put(first));
+        assertSame(first, cache.put(file("c/d.mll")));
+        assertSame(first, cache.get("c/d.mll"));
+        Thread.sleep(150);
+        assertNull(cache.get("c/d.mll"));
+        //Checked again, so kept for another while with the instance already handed out
+        assertSame(first, cache.put(file("c/d.mll")));
+        assertSame(first, cache.get("c/d.mll"));
+    }
+
+    @Test
+    void deleteRemovesTheFileAndEverythingBelowIt() {
+        MilliDBHandleCache cache = new MilliDBHandleCache(10, 60_000);
+        for (String path : new String[]{"c", "c/d.mll", "c/e", "c/e/f.mll", "cd", "cd/g.mll", "h.mll"}) cache.put(file(path));
+        cache.invalidate(new MilliDBQuery("c", MilliDBQuery.Function.DELETE, new MilliValue("c")));
+        assertEquals(List.of("cd", "cd/g.mll", "h.mll"), cached(cache, "c", "c/d.mll", "c/e", "c/e/f.mll", "cd", "cd/g.mll", "h.mll"));
+        cache.invalidate(new MilliDBQuery("cd/g.mll", MilliDBQuery.Function.DELETE, new MilliValue("g.mll")));
+        assertEquals(List.of("cd", "h.mll"), cached(cache, "cd", "cd/g.mll", "h.mll"));
+        //Other writes leave the files
+        cache.invalidate(new MilliDBQuery("h.mll", MilliDBQuery.Function.SET, new MilliMap("p", new MilliValue("k")).append("v", new MilliValue(1))));
+        assertEquals(List.of("cd", "h.mll"), cached(cache, "cd", "h.mll"));
+    }
+
+    @Test
+    void deleteInABatchIsSeen() {
+        MilliDBHandleCache cache = new MilliDBHandleCache(10, 60_000);
+        for (String path : new String[]{"c", "c/d.mll", "h.mll"}) cache.put(file(path));
+        MilliDBQuery get = new MilliDBQuery("h.mll", MilliDBQuery.Function.GET, new MilliValue("k"));
+        MilliDBQuery delete = new MilliDBQuery("c", MilliDBQuery.Function.DELETE, new MilliValue("c"));
+        cache.invalidate(new MilliDBQuery("", MilliDBQuery.Function.BATCH, new MilliList().append(get.asMilliMap()).append(new MilliValue("unparsed")).append(delete.asMilliMap())));
+        assertEquals(List.of("h.mll"), cached(cache, "c", "c/d.mll", "h.mll"));
+    }
+
+    @Test
+    void fullCacheEvictsExpiredFilesFirst() throws InterruptedException {
+        MilliDBHandleCache cache = new MilliDBHandleCache(8, 200);
+        for (int i = 0; i < 4; i++) cache.put(file("old" + i + ".mll"));
+        Thread.sleep(250);
+        List<String> fresh = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            cache.put(file("new" + i + ".mll"));
+            fresh.add("new" + i + ".mll");
+        }
+        assertEquals(fresh, cached(cache, fresh.toArray(new String[0])));
+    }
+
+    @Test
+    void fullCacheEvictsAQuarterAtOnce() {
+        MilliDBHandleCache cache = new MilliDBHandleCache(8, 60_000);
+        String[] paths = new String[9];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "d" + i + ".mll";
+            cache.put(file(paths[i]));
+        }
+        //Down to six, and then the new one
+        List<String> kept = cached(cache, paths);
+        assertEquals(7, kept.size(), kept.toString());
+        assertTrue(kept.contains("d8.mll"));
+        //Putting a kept path again does not evict
+        cache.put(file(kept.get(0)));
+        assertEquals(7, cached(cache, paths).size());
+    }
+
+    @Test
+    void clientKeepsItsFilesUntilTheyAreDeleted() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient kept = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig().setHandleTtlMillis(60_000));
+            assertNotNull(kept);
+            MilliDBCollection collection = kept.getCollection("c");
+            MilliDBDocument document = collection.getDocument("d.mll");
+            MilliDBDocument other = kept.getDocument("e.mll");
+            assertSame(collection, kept.getCollection("c"));
+            assertSame(document, kept.getCollection("c").getDocument("d.mll"));
+            assertSame(other, kept.getDocument("e.mll"));
+            assertEquals(1, server.getReceived(MilliDBQuery.Function.GET_COLLECTION));
+            assertEquals(2, server.getReceived(MilliDBQuery.Function.GET_DOCUMENT));
+            collection.delete();
+            //Checked again, as new instances
+            assertNotSame(collection, kept.getCollection("c"));
+            assertNotSame(document, kept.getCollection("c").getDocument("d.mll"));
+            assertSame(other, kept.getDocument("e.mll"));
+            assertEquals(2, server.getReceived(MilliDBQuery.Function.GET_COLLECTION));
+            assertEquals(3, server.getReceived(MilliDBQuery.Function.GET_DOCUMENT));
+            kept.close();
+            MilliDBClient unkept = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig());
+            assertNotNull(unkept);
+            assertNotSame(unkept.getDocument("e.mll"), unkept.getDocument("e.mll"));
+            assertEquals(5, server.getReceived(MilliDBQuery.Function.GET_DOCUMENT));
+            unkept.close();
+        }
+    }
+
+    /**
+     * @return  a new instance of the file of the path, a document if it ends with .mll
+     */
+    @Nonnull
+    private MilliDBFile file(@Nonnull String path) {
+        String[] names = path.split("/");
+        MilliDBCollection collection = null;
+        for (int i = 0; i < names.length - 1; i++) collection = collection == null ? client.getCollection(names[i]) : collection.getCollection(names[i]);
+        String name = names[names.length - 1];
+        if (name.endsWith(".mll")) return collection == null ? client.getDocument(name) : collection.getDocument(name);
+        return collection == null ? client.getCollection(name) : collection.getCollection(name);
+    }
+
+    /**
+     * @return  those of the paths whose files are cached, in the same order
+     */
+    @Nonnull
+    private static List<String> cached(@Nonnull MilliDBHandleCache cache, @Nonnull String... paths) {
+        List<String> cached = new ArrayList<>();
+        for (String path : paths) if (cache.get(path) != null) cached.add(path);
+        return cached;
+    }
+}
@@ -0,0 +1,170 @@
+package com.sivannsan.millidb;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBLoggerTest {
+    private final List<String> published = new CopyOnWriteArrayList<>();
+    private MilliDBLogHandler handler;
+
+    @BeforeEach
+    void captureMessages() {
+        handler = MilliDBLogger.getHandler();
+        MilliDBLogger.setHandler((level, message) -> published.add(level + " " + message));
+    }
+
+    @AfterEach
+    void restoreLogger() {
+        MilliDBLogger.setHandler(handler);
+        MilliDBLogger.setLevel(MilliDBLogger.Level.INFO);
+        MilliDBLogger.setWarningIntervalMillis(1000);
+    }
+
+    @Test
+    void messagesBelowTheLevelAreNotBuilt() {
+        AtomicInteger built = new AtomicInteger();
+        MilliDBLogger.setLevel(MilliDBLogger.Level.WARNING);
+        MilliDBLogger.debug(() -> "debug " + built.incrementAndGet());
+        MilliDBLogger.info(() -> "info " + built.incrementAndGet());
+        MilliDBLogger.info("info");
+        assertEquals(0, built.get());
+        MilliDBLogger.warning(() -> "warning " + built.incrementAndGet());
+        assertEquals(1, built.get());
+        MilliDBLogger.setLevel(MilliDBLogger.Level.DEBUG);
+        MilliDBLogger.debug(() -> "debug " + built.incrementAndGet());
+        assertEquals(List.of("WARNING warning 1", "DEBUG debug 2"), published);
+    }
+
+    @Test
+    void messagesTheHandlerDoesNotLogAreNotBuilt() {
+        AtomicInteger built = new AtomicInteger();
+        MilliDBLogger.setHandler(new MilliDBLogHandler() {
+            @Override
+            public boolean isLoggable(MilliDBLogger.Level level) {
+                return level == MilliDBLogger.Level.WARNING;
+            }
+
+            @Override
+            public void publish(MilliDBLogger.Level level, String message) {
+                published.add(message);
+            }
+        });
+        MilliDBLogger.info(() -> "info " + built.incrementAndGet());
+        assertFalse(MilliDBLogger.isLoggable(MilliDBLogger.Level.INFO));
+        assertEquals(0, built.get());
+        MilliDBLogger.warning(() -> "warning " + built.incrementAndGet());
+        assertEquals(List.of("warning 1"), published);
+    }
+
+    @Test
+    void warningsFromOnePlaceAreRateLimited() throws InterruptedException {
+        MilliDBLogger.setWarningIntervalMillis(200);
+        for (int i = 0; i < 3; i++) warn(i);
+        Thread.sleep(250);
+        warn(3);
+        assertEquals(List.of("WARNING warning 0", "WARNING warning 3 (2 similar warnings suppressed)"), published);
+        //Another place has its own limit
+        MilliDBLogger.warning(() -> "other");
+        assertEquals("WARNING other", published.get(2));
+        MilliDBLogger.setWarningIntervalMillis(0);
+        for (int i = 4; i < 6; i++) warn(i);
+        assertEquals(5, published.size());
+    }
+
+    @Test
+    void fullBufferDropsMessagesAndTellsHowMany() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> handled = new CopyOnWriteArrayList<>();
+        MilliDBLogHandler async = MilliDBLogHandler.async((level, message) -> {
+            handled.add(message);
+            if (message.equals("m0")) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 2);
+        async.publish(MilliDBLogger.Level.INFO, "m0");
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        //Two fill the buffer while the handler is busy, and the rest are dropped
+        for (int i = 1; i < 6; i++) async.publish(MilliDBLogger.Level.INFO, "m" + i);
+        release.countDown();
+        async.close();
+        assertEquals(List.of("m0", "3 log messages have been dropped", "m1", "m2"), handled);
+    }
+
+    @Test
+    void closeFlushesTheBuffer() {
+        List<String> handled = new ArrayList<>();
+        AtomicInteger closed = new AtomicInteger();
+        MilliDBLogHandler async = MilliDBLogHandler.async(new MilliDBLogHandler() {
+            @Override
+            public void publish(MilliDBLogger.Level level, String message) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.add(message);
+            }
+
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        }, 100);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            async.publish(MilliDBLogger.Level.INFO, "m" + i);
+            expected.add("m" + i);
+        }
+        async.close();
+        assertEquals(expected, handled);
+        assertEquals(1, closed.get());
+        //Handled at once after it is closed
+        async.publish(MilliDBLogger.Level.INFO, "late");
+        assertEquals("late", handled.get(50));
+        async.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    void closeWithoutAnyMessage() {
+        AtomicInteger closed = new AtomicInteger();
+        MilliDBLogHandler async = MilliDBLogHandler.async(new MilliDBLogHandler() {
+            @Override
+            public void publish(MilliDBLogger.Level level, String message) {
+                published.add(message);
+            }
+
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        }, 1);
+        async.close();
+        assertEquals(1, closed.get());
+        async.publish(MilliDBLogger.Level.INFO, "after");
+        assertEquals(List.of("after"), published);
+    }
+
+    /**
+     * Always from the same place, so under the same rate limit
+     */
+    private static void warn(int i) {
+        MilliDBLogger.warning(() -> "warning " + i);
+    }
+}
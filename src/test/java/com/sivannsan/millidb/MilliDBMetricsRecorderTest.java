@@ -0,0 +1,153 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBMetricsRecorderTest {
+    @Test
+    void smallValuesAreCountedExactly() {
+        MilliDBHistogram histogram = new MilliDBHistogram();
+        for (int i = 0; i < 64; i++) histogram.record(i);
+        assertEquals(64, histogram.getCount());
+        assertEquals(31.5, histogram.getMeanNanos());
+        assertEquals(63, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(0));
+        assertEquals(31, histogram.getPercentileNanos(50));
+        assertEquals(62, histogram.getPercentileNanos(97));
+        assertEquals(63, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    void largeValuesAreKeptWithinTheirBucket() {
+        for (long value = 64; value < TimeUnit.HOURS.toNanos(1); value = value * 3 + 7) {
+            MilliDBHistogram histogram = new MilliDBHistogram();
+            histogram.record(value);
+            histogram.record(TimeUnit.HOURS.toNanos(1));
+            long p50 = histogram.getPercentileNanos(50);
+            assertTrue(p50 >= value && p50 <= value + value / 32, value + " was kept as " + p50);
+        }
+    }
+
+    @Test
+    void percentileIsCappedByTheMax() {
+        MilliDBHistogram histogram = new MilliDBHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentileNanos(99.9));
+    }
+
+    @Test
+    void valuesOutOfRangeAreClamped() {
+        MilliDBHistogram histogram = new MilliDBHistogram();
+        histogram.record(-5);
+        histogram.record(TimeUnit.HOURS.toNanos(2));
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(TimeUnit.HOURS.toNanos(1), histogram.getMaxNanos());
+        assertEquals(TimeUnit.HOURS.toNanos(1), histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    void emptyHistogramAndBadPercentiles() {
+        MilliDBHistogram histogram = new MilliDBHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0, histogram.getMeanNanos());
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(-1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(100.1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(Double.NaN));
+    }
+
+    @Test
+    void eventsAreCountedAndReset() {
+        MilliDBMetricsRecorder recorder = new MilliDBMetricsRecorder();
+        recorder.onConnectionEvent(MilliDBMetrics.ConnectionEvent.OPENED);
+        recorder.onConnectionEvent(MilliDBMetrics.ConnectionEvent.RECONNECTING);
+        recorder.onConnectionEvent(MilliDBMetrics.ConnectionEvent.RECONNECT_FAILED);
+        recorder.onQueryStarted(MilliDBQuery.Function.GET);
+        recorder.onQueryStarted(MilliDBQuery.Function.GET);
+        recorder.onQueryFinished(MilliDBQuery.Function.GET, 2_000_000, false);
+        recorder.onRetry(MilliDBQuery.Function.GET);
+        recorder.onFrameEncoded(MilliDBQuery.Function.GET, 100, 10);
+        recorder.onFrameDecoded(50, 10);
+        recorder.onFrameCompressed(true, 300, 100, 10);
+        recorder.onRoundTrip(MilliDBQuery.Function.GET, 1_000_000);
+        recorder.onUnknownResult(7);
+        assertEquals(1, recorder.getQueriesInFlight());
+        assertEquals(1, recorder.getQueriesFailed());
+        assertEquals(1, recorder.getRetries());
+        assertEquals(100, recorder.getBytesSent());
+        assertEquals(50, recorder.getBytesReceived());
+        assertEquals(1, recorder.getUnknownResults());
+        assertEquals(1, recorder.getOpenConnections());
+        assertEquals(1, recorder.getReconnects());
+        assertEquals(1, recorder.getReconnectFailures());
+        assertEquals(3.0, recorder.getCompressionRatio());
+        assertEquals(Map.of("GET", 1L), recorder.getQueryCounts());
+        assertEquals(2.0, recorder.getLatencyP99Millis().get("GET"));
+        assertEquals(1.0, recorder.getRoundTripP99Millis().get("GET"));
+        recorder.reset();
+        assertEquals(1, recorder.getQueriesInFlight());
+        assertEquals(1, recorder.getOpenConnections());
+        assertEquals(0, recorder.getQueriesFailed());
+        assertEquals(0, recorder.getRetries());
+        assertEquals(0, recorder.getBytesSent());
+        assertEquals(0, recorder.getReconnects());
+        assertEquals(0, recorder.getCompressedFrames());
+        assertEquals(1.0, recorder.getCompressionRatio());
+        assertTrue(recorder.getQueryCounts().isEmpty());
+        assertTrue(recorder.getLatencyP99Millis().isEmpty());
+        assertEquals(0, recorder.getLatency(MilliDBQuery.Function.GET).getMaxNanos());
+    }
+
+    @Test
+    void callsOfAClientAreRecorded() throws Exception {
+        MilliDBMetricsRecorder recorder = new MilliDBMetricsRecorder();
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig().setMetrics(recorder));
+            assertNotNull(client);
+            MilliDBDocument document = client.getDocument("recorded.mll");
+            document.set("k", new MilliValue(1));
+            for (int i = 0; i < 3; i++) document.get("k");
+            assertEquals(3, recorder.getLatency(MilliDBQuery.Function.GET).getCount());
+            assertEquals(3, recorder.getRoundTrip(MilliDBQuery.Function.GET).getCount());
+            assertEquals(1, recorder.getQueryCounts().get("SET"));
+            assertEquals(1, recorder.getOpenConnections());
+            assertEquals(0, recorder.getQueriesInFlight());
+            assertTrue(recorder.getBytesSent() > 0 && recorder.getBytesReceived() > 0);
+            client.close();
+            assertEquals(0, recorder.getOpenConnections());
+        }
+    }
+
+    @Test
+    void mxBeanIsRegisteredAndUnregistered() throws Exception {
+        MilliDBMetricsRecorder recorder = new MilliDBMetricsRecorder();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = recorder.registerMBean("test \"client\"");
+        try {
+            assertEquals("com.sivannsan.millidb", name.getDomain());
+            assertTrue(server.isRegistered(name));
+            assertThrows(InstanceAlreadyExistsException.class, () -> new MilliDBMetricsRecorder().registerMBean("test \"client\""));
+            recorder.onRetry(MilliDBQuery.Function.GET);
+            recorder.onQueryFinished(MilliDBQuery.Function.GET, 1000, true);
+            assertEquals(1L, server.getAttribute(name, "Retries"));
+            TabularData counts = (TabularData) server.getAttribute(name, "QueryCounts");
+            assertEquals(1, counts.size());
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "Retries"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+        assertFalse(server.isRegistered(name));
+        //The name is free again
+        server.unregisterMBean(new MilliDBMetricsRecorder().registerMBean("test \"client\""));
+    }
+}
@@ -0,0 +1,114 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBPoolTest {
+    @Test
+    void queriesBeyondTheFreeSlotsAreQueuedWithoutBlockingTheCaller() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connectPool(server, new MilliDBClients.PoolConfig().setMaxConnections(1).setMaxInFlightPerConnection(2));
+            MilliDBDocument document = client.getDocument("queued.mll");
+            server.hold();
+            List<CompletableFuture<Void>> sets = new ArrayList<>();
+            for (int i = 0; i < 50; i++) sets.add(document.setAsync("k" + i, new MilliValue(i)));
+            server.awaitReceived(MilliDBQuery.Function.SET, 2);
+            Thread.sleep(100);
+            assertEquals(2, server.getReceived(MilliDBQuery.Function.SET));
+            server.release();
+            CompletableFuture.allOf(sets.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            assertEquals(50, server.getReceived(MilliDBQuery.Function.SET));
+            assertEquals("49", server.get("queued.mll", "k49").asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    @Test
+    void queuedQueryFailsAfterTheAcquireTimeout() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connectPool(server, new MilliDBClients.PoolConfig().setMaxConnections(1).setMaxInFlightPerConnection(1).setAcquireTimeoutMillis(100));
+            MilliDBDocument document = client.getDocument("timeout.mll");
+            server.hold();
+            document.getAsync("first");
+            server.awaitReceived(MilliDBQuery.Function.GET, 1);
+            CompletableFuture<MilliData> queued = document.getAsync("second");
+            ExecutionException e = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+            assertEquals(1, server.getReceived(MilliDBQuery.Function.GET));
+            server.release();
+            client.close();
+        }
+    }
+
+    @Test
+    void idleConnectionsArePinged() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connectPool(server, new MilliDBClients.PoolConfig().setMaxConnections(2).setHealthCheckIntervalMillis(50));
+            server.awaitReceived(MilliDBQuery.Function.NONE, 2);
+            client.getDocument("pinged.mll").set("k", new MilliValue(1));
+            assertEquals("1", server.get("pinged.mll", "k").asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    @Test
+    void closingFailsTheQueuedQueries() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connectPool(server, new MilliDBClients.PoolConfig().setMaxConnections(1).setMaxInFlightPerConnection(1).setAcquireTimeoutMillis(10_000));
+            MilliDBDocument document = client.getDocument("closed.mll");
+            server.hold();
+            CompletableFuture<MilliData> inFlight = document.getAsync("first");
+            server.awaitReceived(MilliDBQuery.Function.GET, 1);
+            CompletableFuture<MilliData> queued = document.getAsync("second");
+            client.close();
+            assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS)).getCause());
+            assertThrows(ExecutionException.class, () -> inFlight.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void queuedQueryThatNeedsANewConnectionIsNotSentFromTheEventLoop() throws Exception {
+        MilliDBEventLoop eventLoop = new MilliDBEventLoop(1);
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClients.PoolConfig config = new MilliDBClients.PoolConfig().setMaxConnections(1).setMaxInFlightPerConnection(1).setAcquireTimeoutMillis(10_000);
+            MilliDBClient client = connectPool(server, config, new MilliDBClients.ConnectionConfig().setEventLoop(eventLoop));
+            MilliDBDocument document = client.getDocument("reopened.mll");
+            server.put("reopened.mll", "k", new MilliValue("v"));
+            server.drop(MilliDBQuery.Function.GET, 1);
+            CompletableFuture<MilliData> lost = document.getAsync("k");
+            server.awaitReceived(MilliDBQuery.Function.GET, 1);
+            CompletableFuture<MilliData> queued = document.getAsync("k");
+            //The connection fails on the only thread of the event loop, which frees the slot of the queued query,
+            //and the new connection it needs would wait for that thread to register it
+            server.disconnect();
+            assertThrows(ExecutionException.class, () -> lost.get(5, TimeUnit.SECONDS));
+            assertEquals("v", queued.get(5, TimeUnit.SECONDS).asMilliValue().asString());
+            client.close();
+        } finally {
+            eventLoop.close();
+        }
+    }
+
+    private static MilliDBClient connectPool(MilliDBTestServer server, MilliDBClients.PoolConfig config) {
+        return connectPool(server, config, new MilliDBClients.ConnectionConfig());
+    }
+
+    private static MilliDBClient connectPool(MilliDBTestServer server, MilliDBClients.PoolConfig config, MilliDBClients.ConnectionConfig connectionConfig) {
+        //A query that gets no result fails at once instead of being retried
+        config.setConnectionConfig(connectionConfig.setRetryPolicy(MilliDBRetryPolicy.none()));
+        MilliDBClient client = MilliDBClients.connectPool(server.getHost(), server.getPort(), "user", "password", config);
+        assertNotNull(client);
+        return client;
+    }
+}
@@ -0,0 +1,163 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The JFR events of the calls and their query frames, and the slow query log
+ */
+class MilliDBQueryTraceTest {
+    private final List<String> warnings = new CopyOnWriteArrayList<>();
+    private MilliDBLogHandler handler;
+
+    @BeforeEach
+    void captureWarnings() {
+        handler = MilliDBLogger.getHandler();
+        MilliDBLogger.setHandler((level, message) -> {
+            if (level == MilliDBLogger.Level.WARNING) warnings.add(message);
+        });
+        MilliDBLogger.setWarningIntervalMillis(0);
+    }
+
+    @AfterEach
+    void restoreLogger() {
+        MilliDBLogger.setHandler(handler);
+        MilliDBLogger.setWarningIntervalMillis(1000);
+    }
+
+    @Test
+    void callsAndQueriesAreRecorded() throws Exception {
+        List<RecordedEvent> events;
+        try (MilliDBTestServer server = new MilliDBTestServer(); Recording recording = new Recording()) {
+            server.put("recorded.mll", "k", new MilliValue("v"));
+            recording.enable("com.sivannsan.millidb.Call").withThreshold(Duration.ZERO);
+            recording.enable("com.sivannsan.millidb.Query").withThreshold(Duration.ZERO);
+            MilliDBClient client = connect(server, new MilliDBClients.ConnectionConfig().setRetryPolicy(new MilliDBRetryPolicy().setAttemptTimeoutMillis(200).setInitialBackoffMillis(0)));
+            MilliDBDocument document = client.getDocument("recorded.mll");
+            recording.start();
+            assertEquals("v", document.get("k").asMilliValue().asString());
+            //Lost once, then retried
+            server.drop(MilliDBQuery.Function.GET, 1);
+            assertEquals("v", document.get("k").asMilliValue().asString());
+            recording.stop();
+            client.close();
+            events = read(recording);
+        }
+        List<RecordedEvent> calls = ofType(events, "com.sivannsan.millidb.Call");
+        List<RecordedEvent> queries = ofType(events, "com.sivannsan.millidb.Query");
+        assertEquals(2, calls.size());
+        assertEquals(3, queries.size());
+        for (RecordedEvent call : calls) {
+            assertEquals("GET", call.getString("function"));
+            assertEquals("recorded.mll", call.getString("path"));
+            assertTrue(call.getBoolean("succeed"));
+        }
+        assertEquals(List.of(1, 2), List.of(calls.get(0).getInt("attempts"), calls.get(1).getInt("attempts")));
+        int succeeded = 0;
+        for (RecordedEvent query : queries) {
+            assertEquals("GET", query.getString("function"));
+            assertTrue(query.getInt("querySize") > 0);
+            long phases = query.getLong("encodeTime") + query.getLong("writeTime") + query.getLong("waitTime") + query.getLong("decodeTime");
+            assertTrue(phases <= query.getDuration().toNanos() + TimeUnit.MILLISECONDS.toNanos(1), "The phases add up to the duration");
+            if (!query.getBoolean("succeed")) continue;
+            succeeded++;
+            assertTrue(query.getInt("resultSize") > 0);
+        }
+        //The lost attempt has no result
+        assertEquals(2, succeeded);
+    }
+
+    @Test
+    void queriesAreNotTracedWithoutARecordingOrASlowQueryLog() {
+        MilliDBQuery query = new MilliDBQuery("untraced.mll", MilliDBQuery.Function.GET, new MilliValue("k"));
+        assertNull(MilliDBQueryTrace.start(query, new MilliDBClients.ConnectionConfig(), System.nanoTime()));
+        assertNotNull(MilliDBQueryTrace.start(query, new MilliDBClients.ConnectionConfig().setSlowQueryThresholdMillis(1).setSlowQuerySampleRate(1), System.nanoTime()));
+    }
+
+    @Test
+    void slowQueryIsLoggedWithItsPhases() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.put("slow.mll", "k", new MilliValue("v"));
+            MilliDBClient client = connect(server, new MilliDBClients.ConnectionConfig().setSlowQueryThresholdMillis(50).setSlowQuerySampleRate(1));
+            MilliDBDocument document = client.getDocument("slow.mll");
+            server.hold();
+            CompletableFuture<MilliData> get = document.getAsync("k");
+            server.awaitReceived(MilliDBQuery.Function.GET, 1);
+            Thread.sleep(100);
+            server.release();
+            assertEquals("v", get.get(5, TimeUnit.SECONDS).asMilliValue().asString());
+            client.close();
+        }
+        //Logged when the trace finishes, which may be after the caller is given the result
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (slowQueries("GET").isEmpty() && System.nanoTime() < deadline) Thread.sleep(10);
+        List<String> slow = slowQueries("GET");
+        assertEquals(1, slow.size(), warnings.toString());
+        assertTrue(slow.get(0).contains("GET 'slow.mll'"), slow.get(0));
+        assertTrue(slow.get(0).contains("encode") && slow.get(0).contains("wait") && slow.get(0).contains("decode"), slow.get(0));
+    }
+
+    @Test
+    void queriesBelowTheThresholdAreNotLogged() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connect(server, new MilliDBClients.ConnectionConfig().setSlowQueryThresholdMillis(10_000).setSlowQuerySampleRate(1));
+            MilliDBDocument document = client.getDocument("fast.mll");
+            for (int i = 0; i < 100; i++) document.set("k" + i, new MilliValue(i));
+            for (int i = 0; i < 100; i++) document.get("k" + i);
+            client.close();
+        }
+        assertEquals(List.of(), slowQueries(""));
+    }
+
+    /**
+     * @param function  the name of the function of the queries, or empty for all of them
+     */
+    private List<String> slowQueries(String function) {
+        List<String> slow = new ArrayList<>();
+        for (String warning : warnings) if (warning.startsWith("Slow query") && warning.contains("' " + function)) slow.add(warning);
+        return slow;
+    }
+
+    private static MilliDBClient connect(MilliDBTestServer server, MilliDBClients.ConnectionConfig config) {
+        MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", config);
+        assertNotNull(client);
+        return client;
+    }
+
+    private static List<RecordedEvent> read(Recording recording) throws Exception {
+        Path dump = Files.createTempFile("millidb-trace", ".jfr");
+        try {
+            recording.dump(dump);
+            return RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    /**
+     * @return  the events of the type, in the order they started
+     */
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String type) {
+        List<RecordedEvent> ofType = new ArrayList<>();
+        for (RecordedEvent event : events) if (event.getEventType().getName().equals(type)) ofType.add(event);
+        ofType.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+        return ofType;
+    }
+}
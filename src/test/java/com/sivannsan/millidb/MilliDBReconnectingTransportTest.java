@@ -0,0 +1,185 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBReconnectingTransportTest {
+    @Test
+    void readInFlightIsReplayedOnTheNewConnection() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.put("replayed.mll", "k", new MilliValue("v"));
+            MilliDBClient client = connect(server, 10_000);
+            MilliDBDocument document = client.getDocument("replayed.mll");
+            server.drop(MilliDBQuery.Function.GET, 1);
+            CompletableFuture<MilliData> get = document.getAsync("k");
+            server.awaitReceived(MilliDBQuery.Function.GET, 1);
+            server.disconnect();
+            assertEquals("v", get.get(5, TimeUnit.SECONDS).asMilliValue().asString());
+            assertEquals(2, server.getReceived(MilliDBQuery.Function.GET));
+            assertEquals(2, server.getReceived(MilliDBQuery.Function.HAS_USER));
+            client.close();
+        }
+    }
+
+    @Test
+    void writeInFlightFailsInsteadOfBeingReplayed() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connect(server, 10_000);
+            MilliDBDocument document = client.getDocument("written.mll");
+            server.drop(MilliDBQuery.Function.SET, 1);
+            CompletableFuture<Void> set = document.setAsync("k", new MilliValue(1));
+            server.awaitReceived(MilliDBQuery.Function.SET, 1);
+            server.disconnect();
+            assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> set.get(5, TimeUnit.SECONDS)).getCause());
+            assertEquals(1, server.getReceived(MilliDBQuery.Function.SET));
+            //The client is still usable once reconnected
+            document.set("k", new MilliValue(2));
+            assertEquals("2", server.get("written.mll", "k").asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    @Test
+    void newQueriesWaitForTheNewConnection() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            CountDownLatch reconnecting = new CountDownLatch(1);
+            MilliDBMetrics metrics = new MilliDBMetrics() {
+                @Override
+                public void onConnectionEvent(MilliDBMetrics.ConnectionEvent event) {
+                    if (event == MilliDBMetrics.ConnectionEvent.RECONNECTING) reconnecting.countDown();
+                }
+            };
+            MilliDBClient client = connect(server, 10_000, metrics);
+            MilliDBDocument document = client.getDocument("waiting.mll");
+            server.disconnect();
+            //Sent before the loss is noticed, a write would fail like any write in flight
+            assertTrue(reconnecting.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 10; i++) document.set("k" + i, new MilliValue(i));
+            for (int i = 0; i < 10; i++) assertEquals(String.valueOf(i), document.get("k" + i).asMilliValue().asString());
+            assertEquals(1, server.getConnections());
+            client.close();
+        }
+    }
+
+    @Test
+    void waitingQueriesFailAfterTheReconnectWindow() throws Exception {
+        MilliDBClient client;
+        MilliDBDocument document;
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            //Retried at once, so that each retry comes while the failed reconnect is ending, and starts the next one
+            client = connect(server, 300, MilliDBMetrics.NONE, new MilliDBRetryPolicy().setInitialBackoffMillis(0).setMaxAttempts(3));
+            document = client.getDocument("gone.mll");
+            server.close();
+            server.disconnect();
+        }
+        long start = System.nanoTime();
+        CompletableFuture<MilliData> get = document.getAsync("k");
+        assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> get.get(5, TimeUnit.SECONDS)).getCause());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+        client.close();
+    }
+
+    @Test
+    void lostConnectionIsNotReplacedWithoutAReconnectWindow() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connect(server, 0);
+            MilliDBDocument document = client.getDocument("lost.mll");
+            server.disconnect();
+            assertThrows(ExecutionException.class, () -> document.getAsync("k").get(5, TimeUnit.SECONDS));
+            assertEquals(1, server.getReceived(MilliDBQuery.Function.HAS_USER));
+            client.close();
+        }
+    }
+
+    @Test
+    void reconnectWindowFollowsTheDeadlineUnlessSet() {
+        MilliDBClients.ConnectionConfig config = new MilliDBClients.ConnectionConfig();
+        assertEquals(new MilliDBRetryPolicy().getDeadlineMillis(), config.getReconnectWindowMillis());
+        config.setRetryPolicy(new MilliDBRetryPolicy().setDeadlineMillis(2000));
+        assertEquals(2000, config.getReconnectWindowMillis());
+        config.setReconnectWindowMillis(0).setRetryPolicy(new MilliDBRetryPolicy());
+        assertEquals(0, config.getReconnectWindowMillis());
+    }
+
+    @Test
+    void readWaitingLongerThanItsAttemptTimeoutIsRetriedUntilReconnected() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.put("slow.mll", "k", new MilliValue("v"));
+            MilliDBClient client = connect(server, new MilliDBClients.ConnectionConfig().setRetryPolicy(shortAttempts()));
+            MilliDBDocument document = client.getDocument("slow.mll");
+            //Each reconnect attempt then waits an attempt timeout for the handshake
+            server.drop(MilliDBQuery.Function.HAS_USER, 3);
+            server.disconnect();
+            long start = System.nanoTime();
+            assertEquals("v", document.get("k").asMilliValue().asString());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 3 * 200);
+            assertEquals(5, server.getReceived(MilliDBQuery.Function.HAS_USER));
+            client.close();
+        }
+    }
+
+    @Test
+    void writeWaitingLongerThanItsAttemptTimeoutFailsUnsent() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            CountDownLatch reconnecting = new CountDownLatch(1);
+            MilliDBMetrics metrics = new MilliDBMetrics() {
+                @Override
+                public void onConnectionEvent(MilliDBMetrics.ConnectionEvent event) {
+                    if (event == MilliDBMetrics.ConnectionEvent.RECONNECTING) reconnecting.countDown();
+                }
+            };
+            MilliDBClient client = connect(server, new MilliDBClients.ConnectionConfig().setMetrics(metrics).setRetryPolicy(shortAttempts()));
+            MilliDBDocument document = client.getDocument("unsent.mll");
+            server.drop(MilliDBQuery.Function.HAS_USER, 3);
+            server.disconnect();
+            assertTrue(reconnecting.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Void> set = document.setAsync("k", new MilliValue(1));
+            assertInstanceOf(TimeoutException.class, assertThrows(ExecutionException.class, () -> set.get(5, TimeUnit.SECONDS)).getCause());
+            assertEquals(0, server.getReceived(MilliDBQuery.Function.SET));
+            //A read is retried until reconnected within the window, and the writes after it go through
+            assertTrue(document.get("k").isMilliNull());
+            document.set("k", new MilliValue(2));
+            assertEquals("2", server.get("unsent.mll", "k").asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    /**
+     * @return  a policy whose attempts time out long before its deadline, which is also the reconnect window
+     */
+    private static MilliDBRetryPolicy shortAttempts() {
+        return new MilliDBRetryPolicy().setAttemptTimeoutMillis(200).setDeadlineMillis(10_000).setMaxAttempts(100).setInitialBackoffMillis(0);
+    }
+
+    private static MilliDBClient connect(MilliDBTestServer server, long reconnectWindowMillis) {
+        return connect(server, reconnectWindowMillis, MilliDBMetrics.NONE);
+    }
+
+    private static MilliDBClient connect(MilliDBTestServer server, long reconnectWindowMillis, MilliDBMetrics metrics) {
+        return connect(server, reconnectWindowMillis, metrics, new MilliDBRetryPolicy());
+    }
+
+    private static MilliDBClient connect(MilliDBTestServer server, long reconnectWindowMillis, MilliDBMetrics metrics, MilliDBRetryPolicy policy) {
+        MilliDBClients.ConnectionConfig config = new MilliDBClients.ConnectionConfig()
+                .setMetrics(metrics)
+                .setRetryPolicy(policy.setAttemptTimeoutMillis(10_000).setDeadlineMillis(10_000))
+                .setReconnectWindowMillis(reconnectWindowMillis);
+        return connect(server, config);
+    }
+
+    private static MilliDBClient connect(MilliDBTestServer server, MilliDBClients.ConnectionConfig config) {
+        MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", config);
+        assertNotNull(client);
+        return client;
+    }
+}
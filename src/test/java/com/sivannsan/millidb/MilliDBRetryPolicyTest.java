@@ -0,0 +1,122 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBRetryPolicyTest {
+    @Test
+    void readWhoseResultIsLostIsSentAgain() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.put("retried.mll", "k", new MilliValue("v"));
+            server.drop(MilliDBQuery.Function.GET, 2);
+            MilliDBClient client = connect(server, policy());
+            assertEquals("v", client.getDocument("retried.mll").get("k").asMilliValue().asString());
+            assertEquals(3, server.getReceived(MilliDBQuery.Function.GET));
+            client.close();
+        }
+    }
+
+    @Test
+    void writeWhoseResultIsLostIsNotSentAgainByDefault() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.drop(MilliDBQuery.Function.SET, 1);
+            MilliDBClient client = connect(server, policy());
+            CompletableFuture<Void> set = client.getDocument("written.mll").setAsync("k", new MilliValue(1));
+            assertInstanceOf(TimeoutException.class, assertThrows(ExecutionException.class, () -> set.get(5, TimeUnit.SECONDS)).getCause());
+            assertEquals(1, server.getReceived(MilliDBQuery.Function.SET));
+            client.close();
+        }
+    }
+
+    @Test
+    void writeIsSentAgainWhenWritesAreRetried() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.drop(MilliDBQuery.Function.SET, 1);
+            MilliDBClient client = connect(server, policy().setRetryWrites(true));
+            client.getDocument("written.mll").set("k", new MilliValue(1));
+            assertEquals(2, server.getReceived(MilliDBQuery.Function.SET));
+            assertEquals("1", server.get("written.mll", "k").asMilliValue().asString());
+            client.close();
+        }
+    }
+
+    @Test
+    void atomicOperationIsNeverSentAgain() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            server.drop(MilliDBQuery.Function.INCREMENT, 1);
+            MilliDBClient client = connect(server, policy().setRetryWrites(true));
+            CompletableFuture<Long> increment = client.getDocument("counted.mll").incrementAsync("k", 1);
+            assertThrows(ExecutionException.class, () -> increment.get(5, TimeUnit.SECONDS));
+            assertEquals(1, server.getReceived(MilliDBQuery.Function.INCREMENT));
+            client.close();
+        }
+    }
+
+    @Test
+    void deadlineBoundsEveryAttempt() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient client = connect(server, policy().setAttemptTimeoutMillis(10_000).setDeadlineMillis(300));
+            MilliDBDocument document = client.getDocument("late.mll");
+            server.hold();
+            long start = System.nanoTime();
+            CompletableFuture<MilliData> get = document.getAsync("k");
+            assertInstanceOf(TimeoutException.class, assertThrows(ExecutionException.class, () -> get.get(5, TimeUnit.SECONDS)).getCause());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+            assertTrue(server.getReceived(MilliDBQuery.Function.GET) <= 1);
+            server.release();
+            client.close();
+        }
+    }
+
+    @Test
+    void batchIsIdempotentOnlyIfAllOfItsQueriesAre() {
+        MilliDBQuery get = new MilliDBQuery("a.mll", MilliDBQuery.Function.GET, new MilliValue("k"));
+        MilliDBQuery set = new MilliDBQuery("a.mll", MilliDBQuery.Function.SET, new MilliMap("p", new MilliValue("k")).append("v", new MilliValue(1)));
+        MilliDBQuery increment = new MilliDBQuery("a.mll", MilliDBQuery.Function.INCREMENT, new MilliMap("p", new MilliValue("k")).append("d", new MilliValue(1)));
+        MilliDBRetryPolicy policy = new MilliDBRetryPolicy();
+        assertTrue(policy.isRetryable(batch(get, get)));
+        assertFalse(policy.isRetryable(batch(get, set)));
+        policy.setRetryWrites(true);
+        assertTrue(policy.isRetryable(batch(get, set)));
+        assertFalse(policy.isRetryable(batch(set, increment)));
+    }
+
+    @Test
+    void backoffIsBoundedByItsMaximum() {
+        MilliDBRetryPolicy policy = new MilliDBRetryPolicy().setInitialBackoffMillis(10).setMaxBackoffMillis(100);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.getBackoffMillis(1) <= 10);
+            assertTrue(policy.getBackoffMillis(3) <= 40);
+            assertTrue(policy.getBackoffMillis(40) <= 100);
+        }
+    }
+
+    private static MilliDBQuery batch(MilliDBQuery... queries) {
+        MilliList list = new MilliList();
+        for (MilliDBQuery query : queries) list.append(query.asMilliMap());
+        return new MilliDBQuery("", MilliDBQuery.Function.BATCH, list);
+    }
+
+    /**
+     * Short attempts, so that a lost result is given up on quickly
+     */
+    private static MilliDBRetryPolicy policy() {
+        return new MilliDBRetryPolicy().setAttemptTimeoutMillis(200).setInitialBackoffMillis(0).setDeadlineMillis(3000);
+    }
+
+    private static MilliDBClient connect(MilliDBTestServer server, MilliDBRetryPolicy policy) {
+        MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig().setRetryPolicy(policy));
+        assertNotNull(client);
+        return client;
+    }
+}
@@ -0,0 +1,188 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliList;
+import com.sivannsan.millidata.MilliMap;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBStreamTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+    private final MilliDBDocument document = client.getDocument("streamed.mll");
+    /**
+     * The functions of the queries sent through #recording, in order
+     */
+    private final List<MilliDBQuery.Function> sent = new CopyOnWriteArrayList<>();
+    /**
+     * The results of those queries, in the same order
+     */
+    private final List<CompletableFuture<MilliDBResult>> results = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void surrogatePairsAreNeverSplitAcrossChunks() throws IOException {
+        MilliList list = new MilliList();
+        for (int i = 0; i < 20; i++) list.append(new MilliValue("x".repeat(i % 3) + "😀"));
+        MilliData value = new MilliMap("l", list).append("s", new MilliValue("a😀b😁"));
+        String text = value.toString();
+        assertTrue(text.contains("😀"), text);
+        for (int chunkSize : new int[]{2, 3, 4, 5, 7, 64, 65536}) {
+            try (Writer writer = document.openWriter("v" + chunkSize, chunkSize)) {
+                //One char at a time, so that every chunk may end in a high surrogate
+                for (int i = 0; i < text.length(); i++) writer.write(text.charAt(i));
+            }
+            assertEquals(text, document.get("v" + chunkSize).toString(), "chunk size " + chunkSize);
+            try (Writer writer = document.openWriter("w" + chunkSize, chunkSize)) {
+                writer.write(text);
+            }
+            assertEquals(text, document.get("w" + chunkSize).toString(), "chunk size " + chunkSize);
+            assertEquals(text, read(document.openReader("v" + chunkSize, chunkSize)), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void chunkSizeOfTheWriterFitsASurrogatePair() {
+        assertThrows(IllegalArgumentException.class, () -> document.openWriter("v", 1));
+        assertThrows(IllegalArgumentException.class, () -> document.openReader("v", 0));
+    }
+
+    @Test
+    void writeChunksAreSentOneAtATime() throws IOException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        MilliDBClient slow = recording((query, real) -> {
+            if (query.getFunction() != MilliDBQuery.Function.STREAM_CHUNK) return real;
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(5, TimeUnit.MILLISECONDS)).thenCompose(v -> real).thenApply(result -> {
+                inFlight.decrementAndGet();
+                return result;
+            });
+        });
+        String text = new MilliMap("k", new MilliValue("0123456789".repeat(10))).toString();
+        try (Writer writer = new MilliDBChunkWriter(slow, document.getPath(), "v", openStream("w"), 8)) {
+            writer.write(text);
+        }
+        assertEquals(text, document.get("v").toString());
+        assertEquals(1, maxInFlight.get());
+        assertEquals((text.length() + 7) / 8, sent.stream().filter(function -> function == MilliDBQuery.Function.STREAM_CHUNK).count());
+        //Not sent again after a lost result, since the server may have appended it
+        assertFalse(new MilliDBRetryPolicy().isRetryable(new MilliDBQuery(document.getPath(), MilliDBQuery.Function.STREAM_CHUNK, new MilliMap("s", new MilliValue(1)).append("o", new MilliValue(0)).append("d", new MilliValue("x")))));
+    }
+
+    @Test
+    void emptyStreamIsReadWithoutAnyChunk() throws IOException {
+        MilliDBClient recorded = recording((query, real) -> real);
+        Reader reader = new MilliDBChunkReader(recorded, document.getPath(), "v", openStream("r"), 0, 4);
+        assertEquals(-1, reader.read());
+        assertEquals(-1, reader.read(new char[4]));
+        reader.close();
+        assertEquals(List.of(MilliDBQuery.Function.CLOSE_STREAM), sent);
+    }
+
+    @Test
+    void writerClosedWithoutAnyWriteSetsNothing() throws IOException {
+        document.set("v", new MilliValue(1));
+        MilliDBClient recorded = recording((query, real) -> real);
+        long stream = openStream("w");
+        Writer writer = new MilliDBChunkWriter(recorded, document.getPath(), "v", stream, 4);
+        //An empty text is not valid data
+        assertThrows(IOException.class, writer::close);
+        assertEquals(List.of(MilliDBQuery.Function.CLOSE_STREAM), sent);
+        assertEquals("1", document.get("v").asMilliValue().asString());
+        assertFalse(chunk(new MilliMap("s", new MilliValue(stream)).append("o", new MilliValue(0)).append("d", new MilliValue("1"))).isSucceed());
+        //Closing again sends nothing
+        writer.close();
+        assertThrows(IOException.class, () -> writer.write("1"));
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void closedReaderAndItsStreamCannotBeRead() throws IOException {
+        document.set("v", new MilliValue("0123456789"));
+        Reader reader = document.openReader("v", 4);
+        char[] buffer = new char[2];
+        assertEquals(2, reader.read(buffer));
+        reader.close();
+        assertThrows(IOException.class, reader::read);
+        assertFalse(reader.ready());
+        reader.close();
+        //The stream is freed on the server
+        MilliDBClient recorded = recording((query, real) -> real);
+        long stream = openStream("r");
+        Reader other = new MilliDBChunkReader(recorded, document.getPath(), "v", stream, document.get("v").toString().length(), 4);
+        assertEquals(document.get("v").toString().charAt(0), other.read());
+        other.close();
+        //Closing does not wait for the result
+        assertTrue(results.get(results.size() - 1).join().isSucceed());
+        assertFalse(chunk(new MilliMap("s", new MilliValue(stream)).append("o", new MilliValue(0)).append("l", new MilliValue(4))).isSucceed());
+    }
+
+    private long openStream(@Nonnull String mode) {
+        MilliDBResult result = client.execute(new MilliDBQuery(document.getPath(), MilliDBQuery.Function.OPEN_STREAM, new MilliMap("p", new MilliValue("v")).append("m", new MilliValue(mode))));
+        assertTrue(result.isSucceed());
+        return result.getMetadata().asMilliMap().get("s").asMilliValue().asInteger64();
+    }
+
+    @Nonnull
+    private MilliDBResult chunk(@Nonnull MilliMap metadata) {
+        return client.execute(new MilliDBQuery(document.getPath(), MilliDBQuery.Function.STREAM_CHUNK, metadata));
+    }
+
+    private interface Answer {
+        /**
+         * @param real  the result of the query sent to the client
+         */
+        @Nonnull
+        CompletableFuture<MilliDBResult> apply(@Nonnull MilliDBQuery query, @Nonnull CompletableFuture<MilliDBResult> real);
+    }
+
+    /**
+     * @return  the client, with the functions of the queries sent with executeAsync recorded
+     */
+    @Nonnull
+    private MilliDBClient recording(@Nonnull Answer answer) {
+        return (MilliDBClient) Proxy.newProxyInstance(MilliDBClient.class.getClassLoader(), new Class<?>[]{MilliDBClient.class}, (proxy, method, args) -> {
+            if (method.getName().equals("executeAsync") && args.length == 1) {
+                MilliDBQuery query = (MilliDBQuery) args[0];
+                sent.add(query.getFunction());
+                CompletableFuture<MilliDBResult> result = answer.apply(query, client.executeAsync(query));
+                results.add(result);
+                return result;
+            }
+            try {
+                return method.invoke(client, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @Nonnull
+    private static String read(@Nonnull Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (reader) {
+            char[] buffer = new char[3];
+            for (int read; (read = reader.read(buffer)) != -1; ) text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,437 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-process MilliDBServer on the loopback interface for the tests, only as smart as they need.
+ * <p>
+ * It speaks the line protocol, and switches to another codec if the client offers one it is given,
+ * and to the compression of #setCompression if the client offers it too.
+ * Every user is accepted. Documents are kept as a flat map of their paths.
+ * Their sets are kept as versioned changes and pushed to the watches, which can resume from a version.
+ * With #setReordering, the queries read together are answered in the reverse order, so that results never come in the order of their queries.
+ * With #hold, the queries are read but kept unanswered until #release.
+ * With #drop, some queries are read and never answered, as if their results were lost.
+ */
+final class MilliDBTestServer implements AutoCloseable {
+    @Nonnull
+    private final ServerSocket serverSocket;
+    @Nonnull
+    private final List<MilliDBCodec> codecs;
+    private final Map<String, MilliData> values = new ConcurrentHashMap<>();
+    private final Map<MilliDBQuery.Function, AtomicInteger> received = new ConcurrentHashMap<>();
+    private final Map<MilliDBQuery.Function, List<MilliDBQuery>> receivedQueries = new ConcurrentHashMap<>();
+    private final Map<MilliDBQuery.Function, AtomicInteger> dropping = new ConcurrentHashMap<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    /**
+     * Taken before the write lock of any connection, so that every change is pushed in the order of its version
+     */
+    private final ReentrantLock changeLock = new ReentrantLock();
+    private final List<MilliMap> changes = new ArrayList<>();
+    private final Map<Long, Watcher> watchers = new ConcurrentHashMap<>();
+    private volatile MilliDBCompression compression;
+    private volatile boolean reordering;
+    private volatile boolean holding;
+    private volatile boolean closed;
+
+    /**
+     * @param codecs    the codecs that can be picked in the handshake besides the line protocol, in the order of preference
+     */
+    MilliDBTestServer(@Nonnull MilliDBCodec... codecs) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.codecs = Arrays.asList(codecs);
+        Thread thread = new Thread(this::acceptLoop, "MilliDBTestServer-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Nonnull
+    String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    @Nonnull
+    MilliDBTestServer setCompression(MilliDBCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    @Nonnull
+    MilliDBTestServer setReordering(boolean reordering) {
+        this.reordering = reordering;
+        return this;
+    }
+
+    void hold() {
+        holding = true;
+    }
+
+    /**
+     * Answers the held queries, and the later ones as they come
+     */
+    void release() throws IOException {
+        holding = false;
+        for (Connection connection : connections) connection.release();
+    }
+
+    /**
+     * Never answers the next queries of the function, which can be the HAS_USER of the handshake
+     */
+    void drop(@Nonnull MilliDBQuery.Function function, int count) {
+        dropping.computeIfAbsent(function, k -> new AtomicInteger()).addAndGet(count);
+    }
+
+    /**
+     * Closes every open connection, the held queries unanswered, while new connections are still accepted
+     */
+    void disconnect() throws IOException {
+        for (Connection connection : connections) connection.socket.close();
+    }
+
+    /**
+     * @return  the number of connections that have not been closed yet
+     */
+    int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * @return  the number of queries of the function read on all connections, the handshake included
+     */
+    int getReceived(@Nonnull MilliDBQuery.Function function) {
+        AtomicInteger count = received.get(function);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return  the queries of the function read on all connections, the handshake included
+     */
+    @Nonnull
+    List<MilliDBQuery> getReceivedQueries(@Nonnull MilliDBQuery.Function function) {
+        List<MilliDBQuery> queries = receivedQueries.get(function);
+        return queries == null ? Collections.emptyList() : new ArrayList<>(queries);
+    }
+
+    void awaitReceived(@Nonnull MilliDBQuery.Function function, int count) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (getReceived(function) < count) {
+            if (System.nanoTime() > deadline) throw new TimeoutException("Received " + getReceived(function) + " of " + count + " " + function + " queries");
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Sets the value as a client would, pushing the change to the watches
+     */
+    void put(@Nonnull String document, @Nonnull String path, @Nonnull MilliData value) {
+        changeLock.lock();
+        try {
+            values.put(key(document, path), value);
+            MilliMap change = new MilliMap("f", new MilliValue(document)).append("p", new MilliValue(path)).append("o", new MilliValue("s")).append("d", value).append("v", new MilliValue(changes.size() + 1));
+            changes.add(change);
+            for (Map.Entry<Long, Watcher> entry : watchers.entrySet()) {
+                if (!entry.getValue().isWatching(document)) continue;
+                try {
+                    entry.getValue().connection.push(new MilliDBResult(entry.getKey(), true, change));
+                } catch (IOException e) {
+                    watchers.remove(entry.getKey());
+                }
+            }
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    MilliData get(@Nonnull String document, @Nonnull String path) {
+        return values.get(key(document, path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (!closed) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(socket), "MilliDBTestServer-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(@Nonnull Socket socket) {
+        Connection connection = null;
+        try (Socket ignored = socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            connection = new Connection(socket, new BufferedOutputStream(socket.getOutputStream()));
+            connections.add(connection);
+            List<MilliDBQuery> queries = new ArrayList<>();
+            MilliDBQuery query;
+            while ((query = connection.readQuery(in)) != null) {
+                received.computeIfAbsent(query.getFunction(), k -> new AtomicInteger()).incrementAndGet();
+                receivedQueries.computeIfAbsent(query.getFunction(), k -> new CopyOnWriteArrayList<>()).add(query);
+                AtomicInteger drops = dropping.get(query.getFunction());
+                boolean dropped = drops != null && drops.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+                if (!dropped && query.getFunction() == MilliDBQuery.Function.HAS_USER) {
+                    connection.handshake(query);
+                    continue;
+                }
+                if (!dropped) queries.add(query);
+                if (in.available() > 0 && queries.size() < 1024) continue;
+                connection.answer(queries);
+                queries.clear();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (connection != null) connections.remove(connection);
+        }
+    }
+
+    private MilliDBCodec pick(@Nonnull MilliMap handshake) {
+        for (MilliDBCodec codec : codecs) if (offers(handshake, "codecs", codec.getName())) return codec;
+        return null;
+    }
+
+    private static boolean offers(@Nonnull MilliMap handshake, @Nonnull String key, @Nonnull String name) {
+        for (MilliData offered : handshake.get(key).asMilliList(new MilliList())) if (offered.asMilliValue(new MilliValue()).asString().equals(name)) return true;
+        return false;
+    }
+
+    @Nonnull
+    private MilliDBResult execute(@Nonnull MilliDBQuery query) {
+        MilliData metadata = query.getMetadata();
+        switch (query.getFunction()) {
+            case NONE:
+            case GET_COLLECTION:
+            case GET_DOCUMENT:
+                return new MilliDBResult(query.getID(), true, new MilliValue(true));
+            case GET:
+                return new MilliDBResult(query.getID(), true, values.getOrDefault(key(query.getPath(), metadata.asMilliValue(new MilliValue()).asString()), MilliNull.INSTANCE));
+            case SET: {
+                MilliMap set = metadata.asMilliMap(new MilliMap());
+                put(query.getPath(), set.get("p").asMilliValue(new MilliValue()).asString(), set.get("v"));
+                return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+            }
+            case DELETE: {
+                String prefix = query.getPath() + "/";
+                values.keySet().removeIf(key -> key.startsWith(query.getPath() + '\u0000') || key.startsWith(prefix));
+                return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+            }
+            case UNWATCH:
+                watchers.remove(metadata.asMilliValue(new MilliValue()).asInteger64());
+                return new MilliDBResult(query.getID(), true, MilliNull.INSTANCE);
+            case BATCH: {
+                MilliList results = new MilliList();
+                for (MilliData subQuery : metadata.asMilliList(new MilliList())) {
+                    try {
+                        results.append(execute(MilliDBQuery.Parser.parse(subQuery.asMilliMap(new MilliMap()))).toMilliMap());
+                    } catch (MilliDBQueryParsedException e) {
+                        return MilliDBResult.failedResult(query.getID());
+                    }
+                }
+                return new MilliDBResult(query.getID(), true, results);
+            }
+            default:
+                return MilliDBResult.failedResult(query.getID());
+        }
+    }
+
+    private final class Connection {
+        @Nonnull
+        private final Socket socket;
+        @Nonnull
+        private final OutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final List<MilliDBQuery> held = new ArrayList<>();
+        /**
+         * Changed by the reading thread only, after the result of the handshake
+         */
+        private volatile MilliDBCodec codec = MilliDBCodec.TEXT;
+        private volatile MilliDBFrameCompressor compressor;
+
+        private Connection(@Nonnull Socket socket, @Nonnull OutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        private MilliDBQuery readQuery(@Nonnull InputStream in) throws IOException {
+            if (compressor == null) return codec.readQuery(in);
+            ByteArrayOutputStream wrapped = new ByteArrayOutputStream();
+            int length = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.read();
+                if (b < 0) return null;
+                wrapped.write(b);
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            byte[] body = new byte[length];
+            for (int read = 0; read < length; ) {
+                int n = in.read(body, read, length - read);
+                if (n < 0) return null;
+                read += n;
+            }
+            wrapped.write(body);
+            byte[] bytes = wrapped.toByteArray();
+            ByteBuffer frame = compressor.unwrap(bytes, 0, bytes.length);
+            return codec.readQuery(new ByteArrayInputStream(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining()));
+        }
+
+        private void writeResult(@Nonnull MilliDBResult result) throws IOException {
+            if (compressor == null) {
+                codec.writeResult(result, out);
+                return;
+            }
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write(new byte[MilliDBFrameCompressor.HEADROOM]);
+            codec.writeResult(result, frame);
+            byte[] bytes = frame.toByteArray();
+            ByteBuffer wrapped = compressor.wrap(bytes, MilliDBFrameCompressor.HEADROOM, bytes.length - MilliDBFrameCompressor.HEADROOM);
+            out.write(wrapped.array(), wrapped.arrayOffset() + wrapped.position(), wrapped.remaining());
+        }
+
+        private void handshake(@Nonnull MilliDBQuery query) throws IOException {
+            MilliMap handshake = query.getMetadata().asMilliMap(new MilliMap());
+            MilliDBCodec picked = pick(handshake);
+            MilliDBCompression compression = MilliDBTestServer.this.compression;
+            boolean compressed = compression != null && offers(handshake, "compressions", compression.getName());
+            MilliData verification = new MilliValue(true);
+            if (picked != null || compressed) {
+                MilliMap negotiated = new MilliMap("v", verification).append("c", new MilliValue(picked == null ? MilliDBCodec.TEXT.getName() : picked.getName()));
+                if (compressed) negotiated.append("z", new MilliValue(compression.getName()));
+                verification = negotiated;
+            }
+            writeLock.lock();
+            try {
+                codec.writeResult(new MilliDBResult(query.getID(), true, verification), out);
+                out.flush();
+                if (picked != null) codec = picked;
+                if (compressed) compressor = new MilliDBFrameCompressor(compression, handshake.get("compression_threshold").asMilliValue().asInteger32(), MilliDBMetrics.NONE);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void answer(@Nonnull List<MilliDBQuery> queries) throws IOException {
+            changeLock.lock();
+            writeLock.lock();
+            try {
+                if (holding) {
+                    held.addAll(queries);
+                    return;
+                }
+                write(queries);
+            } finally {
+                writeLock.unlock();
+                changeLock.unlock();
+            }
+        }
+
+        private void release() throws IOException {
+            changeLock.lock();
+            writeLock.lock();
+            try {
+                write(held);
+                held.clear();
+            } finally {
+                writeLock.unlock();
+                changeLock.unlock();
+            }
+        }
+
+        private void push(@Nonnull MilliDBResult result) throws IOException {
+            writeLock.lock();
+            try {
+                writeResult(result);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void write(@Nonnull List<MilliDBQuery> queries) throws IOException {
+            if (reordering) {
+                for (int i = queries.size() - 1; i >= 0; i--) write(queries.get(i));
+            } else {
+                for (MilliDBQuery query : queries) write(query);
+            }
+            out.flush();
+        }
+
+        /**
+         * Answers a watch with the current version, followed by the changes after the version it resumes from
+         */
+        private void write(@Nonnull MilliDBQuery query) throws IOException {
+            if (query.getFunction() != MilliDBQuery.Function.WATCH) {
+                writeResult(execute(query));
+                return;
+            }
+            writeResult(new MilliDBResult(query.getID(), true, new MilliMap("v", new MilliValue(changes.size()))));
+            Watcher watcher = new Watcher(this, query.getPath());
+            MilliData from = query.getMetadata().asMilliMap(new MilliMap()).get("v");
+            if (from != null && from.isMilliValue()) {
+                for (MilliMap change : changes.subList((int) from.asMilliValue().asInteger64(), changes.size())) {
+                    if (watcher.isWatching(change.get("f").asMilliValue().asString())) writeResult(new MilliDBResult(query.getID(), true, change));
+                }
+            }
+            watchers.put(query.getID(), watcher);
+        }
+    }
+
+    private static final class Watcher {
+        @Nonnull
+        private final Connection connection;
+        @Nonnull
+        private final String path;
+
+        private Watcher(@Nonnull Connection connection, @Nonnull String path) {
+            this.connection = connection;
+            this.path = path;
+        }
+
+        private boolean isWatching(@Nonnull String document) {
+            return path.isEmpty() || document.equals(path) || document.startsWith(path + "/");
+        }
+    }
+
+    @Nonnull
+    private static String key(@Nonnull String document, @Nonnull String path) {
+        return document + '\u0000' + path;
+    }
+}
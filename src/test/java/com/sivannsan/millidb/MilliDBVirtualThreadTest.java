@@ -0,0 +1,84 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the blocking client on virtual threads, which are only there on JDK 21 and later, so they are made by reflection.
+ * On an older JDK it is skipped, unless millidb.virtualThreads is "required", as the virtual-threads profile sets it.
+ */
+class MilliDBVirtualThreadTest {
+    private static final int THREADS = 100_000;
+    private static final String DOCUMENT = "stress.mll";
+
+    @Test
+    void everyVirtualThreadGetsTheResultOfItsOwnQuery() throws Exception {
+        if (System.getProperty("millidb.virtualThreads", "").equals("required")) assertTrue(Runtime.version().feature() >= 21, "Virtual threads need JDK 21");
+        assumeTrue(Runtime.version().feature() >= 21, "Virtual threads need JDK 21");
+        try (MilliDBTestServer server = new MilliDBTestServer(MilliDBCodec.BINARY).setReordering(true); Recording recording = new Recording()) {
+            for (int i = 0; i < THREADS; i++) server.put(DOCUMENT, "k" + i, new MilliValue("v" + i));
+            //Parking while pinned to the carrier thread, for any length of time
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            //The queries all queue up on one connection, so an attempt must not time out before its turn comes
+            MilliDBClients.ConnectionConfig config = new MilliDBClients.ConnectionConfig()
+                    .setThreadFactory(virtualThreadFactory())
+                    .setRetryPolicy(MilliDBRetryPolicy.none().setDeadlineMillis(120_000).setAttemptTimeoutMillis(120_000));
+            MilliDBClient client = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", config);
+            assertNotNull(client);
+            MilliDBDocument document = client.getDocument(DOCUMENT);
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            List<Future<MilliData>> results = new ArrayList<>(THREADS);
+            try {
+                for (int i = 0; i < THREADS; i++) {
+                    String path = "k" + i;
+                    results.add(executor.submit(() -> document.get(path)));
+                }
+                for (int i = 0; i < THREADS; i++) assertEquals("v" + i, results.get(i).get(120, TimeUnit.SECONDS).asMilliValue().asString());
+            } finally {
+                executor.shutdownNow();
+                client.close();
+            }
+            recording.stop();
+            Path dump = Files.createTempFile("millidb-pinned", ".jfr");
+            try {
+                recording.dump(dump);
+                for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                    if (!event.getEventType().getName().equals("jdk.VirtualThreadPinned") || event.getStackTrace() == null) continue;
+                    for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                        assertFalse(frame.getMethod().getType().getName().startsWith("com.sivannsan.millidb."), () -> "A virtual thread was pinned at " + frame.getMethod().getType().getName() + "#" + frame.getMethod().getName());
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(dump);
+            }
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        return (ExecutorService) Class.forName("java.util.concurrent.Executors").getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    private static ThreadFactory virtualThreadFactory() throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    }
+}
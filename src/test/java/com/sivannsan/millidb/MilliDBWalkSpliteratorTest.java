@@ -0,0 +1,171 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.foundation.annotation.Nonnull;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBWalkSpliteratorTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+    /**
+     * The paths of the collections listed by the walk under test, in the order they were sent
+     */
+    private final List<String> listed = new CopyOnWriteArrayList<>();
+    /**
+     * The path of the collection whose listing fails, if any
+     */
+    private String failing;
+
+    @BeforeEach
+    void setUp() {
+        MilliDBCollection root = client.getCollection("walked");
+        root.getDocument("a.mll").set("n", new MilliValue(1));
+        root.getCollection("b").getDocument("c.mll").set("n", new MilliValue(2));
+        root.getCollection("b").getCollection("d").getDocument("e.mll").set("n", new MilliValue(3));
+        root.getCollection("f").getDocument("g.mll");
+        root.getCollection("h");
+        for (int i = 0; i < 4; i++) root.getCollection("i").getCollection("j" + i).getDocument("k.mll");
+    }
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void subtreeIsWalkedLevelByLevel() {
+        List<String> expected = List.of(
+                "walked/a.mll", "walked/b", "walked/f", "walked/h", "walked/i",
+                "walked/b/c.mll", "walked/b/d",
+                "walked/f/g.mll",
+                "walked/i/j0", "walked/i/j1", "walked/i/j2", "walked/i/j3",
+                "walked/b/d/e.mll",
+                "walked/i/j0/k.mll", "walked/i/j1/k.mll", "walked/i/j2/k.mll", "walked/i/j3/k.mll");
+        assertEquals(expected, paths(walk(null, 1)));
+        assertEquals(expected, paths(walk(null, 8)));
+        assertEquals(expected, client.getCollection("walked").walk(null, 3).map(MilliDBFile::getPath).collect(Collectors.toList()));
+        //Each of the ten collections once per recorded walk
+        assertEquals(20, listed.size());
+    }
+
+    @Test
+    void filterKeepsTheDocumentsButWalksAllCollections() {
+        MilliDBFilter filter = MilliDBFilter.exists("n");
+        assertEquals(List.of("walked/a.mll", "walked/b/c.mll", "walked/b/d/e.mll"), paths(walk(filter, 2)));
+        //Each collection is listed with and without the filter
+        assertEquals(20, listed.size());
+        assertEquals(List.of(), paths(walkFrom("walked/h", filter, 2)));
+    }
+
+    @Test
+    void splitsShareTheSubtreeWithoutOverlap() {
+        Spliterator<MilliDBFile> walk = walk(null, 2);
+        Spliterator<MilliDBFile> split = walk.trySplit();
+        assertNotNull(split);
+        //The files of the root stay, and the last two of its four child collections are given away
+        List<String> kept = paths(walk);
+        List<String> given = paths(split);
+        assertEquals(List.of("walked/a.mll", "walked/b", "walked/f", "walked/h", "walked/i", "walked/b/c.mll", "walked/b/d", "walked/f/g.mll", "walked/b/d/e.mll"), kept);
+        assertEquals(List.of("walked/i/j0", "walked/i/j1", "walked/i/j2", "walked/i/j3", "walked/i/j0/k.mll", "walked/i/j1/k.mll", "walked/i/j2/k.mll", "walked/i/j3/k.mll"), given);
+        Set<String> all = new HashSet<>(paths(walk(null, 2)));
+        assertEquals(all, client.getCollection("walked").walk(null, 4).parallel().map(MilliDBFile::getPath).collect(Collectors.toSet()));
+        assertEquals(all.size(), client.getCollection("walked").walk(null, 4).parallel().count());
+    }
+
+    @Test
+    void walkWithoutChildCollectionsDoesNotSplit() {
+        Spliterator<MilliDBFile> walk = walkFrom("walked/b/d", null, 2);
+        assertNull(walk.trySplit());
+        assertEquals(List.of("walked/b/d/e.mll"), paths(walk));
+        assertNull(walk.trySplit());
+    }
+
+    @Test
+    void characteristics() {
+        Spliterator<MilliDBFile> walk = walk(null, 2);
+        assertEquals(Spliterator.NONNULL, walk.characteristics());
+        assertEquals(Long.MAX_VALUE, walk.estimateSize());
+        assertEquals(-1, walk.getExactSizeIfKnown());
+        //Nothing is listed until the walk is advanced or split
+        assertEquals(List.of(), listed);
+        assertThrows(IllegalArgumentException.class, () -> new MilliDBWalkSpliterator(client.getCollection("walked"), null, 0));
+    }
+
+    @Test
+    void stoppingEarlyDoesNotWalkDeeper() {
+        assertEquals("walked/a.mll", StreamSupport.stream(walk(null, 1), false).findFirst().orElseThrow().getPath());
+        //The root, and the listings sent ahead of its child collections at most, which completed at once here
+        Set<String> children = Set.of("walked", "walked/b", "walked/f", "walked/h", "walked/i");
+        assertTrue(children.containsAll(listed), listed.toString());
+        listed.clear();
+        assertEquals(List.of("walked/a.mll", "walked/b"), StreamSupport.stream(walk(null, 3), false).limit(2).map(MilliDBFile::getPath).collect(Collectors.toList()));
+        assertTrue(children.containsAll(listed), listed.toString());
+    }
+
+    @Test
+    void failedListingFailsTheWalk() {
+        failing = "walked/b/d";
+        Spliterator<MilliDBFile> walk = walk(null, 2);
+        List<String> paths = new ArrayList<>();
+        assertThrows(MilliDBResultFailedException.class, () -> walk.forEachRemaining(file -> paths.add(file.getPath())));
+        assertTrue(paths.contains("walked/i/j3"), paths.toString());
+        assertFalse(paths.contains("walked/b/d/e.mll"));
+    }
+
+    @Nonnull
+    private Spliterator<MilliDBFile> walk(MilliDBFilter filter, int parallelism) {
+        return walkFrom("walked", filter, parallelism);
+    }
+
+    @Nonnull
+    private Spliterator<MilliDBFile> walkFrom(@Nonnull String path, MilliDBFilter filter, int parallelism) {
+        MilliDBCollection collection = client.getCollection("walked");
+        for (String name : path.split("/")) if (!name.equals("walked")) collection = collection.getCollection(name);
+        return new MilliDBWalkSpliterator(recorded(collection), filter, parallelism);
+    }
+
+    /**
+     * @return  the collection, with its listings recorded, and those of the collections listed in it too
+     */
+    @Nonnull
+    private MilliDBCollection recorded(@Nonnull MilliDBCollection collection) {
+        return (MilliDBCollection) Proxy.newProxyInstance(MilliDBCollection.class.getClassLoader(), new Class<?>[]{MilliDBCollection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getFilesAsync")) {
+                listed.add(collection.getPath());
+                if (collection.getPath().equals(failing)) return CompletableFuture.failedFuture(new MilliDBResultFailedException());
+                return collection.getFilesAsync((MilliDBFilter) args[0]).thenApply(files -> {
+                    List<MilliDBFile> recorded = new ArrayList<>();
+                    for (MilliDBFile file : files) recorded.add(file instanceof MilliDBCollection ? recorded((MilliDBCollection) file) : file);
+                    return recorded;
+                });
+            }
+            try {
+                return method.invoke(collection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @Nonnull
+    private static List<String> paths(@Nonnull Spliterator<MilliDBFile> walk) {
+        List<String> paths = new ArrayList<>();
+        walk.forEachRemaining(file -> paths.add(file.getPath()));
+        return paths;
+    }
+}
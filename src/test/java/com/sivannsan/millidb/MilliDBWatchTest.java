@@ -0,0 +1,159 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Watches of the embedded engine, which pushes its changes as a server does, and of the test server across a lost connection
+ */
+class MilliDBWatchTest {
+    private final MilliDBClient client = MilliDBClients.embedded();
+    private final BlockingQueue<MilliDBChange> changes = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void changesArriveOneAtATimeInTheOrderOfTheirVersions() throws Exception {
+        MilliDBDocument document = client.getCollection("ordered").getDocument("d.mll");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlapping = new AtomicInteger();
+        MilliDBWatch watch = client.watch("ordered", change -> {
+            if (running.incrementAndGet() > 1) overlapping.incrementAndGet();
+            changes.add(change);
+            running.decrementAndGet();
+        });
+        for (int i = 0; i < 1000; i++) document.set("k", new MilliValue(i));
+        long version = 0;
+        for (int i = 0; i < 1000; i++) {
+            MilliDBChange change = next();
+            assertEquals(MilliDBChange.Type.SET, change.getType());
+            assertEquals("ordered/d.mll", change.getFilePath());
+            assertEquals("k", change.getPath());
+            assertEquals(String.valueOf(i), change.getValue().asMilliValue().asString());
+            assertTrue(change.getVersion() > version);
+            version = change.getVersion();
+        }
+        assertEquals(0, overlapping.get());
+        assertEquals(version, watch.getVersion());
+    }
+
+    @Test
+    void onlyTheChangesUnderThePathAreSeen() throws Exception {
+        MilliDBCollection a = client.getCollection("a");
+        MilliDBDocument watched = a.getDocument("d.mll");
+        MilliDBDocument other = client.getCollection("b").getDocument("d.mll");
+        client.watch("a/d.mll", changes::add);
+        other.set("k", new MilliValue(1));
+        watched.set("k", new MilliValue(2));
+        assertEquals("a/d.mll", next().getFilePath());
+        //The delete of a collection above is a change of the watched file too
+        a.delete();
+        MilliDBChange deleted = next();
+        assertEquals(MilliDBChange.Type.DELETE, deleted.getType());
+        assertEquals("a", deleted.getFilePath());
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void closedWatchGetsNoMoreChanges() throws Exception {
+        MilliDBDocument document = client.getDocument("closed.mll");
+        MilliDBWatch watch = client.watch("closed.mll", changes::add);
+        document.set("k", new MilliValue(1));
+        next();
+        watch.close();
+        assertFalse(watch.isActive());
+        document.set("k", new MilliValue(2));
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void watchResumesAfterTheVersionOfAnEarlierOne() throws Exception {
+        MilliDBDocument document = client.getDocument("resumed.mll");
+        MilliDBWatch first = client.watch("resumed.mll", changes::add);
+        for (int i = 0; i < 3; i++) document.set("k", new MilliValue(i));
+        for (int i = 0; i < 3; i++) next();
+        first.close();
+        long version = first.getVersion();
+        for (int i = 3; i < 5; i++) document.set("k", new MilliValue(i));
+        client.watch("resumed.mll", version, changes::add);
+        assertEquals("3", next().getValue().asMilliValue().asString());
+        assertEquals("4", next().getValue().asMilliValue().asString());
+        document.set("k", new MilliValue(5));
+        assertEquals("5", next().getValue().asMilliValue().asString());
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void watchResumingFromAForgottenVersionIsReset() throws Exception {
+        MilliDBDocument document = client.getDocument("forgotten.mll");
+        document.set("k", new MilliValue(0));
+        for (int i = 1; i <= 5000; i++) document.set("k", new MilliValue(i));
+        client.watch("forgotten.mll", 1, changes::add);
+        MilliDBChange reset = next();
+        assertEquals(MilliDBChange.Type.RESET, reset.getType());
+        document.set("k", new MilliValue(5001));
+        MilliDBChange change = next();
+        assertEquals("5001", change.getValue().asMilliValue().asString());
+        assertEquals(reset.getVersion() + 1, change.getVersion());
+    }
+
+    @Test
+    void listenerMayUseTheClient() throws Exception {
+        MilliDBDocument document = client.getDocument("reentrant.mll");
+        BlockingQueue<String> read = new LinkedBlockingQueue<>();
+        client.watch("reentrant.mll", change -> read.add(document.get("k").asMilliValue().asString()));
+        document.set("k", new MilliValue("v"));
+        assertEquals("v", read.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void watchStopsWhenTheClientIsClosed() throws Exception {
+        MilliDBWatch watch = client.watch("", changes::add);
+        assertTrue(watch.isActive());
+        client.close();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (watch.isActive() && System.nanoTime() < deadline) Thread.sleep(1);
+        assertFalse(watch.isActive());
+    }
+
+    @Test
+    void watchResumesFromItsVersionAfterTheConnectionIsLost() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer(MilliDBCodec.BINARY)) {
+            MilliDBClient remote = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig());
+            assertNotNull(remote);
+            MilliDBWatch watch = remote.watch("lost", changes::add);
+            MilliDBDocument document = remote.getCollection("lost").getDocument("d.mll");
+            document.set("k", new MilliValue(1));
+            assertEquals("1", next().getValue().asMilliValue().asString());
+            server.disconnect();
+            //Missed while the watch is not subscribed
+            server.put("lost/d.mll", "k", new MilliValue(2));
+            server.put("lost/d.mll", "k", new MilliValue(3));
+            assertEquals("2", next().getValue().asMilliValue().asString());
+            assertEquals("3", next().getValue().asMilliValue().asString());
+            document.set("k", new MilliValue(4));
+            assertEquals("4", next().getValue().asMilliValue().asString());
+            assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(4, watch.getVersion());
+            assertTrue(watch.isActive());
+            remote.close();
+        }
+    }
+
+    private MilliDBChange next() throws InterruptedException {
+        MilliDBChange change = changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(change);
+        return change;
+    }
+}
@@ -0,0 +1,142 @@
+package com.sivannsan.millidb;
+
+import com.sivannsan.millidata.MilliData;
+import com.sivannsan.millidata.MilliValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MilliDBWriteBufferTest {
+    /**
+     * Long enough that only the number of entries or a flush sends the buffer
+     */
+    private static final long NEVER = 60_000;
+
+    @Test
+    void laterSetsReplaceTheBufferedSetsOfTheirPath() throws Exception {
+        MilliDBClient base = MilliDBClients.embedded();
+        MilliDBWriteBuffer buffer = new MilliDBWriteBuffer(100, 100, NEVER);
+        MilliDBDocument document = MilliDBClients.withWriteBuffer(base, buffer).getDocument("coalesced.mll");
+        List<CompletableFuture<Void>> sets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) sets.add(document.setAsync("k", new MilliValue(i)));
+        sets.add(document.setAsync("m.a", new MilliValue("a")));
+        sets.add(document.setAsync("m.b", new MilliValue("b")));
+        sets.add(document.setAsync("m", new MilliValue("m")));
+        sets.add(document.setAsync("mm", new MilliValue("mm")));
+        assertEquals(3, buffer.getSize());
+        //Not seen before they are sent
+        assertTrue(base.getDocument("coalesced.mll").get("k").isMilliNull());
+        buffer.flush();
+        for (CompletableFuture<Void> set : sets) assertTrue(set.isDone() && !set.isCompletedExceptionally());
+        assertEquals(14, buffer.getSets());
+        assertEquals(11, buffer.getCoalesced());
+        assertEquals(1, buffer.getFlushes());
+        MilliDBDocument sent = base.getDocument("coalesced.mll");
+        assertEquals("9", sent.get("k").asMilliValue().asString());
+        assertEquals("m", sent.get("m").asMilliValue().asString());
+        assertEquals("mm", sent.get("mm").asMilliValue().asString());
+        base.close();
+    }
+
+    @Test
+    void bufferIsSentWhenItHasFlushEntriesOrAfterTheDelay() throws Exception {
+        MilliDBClient base = MilliDBClients.embedded();
+        MilliDBDocument full = MilliDBClients.withWriteBuffer(base, new MilliDBWriteBuffer(3, 3, NEVER)).getDocument("full.mll");
+        full.setAsync("a", new MilliValue(1));
+        full.setAsync("b", new MilliValue(2));
+        full.setAsync("c", new MilliValue(3)).get(5, TimeUnit.SECONDS);
+        MilliDBWriteBuffer delayed = new MilliDBWriteBuffer(100, 100, 50);
+        MilliDBClients.withWriteBuffer(base, delayed).getDocument("delayed.mll").setAsync("a", new MilliValue(1)).get(5, TimeUnit.SECONDS);
+        assertEquals(0, delayed.getSize());
+        base.close();
+    }
+
+    @Test
+    void otherWritesAreSentAfterTheBufferedSets() {
+        MilliDBClient client = MilliDBClients.withWriteBuffer(MilliDBClients.embedded(), new MilliDBWriteBuffer(100, 100, NEVER));
+        MilliDBDocument document = client.getDocument("ordered.mll");
+        document.set("n", new MilliValue(5));
+        assertEquals(6, document.increment("n", 1));
+        client.close();
+    }
+
+    @Test
+    void failedSetFailsItsFlushOnly() {
+        List<String> failed = new ArrayList<>();
+        MilliDBWriteBuffer buffer = new MilliDBWriteBuffer(100, 100, NEVER).setFailureListener((documentPath, path, value) -> failed.add(documentPath + "#" + path));
+        MilliDBDocument document = MilliDBClients.withWriteBuffer(MilliDBClients.embedded(), buffer).getDocument("failed.mll");
+        document.set("s", new MilliValue("text"));
+        buffer.flush();
+        //A path through a value that is not a map cannot be set
+        CompletableFuture<Void> bad = document.setAsync("s.q", new MilliValue(1));
+        CompletableFuture<Void> good = document.setAsync("t", new MilliValue(1));
+        assertThrows(MilliDBResultFailedException.class, buffer::flush);
+        assertInstanceOf(MilliDBResultFailedException.class, assertThrows(ExecutionException.class, bad::get).getCause());
+        assertDoesNotThrow(() -> good.get());
+        assertEquals(List.of("failed.mll#s.q"), failed);
+        assertEquals(1, buffer.getFailures());
+        //Reported once, so it does not fail the flushes after it
+        buffer.flush();
+        document.set("u", new MilliValue(1));
+        buffer.flush();
+    }
+
+    @Test
+    void setInTheCompletionOfAnotherDoesNotWaitForItself() throws Exception {
+        MilliDBWriteBuffer buffer = new MilliDBWriteBuffer(2, 2, NEVER);
+        MilliDBDocument document = MilliDBClients.withWriteBuffer(MilliDBClients.embedded(), buffer).getDocument("chained.mll");
+        CompletableFuture<Void> chained = new CompletableFuture<>();
+        document.setAsync("a", new MilliValue(1)).thenRun(() -> {
+            document.set("b", new MilliValue(2));
+            chained.complete(null);
+        });
+        //Fills the buffer, so that the batch of both is sent and the chained set needs the room it gives back.
+        //Off the test thread, which the embedded engine would run the chained set on.
+        CompletableFuture.runAsync(() -> document.setAsync("c", new MilliValue(3)));
+        chained.get(5, TimeUnit.SECONDS);
+        buffer.flush();
+    }
+
+    @Test
+    void setOfANewPathWaitsForRoom() throws Exception {
+        try (MilliDBTestServer server = new MilliDBTestServer()) {
+            MilliDBClient base = MilliDBClients.connect(server.getHost(), server.getPort(), "user", "password", new MilliDBClients.ConnectionConfig());
+            assertNotNull(base);
+            MilliDBWriteBuffer buffer = new MilliDBWriteBuffer(1, 1, NEVER);
+            MilliDBDocument document = MilliDBClients.withWriteBuffer(base, buffer).getDocument("full.mll");
+            server.hold();
+            CompletableFuture<Void> first = document.setAsync("a", new MilliValue(1));
+            server.awaitReceived(MilliDBQuery.Function.BATCH, 1);
+            CompletableFuture<CompletableFuture<Void>> second = CompletableFuture.supplyAsync(() -> document.setAsync("b", new MilliValue(2)));
+            Thread.sleep(100);
+            assertFalse(second.isDone());
+            server.release();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            MilliData sent = server.get("full.mll", "b");
+            assertNotNull(sent);
+            assertEquals("2", sent.asMilliValue().asString());
+            base.close();
+        }
+    }
+
+    @Test
+    void closedBufferSendsItsSetsAndRejectsNewOnes() {
+        MilliDBClient base = MilliDBClients.embedded();
+        MilliDBWriteBuffer buffer = new MilliDBWriteBuffer(100, 100, NEVER);
+        MilliDBClient client = MilliDBClients.withWriteBuffer(base, buffer);
+        MilliDBDocument document = client.getDocument("closed.mll");
+        document.set("k", new MilliValue(1));
+        buffer.close();
+        assertEquals("1", base.getDocument("closed.mll").get("k").asMilliValue().asString());
+        assertThrows(IllegalStateException.class, () -> document.set("k", new MilliValue(2)));
+        assertThrows(IllegalStateException.class, () -> MilliDBClients.withWriteBuffer(base, buffer));
+        base.close();
+    }
+}